@@ -0,0 +1,81 @@
+package com.towergames.towerlib;
+
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BVHBenchmark {
+    @Param({"1000", "10000"})
+    public int count;
+    private Vector3f[] mins, maxs;
+    private BVH<Integer> incremental, rebuilt;
+    private final FrustumIntersection frustum = new FrustumIntersection();
+    private final Vector3f origin = new Vector3f(-120.0f, 3.0f, 7.0f), direction = new Vector3f(1.0f, 0.05f, -0.02f).normalize();
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        mins = new Vector3f[count];
+        maxs = new Vector3f[count];
+        for (int i = 0; i < count; i++) {
+            mins[i] = new Vector3f(random.nextFloat() * 200.0f - 100.0f, random.nextFloat() * 20.0f, random.nextFloat() * 200.0f - 100.0f);
+            maxs[i] = new Vector3f(random.nextFloat(), random.nextFloat(), random.nextFloat()).mul(4.0f).add(mins[i]);
+        }
+        incremental = build();
+        rebuilt = build();
+        rebuilt.rebuild();
+        frustum.set(new Matrix4f().setPerspective((float) java.lang.Math.toRadians(60.0f), 16.0f / 9.0f, 0.1f, 150.0f)
+                .lookAt(0.0f, 30.0f, -110.0f, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f), false);
+    }
+
+    private BVH<Integer> build() {
+        BVH<Integer> bvh = new BVH<>();
+        for (int i = 0; i < count; i++) {
+            bvh.add(i, mins[i], maxs[i]);
+        }
+        return bvh;
+    }
+
+    @Benchmark
+    public BVH<Integer> buildIncremental() {
+        return build();
+    }
+
+    @Benchmark
+    public BVH<Integer> buildSAH() {
+        BVH<Integer> bvh = build();
+        bvh.rebuild();
+        return bvh;
+    }
+
+    @Benchmark
+    public void queryFrustumIncremental(Blackhole blackhole) {
+        incremental.queryFrustum(frustum, blackhole::consume);
+    }
+
+    @Benchmark
+    public void queryFrustumSAH(Blackhole blackhole) {
+        rebuilt.queryFrustum(frustum, blackhole::consume);
+    }
+
+    @Benchmark
+    public Object raycastIncremental() {
+        return incremental.raycast(origin, direction, Float.POSITIVE_INFINITY);
+    }
+
+    @Benchmark
+    public Object raycastSAH() {
+        return rebuilt.raycast(origin, direction, Float.POSITIVE_INFINITY);
+    }
+}
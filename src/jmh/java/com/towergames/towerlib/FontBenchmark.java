@@ -0,0 +1,34 @@
+package com.towergames.towerlib;
+
+import org.joml.Vector4f;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FontBenchmark {
+    //DejaVu Sans Mono is checked in under src/jmh/resources, -p font=<resource> on the jmh jar measures another one.
+    @Param("fonts/DejaVuSansMono.ttf")
+    public String font;
+    private FontManager.Font f;
+    private final Vector4f color = new Vector4f(1.0f);
+    private final String[] texts = {"The quick brown fox jumps over the lazy dog. ", "0123456789 FPS: 60 Draws: 128 ",
+            "Sphinx of black quartz, judge my vow. ", "Pack my box with five dozen liquor jugs."};
+
+    @Setup
+    public void setup() {
+        f = HeadlessGame.start().getFontManager().loadFont(font);
+        //Rasterize the glyphs up front, the benchmark measures vertex generation.
+        f.renderText(0.0f, 0.0f, 16, 0.0f, color, texts);
+    }
+
+    @Benchmark
+    public float renderText() {
+        return f.renderText(0.0f, 0.0f, 16, 240.0f, color, texts);
+    }
+}
\ No newline at end of file
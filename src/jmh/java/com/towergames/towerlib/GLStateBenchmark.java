@@ -0,0 +1,43 @@
+package com.towergames.towerlib;
+
+import org.lwjgl.opengl.GL11;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GLStateBenchmark {
+    private GLHandler gl;
+
+    @Setup
+    public void setup() {
+        gl = HeadlessGame.start().getGlHandler();
+    }
+
+    @Benchmark
+    public void pushPop() {
+        gl.pushStack();
+        gl.popStack();
+    }
+
+    //What a UI pass does around its draws.
+    @Benchmark
+    public void pushChangePop() {
+        gl.pushStack();
+        gl.getState().depthTest(false).blend(true).blendFunc(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA).scissorTest(true).scissor(0, 0, 64, 64);
+        gl.popStack();
+    }
+
+    @Benchmark
+    public void pushPopMVP() {
+        GLHandler.GLState state = gl.getState();
+        state.pushMVP();
+        state.model.translate(1.0f, 0.0f, 0.0f);
+        state.popMVP();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,35 @@
+package com.towergames.towerlib;
+
+import org.lwjgl.glfw.GLFW;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyBindingBenchmark {
+    @Param({"8", "64"})
+    public int bindings;
+    private KeyBindingManager manager;
+    private int key;
+
+    @Setup
+    public void setup() {
+        manager = new KeyBindingManager(new TowerGame());
+        for (int i = 0; i < bindings; i++) {
+            manager.registerKeyBinding(new KeyBindingManager.KeyBinding("key" + i, GLFW.GLFW_KEY_A + i % 26,
+                    i % 3 == 0 ? GLFW.GLFW_MOD_SHIFT : 0, i % 2 == 0));
+        }
+    }
+
+    @Benchmark
+    public void pressRelease() {
+        key = (key + 1) % 26;
+        manager.onKeyBoardInput(GLFW.GLFW_KEY_A + key, 0, GLFW.GLFW_PRESS, GLFW.GLFW_MOD_SHIFT);
+        manager.onKeyBoardInput(GLFW.GLFW_KEY_A + key, 0, GLFW.GLFW_RELEASE, GLFW.GLFW_MOD_SHIFT);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,83 @@
+package com.towergames.towerlib;
+
+import de.javagl.jgltf.model.AnimationModel;
+import de.javagl.jgltf.model.GltfModel;
+import de.javagl.jgltf.model.io.GltfModelReader;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelBenchmark {
+    private ModelManager.Model model;
+    private ModelManager.Model.Primitive primitive;
+    private AnimationModel.Sampler sampler;
+    private float time;
+
+    //Only catmullClark takes the grid, so interpolation doesn't run once per size with the same input.
+    @State(Scope.Benchmark)
+    public static class Grid {
+        //Quads per side of the subdivided grid.
+        @Param({"8", "32", "64"})
+        public int size;
+        private float[] positions, texcoords;
+        private int[] indices;
+
+        @Setup
+        public void setup() {
+            int points = size + 1;
+            positions = new float[points * points * 3];
+            texcoords = new float[points * points * 2];
+            for (int j = 0; j < points; j++) {
+                for (int i = 0; i < points; i++) {
+                    int v = j * points + i;
+                    positions[v * 3] = (float) i / size;
+                    positions[v * 3 + 2] = (float) j / size;
+                    texcoords[v * 2] = (float) i / size;
+                    texcoords[v * 2 + 1] = (float) j / size;
+                }
+            }
+            indices = new int[size * size * 6];
+            for (int j = 0; j < size; j++) {
+                for (int i = 0; i < size; i++) {
+                    int a = j * points + i, b = a + 1, c = a + points, d = c + 1, o = (j * size + i) * 6;
+                    indices[o] = a;
+                    indices[o + 1] = c;
+                    indices[o + 2] = b;
+                    indices[o + 3] = b;
+                    indices[o + 4] = c;
+                    indices[o + 5] = d;
+                }
+            }
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        HeadlessGame game = HeadlessGame.start();
+        model = game.getModelManager().loadModel("models/grid.gltf");
+        primitive = model.getPrimitives().get(0);
+        GltfModel gltf = new GltfModelReader().read(TowerUtil.getResourcePath("models/grid.gltf"));
+        sampler = gltf.getAnimationModels().get(0).getChannels().get(0).getSampler();
+    }
+
+    @Benchmark
+    public float[] interpolation() {
+        time += 0.013f;
+        if (time > 1.0f) {
+            time -= 1.0f;
+        }
+        return model.interpolation(sampler, time);
+    }
+
+    @Benchmark
+    public Object catmullClark(Grid grid) {
+        return primitive.catmullClark(grid.positions, 3, grid.texcoords, grid.indices);
+    }
+}
\ No newline at end of file
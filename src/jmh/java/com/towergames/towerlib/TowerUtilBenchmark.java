@@ -0,0 +1,29 @@
+package com.towergames.towerlib;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TowerUtilBenchmark {
+    @Benchmark
+    public String readToString() {
+        return TowerUtil.readToString("shaders/pbr.fs");
+    }
+
+    @Benchmark
+    public byte[] readToBytes() {
+        return TowerUtil.readToBytes("textures/uv.png");
+    }
+
+    @Benchmark
+    public ByteBuffer readToBuffer() {
+        return TowerUtil.readToBuffer("textures/uv.png");
+    }
+}
\ No newline at end of file
@@ -0,0 +1,443 @@
+package com.towergames.towerlib;
+
+import org.joml.FrustumIntersection;
+import org.joml.Vector3fc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+//Dynamic AABB tree: leaves are inserted by cheapest area growth and refitted on update, rebuild() builds a binned SAH tree.
+public class BVH<T> {
+    private static final int SAH_BINS = 12;
+    private final List<Leaf> leaves = new ArrayList<>();
+    private Node root;
+    private Node[] stack = new Node[64];
+
+    public Leaf add(T item, Vector3fc min, Vector3fc max) {
+        Leaf leaf = new Leaf(item);
+        leaf.index = leaves.size();
+        leaves.add(leaf);
+        leaf.node.setBounds(min.x(), min.y(), min.z(), max.x(), max.y(), max.z());
+        insert(leaf.node);
+        return leaf;
+    }
+
+    public void update(Leaf leaf, Vector3fc min, Vector3fc max) {
+        leaf.node.setBounds(min.x(), min.y(), min.z(), max.x(), max.y(), max.z());
+        refit(leaf.node.parent);
+    }
+
+    public void remove(Leaf leaf) {
+        if (leaf.index < 0) {
+            return;
+        }
+        Leaf last = leaves.remove(leaves.size() - 1);
+        if (last != leaf) {
+            leaves.set(leaf.index, last);
+            last.index = leaf.index;
+        }
+        leaf.index = -1;
+        Node node = leaf.node;
+        if (node == root) {
+            root = null;
+            return;
+        }
+        Node parent = node.parent;
+        Node sibling = parent.left == node ? parent.right : parent.left;
+        Node grandParent = parent.parent;
+        sibling.parent = grandParent;
+        if (grandParent == null) {
+            root = sibling;
+        } else {
+            if (grandParent.left == parent) {
+                grandParent.left = sibling;
+            } else {
+                grandParent.right = sibling;
+            }
+            refit(grandParent);
+        }
+        node.parent = null;
+    }
+
+    public void clear() {
+        for (Leaf leaf : leaves) {
+            leaf.index = -1;
+            leaf.node.parent = null;
+        }
+        leaves.clear();
+        root = null;
+    }
+
+    public void rebuild() {
+        if (leaves.isEmpty()) {
+            return;
+        }
+        Node[] nodes = new Node[leaves.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = leaves.get(i).node;
+        }
+        root = build(nodes, 0, nodes.length);
+        root.parent = null;
+    }
+
+    public void queryFrustum(FrustumIntersection frustum, Consumer<T> consumer) {
+        if (root == null) {
+            return;
+        }
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            Node node = stack[--top];
+            int r = frustum.intersectAab(node.minX, node.minY, node.minZ, node.maxX, node.maxY, node.maxZ);
+            if (r == FrustumIntersection.INSIDE) {
+                forEachLeaf(node, consumer, top);
+            } else if (r == FrustumIntersection.INTERSECT) {
+                if (node.leaf != null) {
+                    consumer.accept(leafOf(node).item);
+                } else {
+                    top = push(top, node.left, node.right);
+                }
+            }
+        }
+    }
+
+    public void queryRange(Vector3fc min, Vector3fc max, Consumer<T> consumer) {
+        if (root == null) {
+            return;
+        }
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            Node node = stack[--top];
+            if (node.maxX < min.x() || node.minX > max.x() || node.maxY < min.y() || node.minY > max.y() || node.maxZ < min.z() || node.minZ > max.z()) {
+                continue;
+            }
+            if (node.leaf != null) {
+                consumer.accept(leafOf(node).item);
+            } else {
+                top = push(top, node.left, node.right);
+            }
+        }
+    }
+
+    public void querySphere(Vector3fc center, float radius, Consumer<T> consumer) {
+        if (root == null) {
+            return;
+        }
+        float r2 = radius * radius;
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            Node node = stack[--top];
+            float dx = java.lang.Math.max(java.lang.Math.max(node.minX - center.x(), center.x() - node.maxX), 0.0f);
+            float dy = java.lang.Math.max(java.lang.Math.max(node.minY - center.y(), center.y() - node.maxY), 0.0f);
+            float dz = java.lang.Math.max(java.lang.Math.max(node.minZ - center.z(), center.z() - node.maxZ), 0.0f);
+            if (dx * dx + dy * dy + dz * dz > r2) {
+                continue;
+            }
+            if (node.leaf != null) {
+                consumer.accept(leafOf(node).item);
+            } else {
+                top = push(top, node.left, node.right);
+            }
+        }
+    }
+
+    //Nearest leaf whose box is hit by the ray, or null.
+    public Leaf raycast(Vector3fc origin, Vector3fc direction, float maxDistance) {
+        if (root == null) {
+            return null;
+        }
+        float invX = 1.0f / direction.x(), invY = 1.0f / direction.y(), invZ = 1.0f / direction.z();
+        float best = maxDistance;
+        Leaf hit = null;
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            Node node = stack[--top];
+            float t = intersectRay(node, origin, invX, invY, invZ, best);
+            if (t < 0) {
+                continue;
+            }
+            if (node.leaf != null) {
+                best = t;
+                hit = leafOf(node);
+            } else {
+                top = push(top, node.left, node.right);
+            }
+        }
+        return hit;
+    }
+
+    public int size() {
+        return leaves.size();
+    }
+
+    public int getDepth() {
+        return depth(root);
+    }
+
+    private int depth(Node node) {
+        return node == null ? 0 : node.leaf != null ? 1 : 1 + java.lang.Math.max(depth(node.left), depth(node.right));
+    }
+
+    //Entry distance of the ray, -1 if missed or farther than maxDistance.
+    private float intersectRay(Node node, Vector3fc origin, float invX, float invY, float invZ, float maxDistance) {
+        float t1 = (node.minX - origin.x()) * invX, t2 = (node.maxX - origin.x()) * invX;
+        float tMin = java.lang.Math.min(t1, t2), tMax = java.lang.Math.max(t1, t2);
+        t1 = (node.minY - origin.y()) * invY;
+        t2 = (node.maxY - origin.y()) * invY;
+        tMin = java.lang.Math.max(tMin, java.lang.Math.min(t1, t2));
+        tMax = java.lang.Math.min(tMax, java.lang.Math.max(t1, t2));
+        t1 = (node.minZ - origin.z()) * invZ;
+        t2 = (node.maxZ - origin.z()) * invZ;
+        tMin = java.lang.Math.max(tMin, java.lang.Math.min(t1, t2));
+        tMax = java.lang.Math.min(tMax, java.lang.Math.max(t1, t2));
+        if (tMax < java.lang.Math.max(tMin, 0.0f) || tMin > maxDistance) {
+            return -1;
+        }
+        return java.lang.Math.max(tMin, 0.0f);
+    }
+
+    private void forEachLeaf(Node node, Consumer<T> consumer, int top) {
+        int bottom = top;
+        stack[top++] = node;
+        while (top > bottom) {
+            Node n = stack[--top];
+            if (n.leaf != null) {
+                consumer.accept(leafOf(n).item);
+            } else {
+                top = push(top, n.left, n.right);
+            }
+        }
+    }
+
+    private int push(int top, Node left, Node right) {
+        if (top + 2 > stack.length) {
+            Node[] a = new Node[stack.length * 2];
+            System.arraycopy(stack, 0, a, 0, top);
+            stack = a;
+        }
+        stack[top++] = left;
+        stack[top++] = right;
+        return top;
+    }
+
+    private void insert(Node node) {
+        if (root == null) {
+            root = node;
+            node.parent = null;
+            return;
+        }
+        Node sibling = root;
+        while (sibling.leaf == null) {
+            float area = sibling.area();
+            float combined = unionArea(sibling, node);
+            float cost = 2.0f * combined;
+            float inheritance = 2.0f * (combined - area);
+            float costLeft = unionArea(sibling.left, node) - (sibling.left.leaf == null ? sibling.left.area() : 0.0f) + inheritance;
+            float costRight = unionArea(sibling.right, node) - (sibling.right.leaf == null ? sibling.right.area() : 0.0f) + inheritance;
+            if (cost < costLeft && cost < costRight) {
+                break;
+            }
+            sibling = costLeft < costRight ? sibling.left : sibling.right;
+        }
+        Node oldParent = sibling.parent;
+        Node parent = new Node();
+        parent.parent = oldParent;
+        parent.left = sibling;
+        parent.right = node;
+        sibling.parent = parent;
+        node.parent = parent;
+        if (oldParent == null) {
+            root = parent;
+        } else if (oldParent.left == sibling) {
+            oldParent.left = parent;
+        } else {
+            oldParent.right = parent;
+        }
+        refit(parent);
+    }
+
+    private void refit(Node node) {
+        while (node != null) {
+            node.setUnion(node.left, node.right);
+            node = node.parent;
+        }
+    }
+
+    private Node build(Node[] nodes, int from, int to) {
+        int count = to - from;
+        if (count == 1) {
+            return nodes[from];
+        }
+        float cMinX = Float.POSITIVE_INFINITY, cMinY = Float.POSITIVE_INFINITY, cMinZ = Float.POSITIVE_INFINITY;
+        float cMaxX = Float.NEGATIVE_INFINITY, cMaxY = Float.NEGATIVE_INFINITY, cMaxZ = Float.NEGATIVE_INFINITY;
+        for (int i = from; i < to; i++) {
+            Node n = nodes[i];
+            cMinX = java.lang.Math.min(cMinX, n.centerX());
+            cMinY = java.lang.Math.min(cMinY, n.centerY());
+            cMinZ = java.lang.Math.min(cMinZ, n.centerZ());
+            cMaxX = java.lang.Math.max(cMaxX, n.centerX());
+            cMaxY = java.lang.Math.max(cMaxY, n.centerY());
+            cMaxZ = java.lang.Math.max(cMaxZ, n.centerZ());
+        }
+        float extentX = cMaxX - cMinX, extentY = cMaxY - cMinY, extentZ = cMaxZ - cMinZ;
+        int axis = extentX >= extentY && extentX >= extentZ ? 0 : extentY >= extentZ ? 1 : 2;
+        float cMin = axis == 0 ? cMinX : axis == 1 ? cMinY : cMinZ;
+        float extent = axis == 0 ? extentX : axis == 1 ? extentY : extentZ;
+        int mid = from + count / 2;
+        if (extent > 0.0f) {
+            int[] binCounts = new int[SAH_BINS];
+            Node[] binBounds = new Node[SAH_BINS];
+            for (int i = from; i < to; i++) {
+                int b = bin(nodes[i], axis, cMin, extent);
+                binCounts[b]++;
+                if (binBounds[b] == null) {
+                    binBounds[b] = new Node();
+                    binBounds[b].copyBounds(nodes[i]);
+                } else {
+                    binBounds[b].setUnion(binBounds[b], nodes[i]);
+                }
+            }
+            float[] leftArea = new float[SAH_BINS];
+            int[] leftCount = new int[SAH_BINS];
+            Node acc = new Node();
+            boolean empty = true;
+            int n = 0;
+            for (int i = 0; i < SAH_BINS - 1; i++) {
+                if (binBounds[i] != null) {
+                    if (empty) {
+                        acc.copyBounds(binBounds[i]);
+                        empty = false;
+                    } else {
+                        acc.setUnion(acc, binBounds[i]);
+                    }
+                }
+                n += binCounts[i];
+                leftCount[i] = n;
+                leftArea[i] = empty ? 0.0f : acc.area();
+            }
+            float bestCost = Float.POSITIVE_INFINITY;
+            int bestSplit = -1;
+            empty = true;
+            n = 0;
+            for (int i = SAH_BINS - 1; i > 0; i--) {
+                if (binBounds[i] != null) {
+                    if (empty) {
+                        acc.copyBounds(binBounds[i]);
+                        empty = false;
+                    } else {
+                        acc.setUnion(acc, binBounds[i]);
+                    }
+                }
+                n += binCounts[i];
+                if (n == 0 || leftCount[i - 1] == 0) {
+                    continue;
+                }
+                float cost = leftArea[i - 1] * leftCount[i - 1] + acc.area() * n;
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestSplit = i;
+                }
+            }
+            if (bestSplit > 0) {
+                int i = from, j = to - 1;
+                while (i <= j) {
+                    if (bin(nodes[i], axis, cMin, extent) < bestSplit) {
+                        i++;
+                    } else {
+                        Node t = nodes[i];
+                        nodes[i] = nodes[j];
+                        nodes[j--] = t;
+                    }
+                }
+                if (i > from && i < to) {
+                    mid = i;
+                }
+            }
+        }
+        Node node = new Node();
+        node.left = build(nodes, from, mid);
+        node.right = build(nodes, mid, to);
+        node.left.parent = node;
+        node.right.parent = node;
+        node.setUnion(node.left, node.right);
+        return node;
+    }
+
+    private int bin(Node node, int axis, float min, float extent) {
+        float c = axis == 0 ? node.centerX() : axis == 1 ? node.centerY() : node.centerZ();
+        return java.lang.Math.min((int) ((c - min) / extent * SAH_BINS), SAH_BINS - 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Leaf leafOf(Node node) {
+        return (Leaf) node.leaf;
+    }
+
+    private static float unionArea(Node a, Node b) {
+        float x = java.lang.Math.max(a.maxX, b.maxX) - java.lang.Math.min(a.minX, b.minX);
+        float y = java.lang.Math.max(a.maxY, b.maxY) - java.lang.Math.min(a.minY, b.minY);
+        float z = java.lang.Math.max(a.maxZ, b.maxZ) - java.lang.Math.min(a.minZ, b.minZ);
+        return 2.0f * (x * y + y * z + z * x);
+    }
+
+    public class Leaf {
+        private final T item;
+        private final Node node;
+        private int index;
+
+        private Leaf(T item) {
+            this.item = item;
+            node = new Node();
+            node.leaf = this;
+        }
+
+        public T getItem() {
+            return item;
+        }
+    }
+
+    private static class Node {
+        private float minX, minY, minZ, maxX, maxY, maxZ;
+        private Node parent, left, right;
+        private Object leaf;
+
+        private void setBounds(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+            this.minX = minX;
+            this.minY = minY;
+            this.minZ = minZ;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.maxZ = maxZ;
+        }
+
+        private void copyBounds(Node node) {
+            setBounds(node.minX, node.minY, node.minZ, node.maxX, node.maxY, node.maxZ);
+        }
+
+        private void setUnion(Node a, Node b) {
+            setBounds(java.lang.Math.min(a.minX, b.minX), java.lang.Math.min(a.minY, b.minY), java.lang.Math.min(a.minZ, b.minZ),
+                    java.lang.Math.max(a.maxX, b.maxX), java.lang.Math.max(a.maxY, b.maxY), java.lang.Math.max(a.maxZ, b.maxZ));
+        }
+
+        private float area() {
+            float x = maxX - minX, y = maxY - minY, z = maxZ - minZ;
+            return 2.0f * (x * y + y * z + z * x);
+        }
+
+        private float centerX() {
+            return (minX + maxX) * 0.5f;
+        }
+
+        private float centerY() {
+            return (minY + maxY) * 0.5f;
+        }
+
+        private float centerZ() {
+            return (minZ + maxZ) * 0.5f;
+        }
+    }
+}
@@ -70,6 +70,7 @@ public class FontManager {
             if (m.containsKey(c)) {
                 return m.get(c);
             }
+            long start = game.getTracer().begin(Tracer.GLYPH_MISS);
             int error = FreeType.FT_Set_Pixel_Sizes(face, 0, size);
             if (error != 0) {
                 throw new RuntimeException("Error in set font size: font " + path + ", char " + c + ", error " + error);
@@ -92,19 +93,21 @@ public class FontManager {
                 yPosition += height;
             }
             int yOffset = yOffsets.get(height);
-            gl.getState().unpackAlignment(1);
             if (width != 0 || height != 0) {
+                gl.getState().unpackAlignment(1);
                 texture.subImage(xOffset, yOffset, width, height, GL11.GL_RED, GL11.GL_UNSIGNED_BYTE, bitmap.buffer(width * height));
             }
             xOffsets.put(height, xOffset + width);
             Char ch = new Char(glyph.bitmap_left(), glyph.bitmap_top(), xOffset, yOffset, width, height, (int) glyph.advance().x());
             m.put(c, ch);
+            game.getTracer().end(Tracer.GLYPH_MISS, start, String.valueOf(c), size);
 //            game.getLogger().debug("char {} u{} v{} bearing{}/{} size{}/{}", c, ch.u, ch.v, ch.bearingX, ch.bearingY, ch.width, ch.height);
             return ch;
 
         }
 
         public float renderText(float x, float y, int size, float lineSpacing, float maxWidth, Vector4f color, String... texts) {
+            game.getProfiler().begin("text");
             GLHandler gl = game.getGlHandler();
             WindowHandler window = game.getWindowHandler();
             int charCount = Arrays.stream(texts).mapToInt(String::length).sum();
@@ -158,6 +161,7 @@ public class FontManager {
                     .projection(new Matrix4f().ortho(0.0f, window.getWidth(), window.getHeight(), 0.0f, 0.0f, 1.0f)).applyMVP();
             vaoText.drawElements(GL11.GL_TRIANGLES, charCount * 6);
             gl.getState().popMVP();
+            game.getProfiler().end();
             return textBlockWidth;
         }
 
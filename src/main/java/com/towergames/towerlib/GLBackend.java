@@ -0,0 +1,258 @@
+package com.towergames.towerlib;
+
+import org.lwjgl.PointerBuffer;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+//Every GL entry point GLHandler uses, named after the GL function without the gl prefix.
+//LWJGLBackend forwards to the driver, RecordingGLBackend only counts calls so the CPU side can run without a context.
+public interface GLBackend {
+    //State
+    void enable(int cap);
+
+    void disable(int cap);
+
+    boolean isEnabled(int cap);
+
+    void cullFace(int mode);
+
+    void depthFunc(int func);
+
+    void blendFunc(int srcFactor, int dstFactor);
+
+    void colorMask(boolean red, boolean green, boolean blue, boolean alpha);
+
+    void depthMask(boolean flag);
+
+    void scissor(int x, int y, int width, int height);
+
+    void stencilFunc(int func, int ref, int mask);
+
+    void stencilOp(int fail, int depthFail, int depthPass);
+
+    void stencilMask(int mask);
+
+    void polygonOffset(float factor, float units);
+
+    void clearColor(float red, float green, float blue, float alpha);
+
+    void clear(int mask);
+
+    void pixelStorei(int pname, int param);
+
+    void viewport(int x, int y, int width, int height);
+
+    int getError();
+
+    int getInteger(int pname);
+
+    void getIntegerv(int pname, IntBuffer params);
+
+    boolean getBoolean(int pname);
+
+    void getBooleanv(int pname, ByteBuffer params);
+
+    float getFloat(int pname);
+
+    void getFloatv(int pname, FloatBuffer params);
+
+    //Buffers
+    int genBuffers();
+
+    void deleteBuffers(int buffer);
+
+    void bindBuffer(int target, int buffer);
+
+    void bindBufferBase(int target, int index, int buffer);
+
+    void bufferData(int target, long size, int usage);
+
+    void bufferData(int target, ByteBuffer data, int usage);
+
+    void bufferData(int target, FloatBuffer data, int usage);
+
+    void bufferData(int target, float[] data, int usage);
+
+    void bufferData(int target, int[] data, int usage);
+
+    void bufferData(int target, short[] data, int usage);
+
+    void bufferSubData(int target, long offset, FloatBuffer data);
+
+    void bufferSubData(int target, long offset, float[] data);
+
+    void bufferSubData(int target, long offset, int[] data);
+
+    //Textures
+    int genTextures();
+
+    void deleteTextures(int texture);
+
+    void activeTexture(int texture);
+
+    void bindTexture(int target, int texture);
+
+    void texParameteri(int target, int pname, int param);
+
+    void texImage2D(int target, int level, int internalFormat, int width, int height, int border, int format, int type, ByteBuffer pixels);
+
+    void texSubImage2D(int target, int level, int xOffset, int yOffset, int width, int height, int format, int type, ByteBuffer pixels);
+
+    void texImage3D(int target, int level, int internalFormat, int width, int height, int depth, int border, int format, int type, ByteBuffer pixels);
+
+    void texSubImage3D(int target, int level, int xOffset, int yOffset, int zOffset, int width, int height, int depth, int format, int type, ByteBuffer pixels);
+
+    void generateMipmap(int target);
+
+    void texBuffer(int target, int internalFormat, int buffer);
+
+    void bindSampler(int unit, int sampler);
+
+    //Framebuffers
+    int genFramebuffers();
+
+    void deleteFramebuffers(int framebuffer);
+
+    void bindFramebuffer(int target, int framebuffer);
+
+    void framebufferTexture2D(int target, int attachment, int textureTarget, int texture, int level);
+
+    int checkFramebufferStatus(int target);
+
+    int genRenderbuffers();
+
+    void deleteRenderbuffers(int renderbuffer);
+
+    void bindRenderbuffer(int target, int renderbuffer);
+
+    void renderbufferStorage(int target, int internalFormat, int width, int height);
+
+    void framebufferRenderbuffer(int target, int attachment, int renderbufferTarget, int renderbuffer);
+
+    void readPixels(int x, int y, int width, int height, int format, int type, ByteBuffer pixels);
+
+    //Programs
+    int createShader(int type);
+
+    void shaderSource(int shader, CharSequence source);
+
+    void compileShader(int shader);
+
+    int getShaderi(int shader, int pname);
+
+    String getShaderInfoLog(int shader);
+
+    int createProgram();
+
+    void attachShader(int program, int shader);
+
+    void transformFeedbackVaryings(int program, CharSequence[] varyings, int bufferMode);
+
+    void linkProgram(int program);
+
+    int getProgrami(int program, int pname);
+
+    String getProgramInfoLog(int program);
+
+    void useProgram(int program);
+
+    int getUniformLocation(int program, CharSequence name);
+
+    int getUniformBlockIndex(int program, CharSequence name);
+
+    void uniformBlockBinding(int program, int blockIndex, int binding);
+
+    void uniform1i(int location, int value);
+
+    void uniform1f(int location, float value);
+
+    void uniform1fv(int location, float[] values);
+
+    void uniform2fv(int location, float[] values);
+
+    void uniform3fv(int location, float[] values);
+
+    void uniform4fv(int location, float[] values);
+
+    void uniform1iv(int location, int[] values);
+
+    void uniform2iv(int location, int[] values);
+
+    void uniform3iv(int location, int[] values);
+
+    void uniform4iv(int location, int[] values);
+
+    void uniformMatrix2fv(int location, boolean transpose, float[] values);
+
+    void uniformMatrix3fv(int location, boolean transpose, float[] values);
+
+    void uniformMatrix4fv(int location, boolean transpose, float[] values);
+
+    void uniformMatrix4fv(int location, boolean transpose, FloatBuffer values);
+
+    //Vertex arrays
+    int genVertexArrays();
+
+    void deleteVertexArrays(int array);
+
+    void bindVertexArray(int array);
+
+    void vertexAttribPointer(int index, int size, int type, boolean normalized, int stride, long pointer);
+
+    void enableVertexAttribArray(int index);
+
+    void vertexAttribDivisor(int index, int divisor);
+
+    void vertexAttrib1f(int index, float x);
+
+    void vertexAttrib2f(int index, float x, float y);
+
+    void vertexAttrib3f(int index, float x, float y, float z);
+
+    void vertexAttrib4f(int index, float x, float y, float z, float w);
+
+    void vertexAttribI1i(int index, int x);
+
+    void vertexAttribI2i(int index, int x, int y);
+
+    void vertexAttribI3i(int index, int x, int y, int z);
+
+    void vertexAttribI4i(int index, int x, int y, int z, int w);
+
+    //Draws
+    void drawArrays(int mode, int first, int count);
+
+    void drawElements(int mode, int count, int type, long indices);
+
+    void drawElementsInstanced(int mode, int count, int type, long indices, int instances);
+
+    void multiDrawElementsBaseVertex(int mode, IntBuffer counts, int type, PointerBuffer indices, IntBuffer baseVertices);
+
+    void beginTransformFeedback(int primitiveMode);
+
+    void endTransformFeedback();
+
+    //Queries
+    int genQueries();
+
+    void deleteQueries(int query);
+
+    void beginQuery(int target, int query);
+
+    void endQuery(int target);
+
+    void queryCounter(int query, int target);
+
+    int getQueryObjecti(int query, int pname);
+
+    long getQueryObjectui64(int query, int pname);
+
+    void beginConditionalRender(int query, int mode);
+
+    void endConditionalRender();
+
+    //Window
+    void swapBuffers(long window);
+}
\ No newline at end of file
@@ -3,30 +3,79 @@ package com.towergames.towerlib;
 import de.javagl.jgltf.model.image.PixelData;
 import de.javagl.jgltf.model.image.PixelDatas;
 import org.joml.*;
-import org.lwjgl.glfw.GLFW;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.PointerBuffer;
 import org.lwjgl.opengl.*;
+import org.lwjgl.stb.STBImageWrite;
 
 import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 import java.util.*;
+import java.util.function.Consumer;
 
 public class GLHandler {
     private final TowerGame game;
+    private final GLBackend backend;
     private Map<String, Integer> shaders = new HashMap<>();
     private Map<String, Texture> textures = new HashMap<>();
-    private Stack<GLState> stack;
+    private Map<String, TextureLayer> textureLayers = new HashMap<>();
+    //Keyed by size, srgb and mipmap, with the paths of the layers in use.
+    private Map<Long, TextureArray> layerArrays = new HashMap<>();
+    private Map<Long, List<String>> layerPaths = new HashMap<>();
+    private Map<Integer, TextureAtlas> atlases = new HashMap<>();
+    private static final int STATE_DEPTH = 32, MVP_DEPTH = 32, CAMERA_BLOCK_BINDING = 1;
+    //Texture units the model shaders keep their buffer samplers on, away from the material textures from unit 0 up.
+    static final int MORPH_TEXTURE_UNIT = 15, JOINT_TEXTURE_UNIT = 14;
+    //States are pooled: a slot is allocated the first time the stack gets that deep, then reused.
+    private final GLState[] states = new GLState[STATE_DEPTH];
+    private int stateDepth;
     public final int ebo10000Rects;
-    public final Program basic, xyuv, pbr;
+    public final Program basic, xyuv, pbr, pbrInstanced, sprite, depth, bounds, skinning;
     public final Texture white, defaultNormal;
-    public final VAO vaoRect, vaoRectDynamicUV;
+    public final VAO vaoRect, vaoRectDynamicUV, vaoBox;
+    //View, projection and their product for every program with a CameraBlock, rewritten only when the camera changes.
+    private final UBO uboCamera;
+    private final Matrix4f cameraView = new Matrix4f(), cameraProjection = new Matrix4f(), cameraViewProjection = new Matrix4f();
+    private final float[] cameraData = new float[48];
+    private boolean cameraValid;
+    private final FloatBuffer matrixBuffer = BufferUtils.createFloatBuffer(16);
+    private boolean stateValidation;
+    private long redundantCalls, drawCalls, stateChanges, uploads, uploadBytes;
 
     public GLHandler(TowerGame game) {
+        this(game, new LWJGLBackend());
+    }
+
+    public GLHandler(TowerGame game, GLBackend backend) {
         this.game = game;
+        this.backend = backend;
         game.getLogger().info("Initializing GLHandler...");
-        stack = new Stack<>();
-        stack.push(new GLState());
+        states[0] = new GLState();
+        IntBuffer box = BufferUtils.createIntBuffer(4);
+        backend.getIntegerv(GL11.GL_VIEWPORT, box);
+        states[0].viewport.set(box.get(0), box.get(1), box.get(2), box.get(3));
+        backend.getIntegerv(GL11.GL_SCISSOR_BOX, box);
+        states[0].scissor.set(box.get(0), box.get(1), box.get(2), box.get(3));
+        uboCamera = createUBO().uboData(cameraData, GL15.GL_DYNAMIC_DRAW).bind(CAMERA_BLOCK_BINDING);
         basic = createProgram("shaders/basic.vs", "shaders/basic.fs");
         xyuv = createProgram("shaders/xyuv.vs", "shaders/basic.fs");
         pbr = createProgram("shaders/pbr.vs", "shaders/pbr.fs");
+        pbrInstanced = createProgram("shaders/pbr_instanced.vs", "shaders/pbr.fs");
+        sprite = createProgram("shaders/sprite.vs", "shaders/sprite.fs");
+        depth = createProgram("shaders/pbr.vs", "shaders/depth.fs");
+        bounds = createProgram("shaders/basic.vs", "shaders/depth.fs");
+        skinning = createFeedbackProgram(new String[]{"vPosition", "vNormal", "vTangent", "vTexcoord"}, "shaders/skinning.vs");
+        //Samplers default to unit 0. Unused ones still count, so a samplerBuffer there would clash with the sampler2D base color.
+        for (Program program : new Program[]{pbr, depth, skinning}) {
+            program.uniform("uMorphTargets", MORPH_TEXTURE_UNIT);
+        }
+        for (Program program : new Program[]{pbr, pbrInstanced, depth, skinning}) {
+            program.uniform("uJointPalette", JOINT_TEXTURE_UNIT);
+        }
+        for (Program program : new Program[]{pbr, pbrInstanced, depth}) {
+            program.uniform3f("uDequantizeScale", 1.0f, 1.0f, 1.0f);
+        }
         white = createTexture(false).image(GL11.GL_RGBA, 1, 1, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, TowerUtil.toDirectBuffer(new byte[]{-1, -1, -1, -1}));
         defaultNormal = createTexture(false).image(GL11.GL_RGBA, 1, 1, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, TowerUtil.toDirectBuffer(new byte[]{-128, -128, -1, -1}));
         int[] data = new int[60000];
@@ -38,42 +87,203 @@ public class GLHandler {
             data[i * 6 + 4] = i * 4 + 2;
             data[i * 6 + 5] = i * 4 + 3;
         }
-        createVAO().bindEBO(ebo10000Rects = GL15.glGenBuffers(), 60000, GL11.GL_UNSIGNED_INT).eboData(data, GL15.GL_STATIC_DRAW); //For avoid bind ebo to vao 0
+        createVAO().bindEBO(ebo10000Rects = backend.genBuffers(), 60000, GL11.GL_UNSIGNED_INT).eboData(data, GL15.GL_STATIC_DRAW); //For avoid bind ebo to vao 0
         vaoRect = createVAO().vboData(new float[]{0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f, 1.0f, 1.0f, 0.0f, 1.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 1.0f, 1.0f, 1.0f, 0.0f})
                 .vertexAttrib(0, 3, 0, 0).vertexAttrib(1, 2, 0, 48).eboData(new int[]{0, 1, 2, 0, 2, 3}).readOnly();
         vaoRectDynamicUV = createVAO().vboData(new float[]{0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f, 1.0f, 1.0f, 0.0f, 1.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 1.0f, 1.0f, 1.0f, 0.0f}, GL15.GL_DYNAMIC_DRAW)
                 .vertexAttrib(0, 3, 0, 0).vertexAttrib(1, 2, 0, 48).eboData(new int[]{0, 1, 2, 0, 2, 3}).readOnly();
+        vaoBox = createVAO().vboData(new float[]{0.0f, 0.0f, 0.0f, 1.0f, 0.0f, 0.0f, 1.0f, 1.0f, 0.0f, 0.0f, 1.0f, 0.0f, 0.0f, 0.0f, 1.0f, 1.0f, 0.0f, 1.0f, 1.0f, 1.0f, 1.0f, 0.0f, 1.0f, 1.0f})
+                .vertexAttrib(0, 3, 0, 0).eboData(new int[]{0, 2, 1, 0, 3, 2, 4, 5, 6, 4, 6, 7, 0, 1, 5, 0, 5, 4, 3, 7, 6, 3, 6, 2, 0, 4, 7, 0, 7, 3, 1, 2, 6, 1, 6, 5}).readOnly();
     }
 
     public GLState getState() {
-        return stack.peek();
+        return states[stateDepth];
+    }
+
+    public GLBackend getBackend() {
+        return backend;
+    }
+
+    private void updateCamera(Matrix4f view, Matrix4f projection) {
+        if (cameraValid && cameraView.equals(view) && cameraProjection.equals(projection)) {
+            return;
+        }
+        cameraView.set(view).get(cameraData, 0);
+        cameraProjection.set(projection).get(cameraData, 16);
+        cameraViewProjection.set(projection).mul(view).get(cameraData, 32);
+        uboCamera.uboSubData(0, cameraData);
+        cameraValid = true;
     }
 
     public void pushStack() {
-        stack.push(new GLState(stack.peek()));
+        if (stateDepth + 1 == STATE_DEPTH) {
+            throw new RuntimeException("GLState stack overflow, max depth: " + STATE_DEPTH);
+        }
+        if (states[stateDepth + 1] == null) {
+            states[stateDepth + 1] = new GLState();
+        }
+        states[stateDepth + 1].set(states[stateDepth]);
+        stateDepth++;
     }
 
+    //Only the fields that differ from the restored state reach GL.
     public void popStack() {
-        GLState popState = stack.pop();
-        popState.applyState(stack.peek());
-        stack.peek().activeTexture = popState.activeTexture;
+        if (stateDepth == 0) {
+            throw new RuntimeException("GLState stack underflow");
+        }
+        GLState popState = states[stateDepth--];
+        popState.applyState(states[stateDepth]);
+        GLState state = states[stateDepth];
+        state.activeTexture = popState.activeTexture;
+        //Constant vertex attributes are not restored, keep tracking what GL actually has.
+        System.arraycopy(popState.attribKinds, 0, state.attribKinds, 0, 16);
+        System.arraycopy(popState.attribFloats, 0, state.attribFloats, 0, 64);
+        System.arraycopy(popState.attribInts, 0, state.attribInts, 0, 64);
+        if (stateValidation) {
+            state.validate();
+        }
+    }
+
+    public boolean isStateValidation() {
+        return stateValidation;
+    }
+
+    //Debug: cross-checks the cached state against glGet on every popStack, mismatches are logged. Slow, it stalls the pipeline.
+    public void setStateValidation(boolean stateValidation) {
+        this.stateValidation = stateValidation;
+    }
+
+    //GL calls skipped because the cached state already had the value.
+    public long getRedundantCalls() {
+        return redundantCalls;
+    }
+
+    public void resetRedundantCalls() {
+        redundantCalls = 0;
+    }
+
+    //Per frame counters for the profiler: draw calls, state changes that reached GL, and buffer and texture uploads.
+    public long getDrawCalls() {
+        return drawCalls;
+    }
+
+    public long getStateChanges() {
+        return stateChanges;
+    }
+
+    public long getUploads() {
+        return uploads;
+    }
+
+    public long getUploadBytes() {
+        return uploadBytes;
+    }
+
+    public void resetFrameCounters() {
+        drawCalls = 0;
+        stateChanges = 0;
+        uploads = 0;
+        uploadBytes = 0;
+    }
+
+    //Uploads go through these so they show up in the frame counters and the trace.
+    private void bufferData(int target, long size, int usage) {
+        backend.bufferData(target, size, usage);
+    }
+
+    private void bufferData(int target, ByteBuffer data, int usage) {
+        long start = game.getTracer().begin(Tracer.UPLOAD);
+        backend.bufferData(target, data, usage);
+        uploaded(start, "buffer", data.remaining());
+    }
+
+    private void bufferData(int target, FloatBuffer data, int usage) {
+        long start = game.getTracer().begin(Tracer.UPLOAD);
+        backend.bufferData(target, data, usage);
+        uploaded(start, "buffer", data.remaining() * 4L);
+    }
+
+    private void bufferData(int target, float[] data, int usage) {
+        long start = game.getTracer().begin(Tracer.UPLOAD);
+        backend.bufferData(target, data, usage);
+        uploaded(start, "buffer", data.length * 4L);
+    }
+
+    private void bufferData(int target, int[] data, int usage) {
+        long start = game.getTracer().begin(Tracer.UPLOAD);
+        backend.bufferData(target, data, usage);
+        uploaded(start, "buffer", data.length * 4L);
+    }
+
+    private void bufferData(int target, short[] data, int usage) {
+        long start = game.getTracer().begin(Tracer.UPLOAD);
+        backend.bufferData(target, data, usage);
+        uploaded(start, "buffer", data.length * 2L);
+    }
+
+    private void bufferSubData(int target, long offset, FloatBuffer data) {
+        long start = game.getTracer().begin(Tracer.UPLOAD);
+        backend.bufferSubData(target, offset, data);
+        uploaded(start, "buffer", data.remaining() * 4L);
+    }
+
+    private void bufferSubData(int target, long offset, float[] data) {
+        long start = game.getTracer().begin(Tracer.UPLOAD);
+        backend.bufferSubData(target, offset, data);
+        uploaded(start, "buffer", data.length * 4L);
+    }
+
+    private void bufferSubData(int target, long offset, int[] data) {
+        long start = game.getTracer().begin(Tracer.UPLOAD);
+        backend.bufferSubData(target, offset, data);
+        uploaded(start, "buffer", data.length * 4L);
+    }
+
+    private void texImage2D(int target, int level, int internalFormat, int width, int height, int border, int format, int type, ByteBuffer pixels) {
+        long start = game.getTracer().begin(Tracer.UPLOAD);
+        backend.texImage2D(target, level, internalFormat, width, height, border, format, type, pixels);
+        uploaded(start, "texture", pixels == null ? 0 : pixels.remaining());
+    }
+
+    private void texSubImage2D(int target, int level, int xOffset, int yOffset, int width, int height, int format, int type, ByteBuffer pixels) {
+        long start = game.getTracer().begin(Tracer.UPLOAD);
+        backend.texSubImage2D(target, level, xOffset, yOffset, width, height, format, type, pixels);
+        uploaded(start, "texture", pixels.remaining());
+    }
+
+    private void texImage3D(int target, int level, int internalFormat, int width, int height, int depth, int border, int format, int type, ByteBuffer pixels) {
+        long start = game.getTracer().begin(Tracer.UPLOAD);
+        backend.texImage3D(target, level, internalFormat, width, height, depth, border, format, type, pixels);
+        uploaded(start, "texture", pixels == null ? 0 : pixels.remaining());
+    }
+
+    private void texSubImage3D(int target, int level, int xOffset, int yOffset, int zOffset, int width, int height, int depth, int format, int type, ByteBuffer pixels) {
+        long start = game.getTracer().begin(Tracer.UPLOAD);
+        backend.texSubImage3D(target, level, xOffset, yOffset, zOffset, width, height, depth, format, type, pixels);
+        uploaded(start, "texture", pixels.remaining());
+    }
+
+    private void uploaded(long start, String kind, long bytes) {
+        uploads++;
+        uploadBytes += bytes;
+        game.getTracer().end(Tracer.UPLOAD, start, kind, bytes);
     }
 
     public void clearColor() {
-        GL11.glClear(GL11.GL_COLOR_BUFFER_BIT);
+        backend.clear(GL11.GL_COLOR_BUFFER_BIT);
     }
 
     public void clearDepth() {
-        GL11.glClear(GL11.GL_DEPTH_BUFFER_BIT);
+        backend.clear(GL11.GL_DEPTH_BUFFER_BIT);
     }
 
     public void swapBuffer() {
-        GLFW.glfwSwapBuffers(game.getWindowHandler().getWindow());
+        backend.swapBuffers(game.getWindowHandler().getWindow());
     }
 
     public void checkError() {
         int error = 0;
-        while ((error = GL11.glGetError()) != GL11.GL_NO_ERROR) {
+        while ((error = backend.getError()) != GL11.GL_NO_ERROR) {
             String s = "";
             switch (error) {
                 case GL11.GL_INVALID_ENUM:
@@ -103,13 +313,30 @@ public class GLHandler {
     }
 
     public Program createProgram(String... shaderPaths) {
-        return new Program(shaderPaths);
+        return new Program(null, shaderPaths);
+    }
+
+    //The varyings are captured interleaved, in order, by VAO.captureFeedback.
+    public Program createFeedbackProgram(String[] feedbackVaryings, String... shaderPaths) {
+        return new Program(feedbackVaryings, shaderPaths);
     }
 
     public VAO createVAO() {
         return new VAO();
     }
 
+    public Query createQuery(int target) {
+        return new Query(target);
+    }
+
+    public VBO createVBO() {
+        return new VBO();
+    }
+
+    public Framebuffer createFramebuffer(int width, int height) {
+        return new Framebuffer(width, height);
+    }
+
     public UBO createUBO() {
         return new UBO();
     }
@@ -118,6 +345,30 @@ public class GLHandler {
         return new Texture(mipmap);
     }
 
+    public TextureArray createTextureArray(boolean mipmap) {
+        return new TextureArray(mipmap);
+    }
+
+    public TextureBuffer createTextureBuffer(int internalFormat) {
+        return new TextureBuffer(internalFormat);
+    }
+
+    public TextureAtlas createTextureAtlas(int pageSize, int padding, boolean srgb, boolean mipmap) {
+        return new TextureAtlas(pageSize, padding, srgb, mipmap);
+    }
+
+    public GeometryArena createGeometryArena(int stride, int vertexCapacity, int indexCapacity) {
+        return new GeometryArena(stride, vertexCapacity, indexCapacity);
+    }
+
+    public RenderQueue createRenderQueue() {
+        return new RenderQueue();
+    }
+
+    public SpriteBatch createSpriteBatch() {
+        return new SpriteBatch();
+    }
+
     public Light createLight(Vector3f pos, Vector3f color) {
         return new Light(pos, color);
     }
@@ -136,6 +387,62 @@ public class GLHandler {
         return texture;
     }
 
+    //Packs the image into a shared atlas page, for small images like UI icons.
+    public SubTexture loadSubTexture(String path, boolean srgb, boolean mipmap) {
+        return atlases.computeIfAbsent((srgb ? 1 : 0) | (mipmap ? 2 : 0), k -> createTextureAtlas(2048, mipmap ? 4 : 1, srgb, mipmap)).load(path);
+    }
+
+    //Same-sized images are packed into the layers of one texture array, so a SpriteBatch can draw all of them in one call.
+    //Later calls append to the array of their size, growing it re-reads the layers already in it.
+    public List<TextureLayer> loadTextureLayers(boolean srgb, boolean mipmap, String... paths) {
+        Map<Long, List<String>> groups = new LinkedHashMap<>();
+        Map<String, PixelData> pixels = new HashMap<>();
+        for (String path : paths) {
+            if (textureLayers.containsKey(path) || pixels.containsKey(path)) {
+                continue;
+            }
+            PixelData data = PixelDatas.create(TowerUtil.readToBuffer(path));
+            pixels.put(path, data);
+            groups.computeIfAbsent(((long) data.getWidth() << 32) | ((long) data.getHeight() << 2) | (srgb ? 1 : 0) | (mipmap ? 2 : 0),
+                    k -> new ArrayList<>()).add(path);
+        }
+        getState().unpackAlignment(4);
+        groups.forEach((key, group) -> {
+            PixelData first = pixels.get(group.get(0));
+            List<String> loaded = layerPaths.computeIfAbsent(key, k -> new ArrayList<>());
+            TextureArray array = layerArrays.get(key);
+            int layers = loaded.size() + group.size();
+            if (array == null || array.getLayers() < layers) {
+                if (array == null) {
+                    layerArrays.put(key, array = createTextureArray(mipmap));
+                } else {
+                    //Doubled so appending one at a time doesn't re-read every layer each call.
+                    layers = java.lang.Math.max(layers, array.getLayers() * 2);
+                }
+                array.image(srgb ? GL21.GL_SRGB_ALPHA : GL11.GL_RGBA, first.getWidth(), first.getHeight(), layers, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, null);
+                for (int i = 0; i < loaded.size(); i++) {
+                    PixelData data = PixelDatas.create(TowerUtil.readToBuffer(loaded.get(i)));
+                    array.subImage(i, 0, 0, data.getWidth(), data.getHeight(), GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, data.getPixelsRGBA());
+                }
+            }
+            for (String path : group) {
+                PixelData data = pixels.get(path);
+                array.subImage(loaded.size(), 0, 0, data.getWidth(), data.getHeight(), GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, data.getPixelsRGBA());
+                textureLayers.put(path, new TextureLayer(array, loaded.size()));
+                loaded.add(path);
+            }
+            if (mipmap) {
+                array.updateMipmap();
+            }
+            game.getLogger().debug("Texture array packed: {}x{}, {} of {} layers", first.getWidth(), first.getHeight(), loaded.size(), array.getLayers());
+        });
+        List<TextureLayer> result = new ArrayList<>();
+        for (String path : paths) {
+            result.add(textureLayers.get(path));
+        }
+        return result;
+    }
+
     public void drawRect2D(float x, float y, float width, float height, Vector4f color) {
         WindowHandler window = game.getWindowHandler();
         getState().texture0(white);
@@ -154,17 +461,17 @@ public class GLHandler {
         private Texture(boolean mipmap) {
             this.mipmap = mipmap;
             GLState state = getState();
-            state.texture(state.activeTexture, id = GL11.glGenTextures());
-            GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_S, GL12.GL_CLAMP_TO_EDGE);
-            GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_T, GL12.GL_CLAMP_TO_EDGE);
-            GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, mipmap ? GL11.GL_LINEAR_MIPMAP_LINEAR : GL11.GL_LINEAR);
-            GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_LINEAR);
+            state.texture(state.activeTexture, id = backend.genTextures());
+            backend.texParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_S, GL12.GL_CLAMP_TO_EDGE);
+            backend.texParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_T, GL12.GL_CLAMP_TO_EDGE);
+            backend.texParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, mipmap ? GL11.GL_LINEAR_MIPMAP_LINEAR : GL11.GL_LINEAR);
+            backend.texParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_LINEAR);
         }
 
         public Texture image(int internalFormat, int width, int height, int format, int dataType, ByteBuffer data) {
             GLState state = getState();
             state.texture(state.activeTexture, id);
-            GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, internalFormat, width, height, 0, format, dataType, data);
+            texImage2D(GL11.GL_TEXTURE_2D, 0, internalFormat, width, height, 0, format, dataType, data);
             this.width = width;
             this.height = height;
             return this;
@@ -173,14 +480,14 @@ public class GLHandler {
         public Texture subImage(int xOffset, int yOffset, int width, int height, int format, int dataType, ByteBuffer data) {
             GLState state = getState();
             state.texture(state.activeTexture, id);
-            GL11.glTexSubImage2D(GL11.GL_TEXTURE_2D, 0, xOffset, yOffset, width, height, format, dataType, data);
+            texSubImage2D(GL11.GL_TEXTURE_2D, 0, xOffset, yOffset, width, height, format, dataType, data);
             return this;
         }
 
         public Texture updateMipmap() {
             GLState state = getState();
             state.texture(state.activeTexture, id);
-            GL30.glGenerateMipmap(GL11.GL_TEXTURE_2D);
+            backend.generateMipmap(GL11.GL_TEXTURE_2D);
             return this;
         }
 
@@ -227,428 +534,1490 @@ public class GLHandler {
         }
     }
 
-    public class Program {
-        private final int id;
-        private Map<String, Integer> uniformLocations = new HashMap<>();
-        private Map<String, Object> uniforms = new HashMap<>();
-
-        //Warning: uniform operation (except getUniformLocation) will bind program!
-        private Program(String... shaderPaths) {
-            int[] shaderIDs = new int[shaderPaths.length];
-            for (int i = 0; i < shaderPaths.length; i++) {
-                String path = shaderPaths[i];
-                if (shaders.containsKey(path)) {
-                    shaderIDs[i] = shaders.get(path);
-                    continue;
-                }
-                int type = 0;
-                if (path.endsWith(".vs")) {
-                    type = GL20.GL_VERTEX_SHADER;
-                } else if (path.endsWith(".fs")) {
-                    type = GL20.GL_FRAGMENT_SHADER;
-                } else if (path.endsWith(".gs")) {
-                    type = GL32.GL_GEOMETRY_SHADER;
-                } else {
-                    throw new RuntimeException("Unrecognized shader suffix: " + path);
+    public class TextureAtlas {
+        private final int pageSize, padding, align, maxLevel;
+        private final boolean srgb, mipmap;
+        private final List<Page> pages = new ArrayList<>();
+        private final Map<String, SubTexture> subTextures = new HashMap<>();
+
+        //Rects are aligned to 2^maxLevel, so a texel of any used mip level never straddles two images, and mips stop at the
+        //level whose texels are as wide as the padding, the farthest bilinear filtering reaches past an edge.
+        private TextureAtlas(int pageSize, int padding, boolean srgb, boolean mipmap) {
+            this.pageSize = pageSize;
+            this.padding = padding;
+            this.srgb = srgb;
+            this.mipmap = mipmap;
+            maxLevel = mipmap && padding > 0 ? 31 - Integer.numberOfLeadingZeros(padding) : 0;
+            align = 1 << maxLevel;
+        }
+
+        public SubTexture load(String path) {
+            SubTexture subTexture = subTextures.get(path);
+            if (subTexture != null) {
+                return subTexture;
+            }
+            PixelData data = PixelDatas.create(TowerUtil.readToBuffer(path));
+            int width = data.getWidth(), height = data.getHeight();
+            //The alignment slack on the right and bottom is extruded too.
+            int paddedWidth = (width + padding * 2 + align - 1) & -align, paddedHeight = (height + padding * 2 + align - 1) & -align;
+            Page page = null;
+            int[] position = null;
+            if (paddedWidth > pageSize || paddedHeight > pageSize) {
+                page = new Page(java.lang.Math.max(paddedWidth, paddedHeight));
+                position = page.allocate(paddedWidth, paddedHeight);
+            } else {
+                for (Page p : pages) {
+                    if ((position = p.allocate(paddedWidth, paddedHeight)) != null) {
+                        page = p;
+                        break;
+                    }
                 }
-                shaderIDs[i] = GL20.glCreateShader(type);
-                GL20.glShaderSource(shaderIDs[i], TowerUtil.readToString(path));
-                GL20.glCompileShader(shaderIDs[i]);
-                if (GL20.glGetShaderi(shaderIDs[i], GL20.GL_COMPILE_STATUS) == GL11.GL_FALSE) {
-                    throw new RuntimeException("Failed to compile shader: " + path + "\n" + GL20.glGetShaderInfoLog(shaderIDs[i]));
+                if (page == null) {
+                    page = new Page(pageSize);
+                    position = page.allocate(paddedWidth, paddedHeight);
                 }
-                shaders.put(path, shaderIDs[i]);
-            }
-            id = GL20.glCreateProgram();
-            for (int shader : shaderIDs) {
-                GL20.glAttachShader(id, shader);
             }
-            GL20.glLinkProgram(id);
-            if (GL20.glGetProgrami(id, GL20.GL_LINK_STATUS) == GL11.GL_FALSE) {
-                throw new RuntimeException("Failed to link program: " + Arrays.toString(shaderPaths) + "\n" + GL20.glGetProgramInfoLog(id));
+            ByteBuffer pixels = data.getPixelsRGBA();
+            ByteBuffer extruded = BufferUtils.createByteBuffer(paddedWidth * paddedHeight * 4);
+            for (int y = 0; y < paddedHeight; y++) {
+                int srcY = java.lang.Math.min(java.lang.Math.max(y - padding, 0), height - 1);
+                for (int x = 0; x < paddedWidth; x++) {
+                    int srcX = java.lang.Math.min(java.lang.Math.max(x - padding, 0), width - 1);
+                    extruded.putInt(pixels.getInt(pixels.position() + (srcY * width + srcX) * 4));
+                }
             }
-            game.getLogger().debug("Program linked: {}", Arrays.toString(shaderPaths));
+            extruded.flip();
+            getState().unpackAlignment(4);
+            page.texture.subImage(position[0], position[1], paddedWidth, paddedHeight, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, extruded);
+            page.dirty = mipmap;
+            subTexture = new SubTexture(page, position[0] + padding, position[1] + padding, width, height);
+            subTextures.put(path, subTexture);
+            return subTexture;
         }
 
-        public int getUniformLocation(String name) {
-            Integer location = uniformLocations.get(name);
-            if (location != null) {
-                return location;
-            }
-            location = GL20.glGetUniformLocation(id, name);
-            uniformLocations.put(name, location);
-            return location;
+        public int getPageCount() {
+            return pages.size();
         }
 
-        public Program lights(Light... lights) {
-            uniform("uLightCount", lights.length);
-            float[] positions = new float[lights.length * 3];
-            float[] colors = new float[lights.length * 3];
-            for (int i = 0; i < lights.length; i++) {
-                positions[i * 3] = lights[i].pos.x;
-                positions[i * 3 + 1] = lights[i].pos.y;
-                positions[i * 3 + 2] = lights[i].pos.z;
-                colors[i * 3] = lights[i].color.x;
-                colors[i * 3 + 1] = lights[i].color.y;
-                colors[i * 3 + 2] = lights[i].color.z;
-            }
-            uniform3f("uLightPositions", positions);
-            uniform3f("uLightColors", colors);
-            return this;
-        }
+        private class Page {
+            private final Texture texture;
+            private final int size;
+            private final List<int[]> shelves = new ArrayList<>(); // y, height, used width
+            private int shelfY;
+            private boolean dirty;
 
-        public Program uniform(String name, int value) {
-            Object o = uniforms.put(name, value);
-            use();
-            if (!Integer.valueOf(value).equals(o)) {
-                GL20.glUniform1i(getUniformLocation(name), value);
+            private Page(int size) {
+                this.size = size;
+                //Storage only, every texel that can be sampled is written by load.
+                texture = createTexture(mipmap).image(srgb ? GL21.GL_SRGB_ALPHA : GL11.GL_RGBA, size, size, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, null);
+                if (mipmap) {
+                    backend.texParameteri(GL11.GL_TEXTURE_2D, GL12.GL_TEXTURE_MAX_LEVEL, maxLevel);
+                }
+                pages.add(this);
+                game.getLogger().debug("Texture atlas page created: {}x{}, page {}", size, size, pages.size());
             }
-            return this;
-        }
-
-        public Program uniform(String name, boolean flag) {
-            return uniform(name, flag ? 1 : 0);
-        }
 
-        public Program uniform(String name, float value) {
-            Object o = uniforms.put(name, value);
-            use();
-            if (!Float.valueOf(value).equals(o)) {
-                GL20.glUniform1f(getUniformLocation(name), value);
+            private int[] allocate(int width, int height) {
+                for (int[] shelf : shelves) {
+                    if (shelf[1] >= height && shelf[1] <= height * 2 && shelf[2] + width <= size) {
+                        int[] r = new int[]{shelf[2], shelf[0]};
+                        shelf[2] += width;
+                        return r;
+                    }
+                }
+                if (shelfY + height > size || width > size) {
+                    return null;
+                }
+                shelves.add(new int[]{shelfY, height, width});
+                int[] r = new int[]{0, shelfY};
+                shelfY += height;
+                return r;
             }
-            return this;
-        }
 
-        public Program uniform1f(String name, float... values) {
-            if (values.length == 1) {
-                return uniform(name, values[0]);
-            }
-            Object o = uniforms.put(name, values);
-            use();
-            if (!Arrays.equals(values, (float[]) o)) {
-                GL20.glUniform1fv(getUniformLocation(name), values);
+            private Texture getTexture() {
+                if (dirty) {
+                    texture.updateMipmap();
+                    dirty = false;
+                }
+                return texture;
             }
-            return this;
         }
+    }
 
-        public Program uniform2f(String name, float... values) {
-            Object o = uniforms.put(name, values);
-            use();
-            if (!Arrays.equals(values, (float[]) o)) {
-                GL20.glUniform2fv(getUniformLocation(name), values);
-            }
-            return this;
+    public class SubTexture {
+        private final TextureAtlas.Page page;
+        private final int x, y, width, height;
+
+        private SubTexture(TextureAtlas.Page page, int x, int y, int width, int height) {
+            this.page = page;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
         }
 
-        public Program uniform(String name, Vector2f v) {
-            return uniform2f(name, v.x, v.y);
+        public void drawRect2D(float x, float y, float width, float height, float u, float v, float uWidth, float vHeight, Vector4f color) {
+            page.getTexture().drawRect2D(x, y, width, height, this.x + u, this.y + v, uWidth, vHeight, color);
         }
 
-        public Program uniform3f(String name, float... values) {
-            Object o = uniforms.put(name, values);
-            use();
-            if (!Arrays.equals(values, (float[]) o)) {
-                GL20.glUniform3fv(getUniformLocation(name), values);
-            }
-            return this;
+        public void drawRect2D(float x, float y, float u, float v, float uWidth, float vHeight) {
+            drawRect2D(x, y, uWidth, vHeight, u, v, uWidth, vHeight, new Vector4f(1.0f, 1.0f, 1.0f, 1.0f));
         }
 
-        public Program uniform(String name, Vector3f v) {
-            return uniform3f(name, v.x, v.y, v.z);
+        public void drawRect2D(float x, float y, float width, float height, Vector4f color) {
+            drawRect2D(x, y, width, height, 0, 0, this.width, this.height, color);
         }
 
-        public Program uniform4f(String name, float... values) {
-            Object o = uniforms.put(name, values);
-            use();
-            if (!Arrays.equals(values, (float[]) o)) {
-                GL20.glUniform4fv(getUniformLocation(name), values);
-            }
-            return this;
+        public void drawRect2D(float x, float y) {
+            drawRect2D(x, y, width, height, new Vector4f(1.0f, 1.0f, 1.0f, 1.0f));
         }
 
-        public Program uniform(String name, Vector4f v) {
-            return uniform4f(name, v.x, v.y, v.z, v.w);
+        public Texture getTexture() {
+            return page.getTexture();
         }
 
-        public Program uniformMat2(String name, float... values) {
-            Object o = uniforms.put(name, values);
-            use();
-            if (!Arrays.equals(values, (float[]) o)) {
-                GL20.glUniformMatrix2fv(getUniformLocation(name), false, values);
-            }
-            return this;
+        //u0, v0, u1, v1 in the page texture
+        public Vector4f getUV() {
+            return new Vector4f((float) x / page.size, (float) y / page.size, (float) (x + width) / page.size, (float) (y + height) / page.size);
         }
 
-        public Program uniform(String name, Matrix2f v) {
-            return uniformMat2(name, v.m00, v.m01, v.m10, v.m11);
+        public int getX() {
+            return x;
         }
 
-        public Program uniformMat3(String name, float... values) {
-            Object o = uniforms.put(name, values);
-            use();
-            if (!Arrays.equals(values, (float[]) o)) {
-                GL20.glUniformMatrix3fv(getUniformLocation(name), false, values);
-            }
-            return this;
+        public int getY() {
+            return y;
         }
 
-        public Program uniform(String name, Matrix3f v) {
-            return uniformMat3(name, v.m00, v.m01, v.m02, v.m10, v.m11, v.m12, v.m20, v.m21, v.m22);
+        public int getWidth() {
+            return width;
         }
 
-        public Program uniformMat4(String name, float... values) {
-            Object o = uniforms.put(name, values);
-            use();
-            if (!Arrays.equals(values, (float[]) o)) {
-                GL20.glUniformMatrix4fv(getUniformLocation(name), false, values);
-            }
-            return this;
+        public int getHeight() {
+            return height;
         }
+    }
 
-        public Program uniform(String name, Matrix4f v) {
-            return uniformMat4(name, v.get(new float[16]));
+    public class TextureArray {
+        private final int id;
+        private int width, height, layers;
+        private boolean mipmap;
+
+        private TextureArray(boolean mipmap) {
+            this.mipmap = mipmap;
+            GLState state = getState();
+            state.textureArray(state.activeTexture, id = backend.genTextures());
+            backend.texParameteri(GL30.GL_TEXTURE_2D_ARRAY, GL11.GL_TEXTURE_WRAP_S, GL12.GL_CLAMP_TO_EDGE);
+            backend.texParameteri(GL30.GL_TEXTURE_2D_ARRAY, GL11.GL_TEXTURE_WRAP_T, GL12.GL_CLAMP_TO_EDGE);
+            backend.texParameteri(GL30.GL_TEXTURE_2D_ARRAY, GL11.GL_TEXTURE_MIN_FILTER, mipmap ? GL11.GL_LINEAR_MIPMAP_LINEAR : GL11.GL_LINEAR);
+            backend.texParameteri(GL30.GL_TEXTURE_2D_ARRAY, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_LINEAR);
         }
 
-        public Program uniform1i(String name, int... values) {
-            if (values.length == 1) {
-                return uniform(name, values[0]);
-            }
-            Object o = uniforms.put(name, values);
-            use();
-            if (!Arrays.equals(values, (int[]) o)) {
-                GL20.glUniform1iv(getUniformLocation(name), values);
-            }
+        public TextureArray image(int internalFormat, int width, int height, int layers, int format, int dataType, ByteBuffer data) {
+            GLState state = getState();
+            state.textureArray(state.activeTexture, id);
+            texImage3D(GL30.GL_TEXTURE_2D_ARRAY, 0, internalFormat, width, height, layers, 0, format, dataType, data);
+            this.width = width;
+            this.height = height;
+            this.layers = layers;
             return this;
         }
 
-        public Program uniform2i(String name, int... values) {
-            Object o = uniforms.put(name, values);
-            use();
-            if (!Arrays.equals(values, (int[]) o)) {
-                GL20.glUniform2iv(getUniformLocation(name), values);
-            }
+        public TextureArray subImage(int layer, int xOffset, int yOffset, int width, int height, int format, int dataType, ByteBuffer data) {
+            GLState state = getState();
+            state.textureArray(state.activeTexture, id);
+            texSubImage3D(GL30.GL_TEXTURE_2D_ARRAY, 0, xOffset, yOffset, layer, width, height, 1, format, dataType, data);
             return this;
         }
 
-        public Program uniform(String name, Vector2i v) {
-            return uniform2i(name, v.x, v.y);
+        public TextureArray updateMipmap() {
+            GLState state = getState();
+            state.textureArray(state.activeTexture, id);
+            backend.generateMipmap(GL30.GL_TEXTURE_2D_ARRAY);
+            return this;
         }
 
-        public Program uniform3i(String name, int... values) {
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public int getLayers() {
+            return layers;
+        }
+
+        public boolean isMipmap() {
+            return mipmap;
+        }
+    }
+
+    //Buffer texture for large per vertex or per instance tables, read with texelFetch from a samplerBuffer.
+    public class TextureBuffer {
+        private final int id, buffer, internalFormat;
+        private long size;
+
+        private TextureBuffer(int internalFormat) {
+            this.internalFormat = internalFormat;
+            buffer = backend.genBuffers();
+            GLState state = getState();
+            state.textureBuffer(state.activeTexture, id = backend.genTextures());
+        }
+
+        public TextureBuffer data(FloatBuffer data, int type) {
+            backend.bindBuffer(GL31.GL_TEXTURE_BUFFER, buffer);
+            bufferData(GL31.GL_TEXTURE_BUFFER, data, type);
+            size = data.remaining() * 4L;
+            return attach();
+        }
+
+        public TextureBuffer data(float[] data, int type) {
+            backend.bindBuffer(GL31.GL_TEXTURE_BUFFER, buffer);
+            bufferData(GL31.GL_TEXTURE_BUFFER, data, type);
+            size = data.length * 4L;
+            return attach();
+        }
+
+        public TextureBuffer data(long size, int type) {
+            backend.bindBuffer(GL31.GL_TEXTURE_BUFFER, buffer);
+            bufferData(GL31.GL_TEXTURE_BUFFER, size, type);
+            this.size = size;
+            return attach();
+        }
+
+        public TextureBuffer subData(long offset, FloatBuffer data) {
+            backend.bindBuffer(GL31.GL_TEXTURE_BUFFER, buffer);
+            bufferSubData(GL31.GL_TEXTURE_BUFFER, offset, data);
+            return this;
+        }
+
+        public TextureBuffer subData(long offset, float[] data) {
+            backend.bindBuffer(GL31.GL_TEXTURE_BUFFER, buffer);
+            bufferSubData(GL31.GL_TEXTURE_BUFFER, offset, data);
+            return this;
+        }
+
+        private TextureBuffer attach() {
+            GLState state = getState();
+            state.textureBuffer(state.activeTexture, id);
+            backend.texBuffer(GL31.GL_TEXTURE_BUFFER, internalFormat, buffer);
+            return this;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public void delete() {
+            backend.deleteTextures(id);
+            backend.deleteBuffers(buffer);
+        }
+    }
+
+    public class TextureLayer {
+        private final TextureArray array;
+        private final int layer;
+
+        private TextureLayer(TextureArray array, int layer) {
+            this.array = array;
+            this.layer = layer;
+        }
+
+        public TextureArray getArray() {
+            return array;
+        }
+
+        public int getLayer() {
+            return layer;
+        }
+
+        public int getWidth() {
+            return array.width;
+        }
+
+        public int getHeight() {
+            return array.height;
+        }
+    }
+
+    public class SpriteBatch {
+        private static final int MAX_SPRITES = 10000;
+        private final VAO vao;
+        private final FloatBuffer data = BufferUtils.createFloatBuffer(MAX_SPRITES * 20);
+        private final Vector4f color = new Vector4f(1.0f, 1.0f, 1.0f, 1.0f);
+        private TextureArray array;
+        private int count, drawCalls;
+
+        private SpriteBatch() {
+            vao = createVAO().vertexAttrib(0, 4, 20, 0).vertexAttrib(1, 1, 20, 16).bindEBO(ebo10000Rects, 60000, GL11.GL_UNSIGNED_INT);
+        }
+
+        public SpriteBatch color(Vector4f color) {
+            if (!this.color.equals(color)) {
+                flush();
+                this.color.set(color);
+            }
+            return this;
+        }
+
+        public SpriteBatch draw(TextureLayer layer, float x, float y, float width, float height, float u, float v, float uWidth, float vHeight) {
+            if (array != layer.array || count == MAX_SPRITES) {
+                flush();
+                array = layer.array;
+            }
+            float u0 = u / array.width, v0 = v / array.height, u1 = (u + uWidth) / array.width, v1 = (v + vHeight) / array.height;
+            data.put(x).put(y).put(u0).put(v0).put(layer.layer)
+                    .put(x).put(y + height).put(u0).put(v1).put(layer.layer)
+                    .put(x + width).put(y + height).put(u1).put(v1).put(layer.layer)
+                    .put(x + width).put(y).put(u1).put(v0).put(layer.layer);
+            count++;
+            return this;
+        }
+
+        public SpriteBatch draw(TextureLayer layer, float x, float y, float width, float height) {
+            return draw(layer, x, y, width, height, 0, 0, layer.getWidth(), layer.getHeight());
+        }
+
+        public SpriteBatch draw(TextureLayer layer, float x, float y) {
+            return draw(layer, x, y, layer.getWidth(), layer.getHeight());
+        }
+
+        public void flush() {
+            if (count == 0) {
+                return;
+            }
+            WindowHandler window = game.getWindowHandler();
+            data.flip();
+            vao.vboData(data, GL15.GL_DYNAMIC_DRAW);
+            data.clear();
+            getState().textureArray(0, array.id);
+            sprite.uniform("uColor", color).uniform("uTexture", 0);
+            getState().depthTest(false).pushMVP();
+            getState().model(new Matrix4f()).view(new Matrix4f())
+                    .projection(new Matrix4f().ortho(0.0f, window.getWidth(), window.getHeight(), 0.0f, 0.0f, 1.0f)).applyMVP();
+            vao.drawElements(GL11.GL_TRIANGLES, count * 6);
+            getState().popMVP();
+            count = 0;
+            drawCalls++;
+        }
+
+        public int getDrawCalls() {
+            return drawCalls;
+        }
+
+        public void resetDrawCalls() {
+            drawCalls = 0;
+        }
+    }
+
+    public class Program {
+        private final int id;
+        private Map<String, Integer> uniformLocations = new HashMap<>();
+        private Map<String, Object> uniforms = new HashMap<>();
+        private final boolean cameraBlock;
+        //Matrices this program last received through applyMVP.
+        private final Matrix4f model = new Matrix4f(), view = new Matrix4f(), projection = new Matrix4f();
+        private boolean modelValid, viewValid, projectionValid;
+
+        //Warning: uniform operation (except getUniformLocation) will bind program!
+        private Program(String[] feedbackVaryings, String... shaderPaths) {
+            long start = game.getTracer().begin(Tracer.SHADER_COMPILE);
+            int[] shaderIDs = new int[shaderPaths.length];
+            for (int i = 0; i < shaderPaths.length; i++) {
+                String path = shaderPaths[i];
+                if (shaders.containsKey(path)) {
+                    shaderIDs[i] = shaders.get(path);
+                    continue;
+                }
+                int type = 0;
+                if (path.endsWith(".vs")) {
+                    type = GL20.GL_VERTEX_SHADER;
+                } else if (path.endsWith(".fs")) {
+                    type = GL20.GL_FRAGMENT_SHADER;
+                } else if (path.endsWith(".gs")) {
+                    type = GL32.GL_GEOMETRY_SHADER;
+                } else {
+                    throw new RuntimeException("Unrecognized shader suffix: " + path);
+                }
+                shaderIDs[i] = backend.createShader(type);
+                backend.shaderSource(shaderIDs[i], readShaderSource(path, new ArrayDeque<>()));
+                backend.compileShader(shaderIDs[i]);
+                if (backend.getShaderi(shaderIDs[i], GL20.GL_COMPILE_STATUS) == GL11.GL_FALSE) {
+                    throw new RuntimeException("Failed to compile shader: " + path + "\n" + backend.getShaderInfoLog(shaderIDs[i]));
+                }
+                shaders.put(path, shaderIDs[i]);
+            }
+            id = backend.createProgram();
+            for (int shader : shaderIDs) {
+                backend.attachShader(id, shader);
+            }
+            if (feedbackVaryings != null) {
+                backend.transformFeedbackVaryings(id, feedbackVaryings, GL30.GL_INTERLEAVED_ATTRIBS);
+            }
+            backend.linkProgram(id);
+            if (backend.getProgrami(id, GL20.GL_LINK_STATUS) == GL11.GL_FALSE) {
+                throw new RuntimeException("Failed to link program: " + Arrays.toString(shaderPaths) + "\n" + backend.getProgramInfoLog(id));
+            }
+            int block = backend.getUniformBlockIndex(id, "CameraBlock");
+            cameraBlock = block != GL31.GL_INVALID_INDEX;
+            if (cameraBlock) {
+                backend.uniformBlockBinding(id, block, CAMERA_BLOCK_BINDING);
+            }
+            game.getTracer().end(Tracer.SHADER_COMPILE, start, Arrays.toString(shaderPaths), id);
+            game.getLogger().debug("Program linked: {}", Arrays.toString(shaderPaths));
+        }
+
+        //Expands #include "file" lines, resolved against the including file's directory. #line keeps the line numbers in
+        //compile errors matching the file they are in.
+        private String readShaderSource(String path, Deque<String> including) {
+            if (including.contains(path)) {
+                throw new RuntimeException("Recursive shader include: " + path + " from " + including);
+            }
+            including.push(path);
+            String[] lines = TowerUtil.readToString(path).split("\n");
+            StringBuilder source = new StringBuilder();
+            for (int i = 0; i < lines.length; i++) {
+                String line = lines[i].trim();
+                if (line.startsWith("#include")) {
+                    int start = line.indexOf('"'), end = line.lastIndexOf('"');
+                    if (start < 0 || end <= start) {
+                        throw new RuntimeException("Malformed shader include: " + path + ":" + (i + 1));
+                    }
+                    source.append("#line 1\n").append(readShaderSource(path.substring(0, path.lastIndexOf('/') + 1) + line.substring(start + 1, end), including))
+                            .append("#line ").append(i + 2).append('\n');
+                } else {
+                    source.append(lines[i]).append('\n');
+                }
+            }
+            including.pop();
+            return source.toString();
+        }
+
+        //Only matrices that changed since this program last saw them are uploaded, view and projection go to the camera UBO
+        //when the program has a CameraBlock.
+        private void applyMVP(Matrix4f model, Matrix4f view, Matrix4f projection) {
+            use();
+            if (!modelValid || !this.model.equals(model)) {
+                uploadMatrix("uModel", this.model.set(model));
+                modelValid = true;
+            }
+            if (cameraBlock) {
+                updateCamera(view, projection);
+                return;
+            }
+            if (!viewValid || !this.view.equals(view)) {
+                uploadMatrix("uView", this.view.set(view));
+                viewValid = true;
+            }
+            if (!projectionValid || !this.projection.equals(projection)) {
+                uploadMatrix("uProjection", this.projection.set(projection));
+                projectionValid = true;
+            }
+        }
+
+        private void uploadMatrix(String name, Matrix4f matrix) {
+            uniforms.remove(name);
+            backend.uniformMatrix4fv(getUniformLocation(name), false, matrix.get(matrixBuffer));
+        }
+
+        public int getUniformLocation(String name) {
+            Integer location = uniformLocations.get(name);
+            if (location != null) {
+                return location;
+            }
+            location = backend.getUniformLocation(id, name);
+            uniformLocations.put(name, location);
+            return location;
+        }
+
+        public Program lights(Light... lights) {
+            uniform("uLightCount", lights.length);
+            float[] positions = new float[lights.length * 3];
+            float[] colors = new float[lights.length * 3];
+            for (int i = 0; i < lights.length; i++) {
+                positions[i * 3] = lights[i].pos.x;
+                positions[i * 3 + 1] = lights[i].pos.y;
+                positions[i * 3 + 2] = lights[i].pos.z;
+                colors[i * 3] = lights[i].color.x;
+                colors[i * 3 + 1] = lights[i].color.y;
+                colors[i * 3 + 2] = lights[i].color.z;
+            }
+            uniform3f("uLightPositions", positions);
+            uniform3f("uLightColors", colors);
+            return this;
+        }
+
+        public Program uniform(String name, int value) {
+            Object o = uniforms.put(name, value);
+            use();
+            if (!Integer.valueOf(value).equals(o)) {
+                backend.uniform1i(getUniformLocation(name), value);
+            }
+            return this;
+        }
+
+        public Program uniform(String name, boolean flag) {
+            return uniform(name, flag ? 1 : 0);
+        }
+
+        public Program uniform(String name, float value) {
+            Object o = uniforms.put(name, value);
+            use();
+            if (!Float.valueOf(value).equals(o)) {
+                backend.uniform1f(getUniformLocation(name), value);
+            }
+            return this;
+        }
+
+        public Program uniform1f(String name, float... values) {
+            if (values.length == 1) {
+                return uniform(name, values[0]);
+            }
             Object o = uniforms.put(name, values);
             use();
-            if (!Arrays.equals(values, (int[]) o)) {
-                GL20.glUniform3iv(getUniformLocation(name), values);
+            if (!Arrays.equals(values, (float[]) o)) {
+                backend.uniform1fv(getUniformLocation(name), values);
             }
             return this;
         }
 
-        public Program uniform(String name, Vector3i v) {
-            return uniform3i(name, v.x, v.y, v.z);
+        public Program uniform2f(String name, float... values) {
+            Object o = uniforms.put(name, values);
+            use();
+            if (!Arrays.equals(values, (float[]) o)) {
+                backend.uniform2fv(getUniformLocation(name), values);
+            }
+            return this;
         }
 
-        public Program uniform4i(String name, int... values) {
+        public Program uniform(String name, Vector2f v) {
+            return uniform2f(name, v.x, v.y);
+        }
+
+        public Program uniform3f(String name, float... values) {
             Object o = uniforms.put(name, values);
             use();
-            if (!Arrays.equals(values, (int[]) o)) {
-                GL20.glUniform4iv(getUniformLocation(name), values);
+            if (!Arrays.equals(values, (float[]) o)) {
+                backend.uniform3fv(getUniformLocation(name), values);
             }
             return this;
         }
 
-        public Program uniform(String name, Vector4i v) {
-            return uniform4i(name, v.x, v.y, v.z, v.w);
+        public Program uniform(String name, Vector3f v) {
+            return uniform3f(name, v.x, v.y, v.z);
         }
 
-        public Program uniformBlock(String name, int index) {
-            Object o = uniforms.put(name, index);
+        public Program uniform4f(String name, float... values) {
+            Object o = uniforms.put(name, values);
             use();
-            if (!Integer.valueOf(index).equals(o)) {
-                GL20.glUniform1i(getUniformLocation(name), index);
-                GL31.glUniformBlockBinding(id, GL31.glGetUniformBlockIndex(id, name), index);
+            if (!Arrays.equals(values, (float[]) o)) {
+                backend.uniform4fv(getUniformLocation(name), values);
             }
             return this;
         }
 
-        public Program use() {
-            getState().program(this);
+        public Program uniform(String name, Vector4f v) {
+            return uniform4f(name, v.x, v.y, v.z, v.w);
+        }
+
+        public Program uniformMat2(String name, float... values) {
+            Object o = uniforms.put(name, values);
+            use();
+            if (!Arrays.equals(values, (float[]) o)) {
+                backend.uniformMatrix2fv(getUniformLocation(name), false, values);
+            }
             return this;
         }
-    }
 
-    public class VAO {
-        private final int vao;
-        private int vbo, vboDataCount, ebo, eboDataCount, eboDataType;
-        private int[] attribSize = new int[16];
-        private boolean readOnly;
+        public Program uniform(String name, Matrix2f v) {
+            return uniformMat2(name, v.m00, v.m01, v.m10, v.m11);
+        }
 
-        //Warning: Any VAO operation will bind it!
-        private VAO() {
-            getState().vao(vao = GL30.glGenVertexArrays(), 0).vbo(vbo = GL15.glGenBuffers());
+        public Program uniformMat3(String name, float... values) {
+            Object o = uniforms.put(name, values);
+            use();
+            if (!Arrays.equals(values, (float[]) o)) {
+                backend.uniformMatrix3fv(getUniformLocation(name), false, values);
+            }
+            return this;
         }
 
-        public VAO vboData(float[] data, int type) {
-            if (readOnly) {
-                throw new RuntimeException("VAO is read only!");
+        public Program uniform(String name, Matrix3f v) {
+            return uniformMat3(name, v.m00, v.m01, v.m02, v.m10, v.m11, v.m12, v.m20, v.m21, v.m22);
+        }
+
+        public Program uniformMat4(String name, float... values) {
+            Object o = uniforms.put(name, values);
+            use();
+            if (!(o instanceof float[] && Arrays.equals(values, (float[]) o))) {
+                backend.uniformMatrix4fv(getUniformLocation(name), false, values);
+                invalidateMVP(name);
             }
-            vboDataCount = data.length;
-            getState().vao(vao, ebo).vbo(vbo);
-            GL15.glBufferData(GL15.GL_ARRAY_BUFFER, data, type);
             return this;
         }
 
-        public VAO vboData(float[] data) {
-            return this.vboData(data, GL15.GL_STATIC_DRAW);
+        //The cached copy is reused, so an unchanged matrix costs a compare and a changed one no allocation.
+        public Program uniform(String name, Matrix4f v) {
+            Object o = uniforms.get(name);
+            use();
+            if (o instanceof Matrix4f) {
+                if (o.equals(v)) {
+                    return this;
+                }
+                ((Matrix4f) o).set(v);
+            } else {
+                uniforms.put(name, new Matrix4f(v));
+            }
+            backend.uniformMatrix4fv(getUniformLocation(name), false, v.get(matrixBuffer));
+            invalidateMVP(name);
+            return this;
+        }
+
+        private void invalidateMVP(String name) {
+            switch (name) {
+                case "uModel":
+                    modelValid = false;
+                    break;
+                case "uView":
+                    viewValid = false;
+                    break;
+                case "uProjection":
+                    projectionValid = false;
+            }
+        }
+
+        public Program uniform1i(String name, int... values) {
+            if (values.length == 1) {
+                return uniform(name, values[0]);
+            }
+            Object o = uniforms.put(name, values);
+            use();
+            if (!Arrays.equals(values, (int[]) o)) {
+                backend.uniform1iv(getUniformLocation(name), values);
+            }
+            return this;
+        }
+
+        public Program uniform2i(String name, int... values) {
+            Object o = uniforms.put(name, values);
+            use();
+            if (!Arrays.equals(values, (int[]) o)) {
+                backend.uniform2iv(getUniformLocation(name), values);
+            }
+            return this;
+        }
+
+        public Program uniform(String name, Vector2i v) {
+            return uniform2i(name, v.x, v.y);
+        }
+
+        public Program uniform3i(String name, int... values) {
+            Object o = uniforms.put(name, values);
+            use();
+            if (!Arrays.equals(values, (int[]) o)) {
+                backend.uniform3iv(getUniformLocation(name), values);
+            }
+            return this;
+        }
+
+        public Program uniform(String name, Vector3i v) {
+            return uniform3i(name, v.x, v.y, v.z);
+        }
+
+        public Program uniform4i(String name, int... values) {
+            Object o = uniforms.put(name, values);
+            use();
+            if (!Arrays.equals(values, (int[]) o)) {
+                backend.uniform4iv(getUniformLocation(name), values);
+            }
+            return this;
+        }
+
+        public Program uniform(String name, Vector4i v) {
+            return uniform4i(name, v.x, v.y, v.z, v.w);
+        }
+
+        public Program uniformBlock(String name, int index) {
+            Object o = uniforms.put(name, index);
+            use();
+            if (!Integer.valueOf(index).equals(o)) {
+                backend.uniform1i(getUniformLocation(name), index);
+                backend.uniformBlockBinding(id, backend.getUniformBlockIndex(id, name), index);
+            }
+            return this;
+        }
+
+        public Program use() {
+            getState().program(this);
+            return this;
+        }
+    }
+
+    public class VAO {
+        private final int vao;
+        private int vbo, vboDataCount, ebo, eboDataCount, eboDataType;
+        private int[] attribSize = new int[16];
+        private boolean readOnly, sharedEBO;
+
+        //Warning: Any VAO operation will bind it!
+        private VAO() {
+            getState().vao(vao = backend.genVertexArrays(), 0).vbo(vbo = backend.genBuffers());
+        }
+
+        public VAO vboData(float[] data, int type) {
+            if (readOnly) {
+                throw new RuntimeException("VAO is read only!");
+            }
+            vboDataCount = data.length;
+            getState().vao(vao, ebo).vbo(vbo);
+            bufferData(GL15.GL_ARRAY_BUFFER, data, type);
+            return this;
+        }
+
+        public VAO vboData(float[] data) {
+            return this.vboData(data, GL15.GL_STATIC_DRAW);
+        }
+
+        public VAO vboData(ByteBuffer data, int type) {
+            if (readOnly) {
+                throw new RuntimeException("VAO is read only!");
+            }
+            vboDataCount = data.remaining();
+            getState().vao(vao, ebo).vbo(vbo);
+            bufferData(GL15.GL_ARRAY_BUFFER, data, type);
+
+            return this;
+        }
+
+        public VAO vboData(ByteBuffer data) {
+            return this.vboData(data, GL15.GL_STATIC_DRAW);
+        }
+
+        public VAO vboData(FloatBuffer data, int type) {
+            if (readOnly) {
+                throw new RuntimeException("VAO is read only!");
+            }
+            vboDataCount = data.remaining();
+            getState().vao(vao, ebo).vbo(vbo);
+            bufferData(GL15.GL_ARRAY_BUFFER, data, type);
+            return this;
+        }
+
+        public VAO vboData(long size, int type) {
+            if (readOnly) {
+                throw new RuntimeException("VAO is read only!");
+            }
+            vboDataCount = (int) (size / 4);
+            getState().vao(vao, ebo).vbo(vbo);
+            bufferData(GL15.GL_ARRAY_BUFFER, size, type);
+            return this;
+        }
+
+        public VAO vboSubdata(long offset, float[] data) {
+            if (readOnly) {
+                throw new RuntimeException("VAO is read only!");
+            }
+            getState().vao(vao, ebo).vbo(vbo);
+            bufferSubData(GL15.GL_ARRAY_BUFFER, offset, data);
+            return this;
+        }
+
+        public VAO vertexAttrib(int index, int size, int type, boolean normalized, int stride, long pointer) {
+            if (readOnly) {
+                throw new RuntimeException("VAO is read only!");
+            }
+            getState().vao(vao, ebo).vbo(vbo);
+            backend.vertexAttribPointer(index, size, type, normalized, stride, pointer);
+            backend.enableVertexAttribArray(index);
+            attribSize[index] = size;
+            return this;
+        }
+
+        public VAO vertexAttrib(VBO buffer, int index, int size, int type, boolean normalized, int stride, long pointer) {
+            if (readOnly) {
+                throw new RuntimeException("VAO is read only!");
+            }
+            getState().vao(vao, ebo).vbo(buffer.vbo);
+            backend.vertexAttribPointer(index, size, type, normalized, stride, pointer);
+            backend.enableVertexAttribArray(index);
+            return this;
+        }
+
+        public VAO vertexAttribDivisor(int index, int divisor) {
+            if (readOnly) {
+                throw new RuntimeException("VAO is read only!");
+            }
+            getState().vao(vao, ebo);
+            backend.vertexAttribDivisor(index, divisor);
+            return this;
+        }
+
+        public VAO vertexAttrib(int index, int size, int type, int stride, long pointer) {
+            return vertexAttrib(index, size, type, false, stride, pointer);
+        }
+
+        public VAO vertexAttrib(int index, int size, int stride, long pointer) {
+            return vertexAttrib(index, size, GL11.GL_FLOAT, stride, pointer);
+        }
+
+        public VAO eboData(int[] data, int type) {
+            if (readOnly) {
+                throw new RuntimeException("VAO is read only!");
+            }
+            getState().vao(vao, ebo);
+            if (ebo == 0) {
+                getState().ebo(ebo = backend.genBuffers());
+            }
+            eboDataCount = data.length;
+            eboDataType = GL11.GL_UNSIGNED_INT;
+            bufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, data, type);
+            return this;
+        }
+
+        public VAO eboData(int[] data) {
+            return eboData(data, GL15.GL_STATIC_DRAW);
+        }
+
+        public VAO eboData(short[] data, int type) {
+            if (readOnly) {
+                throw new RuntimeException("VAO is read only!");
+            }
+            getState().vao(vao, ebo);
+            if (ebo == 0) {
+                getState().ebo(ebo = backend.genBuffers());
+            }
+            eboDataCount = data.length;
+            eboDataType = GL11.GL_UNSIGNED_SHORT;
+            bufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, data, type);
+            return this;
+        }
+
+        public VAO eboData(short[] data) {
+            return eboData(data, GL15.GL_STATIC_DRAW);
+        }
+
+        public VAO eboData(ByteBuffer data, int type, int dataType) {
+            if (readOnly) {
+                throw new RuntimeException("VAO is read only!");
+            }
+            getState().vao(vao, ebo);
+            if (ebo == 0) {
+                getState().ebo(ebo = backend.genBuffers());
+            }
+            switch (dataType) {
+                case GL11.GL_UNSIGNED_INT:
+                    eboDataCount = data.remaining() / 4;
+                    break;
+                case GL11.GL_UNSIGNED_SHORT:
+                    eboDataCount = data.remaining() / 2;
+                    break;
+                case GL11.GL_UNSIGNED_BYTE:
+                    eboDataCount = data.remaining();
+            }
+            eboDataType = dataType;
+            bufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, data, type);
+            return this;
+        }
+
+        public VAO eboData(ByteBuffer data, int dataType) {
+            return eboData(data, GL15.GL_STATIC_DRAW, dataType);
+        }
+
+        public VAO eboData(long size, int type, int dataType) {
+            if (readOnly) {
+                throw new RuntimeException("VAO is read only!");
+            }
+            getState().vao(vao, ebo);
+            if (ebo == 0) {
+                getState().ebo(ebo = backend.genBuffers());
+            }
+            eboDataType = dataType;
+            eboDataCount = (int) (size / getIndexSize());
+            bufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, size, type);
+            return this;
+        }
+
+        public VAO eboSubdata(long offset, int[] data) {
+            if (readOnly) {
+                throw new RuntimeException("VAO is read only!");
+            }
+            getState().vao(vao, ebo);
+            bufferSubData(GL15.GL_ELEMENT_ARRAY_BUFFER, offset, data);
+            return this;
+        }
+
+        public VAO bindEBO(int id, int count, int dataType) {
+            if (readOnly) {
+                throw new RuntimeException("VAO is read only!");
+            }
+            if (ebo != 0) {
+                throw new RuntimeException("Don't bindEBO if eboData be called, old EBO leaking!");
+            }
+            eboDataCount = count;
+            eboDataType = dataType;
+            sharedEBO = true;
+            getState().vao(vao, 0).ebo(ebo = id);
+            return this;
+        }
+
+        public VAO bindEBO(VAO other) {
+            return bindEBO(other.ebo, other.eboDataCount, other.eboDataType);
+        }
+
+        //Runs draw with rasterization off and captures the varyings of the current feedback program into this VAO's VBO.
+        public VAO captureFeedback(int primitiveMode, Runnable draw) {
+            if (readOnly) {
+                throw new RuntimeException("VAO is read only!");
+            }
+            GLState state = getState();
+            boolean discard = state.rasterizerDiscard;
+            state.rasterizerDiscard(true);
+            backend.bindBufferBase(GL30.GL_TRANSFORM_FEEDBACK_BUFFER, 0, vbo);
+            backend.beginTransformFeedback(primitiveMode);
+            draw.run();
+            backend.endTransformFeedback();
+            backend.bindBufferBase(GL30.GL_TRANSFORM_FEEDBACK_BUFFER, 0, 0);
+            state.rasterizerDiscard(discard);
+            return this;
+        }
+
+        public VAO readOnly() {
+            this.readOnly = true;
+            return this;
+        }
+
+        public void drawElements(int mode, int count) {
+            getState().vao(vao, ebo);
+            drawCalls++;
+            backend.drawElements(mode, count, eboDataType, 0);
+        }
+
+        public void drawElements(int mode, int first, int count) {
+            getState().vao(vao, ebo);
+            drawCalls++;
+            backend.drawElements(mode, count, eboDataType, (long) first * getIndexSize());
+        }
+
+        private int getIndexSize() {
+            switch (eboDataType) {
+                case GL11.GL_UNSIGNED_INT:
+                    return 4;
+                case GL11.GL_UNSIGNED_SHORT:
+                    return 2;
+                default:
+                    return 1;
+            }
+        }
+
+        public int getElementCount() {
+            return eboDataCount;
+        }
+
+        public void drawElements(int mode) {
+            drawElements(mode, eboDataCount);
+        }
+
+        public void drawElements() {
+            drawElements(GL11.GL_TRIANGLES);
+        }
+
+        public void drawElementsInstanced(int mode, int count, int instances) {
+            getState().vao(vao, ebo);
+            drawCalls++;
+            backend.drawElementsInstanced(mode, count, eboDataType, 0, instances);
+        }
+
+        public void drawElementsInstanced(int instances) {
+            drawElementsInstanced(GL11.GL_TRIANGLES, eboDataCount, instances);
+        }
+
+        public void drawArrays(int mode, int first, int count) {
+            getState().vao(vao, ebo);
+            drawCalls++;
+            backend.drawArrays(mode, first, count);
+        }
+
+        public void drawArrays(int mode, int count) {
+            drawArrays(mode, 0, count);
+        }
+
+        public void drawArrays(int mode) {
+            drawArrays(mode, vboDataCount / Arrays.stream(attribSize).sum());
+        }
+
+        //A shared EBO (bindEBO) belongs to its owner and is not deleted.
+        public void delete() {
+            getState().vao(0, 0).vbo(0);
+            backend.deleteVertexArrays(vao);
+            backend.deleteBuffers(vbo);
+            if (ebo != 0 && !sharedEBO) {
+                backend.deleteBuffers(ebo);
+            }
+        }
+    }
+
+    public class Query {
+        private final int id, target;
+        private boolean pending;
+
+        private Query(int target) {
+            this.target = target;
+            id = backend.genQueries();
+        }
+
+        public Query begin() {
+            backend.beginQuery(target, id);
+            pending = true;
+            return this;
+        }
+
+        public Query end() {
+            backend.endQuery(target);
+            return this;
+        }
+
+        //For GL_TIMESTAMP queries: records the GPU time once every command before it has finished, these can nest.
+        public Query counter() {
+            backend.queryCounter(id, target);
+            pending = true;
+            return this;
+        }
+
+        //True between begin() and the first getResult().
+        public boolean isPending() {
+            return pending;
+        }
+
+        public boolean isResultAvailable() {
+            return backend.getQueryObjecti(id, GL15.GL_QUERY_RESULT_AVAILABLE) == GL11.GL_TRUE;
+        }
+
+        //Blocks until the result is available.
+        public long getResult() {
+            pending = false;
+            return backend.getQueryObjectui64(id, GL15.GL_QUERY_RESULT);
+        }
+
+        public Query beginConditionalRender(int mode) {
+            backend.beginConditionalRender(id, mode);
+            return this;
+        }
+
+        public Query endConditionalRender() {
+            backend.endConditionalRender();
+            return this;
+        }
+
+        public void delete() {
+            backend.deleteQueries(id);
+        }
+    }
+
+    //One big VBO/EBO pair that static meshes with the same vertex layout are sub-allocated from, drawn with glMultiDrawElementsBaseVertex.
+    public class GeometryArena {
+        private final VAO vao;
+        private final int stride, vertexCapacity, indexCapacity;
+        private int vertexCount, indexCount;
+
+        //stride is in floats, indices are unsigned int
+        private GeometryArena(int stride, int vertexCapacity, int indexCapacity) {
+            this.stride = stride;
+            this.vertexCapacity = vertexCapacity;
+            this.indexCapacity = indexCapacity;
+            vao = createVAO().vboData((long) vertexCapacity * stride * 4, GL15.GL_STATIC_DRAW)
+                    .eboData((long) indexCapacity * 4, GL15.GL_STATIC_DRAW, GL11.GL_UNSIGNED_INT);
+        }
+
+        public boolean canAllocate(int vertices, int indices) {
+            return vertexCount + vertices <= vertexCapacity && indexCount + indices <= indexCapacity;
+        }
+
+        public Allocation allocate(float[] vertices, int[] indices) {
+            int vertices0 = vertices.length / stride;
+            if (!canAllocate(vertices0, indices.length)) {
+                throw new RuntimeException("Geometry arena is full: " + vertexCount + "/" + vertexCapacity + " vertices, " + indexCount + "/" + indexCapacity + " indices");
+            }
+            vao.vboSubdata((long) vertexCount * stride * 4, vertices);
+            vao.eboSubdata((long) indexCount * 4, indices);
+            Allocation allocation = new Allocation(vertexCount, indexCount, indices.length);
+            vertexCount += vertices0;
+            indexCount += indices.length;
+            return allocation;
+        }
+
+        //Attributes are set up once by the owner, pointers are relative to the start of the arena.
+        public GeometryArena vertexAttrib(int index, int size, int type, boolean normalized, long pointer) {
+            vao.vertexAttrib(index, size, type, normalized, stride * 4, pointer);
+            return this;
+        }
+
+        public DrawList createDrawList() {
+            return new DrawList();
+        }
+
+        public int getVertexCount() {
+            return vertexCount;
+        }
+
+        public int getIndexCount() {
+            return indexCount;
+        }
+
+        public class Allocation {
+            private final int baseVertex, firstIndex, indexCount;
+
+            private Allocation(int baseVertex, int firstIndex, int indexCount) {
+                this.baseVertex = baseVertex;
+                this.firstIndex = firstIndex;
+                this.indexCount = indexCount;
+            }
+
+            public int getBaseVertex() {
+                return baseVertex;
+            }
+
+            public int getFirstIndex() {
+                return firstIndex;
+            }
+
+            public int getIndexCount() {
+                return indexCount;
+            }
+        }
+
+        public class DrawList {
+            private IntBuffer counts = BufferUtils.createIntBuffer(16), baseVertices = BufferUtils.createIntBuffer(16);
+            private PointerBuffer offsets = BufferUtils.createPointerBuffer(16);
+
+            private DrawList() {
+
+            }
+
+            public DrawList add(Allocation allocation) {
+                if (!counts.hasRemaining()) {
+                    int capacity = counts.capacity() * 2;
+                    counts = BufferUtils.createIntBuffer(capacity).put((IntBuffer) counts.flip());
+                    baseVertices = BufferUtils.createIntBuffer(capacity).put((IntBuffer) baseVertices.flip());
+                    offsets = BufferUtils.createPointerBuffer(capacity).put(offsets.flip());
+                }
+                counts.put(allocation.indexCount);
+                baseVertices.put(allocation.baseVertex);
+                offsets.put((long) allocation.firstIndex * 4);
+                return this;
+            }
+
+            public DrawList clear() {
+                counts.clear();
+                baseVertices.clear();
+                offsets.clear();
+                return this;
+            }
+
+            public int size() {
+                return counts.position();
+            }
+
+            public void draw(int mode) {
+                if (size() == 0) {
+                    return;
+                }
+                getState().vao(vao.vao, vao.ebo);
+                int size = size();
+                counts.flip();
+                baseVertices.flip();
+                offsets.flip();
+                drawCalls++;
+                backend.multiDrawElementsBaseVertex(mode, counts, GL11.GL_UNSIGNED_INT, offsets, baseVertices);
+                counts.limit(counts.capacity()).position(size);
+                baseVertices.limit(baseVertices.capacity()).position(size);
+                offsets.limit(offsets.capacity()).position(size);
+            }
+
+            public void draw() {
+                draw(GL11.GL_TRIANGLES);
+            }
+        }
+    }
+
+    //Collects draws during the frame, then sorts them by state and executes them in flush().
+    public class RenderQueue {
+        private final List<DrawItem> items = new ArrayList<>();
+        //Dense ids for the sort key, handed out in submission order and cleared after every flush, so they always fit their
+        //field and deleted programs, VAOs and materials aren't kept alive. Keys compare by identity like canMerge does.
+        private final Map<Object, Integer> programIDs = new IdentityHashMap<>(), materialIDs = new IdentityHashMap<>(), vaoIDs = new IdentityHashMap<>();
+        private final Map<TextureSet, Integer> textureSetIDs = new HashMap<>();
+        private final List<TextureSet> textureSets = new ArrayList<>();
+        private final TextureSet lookup = new TextureSet();
+        private final Stats stats = new Stats();
+        private int size;
+
+        private RenderQueue() {
+
         }
 
-        public VAO vboData(ByteBuffer data, int type) {
-            if (readOnly) {
-                throw new RuntimeException("VAO is read only!");
+        public DrawItem submit(Program program, VAO vao) {
+            if (size == items.size()) {
+                items.add(new DrawItem());
             }
-            vboDataCount = data.remaining();
-            getState().vao(vao, ebo).vbo(vbo);
-            GL15.glBufferData(GL15.GL_ARRAY_BUFFER, data, type);
-
-            return this;
+            DrawItem item = items.get(size++);
+            item.reset(program, vao);
+            return item;
         }
 
-        public VAO vboData(ByteBuffer data) {
-            return this.vboData(data, GL15.GL_STATIC_DRAW);
+        public void flush() {
+            stats.reset();
+            stats.items = size;
+            if (size == 0) {
+                return;
+            }
+            for (int i = 0; i < size; i++) {
+                items.get(i).key = sortKey(items.get(i));
+            }
+            List<DrawItem> sorted = items.subList(0, size);
+            sorted.sort(Comparator.comparingLong(e -> e.key));
+            GLState state = getState();
+            state.pushMVP();
+            Matrix4f base = new Matrix4f(state.model);
+            Program lastProgram = null;
+            Object lastMaterial = null;
+            for (int i = 0; i < size; i++) {
+                DrawItem item = items.get(i);
+                int count = item.count;
+                while (i + 1 < size && canMerge(item, items.get(i + 1), count)) {
+                    count += items.get(++i).count;
+                    stats.mergedDraws++;
+                }
+                if (item.program != lastProgram) {
+                    stats.programChanges++;
+                }
+                state.program(item.program);
+                for (int j = 0; j < 16; j++) {
+                    if (item.textures[j] != 0 && state.textures[j] != item.textures[j]) {
+                        stats.textureChanges++;
+                        state.texture(j, item.textures[j]);
+                    }
+                }
+                if (item.material != null && (item.material != lastMaterial || item.program != lastProgram)) {
+                    stats.materialChanges++;
+                    item.materialSetup.accept(item.program);
+                }
+                state.model(item.hasModel ? item.model : base).applyMVP();
+                if (state.vao != item.vao.vao) {
+                    stats.vaoChanges++;
+                }
+                item.vao.drawElements(item.mode, item.first, count);
+                stats.drawCalls++;
+                lastProgram = item.program;
+                lastMaterial = item.material;
+            }
+            state.popMVP();
+            for (int i = 0; i < size; i++) {
+                items.get(i).reset(null, null);
+            }
+            size = 0;
+            programIDs.clear();
+            materialIDs.clear();
+            vaoIDs.clear();
+            textureSetIDs.clear();
+        }
+
+        //program 10 bits | material 14 bits | textures 14 bits | vao 14 bits | depth 12 bits
+        private long sortKey(DrawItem item) {
+            long program = denseID(programIDs, item.program, 0x3FF, "programs");
+            long material = item.material == null ? 0 : denseID(materialIDs, item.material, 0x3FFF, "materials");
+            lookup.textures = item.textures;
+            Integer textureSet = textureSetIDs.get(lookup);
+            if (textureSet == null) {
+                textureSet = checkID(textureSetIDs.size() + 1, 0x3FFF, "texture sets");
+                //Keys are pooled, they outlive the items they were copied from.
+                if (textureSets.size() < textureSet) {
+                    TextureSet key = new TextureSet();
+                    key.textures = new int[16];
+                    textureSets.add(key);
+                }
+                TextureSet key = textureSets.get(textureSet - 1);
+                System.arraycopy(item.textures, 0, key.textures, 0, 16);
+                textureSetIDs.put(key, textureSet);
+            }
+            long vao = denseID(vaoIDs, item.vao, 0x3FFF, "VAOs");
+            long depth = (long) (java.lang.Math.min(java.lang.Math.max(item.depth, 0.0f), 1.0f) * 0xFFF);
+            return program << 54 | material << 40 | (long) textureSet << 26 | vao << 12 | depth;
         }
 
-        public VAO vboSubdata(long offset, float[] data) {
-            if (readOnly) {
-                throw new RuntimeException("VAO is read only!");
+        private int denseID(Map<Object, Integer> ids, Object o, int max, String name) {
+            Integer id = ids.get(o);
+            if (id == null) {
+                ids.put(o, id = checkID(ids.size() + 1, max, name));
             }
-            getState().vao(vao, ebo).vbo(vbo);
-            GL15.glBufferSubData(GL15.GL_ARRAY_BUFFER, offset, data);
-            return this;
+            return id;
         }
 
-        public VAO vertexAttrib(int index, int size, int type, boolean normalized, int stride, long pointer) {
-            if (readOnly) {
-                throw new RuntimeException("VAO is read only!");
+        private int checkID(int id, int max, String name) {
+            if (id > max) {
+                throw new RuntimeException("RenderQueue can't sort more than " + max + " " + name + " in one flush");
             }
-            getState().vao(vao, ebo).vbo(vbo);
-            GL20.glVertexAttribPointer(index, size, type, normalized, stride, pointer);
-            GL20.glEnableVertexAttribArray(index);
-            attribSize[index] = size;
-            return this;
+            return id;
         }
 
-        public VAO vertexAttrib(int index, int size, int type, int stride, long pointer) {
-            return vertexAttrib(index, size, type, false, stride, pointer);
+        private boolean canMerge(DrawItem a, DrawItem b, int count) {
+            return a.program == b.program && a.vao == b.vao && a.material == b.material && a.mode == b.mode
+                    && a.first + count == b.first && Arrays.equals(a.textures, b.textures)
+                    && a.hasModel == b.hasModel && (!a.hasModel || a.model.equals(b.model));
         }
 
-        public VAO vertexAttrib(int index, int size, int stride, long pointer) {
-            return vertexAttrib(index, size, GL11.GL_FLOAT, stride, pointer);
+        public Stats getStats() {
+            return stats;
         }
 
-        public VAO eboData(int[] data, int type) {
-            if (readOnly) {
-                throw new RuntimeException("VAO is read only!");
+        public class DrawItem {
+            private Program program;
+            private VAO vao;
+            private Object material;
+            private Consumer<Program> materialSetup;
+            private final int[] textures = new int[16];
+            private final Matrix4f model = new Matrix4f();
+            private boolean hasModel;
+            private int mode, first, count;
+            private float depth;
+            private long key;
+
+            private DrawItem() {
+
             }
-            getState().vao(vao, ebo);
-            if (ebo == 0) {
-                getState().ebo(ebo = GL15.glGenBuffers());
+
+            private void reset(Program program, VAO vao) {
+                this.program = program;
+                this.vao = vao;
+                material = null;
+                materialSetup = null;
+                Arrays.fill(textures, 0);
+                hasModel = false;
+                mode = GL11.GL_TRIANGLES;
+                first = 0;
+                count = vao == null ? 0 : vao.eboDataCount;
+                depth = 0.0f;
             }
-            eboDataCount = data.length;
-            eboDataType = GL11.GL_UNSIGNED_INT;
-            GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, data, type);
-            return this;
-        }
 
-        public VAO eboData(int[] data) {
-            return eboData(data, GL15.GL_STATIC_DRAW);
-        }
+            //Items with the same material key share one materialSetup call when they end up adjacent.
+            public DrawItem material(Object key, Consumer<Program> setup) {
+                material = key;
+                materialSetup = setup;
+                return this;
+            }
 
-        public VAO eboData(short[] data, int type) {
-            if (readOnly) {
-                throw new RuntimeException("VAO is read only!");
+            public DrawItem texture(int index, Texture texture) {
+                textures[index] = texture == null ? 0 : texture.id;
+                return this;
             }
-            getState().vao(vao, ebo);
-            if (ebo == 0) {
-                getState().ebo(ebo = GL15.glGenBuffers());
+
+            public DrawItem model(Matrix4f model) {
+                this.model.set(model);
+                hasModel = true;
+                return this;
+            }
+
+            public DrawItem range(int mode, int first, int count) {
+                this.mode = mode;
+                this.first = first;
+                this.count = count;
+                return this;
+            }
+
+            //0 is the nearest, 1 the farthest; only the low bits of the key, so state is sorted first.
+            public DrawItem depth(float depth) {
+                this.depth = depth;
+                return this;
             }
-            eboDataCount = data.length;
-            eboDataType = GL11.GL_UNSIGNED_SHORT;
-            GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, data, type);
-            return this;
         }
 
-        public VAO eboData(short[] data) {
-            return eboData(data, GL15.GL_STATIC_DRAW);
+        private class TextureSet {
+            private int[] textures;
+
+            @Override
+            public boolean equals(Object o) {
+                return o instanceof TextureSet && Arrays.equals(textures, ((TextureSet) o).textures);
+            }
+
+            @Override
+            public int hashCode() {
+                return Arrays.hashCode(textures);
+            }
         }
 
-        public VAO eboData(ByteBuffer data, int type, int dataType) {
-            if (readOnly) {
-                throw new RuntimeException("VAO is read only!");
+        public class Stats {
+            private int items, drawCalls, mergedDraws, programChanges, materialChanges, textureChanges, vaoChanges;
+
+            private void reset() {
+                items = drawCalls = mergedDraws = programChanges = materialChanges = textureChanges = vaoChanges = 0;
             }
-            getState().vao(vao, ebo);
-            if (ebo == 0) {
-                getState().ebo(ebo = GL15.glGenBuffers());
+
+            public int getItems() {
+                return items;
             }
-            switch (dataType) {
-                case GL11.GL_UNSIGNED_INT:
-                    eboDataCount = data.remaining() / 4;
-                    break;
-                case GL11.GL_UNSIGNED_SHORT:
-                    eboDataCount = data.remaining() / 2;
-                    break;
-                case GL11.GL_UNSIGNED_BYTE:
-                    eboDataCount = data.remaining();
+
+            public int getDrawCalls() {
+                return drawCalls;
             }
-            eboDataType = dataType;
-            GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, data, type);
-            return this;
-        }
 
-        public VAO eboData(ByteBuffer data, int dataType) {
-            return eboData(data, GL15.GL_STATIC_DRAW, dataType);
-        }
+            public int getMergedDraws() {
+                return mergedDraws;
+            }
 
-        public VAO bindEBO(int id, int count, int dataType) {
-            if (readOnly) {
-                throw new RuntimeException("VAO is read only!");
+            public int getProgramChanges() {
+                return programChanges;
             }
-            if (ebo != 0) {
-                throw new RuntimeException("Don't bindEBO if eboData be called, old EBO leaking!");
+
+            public int getMaterialChanges() {
+                return materialChanges;
             }
-            eboDataCount = count;
-            eboDataType = dataType;
-            getState().vao(vao, 0).ebo(ebo = id);
-            return this;
-        }
 
-        public VAO readOnly() {
-            this.readOnly = true;
-            return this;
-        }
+            public int getTextureChanges() {
+                return textureChanges;
+            }
 
-        public void drawElements(int mode, int count) {
-            getState().vao(vao, ebo);
-            GL11.glDrawElements(mode, count, eboDataType, 0);
+            public int getVAOChanges() {
+                return vaoChanges;
+            }
+
+            @Override
+            public String toString() {
+                return "items " + items + ", draws " + drawCalls + ", merged " + mergedDraws + ", programs " + programChanges
+                        + ", materials " + materialChanges + ", textures " + textureChanges + ", vaos " + vaoChanges;
+            }
         }
+    }
 
-        public void drawElements(int mode) {
-            drawElements(mode, eboDataCount);
+    public class VBO {
+        private final int vbo;
+
+        private VBO() {
+            getState().vbo(vbo = backend.genBuffers());
         }
 
-        public void drawElements() {
-            drawElements(GL11.GL_TRIANGLES);
+        public VBO vboData(float[] data, int type) {
+            getState().vbo(vbo);
+            bufferData(GL15.GL_ARRAY_BUFFER, data, type);
+            return this;
         }
 
-        public void drawArrays(int mode, int first, int count) {
-            getState().vao(vao, ebo);
-            GL11.glDrawArrays(mode, first, count);
+        public VBO vboData(FloatBuffer data, int type) {
+            getState().vbo(vbo);
+            bufferData(GL15.GL_ARRAY_BUFFER, data, type);
+            return this;
         }
 
-        public void drawArrays(int mode, int count) {
-            drawArrays(mode, 0, count);
+        public VBO vboData(ByteBuffer data, int type) {
+            getState().vbo(vbo);
+            bufferData(GL15.GL_ARRAY_BUFFER, data, type);
+            return this;
         }
 
-        public void drawArrays(int mode) {
-            drawArrays(mode, vboDataCount / Arrays.stream(attribSize).sum());
+        public VBO vboSubData(long offset, FloatBuffer data) {
+            getState().vbo(vbo);
+            bufferSubData(GL15.GL_ARRAY_BUFFER, offset, data);
+            return this;
         }
     }
 
@@ -656,25 +2025,100 @@ public class GLHandler {
         private final int ubo;
 
         private UBO() {
-            getState().ubo(ubo = GL15.glGenBuffers());
+            getState().ubo(ubo = backend.genBuffers());
         }
 
         public UBO uboData(float[] data, int type) {
             getState().ubo(ubo);
-            GL15.glBufferData(GL31.GL_UNIFORM_BUFFER, data, type);
+            bufferData(GL31.GL_UNIFORM_BUFFER, data, type);
             return this;
         }
 
         public UBO uboSubData(long offset, float[] data) {
             getState().ubo(ubo);
-            GL15.glBufferSubData(GL31.GL_UNIFORM_BUFFER, offset, data);
+            bufferSubData(GL31.GL_UNIFORM_BUFFER, offset, data);
             return this;
         }
 
+        //glBindBufferBase also binds the generic GL_UNIFORM_BUFFER target.
         public UBO bind(int index) {
-            GL30.glBindBufferBase(GL31.GL_UNIFORM_BUFFER, index, ubo);
+            backend.bindBufferBase(GL31.GL_UNIFORM_BUFFER, index, ubo);
+            getState().ubo = ubo;
+            return this;
+        }
+    }
+
+    //Offscreen render target: an RGBA8 color texture and a depth stencil renderbuffer.
+    public class Framebuffer {
+        private final int fbo, depthStencil, width, height;
+        private final Texture color;
+
+        private Framebuffer(int width, int height) {
+            this.width = width;
+            this.height = height;
+            GLState state = getState();
+            int previous = state.framebuffer;
+            color = createTexture(false).image(GL11.GL_RGBA8, width, height, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, null);
+            depthStencil = backend.genRenderbuffers();
+            backend.bindRenderbuffer(GL30.GL_RENDERBUFFER, depthStencil);
+            backend.renderbufferStorage(GL30.GL_RENDERBUFFER, GL30.GL_DEPTH24_STENCIL8, width, height);
+            state.framebuffer(fbo = backend.genFramebuffers());
+            backend.framebufferTexture2D(GL30.GL_FRAMEBUFFER, GL30.GL_COLOR_ATTACHMENT0, GL11.GL_TEXTURE_2D, color.id, 0);
+            backend.framebufferRenderbuffer(GL30.GL_FRAMEBUFFER, GL30.GL_DEPTH_STENCIL_ATTACHMENT, GL30.GL_RENDERBUFFER, depthStencil);
+            int status = backend.checkFramebufferStatus(GL30.GL_FRAMEBUFFER);
+            state.framebuffer(previous);
+            if (status != GL30.GL_FRAMEBUFFER_COMPLETE) {
+                throw new RuntimeException("Framebuffer incomplete, status " + status);
+            }
+        }
+
+        //Also sets the viewport to the whole target.
+        public Framebuffer bind() {
+            getState().framebuffer(fbo).viewport(0, 0, width, height);
             return this;
         }
+
+        //RGBA, bottom row first. Waits for rendering to finish.
+        public ByteBuffer readPixels(ByteBuffer pixels) {
+            getState().framebuffer(fbo);
+            backend.readPixels(0, 0, width, height, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, pixels);
+            return pixels;
+        }
+
+        public ByteBuffer readPixels() {
+            return readPixels(BufferUtils.createByteBuffer(width * height * 4));
+        }
+
+        public void writePNG(String path) {
+            ByteBuffer pixels = readPixels();
+            STBImageWrite.stbi_flip_vertically_on_write(true);
+            boolean written = STBImageWrite.stbi_write_png(path, width, height, 4, pixels, width * 4);
+            STBImageWrite.stbi_flip_vertically_on_write(false);
+            if (!written) {
+                throw new RuntimeException("Failed to write png: " + path);
+            }
+        }
+
+        public Texture getColor() {
+            return color;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public void delete() {
+            if (getState().framebuffer == fbo) {
+                getState().framebuffer(0);
+            }
+            backend.deleteFramebuffers(fbo);
+            backend.deleteRenderbuffers(depthStencil);
+            backend.deleteTextures(color.id);
+        }
     }
 
     public class Light {
@@ -705,74 +2149,83 @@ public class GLHandler {
     }
 
     public class GLState {
-        private boolean cullFront, cullFace, depthTest, blend;
-        private int depthFunc, vao, vbo, ebo, ubo, unpackAlignment, activeTexture, blendSrcFactor = GL11.GL_ONE, blendDstFactor = GL11.GL_ZERO;
-        private int[] textures;
-        private Vector4f clearColor;
-        private Vector4i viewport;
+        private boolean cullFront, cullFace, depthTest, blend, colorMask = true, depthMask = true, scissorTest, stencilTest, polygonOffsetFill, rasterizerDiscard;
+        private int stencilFunc = GL11.GL_ALWAYS, stencilRef, stencilValueMask = -1, stencilWriteMask = -1;
+        private int stencilFail = GL11.GL_KEEP, stencilDepthFail = GL11.GL_KEEP, stencilDepthPass = GL11.GL_KEEP;
+        private float polygonOffsetFactor, polygonOffsetUnits;
+        private final Vector4i scissor = new Vector4i();
+        private final int[] samplers = new int[16];
+        private int depthFunc = GL11.GL_LESS, vao, vbo, ebo, ubo, framebuffer, unpackAlignment, activeTexture, blendSrcFactor = GL11.GL_ONE, blendDstFactor = GL11.GL_ZERO;
+        private final int[] textures, textureArrays, textureBuffers;
+        private final Vector4f clearColor;
+        private final Vector4i viewport;
         private Program program;
-        private Object[] vertexAttribs = new Object[16];
-        public Matrix4f model, view, projection;
-        private Stack<List<Matrix4f>> mvpStack;
+        //Constant vertex attributes: kind 0 is unset, 1-4 float components, 5-8 int components.
+        private final int[] attribKinds = new int[16], attribInts = new int[64];
+        private final float[] attribFloats = new float[64];
+        //Setters copy, so the matrices can be modified in place between push and pop.
+        public final Matrix4f model, view, projection;
+        private final Matrix4f[] mvpStack = new Matrix4f[MVP_DEPTH * 3];
+        private int mvpDepth;
 
         private GLState() {
-            clearColor = new Vector4f();
+            //GL starts at (0, 0, 0, 0), new Vector4f() would be opaque black.
+            clearColor = new Vector4f(0.0f);
             viewport = new Vector4i();
             model = new Matrix4f();
             view = new Matrix4f();
             projection = new Matrix4f();
             unpackAlignment = 4;
             textures = new int[16];
-            mvpStack = new Stack<>();
+            textureArrays = new int[16];
+            textureBuffers = new int[16];
         }
 
-        private GLState(GLState state) {
+        private void set(GLState state) {
             cullFront = state.cullFront;
             cullFace = state.cullFace;
             depthTest = state.depthTest;
             depthFunc = state.depthFunc;
             blend = state.blend;
+            colorMask = state.colorMask;
+            depthMask = state.depthMask;
             blendSrcFactor = state.blendSrcFactor;
             blendDstFactor = state.blendDstFactor;
-            clearColor = new Vector4f(state.clearColor);
+            scissorTest = state.scissorTest;
+            scissor.set(state.scissor);
+            stencilTest = state.stencilTest;
+            stencilFunc = state.stencilFunc;
+            stencilRef = state.stencilRef;
+            stencilValueMask = state.stencilValueMask;
+            stencilWriteMask = state.stencilWriteMask;
+            stencilFail = state.stencilFail;
+            stencilDepthFail = state.stencilDepthFail;
+            stencilDepthPass = state.stencilDepthPass;
+            polygonOffsetFill = state.polygonOffsetFill;
+            polygonOffsetFactor = state.polygonOffsetFactor;
+            polygonOffsetUnits = state.polygonOffsetUnits;
+            rasterizerDiscard = state.rasterizerDiscard;
+            System.arraycopy(state.samplers, 0, samplers, 0, 16);
+            clearColor.set(state.clearColor);
             unpackAlignment = state.unpackAlignment;
-            viewport = new Vector4i(state.viewport);
-            model = new Matrix4f(state.model);
-            view = new Matrix4f(state.view);
-            projection = new Matrix4f(state.projection);
+            viewport.set(state.viewport);
+            model.set(state.model);
+            view.set(state.view);
+            projection.set(state.projection);
             program = state.program;
             vao = state.vao;
             vbo = state.vbo;
             ebo = state.ebo;
             ubo = state.ubo;
-            textures = Arrays.copyOf(state.textures, 16);
+            framebuffer = state.framebuffer;
+            System.arraycopy(state.textures, 0, textures, 0, 16);
+            System.arraycopy(state.textureArrays, 0, textureArrays, 0, 16);
+            System.arraycopy(state.textureBuffers, 0, textureBuffers, 0, 16);
             activeTexture = state.activeTexture;
-            for (int i = 0; i < vertexAttribs.length; i++) {
-                Object o = state.vertexAttribs[i];
-                if (o instanceof Integer || o instanceof Float) {
-                    vertexAttribs[i] = o;
-                } else if (o instanceof Vector2f) {
-                    vertexAttribs[i] = new Vector2f((Vector2f) o);
-                } else if (o instanceof Vector3f) {
-                    vertexAttribs[i] = new Vector3f((Vector3f) o);
-                } else if (o instanceof Vector4f) {
-                    vertexAttribs[i] = new Vector4f((Vector4f) o);
-                } else if (o instanceof Vector2i) {
-                    vertexAttribs[i] = new Vector2i((Vector2i) o);
-                } else if (o instanceof Vector3i) {
-                    vertexAttribs[i] = new Vector3i((Vector3i) o);
-                } else if (o instanceof Vector4i) {
-                    vertexAttribs[i] = new Vector4i((Vector4i) o);
-                }
-            }
-            mvpStack = new Stack<>();
-            state.mvpStack.forEach(e -> {
-                List<Matrix4f> l = new ArrayList<>();
-                l.add(new Matrix4f(e.get(0)));
-                l.add(new Matrix4f(e.get(1)));
-                l.add(new Matrix4f(e.get(2)));
-                mvpStack.push(l);
-            });
+            System.arraycopy(state.attribKinds, 0, attribKinds, 0, 16);
+            System.arraycopy(state.attribFloats, 0, attribFloats, 0, 64);
+            System.arraycopy(state.attribInts, 0, attribInts, 0, 64);
+            copyMVPStack(state);
         }
 
         public void applyState(GLState state) {
@@ -782,64 +2235,93 @@ public class GLHandler {
             depthFunc(state.depthFunc);
             blend(state.blend);
             blendFunc(state.blendSrcFactor, state.blendDstFactor);
+            colorMask(state.colorMask);
+            depthMask(state.depthMask);
+            scissorTest(state.scissorTest);
+            scissor(state.scissor.x, state.scissor.y, state.scissor.z, state.scissor.w);
+            stencilTest(state.stencilTest);
+            stencilFunc(state.stencilFunc, state.stencilRef, state.stencilValueMask);
+            stencilOp(state.stencilFail, state.stencilDepthFail, state.stencilDepthPass);
+            stencilMask(state.stencilWriteMask);
+            polygonOffsetFill(state.polygonOffsetFill);
+            polygonOffset(state.polygonOffsetFactor, state.polygonOffsetUnits);
+            rasterizerDiscard(state.rasterizerDiscard);
             clearColor(state.clearColor);
             unpackAlignment(state.unpackAlignment);
             viewport(state.viewport);
             program(state.program);
-            model = new Matrix4f(state.model);
-            view = new Matrix4f(state.view);
-            projection = new Matrix4f(state.projection);
+            model.set(state.model);
+            view.set(state.view);
+            projection.set(state.projection);
             if (program != null) {
                 applyMVP();
             }
             vao(state.vao, state.ebo);
             vbo(state.vbo);
             ubo(state.ubo);
+            framebuffer(state.framebuffer);
             for (int i = 0; i < 16; i++) {
                 texture(i, state.textures[i]);
+                textureArray(i, state.textureArrays[i]);
+                textureBuffer(i, state.textureBuffers[i]);
+                sampler(i, state.samplers[i]);
             }
             //activeTexture is not applied, because it should not be manually controlled.
-            mvpStack = new Stack<>();
-            state.mvpStack.forEach(e -> {
-                List<Matrix4f> l = new ArrayList<>();
-                l.add(new Matrix4f(e.get(0)));
-                l.add(new Matrix4f(e.get(1)));
-                l.add(new Matrix4f(e.get(2)));
-                mvpStack.push(l);
-            });
+            copyMVPStack(state);
+        }
+
+        private void copyMVPStack(GLState state) {
+            for (int i = 0; i < state.mvpDepth * 3; i++) {
+                if (mvpStack[i] == null) {
+                    mvpStack[i] = new Matrix4f();
+                }
+                mvpStack[i].set(state.mvpStack[i]);
+            }
+            mvpDepth = state.mvpDepth;
         }
 
         public GLState pushMVP() {
-            List<Matrix4f> l = new ArrayList<>();
-            l.add(new Matrix4f(model));
-            l.add(new Matrix4f(view));
-            l.add(new Matrix4f(projection));
-            mvpStack.push(l);
+            if (mvpDepth == MVP_DEPTH) {
+                throw new RuntimeException("MVP stack overflow, max depth: " + MVP_DEPTH);
+            }
+            int i = mvpDepth * 3;
+            if (mvpStack[i] == null) {
+                mvpStack[i] = new Matrix4f();
+                mvpStack[i + 1] = new Matrix4f();
+                mvpStack[i + 2] = new Matrix4f();
+            }
+            mvpStack[i].set(model);
+            mvpStack[i + 1].set(view);
+            mvpStack[i + 2].set(projection);
+            mvpDepth++;
             return this;
         }
 
         public GLState popMVP() {
-            List<Matrix4f> l = mvpStack.pop();
-            model = l.get(0);
-            view = l.get(1);
-            projection = l.get(2);
+            if (mvpDepth == 0) {
+                throw new RuntimeException("MVP stack underflow");
+            }
+            int i = --mvpDepth * 3;
+            model.set(mvpStack[i]);
+            view.set(mvpStack[i + 1]);
+            projection.set(mvpStack[i + 2]);
             return this;
         }
 
         public GLState cullFront(boolean cullFront) {
-            if (this.cullFront != cullFront) {
-                GL11.glCullFace(cullFront ? GL11.GL_FRONT : GL11.GL_BACK);
+            if (changed(this.cullFront != cullFront)) {
+                backend.cullFace(cullFront ? GL11.GL_FRONT : GL11.GL_BACK);
             }
             this.cullFront = cullFront;
             return this;
         }
 
         public GLState cullFace(boolean enable) {
-            if (this.cullFace != enable) {
+            if (changed(this.cullFace != enable)) {
                 if (enable) {
-                    GL11.glEnable(GL11.GL_CULL_FACE);
+                    backend.enable(GL11.GL_CULL_FACE);
                 } else {
-                    GL11.glDisable(GL11.GL_CULL_FACE);
+                    backend.disable(GL11.GL_CULL_FACE);
                 }
             }
             this.cullFace = enable;
@@ -847,11 +2329,11 @@ public class GLHandler {
         }
 
         public GLState depthTest(boolean enable) {
-            if (this.depthTest != enable) {
+            if (changed(this.depthTest != enable)) {
                 if (enable) {
-                    GL11.glEnable(GL11.GL_DEPTH_TEST);
+                    backend.enable(GL11.GL_DEPTH_TEST);
                 } else {
-                    GL11.glDisable(GL11.GL_DEPTH_TEST);
+                    backend.disable(GL11.GL_DEPTH_TEST);
                 }
                 this.depthTest = enable;
             }
@@ -859,19 +2341,19 @@ public class GLHandler {
         }
 
         public GLState depthFunc(int depthFunc) {
-            if (this.depthFunc != depthFunc) {
-                GL11.glDepthFunc(depthFunc);
+            if (changed(this.depthFunc != depthFunc)) {
+                backend.depthFunc(depthFunc);
                 this.depthFunc = depthFunc;
             }
             return this;
         }
 
         public GLState blend(boolean enable) {
-            if (this.blend != enable) {
+            if (changed(this.blend != enable)) {
                 if (enable) {
-                    GL11.glEnable(GL11.GL_BLEND);
+                    backend.enable(GL11.GL_BLEND);
                 } else {
-                    GL11.glDisable(GL11.GL_BLEND);
+                    backend.disable(GL11.GL_BLEND);
                 }
                 this.blend = enable;
             }
@@ -879,45 +2361,226 @@ public class GLHandler {
         }
 
         public GLState blendFunc(int srcFactor, int dstFactor) {
-            if (!(this.blendSrcFactor == srcFactor && this.blendDstFactor == dstFactor)) {
-                GL11.glBlendFunc(srcFactor, dstFactor);
+            if (changed(!(this.blendSrcFactor == srcFactor && this.blendDstFactor == dstFactor))) {
+                backend.blendFunc(srcFactor, dstFactor);
                 this.blendSrcFactor = srcFactor;
                 this.blendDstFactor = dstFactor;
             }
             return this;
         }
 
+        public GLState colorMask(boolean enable) {
+            if (changed(this.colorMask != enable)) {
+                backend.colorMask(enable, enable, enable, enable);
+                this.colorMask = enable;
+            }
+            return this;
+        }
+
+        public GLState depthMask(boolean enable) {
+            if (changed(this.depthMask != enable)) {
+                backend.depthMask(enable);
+                this.depthMask = enable;
+            }
+            return this;
+        }
+
+        public GLState scissorTest(boolean enable) {
+            if (changed(this.scissorTest != enable)) {
+                capability(GL11.GL_SCISSOR_TEST, enable);
+                this.scissorTest = enable;
+            }
+            return this;
+        }
+
+        public GLState scissor(int x, int y, int width, int height) {
+            if (changed(!this.scissor.equals(x, y, width, height))) {
+                backend.scissor(x, y, width, height);
+                this.scissor.set(x, y, width, height);
+            }
+            return this;
+        }
+
+        public GLState stencilTest(boolean enable) {
+            if (changed(this.stencilTest != enable)) {
+                capability(GL11.GL_STENCIL_TEST, enable);
+                this.stencilTest = enable;
+            }
+            return this;
+        }
+
+        public GLState stencilFunc(int func, int ref, int mask) {
+            if (changed(this.stencilFunc != func || this.stencilRef != ref || this.stencilValueMask != mask)) {
+                backend.stencilFunc(func, ref, mask);
+                this.stencilFunc = func;
+                this.stencilRef = ref;
+                this.stencilValueMask = mask;
+            }
+            return this;
+        }
+
+        public GLState stencilOp(int fail, int depthFail, int depthPass) {
+            if (changed(this.stencilFail != fail || this.stencilDepthFail != depthFail || this.stencilDepthPass != depthPass)) {
+                backend.stencilOp(fail, depthFail, depthPass);
+                this.stencilFail = fail;
+                this.stencilDepthFail = depthFail;
+                this.stencilDepthPass = depthPass;
+            }
+            return this;
+        }
+
+        public GLState stencilMask(int mask) {
+            if (changed(this.stencilWriteMask != mask)) {
+                backend.stencilMask(mask);
+                this.stencilWriteMask = mask;
+            }
+            return this;
+        }
+
+        public GLState polygonOffsetFill(boolean enable) {
+            if (changed(this.polygonOffsetFill != enable)) {
+                capability(GL11.GL_POLYGON_OFFSET_FILL, enable);
+                this.polygonOffsetFill = enable;
+            }
+            return this;
+        }
+
+        public GLState rasterizerDiscard(boolean enable) {
+            if (changed(this.rasterizerDiscard != enable)) {
+                capability(GL30.GL_RASTERIZER_DISCARD, enable);
+                this.rasterizerDiscard = enable;
+            }
+            return this;
+        }
+
+        public GLState polygonOffset(float factor, float units) {
+            if (changed(this.polygonOffsetFactor != factor || this.polygonOffsetUnits != units)) {
+                backend.polygonOffset(factor, units);
+                this.polygonOffsetFactor = factor;
+                this.polygonOffsetUnits = units;
+            }
+            return this;
+        }
+
+        public GLState sampler(int index, int samplerID) {
+            if (changed(samplers[index] != samplerID)) {
+                backend.bindSampler(index, samplerID);
+                samplers[index] = samplerID;
+            }
+            return this;
+        }
+
+        private void capability(int cap, boolean enable) {
+            if (enable) {
+                backend.enable(cap);
+            } else {
+                backend.disable(cap);
+            }
+        }
+
+        private boolean changed(boolean changed) {
+            if (changed) {
+                stateChanges++;
+            } else {
+                redundantCalls++;
+            }
+            return changed;
+        }
+
+        //Compares every cached field with glGet, logs the mismatches and returns their count.
+        public int validate() {
+            List<String> mismatches = new ArrayList<>();
+            check(mismatches, "cullFace", cullFace, backend.isEnabled(GL11.GL_CULL_FACE));
+            check(mismatches, "cullFront", cullFront ? GL11.GL_FRONT : GL11.GL_BACK, backend.getInteger(GL11.GL_CULL_FACE_MODE));
+            check(mismatches, "depthTest", depthTest, backend.isEnabled(GL11.GL_DEPTH_TEST));
+            check(mismatches, "depthFunc", depthFunc, backend.getInteger(GL11.GL_DEPTH_FUNC));
+            check(mismatches, "blend", blend, backend.isEnabled(GL11.GL_BLEND));
+            check(mismatches, "blendSrcFactor", blendSrcFactor, backend.getInteger(GL14.GL_BLEND_SRC_RGB));
+            check(mismatches, "blendDstFactor", blendDstFactor, backend.getInteger(GL14.GL_BLEND_DST_RGB));
+            ByteBuffer mask = BufferUtils.createByteBuffer(4);
+            backend.getBooleanv(GL11.GL_COLOR_WRITEMASK, mask);
+            check(mismatches, "colorMask", colorMask, mask.get(0) != 0);
+            check(mismatches, "depthMask", depthMask, backend.getBoolean(GL11.GL_DEPTH_WRITEMASK));
+            check(mismatches, "scissorTest", scissorTest, backend.isEnabled(GL11.GL_SCISSOR_TEST));
+            IntBuffer box = BufferUtils.createIntBuffer(4);
+            backend.getIntegerv(GL11.GL_SCISSOR_BOX, box);
+            check(mismatches, "scissor", scissor, new Vector4i(box));
+            backend.getIntegerv(GL11.GL_VIEWPORT, box);
+            check(mismatches, "viewport", viewport, new Vector4i(box));
+            check(mismatches, "stencilTest", stencilTest, backend.isEnabled(GL11.GL_STENCIL_TEST));
+            check(mismatches, "stencilFunc", stencilFunc, backend.getInteger(GL11.GL_STENCIL_FUNC));
+            check(mismatches, "stencilRef", stencilRef, backend.getInteger(GL11.GL_STENCIL_REF));
+            check(mismatches, "stencilValueMask", stencilValueMask, backend.getInteger(GL11.GL_STENCIL_VALUE_MASK));
+            check(mismatches, "stencilWriteMask", stencilWriteMask, backend.getInteger(GL11.GL_STENCIL_WRITEMASK));
+            check(mismatches, "stencilFail", stencilFail, backend.getInteger(GL11.GL_STENCIL_FAIL));
+            check(mismatches, "stencilDepthFail", stencilDepthFail, backend.getInteger(GL11.GL_STENCIL_PASS_DEPTH_FAIL));
+            check(mismatches, "stencilDepthPass", stencilDepthPass, backend.getInteger(GL11.GL_STENCIL_PASS_DEPTH_PASS));
+            check(mismatches, "polygonOffsetFill", polygonOffsetFill, backend.isEnabled(GL11.GL_POLYGON_OFFSET_FILL));
+            check(mismatches, "polygonOffsetFactor", polygonOffsetFactor, backend.getFloat(GL11.GL_POLYGON_OFFSET_FACTOR));
+            check(mismatches, "polygonOffsetUnits", polygonOffsetUnits, backend.getFloat(GL11.GL_POLYGON_OFFSET_UNITS));
+            check(mismatches, "rasterizerDiscard", rasterizerDiscard, backend.isEnabled(GL30.GL_RASTERIZER_DISCARD));
+            FloatBuffer color = BufferUtils.createFloatBuffer(4);
+            backend.getFloatv(GL11.GL_COLOR_CLEAR_VALUE, color);
+            check(mismatches, "clearColor", clearColor, new Vector4f(color));
+            check(mismatches, "unpackAlignment", unpackAlignment, backend.getInteger(GL11.GL_UNPACK_ALIGNMENT));
+            check(mismatches, "program", program == null ? 0 : program.id, backend.getInteger(GL20.GL_CURRENT_PROGRAM));
+            check(mismatches, "vao", vao, backend.getInteger(GL30.GL_VERTEX_ARRAY_BINDING));
+            check(mismatches, "vbo", vbo, backend.getInteger(GL15.GL_ARRAY_BUFFER_BINDING));
+            check(mismatches, "ebo", ebo, backend.getInteger(GL15.GL_ELEMENT_ARRAY_BUFFER_BINDING));
+            check(mismatches, "ubo", ubo, backend.getInteger(GL31.GL_UNIFORM_BUFFER_BINDING));
+            check(mismatches, "framebuffer", framebuffer, backend.getInteger(GL30.GL_FRAMEBUFFER_BINDING));
+            check(mismatches, "activeTexture", activeTexture, backend.getInteger(GL13.GL_ACTIVE_TEXTURE) - GL13.GL_TEXTURE0);
+            for (int i = 0; i < 16; i++) {
+                backend.activeTexture(GL13.GL_TEXTURE0 + i);
+                check(mismatches, "texture" + i, textures[i], backend.getInteger(GL11.GL_TEXTURE_BINDING_2D));
+                check(mismatches, "textureArray" + i, textureArrays[i], backend.getInteger(GL30.GL_TEXTURE_BINDING_2D_ARRAY));
+                check(mismatches, "textureBuffer" + i, textureBuffers[i], backend.getInteger(GL31.GL_TEXTURE_BINDING_BUFFER));
+                check(mismatches, "sampler" + i, samplers[i], backend.getInteger(GL33.GL_SAMPLER_BINDING));
+            }
+            backend.activeTexture(GL13.GL_TEXTURE0 + activeTexture);
+            for (String mismatch : mismatches) {
+                game.getLogger().warn("GLState mismatch: {}", mismatch);
+            }
+            return mismatches.size();
+        }
+
+        private void check(List<String> mismatches, String name, Object cached, Object actual) {
+            if (!cached.equals(actual)) {
+                mismatches.add(name + " cached " + cached + ", actual " + actual);
+            }
+        }
+
         public GLState clearColor(Vector4f clearColor) {
-            if (!this.clearColor.equals(clearColor)) {
-                GL11.glClearColor(clearColor.x, clearColor.y, clearColor.z, clearColor.w);
+            if (changed(!this.clearColor.equals(clearColor))) {
+                backend.clearColor(clearColor.x, clearColor.y, clearColor.z, clearColor.w);
+                this.clearColor.set(clearColor);
             }
-            this.clearColor = clearColor;
             return this;
         }
 
         public GLState unpackAlignment(int value) {
-            if (this.unpackAlignment != value) {
-                GL11.glPixelStorei(GL11.GL_UNPACK_ALIGNMENT, value);
+            if (changed(this.unpackAlignment != value)) {
+                backend.pixelStorei(GL11.GL_UNPACK_ALIGNMENT, value);
                 this.unpackAlignment = value;
             }
             return this;
         }
 
         public GLState viewport(int x, int y, int width, int height) {
-            return viewport(new Vector4i(x, y, width, height));
+            if (changed(!this.viewport.equals(x, y, width, height))) {
+                backend.viewport(x, y, width, height);
+                this.viewport.set(x, y, width, height);
+            }
+            return this;
         }
 
         public GLState viewport(Vector4i v) {
-            if (!this.viewport.equals(v)) {
-                GL11.glViewport(v.x, v.y, v.z, v.w);
-            }
-            this.viewport = v;
-            return this;
+            return viewport(v.x, v.y, v.z, v.w);
         }
 
         public GLState program(Program program) {
-            if (this.program != program) {
-                GL20.glUseProgram(program == null ? 0 : program.id);
+            if (changed(this.program != program)) {
+                backend.useProgram(program == null ? 0 : program.id);
                 this.program = program;
             }
             return this;
@@ -945,91 +2608,110 @@ public class GLHandler {
         }
 
         public GLState vertexAttrib(int index, float value) {
-            if (!(vertexAttribs[index] instanceof Float && ((float) vertexAttribs[index]) == value)) {
-                GL20.glVertexAttrib1f(index, value);
-                vertexAttribs[index] = value;
+            if (changed(attrib(index, 1, value, 0.0f, 0.0f, 0.0f))) {
+                backend.vertexAttrib1f(index, value);
             }
             return this;
         }
 
         public GLState vertexAttrib(int index, int value) {
-            if (!(vertexAttribs[index] instanceof Integer && ((int) vertexAttribs[index]) == value)) {
-                GL30.glVertexAttribI1i(index, value);
-                vertexAttribs[index] = value;
+            if (changed(attribI(index, 5, value, 0, 0, 0))) {
+                backend.vertexAttribI1i(index, value);
             }
             return this;
         }
 
         public GLState vertexAttrib(int index, Vector2f value) {
-            if (!value.equals(vertexAttribs[index])) {
-                GL20.glVertexAttrib2f(index, value.x, value.y);
-                vertexAttribs[index] = value;
+            if (changed(attrib(index, 2, value.x, value.y, 0.0f, 0.0f))) {
+                backend.vertexAttrib2f(index, value.x, value.y);
             }
             return this;
         }
 
         public GLState vertexAttrib(int index, Vector3f value) {
-            if (!value.equals(vertexAttribs[index])) {
-                GL20.glVertexAttrib3f(index, value.x, value.y, value.z);
-                vertexAttribs[index] = value;
+            if (changed(attrib(index, 3, value.x, value.y, value.z, 0.0f))) {
+                backend.vertexAttrib3f(index, value.x, value.y, value.z);
             }
             return this;
         }
 
         public GLState vertexAttrib(int index, Vector4f value) {
-            if (!value.equals(vertexAttribs[index])) {
-                GL20.glVertexAttrib4f(index, value.x, value.y, value.z, value.w);
-                vertexAttribs[index] = value;
+            if (changed(attrib(index, 4, value.x, value.y, value.z, value.w))) {
+                backend.vertexAttrib4f(index, value.x, value.y, value.z, value.w);
             }
             return this;
         }
 
         public GLState vertexAttrib(int index, Vector2i value) {
-            if (!value.equals(vertexAttribs[index])) {
-                GL30.glVertexAttribI2i(index, value.x, value.y);
-                vertexAttribs[index] = value;
+            if (changed(attribI(index, 6, value.x, value.y, 0, 0))) {
+                backend.vertexAttribI2i(index, value.x, value.y);
             }
             return this;
         }
 
         public GLState vertexAttrib(int index, Vector3i value) {
-            if (!value.equals(vertexAttribs[index])) {
-                GL30.glVertexAttribI3i(index, value.x, value.y, value.z);
-                vertexAttribs[index] = value;
+            if (changed(attribI(index, 7, value.x, value.y, value.z, 0))) {
+                backend.vertexAttribI3i(index, value.x, value.y, value.z);
             }
             return this;
         }
 
         public GLState vertexAttrib(int index, Vector4i value) {
-            if (!value.equals(vertexAttribs[index])) {
-                GL30.glVertexAttribI4i(index, value.x, value.y, value.z, value.w);
-                vertexAttribs[index] = value;
+            if (changed(attribI(index, 8, value.x, value.y, value.z, value.w))) {
+                backend.vertexAttribI4i(index, value.x, value.y, value.z, value.w);
             }
             return this;
         }
 
+        //Records the value, returns false when it's already current.
+        private boolean attrib(int index, int kind, float x, float y, float z, float w) {
+            int o = index * 4;
+            if (attribKinds[index] == kind && attribFloats[o] == x && attribFloats[o + 1] == y && attribFloats[o + 2] == z && attribFloats[o + 3] == w) {
+                return false;
+            }
+            attribKinds[index] = kind;
+            attribFloats[o] = x;
+            attribFloats[o + 1] = y;
+            attribFloats[o + 2] = z;
+            attribFloats[o + 3] = w;
+            return true;
+        }
+
+        private boolean attribI(int index, int kind, int x, int y, int z, int w) {
+            int o = index * 4;
+            if (attribKinds[index] == kind && attribInts[o] == x && attribInts[o + 1] == y && attribInts[o + 2] == z && attribInts[o + 3] == w) {
+                return false;
+            }
+            attribKinds[index] = kind;
+            attribInts[o] = x;
+            attribInts[o + 1] = y;
+            attribInts[o + 2] = z;
+            attribInts[o + 3] = w;
+            return true;
+        }
+
         public GLState model(Matrix4f model) {
-            this.model = model;
+            this.model.set(model);
             return this;
         }
 
         public GLState view(Matrix4f view) {
-            this.view = view;
+            this.view.set(view);
             return this;
         }
 
         public GLState projection(Matrix4f projection) {
-            this.projection = projection;
+            this.projection.set(projection);
             return this;
         }
 
         public void applyMVP() {
-            program.uniform("uModel", model).uniform("uView", view).uniform("uProjection", projection);
+            program.applyMVP(model, view, projection);
         }
 
         public GLState vao(int vao, int ebo) {
-            if (this.vao != vao) {
-                GL30.glBindVertexArray(vao);
+            if (changed(this.vao != vao)) {
+                backend.bindVertexArray(vao);
                 this.vao = vao;
             }
             this.ebo = ebo;
@@ -1037,8 +2719,8 @@ public class GLHandler {
         }
 
         public GLState vbo(int vbo) {
-            if (this.vbo != vbo) {
-                GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vbo);
+            if (changed(this.vbo != vbo)) {
+                backend.bindBuffer(GL15.GL_ARRAY_BUFFER, vbo);
                 this.vbo = vbo;
             }
             return this;
@@ -1048,33 +2730,42 @@ public class GLHandler {
             if (vao == 0 & ebo != 0) {
                 throw new RuntimeException("Don't bind EBO when vao = 0, that will cause state bug!");
             }
-            if (this.ebo != ebo) {
-                GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, ebo);
+            if (changed(this.ebo != ebo)) {
+                backend.bindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, ebo);
                 this.ebo = ebo;
             }
             return this;
         }
 
         public GLState ubo(int ubo) {
-            if (this.ubo != ubo) {
-                GL15.glBindBuffer(GL31.GL_UNIFORM_BUFFER, ubo);
+            if (changed(this.ubo != ubo)) {
+                backend.bindBuffer(GL31.GL_UNIFORM_BUFFER, ubo);
                 this.ubo = ubo;
             }
             return this;
         }
 
+        //0 is the window.
+        public GLState framebuffer(int framebuffer) {
+            if (changed(this.framebuffer != framebuffer)) {
+                backend.bindFramebuffer(GL30.GL_FRAMEBUFFER, framebuffer);
+                this.framebuffer = framebuffer;
+            }
+            return this;
+        }
+
         public GLState activeTexture(int index) {
-            if (activeTexture != index) {
-                GL13.glActiveTexture(GL13.GL_TEXTURE0 + index);
+            if (changed(activeTexture != index)) {
+                backend.activeTexture(GL13.GL_TEXTURE0 + index);
                 this.activeTexture = index;
             }
             return this;
         }
 
         public GLState texture(int index, int textureID) {
-            if (textures[index] != textureID) {
+            if (changed(textures[index] != textureID)) {
                 activeTexture(index);
-                GL11.glBindTexture(GL11.GL_TEXTURE_2D, textureID);
+                backend.bindTexture(GL11.GL_TEXTURE_2D, textureID);
                 this.textures[index] = textureID;
             }
             return this;
@@ -1084,6 +2775,32 @@ public class GLHandler {
             return texture(index, texture.id);
         }
 
+        public GLState textureArray(int index, int textureID) {
+            if (changed(textureArrays[index] != textureID)) {
+                activeTexture(index);
+                backend.bindTexture(GL30.GL_TEXTURE_2D_ARRAY, textureID);
+                this.textureArrays[index] = textureID;
+            }
+            return this;
+        }
+
+        public GLState textureArray(int index, TextureArray array) {
+            return textureArray(index, array == null ? 0 : array.id);
+        }
+
+        public GLState textureBuffer(int index, int textureID) {
+            if (changed(textureBuffers[index] != textureID)) {
+                activeTexture(index);
+                backend.bindTexture(GL31.GL_TEXTURE_BUFFER, textureID);
+                this.textureBuffers[index] = textureID;
+            }
+            return this;
+        }
+
+        public GLState textureBuffer(int index, TextureBuffer buffer) {
+            return textureBuffer(index, buffer == null ? 0 : buffer.id);
+        }
+
         public GLState texture0(int id) {
             return texture(0, id);
         }
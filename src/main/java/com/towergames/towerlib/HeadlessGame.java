@@ -0,0 +1,48 @@
+package com.towergames.towerlib;
+
+//Runs the engine without a window on RecordingGLBackend, for tests and benchmarks of the CPU side. FreeType still needs
+//its natives, nothing else touches the driver.
+public class HeadlessGame extends TowerGame {
+    private final RecordingGLBackend backend;
+
+    public HeadlessGame() {
+        this(new RecordingGLBackend());
+    }
+
+    public HeadlessGame(RecordingGLBackend backend) {
+        this.backend = backend;
+    }
+
+    public static HeadlessGame start() {
+        return start(new RecordingGLBackend());
+    }
+
+    public static HeadlessGame start(RecordingGLBackend backend) {
+        return start(new HeadlessGame(backend));
+    }
+
+    //For subclasses that override doRender or update.
+    public static <T extends HeadlessGame> T start(T game) {
+        game.preInit();
+        game.init();
+        game.postInit();
+        return game;
+    }
+
+    //Like the loop does, update then doRender, with a fixed tick so the output doesn't depend on timing.
+    public void runFrames(int frames) {
+        for (int i = 0; i < frames; i++) {
+            update(1.0f / getTickRate());
+            renderFrame();
+        }
+    }
+
+    @Override
+    protected void init() {
+        initGL(backend);
+    }
+
+    public RecordingGLBackend getBackend() {
+        return backend;
+    }
+}
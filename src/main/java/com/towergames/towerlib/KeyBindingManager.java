@@ -55,7 +55,9 @@ public class KeyBindingManager {
     public static class KeyBinding {
         private String name;
         private int key, mods;
-        private boolean fullMatch, pressed;
+        private boolean fullMatch;
+        //Read from the update thread in LOOP_THREADED.
+        private volatile boolean pressed;
 
         public KeyBinding(String name, int key, int mods, boolean fullMatch) {
             this.name = name;
@@ -0,0 +1,607 @@
+package com.towergames.towerlib;
+
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.glfw.GLFW;
+import org.lwjgl.opengl.*;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+//Forwards straight to the current context through LWJGL, the default backend.
+public class LWJGLBackend implements GLBackend {
+    @Override
+    public void enable(int cap) {
+        GL11.glEnable(cap);
+    }
+
+    @Override
+    public void disable(int cap) {
+        GL11.glDisable(cap);
+    }
+
+    @Override
+    public boolean isEnabled(int cap) {
+        return GL11.glIsEnabled(cap);
+    }
+
+    @Override
+    public void cullFace(int mode) {
+        GL11.glCullFace(mode);
+    }
+
+    @Override
+    public void depthFunc(int func) {
+        GL11.glDepthFunc(func);
+    }
+
+    @Override
+    public void blendFunc(int srcFactor, int dstFactor) {
+        GL11.glBlendFunc(srcFactor, dstFactor);
+    }
+
+    @Override
+    public void colorMask(boolean red, boolean green, boolean blue, boolean alpha) {
+        GL11.glColorMask(red, green, blue, alpha);
+    }
+
+    @Override
+    public void depthMask(boolean flag) {
+        GL11.glDepthMask(flag);
+    }
+
+    @Override
+    public void scissor(int x, int y, int width, int height) {
+        GL11.glScissor(x, y, width, height);
+    }
+
+    @Override
+    public void stencilFunc(int func, int ref, int mask) {
+        GL11.glStencilFunc(func, ref, mask);
+    }
+
+    @Override
+    public void stencilOp(int fail, int depthFail, int depthPass) {
+        GL11.glStencilOp(fail, depthFail, depthPass);
+    }
+
+    @Override
+    public void stencilMask(int mask) {
+        GL11.glStencilMask(mask);
+    }
+
+    @Override
+    public void polygonOffset(float factor, float units) {
+        GL11.glPolygonOffset(factor, units);
+    }
+
+    @Override
+    public void clearColor(float red, float green, float blue, float alpha) {
+        GL11.glClearColor(red, green, blue, alpha);
+    }
+
+    @Override
+    public void clear(int mask) {
+        GL11.glClear(mask);
+    }
+
+    @Override
+    public void pixelStorei(int pname, int param) {
+        GL11.glPixelStorei(pname, param);
+    }
+
+    @Override
+    public void viewport(int x, int y, int width, int height) {
+        GL11.glViewport(x, y, width, height);
+    }
+
+    @Override
+    public int getError() {
+        return GL11.glGetError();
+    }
+
+    @Override
+    public int getInteger(int pname) {
+        return GL11.glGetInteger(pname);
+    }
+
+    @Override
+    public void getIntegerv(int pname, IntBuffer params) {
+        GL11.glGetIntegerv(pname, params);
+    }
+
+    @Override
+    public boolean getBoolean(int pname) {
+        return GL11.glGetBoolean(pname);
+    }
+
+    @Override
+    public void getBooleanv(int pname, ByteBuffer params) {
+        GL11.glGetBooleanv(pname, params);
+    }
+
+    @Override
+    public float getFloat(int pname) {
+        return GL11.glGetFloat(pname);
+    }
+
+    @Override
+    public void getFloatv(int pname, FloatBuffer params) {
+        GL11.glGetFloatv(pname, params);
+    }
+
+    @Override
+    public int genBuffers() {
+        return GL15.glGenBuffers();
+    }
+
+    @Override
+    public void deleteBuffers(int buffer) {
+        GL15.glDeleteBuffers(buffer);
+    }
+
+    @Override
+    public void bindBuffer(int target, int buffer) {
+        GL15.glBindBuffer(target, buffer);
+    }
+
+    @Override
+    public void bindBufferBase(int target, int index, int buffer) {
+        GL30.glBindBufferBase(target, index, buffer);
+    }
+
+    @Override
+    public void bufferData(int target, long size, int usage) {
+        GL15.glBufferData(target, size, usage);
+    }
+
+    @Override
+    public void bufferData(int target, ByteBuffer data, int usage) {
+        GL15.glBufferData(target, data, usage);
+    }
+
+    @Override
+    public void bufferData(int target, FloatBuffer data, int usage) {
+        GL15.glBufferData(target, data, usage);
+    }
+
+    @Override
+    public void bufferData(int target, float[] data, int usage) {
+        GL15.glBufferData(target, data, usage);
+    }
+
+    @Override
+    public void bufferData(int target, int[] data, int usage) {
+        GL15.glBufferData(target, data, usage);
+    }
+
+    @Override
+    public void bufferData(int target, short[] data, int usage) {
+        GL15.glBufferData(target, data, usage);
+    }
+
+    @Override
+    public void bufferSubData(int target, long offset, FloatBuffer data) {
+        GL15.glBufferSubData(target, offset, data);
+    }
+
+    @Override
+    public void bufferSubData(int target, long offset, float[] data) {
+        GL15.glBufferSubData(target, offset, data);
+    }
+
+    @Override
+    public void bufferSubData(int target, long offset, int[] data) {
+        GL15.glBufferSubData(target, offset, data);
+    }
+
+    @Override
+    public int genTextures() {
+        return GL11.glGenTextures();
+    }
+
+    @Override
+    public void deleteTextures(int texture) {
+        GL11.glDeleteTextures(texture);
+    }
+
+    @Override
+    public void activeTexture(int texture) {
+        GL13.glActiveTexture(texture);
+    }
+
+    @Override
+    public void bindTexture(int target, int texture) {
+        GL11.glBindTexture(target, texture);
+    }
+
+    @Override
+    public void texParameteri(int target, int pname, int param) {
+        GL11.glTexParameteri(target, pname, param);
+    }
+
+    @Override
+    public void texImage2D(int target, int level, int internalFormat, int width, int height, int border, int format, int type, ByteBuffer pixels) {
+        GL11.glTexImage2D(target, level, internalFormat, width, height, border, format, type, pixels);
+    }
+
+    @Override
+    public void texSubImage2D(int target, int level, int xOffset, int yOffset, int width, int height, int format, int type, ByteBuffer pixels) {
+        GL11.glTexSubImage2D(target, level, xOffset, yOffset, width, height, format, type, pixels);
+    }
+
+    @Override
+    public void texImage3D(int target, int level, int internalFormat, int width, int height, int depth, int border, int format, int type, ByteBuffer pixels) {
+        GL12.glTexImage3D(target, level, internalFormat, width, height, depth, border, format, type, pixels);
+    }
+
+    @Override
+    public void texSubImage3D(int target, int level, int xOffset, int yOffset, int zOffset, int width, int height, int depth, int format, int type, ByteBuffer pixels) {
+        GL12.glTexSubImage3D(target, level, xOffset, yOffset, zOffset, width, height, depth, format, type, pixels);
+    }
+
+    @Override
+    public void generateMipmap(int target) {
+        GL30.glGenerateMipmap(target);
+    }
+
+    @Override
+    public void texBuffer(int target, int internalFormat, int buffer) {
+        GL31.glTexBuffer(target, internalFormat, buffer);
+    }
+
+    @Override
+    public void bindSampler(int unit, int sampler) {
+        GL33.glBindSampler(unit, sampler);
+    }
+
+    @Override
+    public int genFramebuffers() {
+        return GL30.glGenFramebuffers();
+    }
+
+    @Override
+    public void deleteFramebuffers(int framebuffer) {
+        GL30.glDeleteFramebuffers(framebuffer);
+    }
+
+    @Override
+    public void bindFramebuffer(int target, int framebuffer) {
+        GL30.glBindFramebuffer(target, framebuffer);
+    }
+
+    @Override
+    public void framebufferTexture2D(int target, int attachment, int textureTarget, int texture, int level) {
+        GL30.glFramebufferTexture2D(target, attachment, textureTarget, texture, level);
+    }
+
+    @Override
+    public int checkFramebufferStatus(int target) {
+        return GL30.glCheckFramebufferStatus(target);
+    }
+
+    @Override
+    public int genRenderbuffers() {
+        return GL30.glGenRenderbuffers();
+    }
+
+    @Override
+    public void deleteRenderbuffers(int renderbuffer) {
+        GL30.glDeleteRenderbuffers(renderbuffer);
+    }
+
+    @Override
+    public void bindRenderbuffer(int target, int renderbuffer) {
+        GL30.glBindRenderbuffer(target, renderbuffer);
+    }
+
+    @Override
+    public void renderbufferStorage(int target, int internalFormat, int width, int height) {
+        GL30.glRenderbufferStorage(target, internalFormat, width, height);
+    }
+
+    @Override
+    public void framebufferRenderbuffer(int target, int attachment, int renderbufferTarget, int renderbuffer) {
+        GL30.glFramebufferRenderbuffer(target, attachment, renderbufferTarget, renderbuffer);
+    }
+
+    @Override
+    public void readPixels(int x, int y, int width, int height, int format, int type, ByteBuffer pixels) {
+        GL11.glReadPixels(x, y, width, height, format, type, pixels);
+    }
+
+    @Override
+    public int createShader(int type) {
+        return GL20.glCreateShader(type);
+    }
+
+    @Override
+    public void shaderSource(int shader, CharSequence source) {
+        GL20.glShaderSource(shader, source);
+    }
+
+    @Override
+    public void compileShader(int shader) {
+        GL20.glCompileShader(shader);
+    }
+
+    @Override
+    public int getShaderi(int shader, int pname) {
+        return GL20.glGetShaderi(shader, pname);
+    }
+
+    @Override
+    public String getShaderInfoLog(int shader) {
+        return GL20.glGetShaderInfoLog(shader);
+    }
+
+    @Override
+    public int createProgram() {
+        return GL20.glCreateProgram();
+    }
+
+    @Override
+    public void attachShader(int program, int shader) {
+        GL20.glAttachShader(program, shader);
+    }
+
+    @Override
+    public void transformFeedbackVaryings(int program, CharSequence[] varyings, int bufferMode) {
+        GL30.glTransformFeedbackVaryings(program, varyings, bufferMode);
+    }
+
+    @Override
+    public void linkProgram(int program) {
+        GL20.glLinkProgram(program);
+    }
+
+    @Override
+    public int getProgrami(int program, int pname) {
+        return GL20.glGetProgrami(program, pname);
+    }
+
+    @Override
+    public String getProgramInfoLog(int program) {
+        return GL20.glGetProgramInfoLog(program);
+    }
+
+    @Override
+    public void useProgram(int program) {
+        GL20.glUseProgram(program);
+    }
+
+    @Override
+    public int getUniformLocation(int program, CharSequence name) {
+        return GL20.glGetUniformLocation(program, name);
+    }
+
+    @Override
+    public int getUniformBlockIndex(int program, CharSequence name) {
+        return GL31.glGetUniformBlockIndex(program, name);
+    }
+
+    @Override
+    public void uniformBlockBinding(int program, int blockIndex, int binding) {
+        GL31.glUniformBlockBinding(program, blockIndex, binding);
+    }
+
+    @Override
+    public void uniform1i(int location, int value) {
+        GL20.glUniform1i(location, value);
+    }
+
+    @Override
+    public void uniform1f(int location, float value) {
+        GL20.glUniform1f(location, value);
+    }
+
+    @Override
+    public void uniform1fv(int location, float[] values) {
+        GL20.glUniform1fv(location, values);
+    }
+
+    @Override
+    public void uniform2fv(int location, float[] values) {
+        GL20.glUniform2fv(location, values);
+    }
+
+    @Override
+    public void uniform3fv(int location, float[] values) {
+        GL20.glUniform3fv(location, values);
+    }
+
+    @Override
+    public void uniform4fv(int location, float[] values) {
+        GL20.glUniform4fv(location, values);
+    }
+
+    @Override
+    public void uniform1iv(int location, int[] values) {
+        GL20.glUniform1iv(location, values);
+    }
+
+    @Override
+    public void uniform2iv(int location, int[] values) {
+        GL20.glUniform2iv(location, values);
+    }
+
+    @Override
+    public void uniform3iv(int location, int[] values) {
+        GL20.glUniform3iv(location, values);
+    }
+
+    @Override
+    public void uniform4iv(int location, int[] values) {
+        GL20.glUniform4iv(location, values);
+    }
+
+    @Override
+    public void uniformMatrix2fv(int location, boolean transpose, float[] values) {
+        GL20.glUniformMatrix2fv(location, transpose, values);
+    }
+
+    @Override
+    public void uniformMatrix3fv(int location, boolean transpose, float[] values) {
+        GL20.glUniformMatrix3fv(location, transpose, values);
+    }
+
+    @Override
+    public void uniformMatrix4fv(int location, boolean transpose, float[] values) {
+        GL20.glUniformMatrix4fv(location, transpose, values);
+    }
+
+    @Override
+    public void uniformMatrix4fv(int location, boolean transpose, FloatBuffer values) {
+        GL20.glUniformMatrix4fv(location, transpose, values);
+    }
+
+    @Override
+    public int genVertexArrays() {
+        return GL30.glGenVertexArrays();
+    }
+
+    @Override
+    public void deleteVertexArrays(int array) {
+        GL30.glDeleteVertexArrays(array);
+    }
+
+    @Override
+    public void bindVertexArray(int array) {
+        GL30.glBindVertexArray(array);
+    }
+
+    @Override
+    public void vertexAttribPointer(int index, int size, int type, boolean normalized, int stride, long pointer) {
+        GL20.glVertexAttribPointer(index, size, type, normalized, stride, pointer);
+    }
+
+    @Override
+    public void enableVertexAttribArray(int index) {
+        GL20.glEnableVertexAttribArray(index);
+    }
+
+    @Override
+    public void vertexAttribDivisor(int index, int divisor) {
+        GL33.glVertexAttribDivisor(index, divisor);
+    }
+
+    @Override
+    public void vertexAttrib1f(int index, float x) {
+        GL20.glVertexAttrib1f(index, x);
+    }
+
+    @Override
+    public void vertexAttrib2f(int index, float x, float y) {
+        GL20.glVertexAttrib2f(index, x, y);
+    }
+
+    @Override
+    public void vertexAttrib3f(int index, float x, float y, float z) {
+        GL20.glVertexAttrib3f(index, x, y, z);
+    }
+
+    @Override
+    public void vertexAttrib4f(int index, float x, float y, float z, float w) {
+        GL20.glVertexAttrib4f(index, x, y, z, w);
+    }
+
+    @Override
+    public void vertexAttribI1i(int index, int x) {
+        GL30.glVertexAttribI1i(index, x);
+    }
+
+    @Override
+    public void vertexAttribI2i(int index, int x, int y) {
+        GL30.glVertexAttribI2i(index, x, y);
+    }
+
+    @Override
+    public void vertexAttribI3i(int index, int x, int y, int z) {
+        GL30.glVertexAttribI3i(index, x, y, z);
+    }
+
+    @Override
+    public void vertexAttribI4i(int index, int x, int y, int z, int w) {
+        GL30.glVertexAttribI4i(index, x, y, z, w);
+    }
+
+    @Override
+    public void drawArrays(int mode, int first, int count) {
+        GL11.glDrawArrays(mode, first, count);
+    }
+
+    @Override
+    public void drawElements(int mode, int count, int type, long indices) {
+        GL11.glDrawElements(mode, count, type, indices);
+    }
+
+    @Override
+    public void drawElementsInstanced(int mode, int count, int type, long indices, int instances) {
+        GL31.glDrawElementsInstanced(mode, count, type, indices, instances);
+    }
+
+    @Override
+    public void multiDrawElementsBaseVertex(int mode, IntBuffer counts, int type, PointerBuffer indices, IntBuffer baseVertices) {
+        GL32.glMultiDrawElementsBaseVertex(mode, counts, type, indices, baseVertices);
+    }
+
+    @Override
+    public void beginTransformFeedback(int primitiveMode) {
+        GL30.glBeginTransformFeedback(primitiveMode);
+    }
+
+    @Override
+    public void endTransformFeedback() {
+        GL30.glEndTransformFeedback();
+    }
+
+    @Override
+    public int genQueries() {
+        return GL15.glGenQueries();
+    }
+
+    @Override
+    public void deleteQueries(int query) {
+        GL15.glDeleteQueries(query);
+    }
+
+    @Override
+    public void beginQuery(int target, int query) {
+        GL15.glBeginQuery(target, query);
+    }
+
+    @Override
+    public void endQuery(int target) {
+        GL15.glEndQuery(target);
+    }
+
+    @Override
+    public void queryCounter(int query, int target) {
+        GL33.glQueryCounter(query, target);
+    }
+
+    @Override
+    public int getQueryObjecti(int query, int pname) {
+        return GL15.glGetQueryObjecti(query, pname);
+    }
+
+    @Override
+    public long getQueryObjectui64(int query, int pname) {
+        return GL33.glGetQueryObjectui64(query, pname);
+    }
+
+    @Override
+    public void beginConditionalRender(int query, int mode) {
+        GL30.glBeginConditionalRender(query, mode);
+    }
+
+    @Override
+    public void endConditionalRender() {
+        GL30.glEndConditionalRender();
+    }
+
+    @Override
+    public void swapBuffers(long window) {
+        GLFW.glfwSwapBuffers(window);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,159 @@
+package com.towergames.towerlib;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+//Processed mesh cache on disk: the optimized vertex buffer and the LOD index chain of a primitive, so a hit skips subdivision,
+//optimization and simplification. Streams are MeshCodec encoded, then deflated. Files are keyed by a hash of the source data
+//and the load options, stale entries are never read and can be deleted at any time. Safe to use from loader threads.
+public class MeshCache {
+    private static final int MAGIC = 0x54574D43, VERSION = 1;
+    private final Path directory;
+
+    public MeshCache(Path directory) {
+        this.directory = directory;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create mesh cache directory: " + directory, e);
+        }
+    }
+
+    public String createKey(float[] positions, float[] texcoords, int[] indices, String options) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            ByteBuffer buffer = ByteBuffer.allocate((positions.length + texcoords.length + indices.length) * 4);
+            buffer.asFloatBuffer().put(positions).put(texcoords);
+            buffer.position((positions.length + texcoords.length) * 4);
+            buffer.asIntBuffer().put(indices);
+            buffer.rewind();
+            digest.update(buffer);
+            digest.update(options.getBytes("UTF-8"));
+            StringBuilder builder = new StringBuilder();
+            for (byte b : digest.digest()) {
+                builder.append(String.format("%02x", b));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            throw new RuntimeException("Failed to create mesh cache key", e);
+        }
+    }
+
+    //Returns null when there is no entry for the key.
+    public Entry load(String key) {
+        Path file = directory.resolve(key + ".mesh");
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            DataInputStream body = new DataInputStream(new InflaterInputStream(in, new Inflater(), 65536));
+            int stride = body.readInt();
+            int vertexCount = body.readInt();
+            int levels = body.readInt();
+            int[] lodCount = new int[levels];
+            float[] lodError = new float[levels];
+            int indexCount = 0;
+            for (int i = 0; i < levels; i++) {
+                lodCount[i] = body.readInt();
+                lodError[i] = body.readFloat();
+                indexCount += lodCount[i];
+            }
+            float[] vertices = MeshCodec.decodeVertexBuffer(vertexCount, stride * 4, ByteBuffer.wrap(readBlock(body)));
+            int[] indices = MeshCodec.decodeIndexBuffer(indexCount, ByteBuffer.wrap(readBlock(body)));
+            return new Entry(vertices, stride, indices, lodCount, lodError);
+        } catch (IOException | RuntimeException e) {
+            throw new RuntimeException("Failed to read mesh cache: " + file, e);
+        }
+    }
+
+    //stride is in floats. indices holds every LOD level back to back, lodCount[i] indices each.
+    public void store(String key, float[] vertices, int stride, int[] indices, int[] lodCount, float[] lodError) {
+        Path file = directory.resolve(key + ".mesh");
+        try {
+            Path temp = Files.createTempFile(directory, key, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+                DataOutputStream body = new DataOutputStream(new DeflaterOutputStream(out, deflater, 65536));
+                body.writeInt(stride);
+                body.writeInt(vertices.length / stride);
+                body.writeInt(lodCount.length);
+                for (int i = 0; i < lodCount.length; i++) {
+                    body.writeInt(lodCount[i]);
+                    body.writeFloat(lodError[i]);
+                }
+                writeBlock(body, MeshCodec.encodeVertexBuffer(vertices, stride * 4));
+                writeBlock(body, MeshCodec.encodeIndexBuffer(indices));
+                body.close();
+                deflater.end();
+            }
+            //Written aside and moved in, so a concurrent loader never sees a partial file.
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write mesh cache: " + file, e);
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    private static byte[] readBlock(DataInputStream in) throws IOException {
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        return data;
+    }
+
+    private static void writeBlock(DataOutputStream out, byte[] data) throws IOException {
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    public static class Entry {
+        private final float[] vertices;
+        private final int stride;
+        private final int[] indices, lodCount;
+        private final float[] lodError;
+
+        private Entry(float[] vertices, int stride, int[] indices, int[] lodCount, float[] lodError) {
+            this.vertices = vertices;
+            this.stride = stride;
+            this.indices = indices;
+            this.lodCount = lodCount;
+            this.lodError = lodError;
+        }
+
+        public float[] getVertices() {
+            return vertices;
+        }
+
+        public int getStride() {
+            return stride;
+        }
+
+        public int[] getIndices() {
+            return indices;
+        }
+
+        public int[] getLodCount() {
+            return lodCount;
+        }
+
+        public float[] getLodError() {
+            return lodError;
+        }
+    }
+}
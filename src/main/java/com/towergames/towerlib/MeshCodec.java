@@ -0,0 +1,601 @@
+package com.towergames.towerlib;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+//Vertex and index buffer compression, bitstream compatible with meshoptimizer (vertex codec v0, index codec v1) and EXT_meshopt_compression.
+//Vertices: per byte lane delta against the previous vertex, zigzag, then groups of 16 bytes packed with 0/2/4/8 bits plus escapes.
+//Indices: triangles coded against an edge FIFO and a vertex FIFO, free indices as zigzag varint deltas.
+//The output is meant for a general purpose compressor (zip/zstd) on top, it already removes most of the redundancy they can't see.
+public class MeshCodec {
+    private static final int VERTEX_HEADER = 0xA0, INDEX_HEADER = 0xE0, SEQUENCE_HEADER = 0xD0;
+    private static final int BLOCK_SIZE_BYTES = 8192, BLOCK_MAX_SIZE = 256, GROUP_SIZE = 16, GROUP_DECODE_LIMIT = 24, TAIL_MAX_SIZE = 32;
+    private static final int[][] TRIANGLE_ORDER = {{0, 1, 2}, {1, 2, 0}, {2, 0, 1}};
+    private static final byte[] CODE_AUX_TABLE = {0x00, 0x76, (byte) 0x87, 0x56, 0x67, 0x78, (byte) 0xA9, (byte) 0x86,
+            0x65, (byte) 0x89, 0x68, (byte) 0x98, 0x01, 0x69, 0x00, 0x00};
+
+    public static final int FILTER_NONE = 0, FILTER_OCTAHEDRAL = 1, FILTER_QUATERNION = 2, FILTER_EXPONENTIAL = 3;
+
+    public static byte[] encodeVertexBuffer(float[] vertices, int vertexSize) {
+        ByteBuffer buffer = ByteBuffer.allocate(vertices.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(vertices);
+        return encodeVertexBuffer(buffer, vertices.length * 4 / vertexSize, vertexSize);
+    }
+
+    //vertexSize is in bytes, a multiple of 4 and at most 256. Reads vertexCount * vertexSize bytes from the buffer position.
+    public static byte[] encodeVertexBuffer(ByteBuffer vertices, int vertexCount, int vertexSize) {
+        if (vertexSize <= 0 || vertexSize > 256 || vertexSize % 4 != 0) {
+            throw new RuntimeException("Unsupported vertex size: " + vertexSize);
+        }
+        byte[] source = new byte[vertexCount * vertexSize];
+        vertices.duplicate().get(source);
+        int blockSize = getVertexBlockSize(vertexSize);
+        int blockCount = (vertexCount + blockSize - 1) / blockSize;
+        int tailSize = java.lang.Math.max(vertexSize, TAIL_MAX_SIZE);
+        byte[] data = new byte[1 + blockCount * vertexSize * ((blockSize / GROUP_SIZE + 3) / 4 + blockSize) + tailSize];
+        data[0] = (byte) VERTEX_HEADER;
+        int position = 1;
+        byte[] last = new byte[vertexSize];
+        if (vertexCount > 0) {
+            System.arraycopy(source, 0, last, 0, vertexSize);
+        }
+        byte[] first = last.clone();
+        byte[] buffer = new byte[BLOCK_MAX_SIZE];
+        for (int offset = 0; offset < vertexCount; offset += blockSize) {
+            int count = java.lang.Math.min(blockSize, vertexCount - offset);
+            int aligned = (count + GROUP_SIZE - 1) & ~(GROUP_SIZE - 1);
+            for (int k = 0; k < vertexSize; k++) {
+                int p = last[k], v = offset * vertexSize + k;
+                for (int i = 0; i < count; i++, v += vertexSize) {
+                    int delta = (byte) (source[v] - p);
+                    buffer[i] = (byte) ((delta << 1) ^ (delta >> 7));
+                    p = source[v];
+                }
+                Arrays.fill(buffer, count, aligned, (byte) 0);
+                position = encodeBytes(data, position, buffer, aligned);
+            }
+            System.arraycopy(source, (offset + count - 1) * vertexSize, last, 0, vertexSize);
+        }
+        //The first vertex goes to the end, zero padded to 32 bytes so the decoder never needs bounds checks inside a group.
+        position += tailSize - vertexSize;
+        System.arraycopy(first, 0, data, position, vertexSize);
+        return Arrays.copyOf(data, position + vertexSize);
+    }
+
+    public static float[] decodeVertexBuffer(int vertexCount, int vertexSize, ByteBuffer source) {
+        ByteBuffer buffer = ByteBuffer.allocate(vertexCount * vertexSize).order(ByteOrder.LITTLE_ENDIAN);
+        decodeVertexBuffer(buffer, vertexCount, vertexSize, source);
+        buffer.flip();
+        float[] result = new float[vertexCount * vertexSize / 4];
+        buffer.asFloatBuffer().get(result);
+        return result;
+    }
+
+    //Decodes the whole remaining source into destination at its position, both positions advance.
+    public static void decodeVertexBuffer(ByteBuffer destination, int vertexCount, int vertexSize, ByteBuffer source) {
+        if (vertexSize <= 0 || vertexSize > 256 || vertexSize % 4 != 0) {
+            throw new RuntimeException("Unsupported vertex size: " + vertexSize);
+        }
+        byte[] data = new byte[source.remaining()];
+        source.get(data);
+        if (data.length < 1 + vertexSize || (data[0] & 0xF0) != VERTEX_HEADER) {
+            throw new RuntimeException("Malformed vertex buffer");
+        }
+        if ((data[0] & 0x0F) > 0) {
+            throw new RuntimeException("Unsupported vertex buffer version: " + (data[0] & 0x0F));
+        }
+        int blockSize = getVertexBlockSize(vertexSize);
+        byte[] last = Arrays.copyOfRange(data, data.length - vertexSize, data.length);
+        byte[] buffer = new byte[BLOCK_MAX_SIZE];
+        byte[] block = new byte[blockSize * vertexSize];
+        int position = 1;
+        for (int offset = 0; offset < vertexCount; offset += blockSize) {
+            int count = java.lang.Math.min(blockSize, vertexCount - offset);
+            int aligned = (count + GROUP_SIZE - 1) & ~(GROUP_SIZE - 1);
+            for (int k = 0; k < vertexSize; k++) {
+                position = decodeBytes(data, position, buffer, aligned);
+                byte p = last[k];
+                for (int i = 0, v = k; i < count; i++, v += vertexSize) {
+                    int b = buffer[i] & 0xFF;
+                    p += (byte) ((b >>> 1) ^ -(b & 1));
+                    block[v] = p;
+                }
+            }
+            destination.put(block, 0, count * vertexSize);
+            System.arraycopy(block, (count - 1) * vertexSize, last, 0, vertexSize);
+        }
+        if (data.length - position != java.lang.Math.max(vertexSize, TAIL_MAX_SIZE)) {
+            throw new RuntimeException("Malformed vertex buffer");
+        }
+    }
+
+    public static byte[] encodeIndexBuffer(int[] indices) {
+        if (indices.length % 3 != 0) {
+            throw new RuntimeException("Index count must be a multiple of 3");
+        }
+        int triangleCount = indices.length / 3;
+        byte[] data = new byte[1 + triangleCount + triangleCount * 16 + 16];
+        data[0] = (byte) (INDEX_HEADER | 1);
+        int[][] edgeFifo = new int[16][2];
+        int[] vertexFifo = new int[16];
+        for (int[] edge : edgeFifo) {
+            Arrays.fill(edge, -1);
+        }
+        Arrays.fill(vertexFifo, -1);
+        int edgeOffset = 0, vertexOffset = 0, next = 0, last = 0;
+        int code = 1, position = 1 + triangleCount;
+        for (int i = 0; i < indices.length; i += 3) {
+            int fer = getEdgeFifo(edgeFifo, indices[i], indices[i + 1], indices[i + 2], edgeOffset);
+            if (fer >= 0 && (fer >> 2) < 15) {
+                int[] order = TRIANGLE_ORDER[fer & 3];
+                int a = indices[i + order[0]], b = indices[i + order[1]], c = indices[i + order[2]];
+                int fe = fer >> 2;
+                int fc = getVertexFifo(vertexFifo, c, vertexOffset);
+                int fec = fc >= 1 && fc < 13 ? fc : c == next ? 0 : 15;
+                if (fec == 0) {
+                    next++;
+                }
+                //13 and 14 encode last - 1 and last + 1, which is common for strip like sequences.
+                if (fec == 15 && c + 1 == last) {
+                    fec = 13;
+                    last = c;
+                }
+                if (fec == 15 && c == last + 1) {
+                    fec = 14;
+                    last = c;
+                }
+                data[code++] = (byte) (fe << 4 | fec);
+                if (fec == 15) {
+                    position = encodeIndex(data, position, c, last);
+                    last = c;
+                }
+                if (fec == 0 || fec >= 13) {
+                    vertexFifo[vertexOffset] = c;
+                    vertexOffset = (vertexOffset + 1) & 15;
+                }
+                edgeOffset = pushEdgeFifo(edgeFifo, c, b, edgeOffset);
+                edgeOffset = pushEdgeFifo(edgeFifo, a, c, edgeOffset);
+            } else {
+                int i0 = indices[i], i1 = indices[i + 1], i2 = indices[i + 2];
+                int[] order = TRIANGLE_ORDER[i1 == next ? 1 : i2 == next ? 2 : 0];
+                int a = indices[i + order[0]], b = indices[i + order[1]], c = indices[i + order[2]];
+                //0/1/2 after the first triangle is a restart, coded as an out of table zero aux byte.
+                boolean reset = false;
+                if (a == 0 && b == 1 && c == 2 && next > 0) {
+                    reset = true;
+                    next = 0;
+                    Arrays.fill(vertexFifo, -1);
+                }
+                int fb = getVertexFifo(vertexFifo, b, vertexOffset);
+                int fc = getVertexFifo(vertexFifo, c, vertexOffset);
+                int fea = a == next ? 0 : 15;
+                if (fea == 0) {
+                    next++;
+                }
+                int feb = fb >= 0 && fb < 14 ? fb + 1 : b == next ? 0 : 15;
+                if (feb == 0) {
+                    next++;
+                }
+                int fec = fc >= 0 && fc < 14 ? fc + 1 : c == next ? 0 : 15;
+                if (fec == 0) {
+                    next++;
+                }
+                int aux = feb << 4 | fec;
+                int auxIndex = -1;
+                for (int j = 0; j < 16; j++) {
+                    if ((CODE_AUX_TABLE[j] & 0xFF) == aux) {
+                        auxIndex = j;
+                        break;
+                    }
+                }
+                if (fea == 0 && auxIndex >= 0 && auxIndex < 14 && !reset) {
+                    data[code++] = (byte) (0xF0 | auxIndex);
+                } else {
+                    data[code++] = (byte) (0xF0 | 14 | fea);
+                    data[position++] = (byte) aux;
+                }
+                if (fea == 15) {
+                    position = encodeIndex(data, position, a, last);
+                    last = a;
+                }
+                if (feb == 15) {
+                    position = encodeIndex(data, position, b, last);
+                    last = b;
+                }
+                if (fec == 15) {
+                    position = encodeIndex(data, position, c, last);
+                    last = c;
+                }
+                if (fea == 0 || fea == 15) {
+                    vertexFifo[vertexOffset] = a;
+                    vertexOffset = (vertexOffset + 1) & 15;
+                }
+                if (feb == 0 || feb == 15) {
+                    vertexFifo[vertexOffset] = b;
+                    vertexOffset = (vertexOffset + 1) & 15;
+                }
+                if (fec == 0 || fec == 15) {
+                    vertexFifo[vertexOffset] = c;
+                    vertexOffset = (vertexOffset + 1) & 15;
+                }
+                edgeOffset = pushEdgeFifo(edgeFifo, b, a, edgeOffset);
+                edgeOffset = pushEdgeFifo(edgeFifo, c, b, edgeOffset);
+                edgeOffset = pushEdgeFifo(edgeFifo, a, c, edgeOffset);
+            }
+        }
+        //The aux table doubles as padding, so every triangle can read up to 16 bytes without bounds checks.
+        System.arraycopy(CODE_AUX_TABLE, 0, data, position, 16);
+        return Arrays.copyOf(data, position + 16);
+    }
+
+    public static int[] decodeIndexBuffer(int indexCount, ByteBuffer source) {
+        byte[] data = new byte[source.remaining()];
+        source.get(data);
+        if (indexCount % 3 != 0 || data.length < 1 + indexCount / 3 + 16 || (data[0] & 0xF0) != INDEX_HEADER) {
+            throw new RuntimeException("Malformed index buffer");
+        }
+        int version = data[0] & 0x0F;
+        if (version > 1) {
+            throw new RuntimeException("Unsupported index buffer version: " + version);
+        }
+        int fecMax = version >= 1 ? 13 : 15;
+        int[] result = new int[indexCount];
+        int[] edgeA = new int[16], edgeB = new int[16], vertexFifo = new int[16];
+        Arrays.fill(edgeA, -1);
+        Arrays.fill(edgeB, -1);
+        Arrays.fill(vertexFifo, -1);
+        int edgeOffset = 0, vertexOffset = 0, next = 0, last = 0;
+        int code = 1, position = 1 + indexCount / 3, safeEnd = data.length - 16;
+        int[] cursor = new int[1];
+        for (int i = 0; i < indexCount; i += 3) {
+            if (position > safeEnd) {
+                throw new RuntimeException("Malformed index buffer");
+            }
+            int codeTri = data[code++] & 0xFF;
+            int a, b, c;
+            if (codeTri < 0xF0) {
+                int fe = (edgeOffset - 1 - (codeTri >> 4)) & 15;
+                a = edgeA[fe];
+                b = edgeB[fe];
+                int fec = codeTri & 15;
+                if (fec < fecMax) {
+                    c = fec == 0 ? next++ : vertexFifo[(vertexOffset - 1 - fec) & 15];
+                    vertexFifo[vertexOffset] = c;
+                    vertexOffset = (vertexOffset + (fec == 0 ? 1 : 0)) & 15;
+                } else {
+                    if (fec != 15) {
+                        c = last + (fec == 13 ? -1 : 1);
+                    } else {
+                        cursor[0] = position;
+                        c = decodeIndex(data, cursor, last);
+                        position = cursor[0];
+                    }
+                    last = c;
+                    vertexFifo[vertexOffset] = c;
+                    vertexOffset = (vertexOffset + 1) & 15;
+                }
+                edgeOffset = pushEdge(edgeA, edgeB, c, b, edgeOffset);
+                edgeOffset = pushEdge(edgeA, edgeB, a, c, edgeOffset);
+            } else {
+                int feb, fec;
+                if (codeTri < 0xFE) {
+                    int aux = data[safeEnd + (codeTri & 15)] & 0xFF;
+                    feb = aux >> 4;
+                    fec = aux & 15;
+                    a = next++;
+                    b = feb == 0 ? next++ : vertexFifo[(vertexOffset - feb) & 15];
+                    c = fec == 0 ? next++ : vertexFifo[(vertexOffset - fec) & 15];
+                } else {
+                    int aux = data[position++] & 0xFF;
+                    int fea = codeTri == 0xFE ? 0 : 15;
+                    feb = aux >> 4;
+                    fec = aux & 15;
+                    if (aux == 0) {
+                        next = 0;
+                    }
+                    a = fea == 0 ? next++ : 0;
+                    b = feb == 0 ? next++ : vertexFifo[(vertexOffset - feb) & 15];
+                    c = fec == 0 ? next++ : vertexFifo[(vertexOffset - fec) & 15];
+                    cursor[0] = position;
+                    if (fea == 15) {
+                        last = a = decodeIndex(data, cursor, last);
+                    }
+                    if (feb == 15) {
+                        last = b = decodeIndex(data, cursor, last);
+                    }
+                    if (fec == 15) {
+                        last = c = decodeIndex(data, cursor, last);
+                    }
+                    position = cursor[0];
+                }
+                vertexFifo[vertexOffset] = a;
+                vertexOffset = (vertexOffset + 1) & 15;
+                vertexFifo[vertexOffset] = b;
+                vertexOffset = (vertexOffset + (feb == 0 || feb == 15 ? 1 : 0)) & 15;
+                vertexFifo[vertexOffset] = c;
+                vertexOffset = (vertexOffset + (fec == 0 || fec == 15 ? 1 : 0)) & 15;
+                edgeOffset = pushEdge(edgeA, edgeB, b, a, edgeOffset);
+                edgeOffset = pushEdge(edgeA, edgeB, c, b, edgeOffset);
+                edgeOffset = pushEdge(edgeA, edgeB, a, c, edgeOffset);
+            }
+            result[i] = a;
+            result[i + 1] = b;
+            result[i + 2] = c;
+        }
+        if (position != safeEnd) {
+            throw new RuntimeException("Malformed index buffer");
+        }
+        return result;
+    }
+
+    //Index sequences (not triangle lists) from EXT_meshopt_compression mode INDICES: zigzag deltas against one of two baselines.
+    public static int[] decodeIndexSequence(int indexCount, ByteBuffer source) {
+        byte[] data = new byte[source.remaining()];
+        source.get(data);
+        if (data.length < 1 + indexCount + 4 || (data[0] & 0xF0) != SEQUENCE_HEADER) {
+            throw new RuntimeException("Malformed index sequence");
+        }
+        if ((data[0] & 0x0F) > 1) {
+            throw new RuntimeException("Unsupported index sequence version: " + (data[0] & 0x0F));
+        }
+        int[] result = new int[indexCount];
+        int[] last = new int[2];
+        int[] cursor = {1};
+        int safeEnd = data.length - 4;
+        for (int i = 0; i < indexCount; i++) {
+            if (cursor[0] >= safeEnd) {
+                throw new RuntimeException("Malformed index sequence");
+            }
+            int v = decodeVByte(data, cursor);
+            int current = v & 1;
+            v >>>= 1;
+            result[i] = last[current] += (v >>> 1) ^ -(v & 1);
+        }
+        if (cursor[0] != safeEnd) {
+            throw new RuntimeException("Malformed index sequence");
+        }
+        return result;
+    }
+
+    //Reverses the EXT_meshopt_compression filters in place on count elements of stride bytes (little endian).
+    public static void decodeFilter(ByteBuffer data, int filter, int count, int stride) {
+        ByteBuffer d = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int base = d.position();
+        switch (filter) {
+            case FILTER_NONE:
+                break;
+            case FILTER_OCTAHEDRAL:
+                //Two components of an octahedral map plus the encoded 1.0 in the third, the fourth passes through.
+                boolean wide = stride == 8;
+                float max = wide ? 32767.0f : 127.0f;
+                for (int i = 0; i < count; i++) {
+                    int o = base + i * stride;
+                    float x = wide ? d.getShort(o) : d.get(o), y = wide ? d.getShort(o + 2) : d.get(o + 1);
+                    float z = (wide ? d.getShort(o + 4) : d.get(o + 2)) - java.lang.Math.abs(x) - java.lang.Math.abs(y);
+                    float t = java.lang.Math.min(z, 0.0f);
+                    x += x >= 0.0f ? t : -t;
+                    y += y >= 0.0f ? t : -t;
+                    float s = max / (float) java.lang.Math.sqrt(x * x + y * y + z * z);
+                    int xf = (int) (x * s + (x >= 0.0f ? 0.5f : -0.5f)), yf = (int) (y * s + (y >= 0.0f ? 0.5f : -0.5f)), zf = (int) (z * s + (z >= 0.0f ? 0.5f : -0.5f));
+                    if (wide) {
+                        d.putShort(o, (short) xf).putShort(o + 2, (short) yf).putShort(o + 4, (short) zf);
+                    } else {
+                        d.put(o, (byte) xf).put(o + 1, (byte) yf).put(o + 2, (byte) zf);
+                    }
+                }
+                break;
+            case FILTER_QUATERNION:
+                //Three smallest components scaled by 1/sqrt(2), the largest one is rebuilt and its slot comes from the low bits of w.
+                for (int i = 0; i < count; i++) {
+                    int o = base + i * 8;
+                    int w = d.getShort(o + 6);
+                    float ss = (float) (1.0 / java.lang.Math.sqrt(2.0)) / (w | 3);
+                    float x = d.getShort(o) * ss, y = d.getShort(o + 2) * ss, z = d.getShort(o + 4) * ss;
+                    float ww = 1.0f - x * x - y * y - z * z;
+                    float r = (float) java.lang.Math.sqrt(java.lang.Math.max(ww, 0.0f));
+                    int qc = w & 3;
+                    d.putShort(o + ((qc + 1) & 3) * 2, (short) (int) (x * 32767.0f + (x >= 0.0f ? 0.5f : -0.5f)));
+                    d.putShort(o + ((qc + 2) & 3) * 2, (short) (int) (y * 32767.0f + (y >= 0.0f ? 0.5f : -0.5f)));
+                    d.putShort(o + ((qc + 3) & 3) * 2, (short) (int) (z * 32767.0f + (z >= 0.0f ? 0.5f : -0.5f)));
+                    d.putShort(o + qc * 2, (short) (int) (r * 32767.0f + 0.5f));
+                }
+                break;
+            case FILTER_EXPONENTIAL:
+                //Signed 24 bit mantissa and 8 bit exponent per float.
+                for (int i = 0; i < count * stride / 4; i++) {
+                    int o = base + i * 4;
+                    int v = d.getInt(o);
+                    int m = v << 8 >> 8, e = v >> 24;
+                    d.putFloat(o, Float.intBitsToFloat((e + 127) << 23) * m);
+                }
+                break;
+            default:
+                throw new RuntimeException("Unsupported meshopt filter: " + filter);
+        }
+    }
+
+    private static int getVertexBlockSize(int vertexSize) {
+        return java.lang.Math.min(BLOCK_SIZE_BYTES / vertexSize & ~(GROUP_SIZE - 1), BLOCK_MAX_SIZE);
+    }
+
+    //Two header bits per group select 0, 2, 4 or 8 bits per byte, values equal to or above the all ones sentinel are escaped.
+    private static int encodeBytes(byte[] data, int position, byte[] buffer, int size) {
+        int header = position;
+        int headerSize = (size / GROUP_SIZE + 3) / 4;
+        Arrays.fill(data, header, header + headerSize, (byte) 0);
+        position += headerSize;
+        for (int i = 0; i < size; i += GROUP_SIZE) {
+            int bestLog2 = 3, bestSize = GROUP_SIZE;
+            for (int log2 = 0; log2 < 3; log2++) {
+                int s = measureGroup(buffer, i, log2 == 0 ? 0 : 1 << log2);
+                if (s < bestSize) {
+                    bestLog2 = log2;
+                    bestSize = s;
+                }
+            }
+            int group = i / GROUP_SIZE;
+            data[header + group / 4] |= (byte) (bestLog2 << (group % 4 * 2));
+            if (bestLog2 == 3) {
+                System.arraycopy(buffer, i, data, position, GROUP_SIZE);
+                position += GROUP_SIZE;
+            } else if (bestLog2 > 0) {
+                int bits = 1 << bestLog2, perByte = 8 / bits, sentinel = (1 << bits) - 1;
+                for (int j = 0; j < GROUP_SIZE; j += perByte) {
+                    int packed = 0;
+                    for (int k = 0; k < perByte; k++) {
+                        packed = packed << bits | java.lang.Math.min(buffer[i + j + k] & 0xFF, sentinel);
+                    }
+                    data[position++] = (byte) packed;
+                }
+                for (int j = 0; j < GROUP_SIZE; j++) {
+                    if ((buffer[i + j] & 0xFF) >= sentinel) {
+                        data[position++] = buffer[i + j];
+                    }
+                }
+            }
+        }
+        return position;
+    }
+
+    private static int measureGroup(byte[] buffer, int offset, int bits) {
+        if (bits == 0) {
+            for (int i = 0; i < GROUP_SIZE; i++) {
+                if (buffer[offset + i] != 0) {
+                    return Integer.MAX_VALUE;
+                }
+            }
+            return 0;
+        }
+        int sentinel = (1 << bits) - 1;
+        int result = GROUP_SIZE * bits / 8;
+        for (int i = 0; i < GROUP_SIZE; i++) {
+            if ((buffer[offset + i] & 0xFF) >= sentinel) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    private static int decodeBytes(byte[] data, int position, byte[] buffer, int size) {
+        int header = position;
+        position += (size / GROUP_SIZE + 3) / 4;
+        for (int i = 0; i < size; i += GROUP_SIZE) {
+            if (data.length - position < GROUP_DECODE_LIMIT) {
+                throw new RuntimeException("Malformed vertex buffer");
+            }
+            int group = i / GROUP_SIZE;
+            switch ((data[header + group / 4] >> (group % 4 * 2)) & 3) {
+                case 0:
+                    Arrays.fill(buffer, i, i + GROUP_SIZE, (byte) 0);
+                    break;
+                case 1: {
+                    //Escapes are rare, the fixed part decodes branch free and the few sentinels are patched afterwards.
+                    int escape = position + 4;
+                    for (int j = 0; j < 4; j++) {
+                        int packed = data[position + j];
+                        buffer[i + j * 4] = (byte) (packed >> 6 & 3);
+                        buffer[i + j * 4 + 1] = (byte) (packed >> 4 & 3);
+                        buffer[i + j * 4 + 2] = (byte) (packed >> 2 & 3);
+                        buffer[i + j * 4 + 3] = (byte) (packed & 3);
+                    }
+                    for (int j = i; j < i + GROUP_SIZE; j++) {
+                        if (buffer[j] == 3) {
+                            buffer[j] = data[escape++];
+                        }
+                    }
+                    position = escape;
+                    break;
+                }
+                case 2: {
+                    int escape = position + 8;
+                    for (int j = 0; j < 8; j++) {
+                        int packed = data[position + j];
+                        buffer[i + j * 2] = (byte) (packed >> 4 & 15);
+                        buffer[i + j * 2 + 1] = (byte) (packed & 15);
+                    }
+                    for (int j = i; j < i + GROUP_SIZE; j++) {
+                        if (buffer[j] == 15) {
+                            buffer[j] = data[escape++];
+                        }
+                    }
+                    position = escape;
+                    break;
+                }
+                default:
+                    System.arraycopy(data, position, buffer, i, GROUP_SIZE);
+                    position += GROUP_SIZE;
+                    break;
+            }
+        }
+        return position;
+    }
+
+    private static int getEdgeFifo(int[][] fifo, int a, int b, int c, int offset) {
+        for (int i = 0; i < 16; i++) {
+            int[] edge = fifo[(offset - 1 - i) & 15];
+            if (edge[0] == a && edge[1] == b) {
+                return i << 2;
+            }
+            if (edge[0] == b && edge[1] == c) {
+                return i << 2 | 1;
+            }
+            if (edge[0] == c && edge[1] == a) {
+                return i << 2 | 2;
+            }
+        }
+        return -1;
+    }
+
+    private static int pushEdgeFifo(int[][] fifo, int a, int b, int offset) {
+        fifo[offset][0] = a;
+        fifo[offset][1] = b;
+        return (offset + 1) & 15;
+    }
+
+    private static int pushEdge(int[] edgeA, int[] edgeB, int a, int b, int offset) {
+        edgeA[offset] = a;
+        edgeB[offset] = b;
+        return (offset + 1) & 15;
+    }
+
+    private static int getVertexFifo(int[] fifo, int v, int offset) {
+        for (int i = 0; i < 16; i++) {
+            if (fifo[(offset - 1 - i) & 15] == v) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int encodeIndex(byte[] data, int position, int index, int last) {
+        int d = index - last;
+        int v = (d << 1) ^ (d >> 31);
+        do {
+            data[position++] = (byte) ((v & 127) | (Integer.compareUnsigned(v, 127) > 0 ? 128 : 0));
+            v >>>= 7;
+        } while (v != 0);
+        return position;
+    }
+
+    private static int decodeIndex(byte[] data, int[] cursor, int last) {
+        int v = decodeVByte(data, cursor);
+        return last + ((v >>> 1) ^ -(v & 1));
+    }
+
+    private static int decodeVByte(byte[] data, int[] cursor) {
+        int lead = data[cursor[0]++] & 0xFF;
+        if (lead < 128) {
+            return lead;
+        }
+        int result = lead & 127;
+        for (int i = 0, shift = 7; i < 4; i++, shift += 7) {
+            int group = data[cursor[0]++] & 0xFF;
+            result |= (group & 127) << shift;
+            if (group < 128) {
+                break;
+            }
+        }
+        return result;
+    }
+}
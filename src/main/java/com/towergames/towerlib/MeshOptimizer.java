@@ -0,0 +1,214 @@
+package com.towergames.towerlib;
+
+import java.util.Arrays;
+
+//Index and vertex buffer reordering for the post-transform cache, overdraw and vertex fetch.
+public class MeshOptimizer {
+    public static final int CACHE_SIZE = 16;
+
+    //Tipsify (Sander et al. 2007): fans around the most recently cached vertex, jumps to a dead-end vertex when the fan runs dry.
+    public static int[] optimizeVertexCache(int[] indices, int vertexCount) {
+        int triangleCount = indices.length / 3;
+        int[] offsets = new int[vertexCount + 1];
+        for (int index : indices) {
+            offsets[index + 1]++;
+        }
+        for (int i = 0; i < vertexCount; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        int[] live = new int[vertexCount];
+        int[] adjacency = new int[indices.length];
+        int[] fill = Arrays.copyOf(offsets, vertexCount);
+        for (int i = 0; i < indices.length; i++) {
+            adjacency[fill[indices[i]]++] = i / 3;
+            live[indices[i]]++;
+        }
+        int[] cacheTime = new int[vertexCount];
+        boolean[] emitted = new boolean[triangleCount];
+        int[] deadEnd = new int[indices.length];
+        int deadEndTop = 0;
+        int[] candidates = new int[indices.length];
+        int[] result = new int[indices.length];
+        int resultCount = 0;
+        int timestamp = CACHE_SIZE + 1;
+        int fan = nextLive(live, 0);
+        int cursor = fan + 1;
+        while (fan >= 0) {
+            int candidateCount = 0;
+            for (int j = offsets[fan]; j < offsets[fan + 1]; j++) {
+                int t = adjacency[j];
+                if (emitted[t]) {
+                    continue;
+                }
+                emitted[t] = true;
+                for (int k = 0; k < 3; k++) {
+                    int v = indices[t * 3 + k];
+                    result[resultCount++] = v;
+                    deadEnd[deadEndTop++] = v;
+                    candidates[candidateCount++] = v;
+                    live[v]--;
+                    if (timestamp - cacheTime[v] > CACHE_SIZE) {
+                        cacheTime[v] = timestamp++;
+                    }
+                }
+            }
+            //Prefer the candidate that stays in the cache longest while all its remaining triangles are emitted.
+            int best = -1, bestPriority = -1;
+            for (int j = 0; j < candidateCount; j++) {
+                int v = candidates[j];
+                if (live[v] > 0) {
+                    int priority = 0;
+                    if (timestamp - cacheTime[v] + 2 * live[v] <= CACHE_SIZE) {
+                        priority = timestamp - cacheTime[v];
+                    }
+                    if (priority > bestPriority) {
+                        bestPriority = priority;
+                        best = v;
+                    }
+                }
+            }
+            if (best == -1) {
+                while (deadEndTop > 0) {
+                    int v = deadEnd[--deadEndTop];
+                    if (live[v] > 0) {
+                        best = v;
+                        break;
+                    }
+                }
+            }
+            if (best == -1) {
+                best = nextLive(live, cursor);
+                cursor = best + 1;
+            }
+            fan = best;
+        }
+        return result;
+    }
+
+    //Splits the cache optimized list where the cache went cold and sorts the clusters so outward facing ones draw first.
+    public static int[] optimizeOverdraw(int[] indices, float[] vertices, int stride) {
+        int vertexCount = vertices.length / stride;
+        int triangleCount = indices.length / 3;
+        if (triangleCount < 2) {
+            return indices;
+        }
+        int[] clusters = new int[triangleCount + 1];
+        int clusterCount = 0;
+        int[] cacheTime = new int[vertexCount];
+        Arrays.fill(cacheTime, -CACHE_SIZE - 1);
+        int timestamp = 0;
+        for (int t = 0; t < triangleCount; t++) {
+            int misses = 0;
+            for (int k = 0; k < 3; k++) {
+                int v = indices[t * 3 + k];
+                if (timestamp - cacheTime[v] > CACHE_SIZE) {
+                    cacheTime[v] = timestamp++;
+                    misses++;
+                }
+            }
+            if (t == 0 || misses == 3) {
+                clusters[clusterCount++] = t;
+            }
+        }
+        clusters[clusterCount] = triangleCount;
+        double mx = 0, my = 0, mz = 0, weight = 0;
+        double[] centroid = new double[clusterCount * 4], normal = new double[clusterCount * 3];
+        for (int c = 0; c < clusterCount; c++) {
+            for (int t = clusters[c]; t < clusters[c + 1]; t++) {
+                int a = indices[t * 3] * stride, b = indices[t * 3 + 1] * stride, d = indices[t * 3 + 2] * stride;
+                double ux = vertices[b] - vertices[a], uy = vertices[b + 1] - vertices[a + 1], uz = vertices[b + 2] - vertices[a + 2];
+                double vx = vertices[d] - vertices[a], vy = vertices[d + 1] - vertices[a + 1], vz = vertices[d + 2] - vertices[a + 2];
+                double nx = uy * vz - uz * vy, ny = uz * vx - ux * vz, nz = ux * vy - uy * vx;
+                double w = Math.sqrt(nx * nx + ny * ny + nz * nz);
+                double cx = (vertices[a] + vertices[b] + vertices[d]) * w, cy = (vertices[a + 1] + vertices[b + 1] + vertices[d + 1]) * w,
+                        cz = (vertices[a + 2] + vertices[b + 2] + vertices[d + 2]) * w;
+                centroid[c * 4] += cx;
+                centroid[c * 4 + 1] += cy;
+                centroid[c * 4 + 2] += cz;
+                centroid[c * 4 + 3] += w * 3.0;
+                normal[c * 3] += nx;
+                normal[c * 3 + 1] += ny;
+                normal[c * 3 + 2] += nz;
+                mx += cx;
+                my += cy;
+                mz += cz;
+                weight += w * 3.0;
+            }
+        }
+        if (weight == 0.0) {
+            return indices;
+        }
+        mx /= weight;
+        my /= weight;
+        mz /= weight;
+        //Distance of the cluster in front of the mesh center along its average normal.
+        double[] sort = new double[clusterCount];
+        Integer[] order = new Integer[clusterCount];
+        for (int c = 0; c < clusterCount; c++) {
+            order[c] = c;
+            double nl = Math.sqrt(normal[c * 3] * normal[c * 3] + normal[c * 3 + 1] * normal[c * 3 + 1] + normal[c * 3 + 2] * normal[c * 3 + 2]);
+            double w = centroid[c * 4 + 3];
+            if (nl > 0.0 && w > 0.0) {
+                sort[c] = ((centroid[c * 4] / w - mx) * normal[c * 3] + (centroid[c * 4 + 1] / w - my) * normal[c * 3 + 1]
+                        + (centroid[c * 4 + 2] / w - mz) * normal[c * 3 + 2]) / nl;
+            }
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(sort[b], sort[a]));
+        int[] result = new int[indices.length];
+        int n = 0;
+        for (int c : order) {
+            int from = clusters[c] * 3, to = clusters[c + 1] * 3;
+            System.arraycopy(indices, from, result, n, to - from);
+            n += to - from;
+        }
+        return result;
+    }
+
+    //Reorders vertices by first use and rewrites indices in place, unused vertices are dropped. Returns the new vertex array.
+    public static float[] optimizeVertexFetch(int[] indices, float[] vertices, int stride) {
+        int vertexCount = vertices.length / stride;
+        int[] remap = new int[vertexCount];
+        Arrays.fill(remap, -1);
+        int next = 0;
+        for (int i = 0; i < indices.length; i++) {
+            int v = indices[i];
+            if (remap[v] == -1) {
+                remap[v] = next++;
+            }
+            indices[i] = remap[v];
+        }
+        float[] result = new float[next * stride];
+        for (int v = 0; v < vertexCount; v++) {
+            if (remap[v] != -1) {
+                System.arraycopy(vertices, v * stride, result, remap[v] * stride, stride);
+            }
+        }
+        return result;
+    }
+
+    //Average cache miss ratio: vertex shader invocations per triangle for a FIFO cache, 0.5 is ideal for a regular grid, 3 is worst.
+    public static float analyzeAcmr(int[] indices, int vertexCount, int cacheSize) {
+        if (indices.length == 0) {
+            return 0.0f;
+        }
+        int[] cacheTime = new int[vertexCount];
+        Arrays.fill(cacheTime, -cacheSize - 1);
+        int timestamp = 0, misses = 0;
+        for (int v : indices) {
+            if (timestamp - cacheTime[v] > cacheSize) {
+                cacheTime[v] = timestamp++;
+                misses++;
+            }
+        }
+        return misses * 3.0f / indices.length;
+    }
+
+    private static int nextLive(int[] live, int from) {
+        for (int i = from; i < live.length; i++) {
+            if (live[i] > 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,274 @@
+package com.towergames.towerlib;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+//Quadric error edge collapse over an indexed triangle list, positions are the first 3 floats of each vertex.
+//Vertices on borders and attribute seams (same position, different vertex) are locked, so the vertex buffer is shared by all levels.
+public class MeshSimplifier {
+    private final float[] vertices;
+    private final int stride, vertexCount;
+    private final int[] remap;
+    private final boolean[] locked;
+    private final double[] quadrics;
+    private final float extent;
+
+    public MeshSimplifier(float[] vertices, int stride, int[] indices) {
+        this.vertices = vertices;
+        this.stride = stride;
+        vertexCount = vertices.length / stride;
+        remap = new int[vertexCount];
+        locked = new boolean[vertexCount];
+        quadrics = new double[vertexCount * 11];
+        Map<Long, Integer> first = new HashMap<>();
+        Map<Integer, Integer> groupSize = new HashMap<>();
+        for (int i = 0; i < vertexCount; i++) {
+            long key = ((long) Float.floatToIntBits(x(i)) * 73856093L) ^ ((long) Float.floatToIntBits(y(i)) * 19349663L) ^ ((long) Float.floatToIntBits(z(i)) * 83492791L);
+            Integer f = first.get(key);
+            while (f != null && !(x(f) == x(i) && y(f) == y(i) && z(f) == z(i))) {
+                f = first.get(++key);
+            }
+            if (f == null) {
+                first.put(key, i);
+                f = i;
+            }
+            remap[i] = f;
+            groupSize.merge(f, 1, Integer::sum);
+        }
+        Map<Long, Integer> edges = new HashMap<>();
+        for (int i = 0; i < indices.length; i += 3) {
+            for (int e = 0; e < 3; e++) {
+                int a = remap[indices[i + e]], b = remap[indices[i + (e + 1) % 3]];
+                edges.merge(a < b ? (long) a << 32 | b : (long) b << 32 | a, 1, Integer::sum);
+            }
+        }
+        edges.forEach((edge, count) -> {
+            if (count == 1) {
+                locked[(int) (edge >>> 32)] = true;
+                locked[(int) (long) edge] = true;
+            }
+        });
+        for (int i = 0; i < vertexCount; i++) {
+            if (groupSize.get(remap[i]) > 1) {
+                locked[remap[i]] = true;
+            }
+        }
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < vertexCount; i++) {
+            minX = Math.min(minX, x(i));
+            minY = Math.min(minY, y(i));
+            minZ = Math.min(minZ, z(i));
+            maxX = Math.max(maxX, x(i));
+            maxY = Math.max(maxY, y(i));
+            maxZ = Math.max(maxZ, z(i));
+        }
+        extent = vertexCount == 0 ? 1.0f : Math.max(Math.max(maxX - minX, maxY - minY), Math.max(maxZ - minZ, 1e-6f));
+        for (int i = 0; i < indices.length; i += 3) {
+            addTriangleQuadric(indices[i], indices[i + 1], indices[i + 2]);
+        }
+    }
+
+    //Collapses edges until the index count reaches targetIndexCount or the error would exceed targetError (relative to the mesh extent).
+    //error[0] receives the error of the result, can be null.
+    public int[] simplify(int[] indices, int targetIndexCount, float targetError, float[] error) {
+        double[] maxError = new double[1];
+        int[] result = simplify(Arrays.copyOf(quadrics, quadrics.length), indices, targetIndexCount, targetError, maxError);
+        if (error != null) {
+            error[0] = (float) (Math.sqrt(maxError[0]) / extent);
+        }
+        return result;
+    }
+
+    //Each level keeps about ratio of the previous one's triangles, levels that barely shrink end the chain.
+    //Quadrics carry over between levels, so errors[i] is measured against the original surface.
+    public int[][] buildChain(int[] indices, int maxLevels, float ratio, float targetError, float[] errors) {
+        double[] q = Arrays.copyOf(quadrics, quadrics.length);
+        double[] maxError = new double[1];
+        int[][] levels = new int[maxLevels][];
+        int count = 0;
+        int[] current = indices;
+        for (int i = 0; i < maxLevels; i++) {
+            int[] next = simplify(q, current, (int) (current.length * ratio) / 3 * 3, targetError, maxError);
+            if (next.length > current.length * (ratio + 1.0f) * 0.5f || next.length < 3) {
+                break;
+            }
+            levels[count] = next;
+            errors[count] = (float) (Math.sqrt(maxError[0]) / extent);
+            count++;
+            current = next;
+        }
+        return Arrays.copyOf(levels, count);
+    }
+
+    public float getExtent() {
+        return extent;
+    }
+
+    private int[] simplify(double[] q, int[] indices, int targetIndexCount, float targetError, double[] error) {
+        double limit = (double) targetError * extent * targetError * extent;
+        double maxError = error[0];
+        int[] result = Arrays.copyOf(indices, indices.length);
+        int indexCount = result.length;
+        int[] collapse = new int[vertexCount];
+        boolean[] touched = new boolean[vertexCount];
+        while (indexCount > targetIndexCount) {
+            int[] offsets = new int[vertexCount + 1];
+            for (int i = 0; i < indexCount; i++) {
+                offsets[result[i] + 1]++;
+            }
+            for (int i = 0; i < vertexCount; i++) {
+                offsets[i + 1] += offsets[i];
+            }
+            int[] fill = Arrays.copyOf(offsets, vertexCount);
+            int[] adjacency = new int[indexCount];
+            for (int i = 0; i < indexCount; i++) {
+                adjacency[fill[result[i]]++] = i / 3;
+            }
+            long[] candidates = new long[indexCount * 2];
+            int[] from = new int[indexCount * 2], to = new int[indexCount * 2];
+            int candidateCount = 0;
+            for (int i = 0; i < indexCount; i++) {
+                int a = result[i], b = result[i - i % 3 + (i % 3 + 1) % 3];
+                for (int k = 0; k < 2; k++) {
+                    if (!locked[remap[a]] && remap[a] != remap[b]) {
+                        double cost = evaluate(q, remap[a], remap[b], b);
+                        if (cost <= limit) {
+                            from[candidateCount] = a;
+                            to[candidateCount] = b;
+                            candidates[candidateCount] = (long) Float.floatToIntBits((float) cost) << 32 | candidateCount;
+                            candidateCount++;
+                        }
+                    }
+                    int t = a;
+                    a = b;
+                    b = t;
+                }
+            }
+            if (candidateCount == 0) {
+                break;
+            }
+            Arrays.sort(candidates, 0, candidateCount);
+            for (int i = 0; i < vertexCount; i++) {
+                collapse[i] = i;
+            }
+            Arrays.fill(touched, false);
+            int removeTarget = (indexCount - targetIndexCount) / 3, removed = 0;
+            for (int c = 0; c < candidateCount && removed < removeTarget; c++) {
+                int n = (int) candidates[c];
+                int a = from[n], b = to[n];
+                if (touched[remap[a]] || touched[remap[b]] || flips(result, adjacency, offsets[a], offsets[a + 1], a, b)) {
+                    continue;
+                }
+                collapse[a] = b;
+                for (int i = 0; i < 11; i++) {
+                    q[remap[b] * 11 + i] += q[remap[a] * 11 + i];
+                }
+                maxError = Math.max(maxError, Float.intBitsToFloat((int) (candidates[c] >>> 32)));
+                for (int j = offsets[a]; j < offsets[a + 1]; j++) {
+                    int t = adjacency[j] * 3;
+                    if (result[t] == b || result[t + 1] == b || result[t + 2] == b) {
+                        removed++;
+                    }
+                    touched[remap[result[t]]] = touched[remap[result[t + 1]]] = touched[remap[result[t + 2]]] = true;
+                }
+            }
+            if (removed == 0) {
+                break;
+            }
+            int write = 0;
+            for (int i = 0; i < indexCount; i += 3) {
+                int a = collapse[result[i]], b = collapse[result[i + 1]], c = collapse[result[i + 2]];
+                if (a != b && b != c && c != a) {
+                    result[write++] = a;
+                    result[write++] = b;
+                    result[write++] = c;
+                }
+            }
+            indexCount = write;
+        }
+        error[0] = maxError;
+        return Arrays.copyOf(result, indexCount);
+    }
+
+    //Rejects the collapse when a remaining triangle around a would turn over or become a sliver.
+    private boolean flips(int[] indices, int[] adjacency, int begin, int end, int a, int b) {
+        for (int j = begin; j < end; j++) {
+            int t = adjacency[j] * 3;
+            int i0 = indices[t], i1 = indices[t + 1], i2 = indices[t + 2];
+            if (i0 == b || i1 == b || i2 == b) {
+                continue;
+            }
+            double[] n0 = normal(i0, i1, i2, -1, 0);
+            double[] n1 = normal(i0, i1, i2, a, b);
+            double dot = n0[0] * n1[0] + n0[1] * n1[1] + n0[2] * n1[2];
+            double l0 = Math.sqrt(n0[0] * n0[0] + n0[1] * n0[1] + n0[2] * n0[2]);
+            double l1 = Math.sqrt(n1[0] * n1[0] + n1[1] * n1[1] + n1[2] * n1[2]);
+            if (dot <= 0.25 * l0 * l1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private double[] normal(int i0, int i1, int i2, int replace, int with) {
+        i0 = i0 == replace ? with : i0;
+        i1 = i1 == replace ? with : i1;
+        i2 = i2 == replace ? with : i2;
+        double ux = x(i1) - x(i0), uy = y(i1) - y(i0), uz = z(i1) - z(i0);
+        double vx = x(i2) - x(i0), vy = y(i2) - y(i0), vz = z(i2) - z(i0);
+        return new double[]{uy * vz - uz * vy, uz * vx - ux * vz, ux * vy - uy * vx};
+    }
+
+    //Area weighted plane quadric, stored as the upper triangle of the 4x4 matrix plus the weight.
+    private void addTriangleQuadric(int i0, int i1, int i2) {
+        double[] n = normal(i0, i1, i2, -1, 0);
+        double length = Math.sqrt(n[0] * n[0] + n[1] * n[1] + n[2] * n[2]);
+        if (length == 0.0) {
+            return;
+        }
+        double a = n[0] / length, b = n[1] / length, c = n[2] / length;
+        double d = -(a * x(i0) + b * y(i0) + c * z(i0));
+        double w = length * 0.5;
+        for (int v : new int[]{remap[i0], remap[i1], remap[i2]}) {
+            int o = v * 11;
+            quadrics[o] += w * a * a;
+            quadrics[o + 1] += w * a * b;
+            quadrics[o + 2] += w * a * c;
+            quadrics[o + 3] += w * a * d;
+            quadrics[o + 4] += w * b * b;
+            quadrics[o + 5] += w * b * c;
+            quadrics[o + 6] += w * b * d;
+            quadrics[o + 7] += w * c * c;
+            quadrics[o + 8] += w * c * d;
+            quadrics[o + 9] += w * d * d;
+            quadrics[o + 10] += w;
+        }
+    }
+
+    //Mean squared distance of vertex p to the planes of both quadrics.
+    private double evaluate(double[] q, int qa, int qb, int p) {
+        double x = x(p), y = y(p), z = z(p);
+        double e = 0.0, w = 0.0;
+        for (int o : new int[]{qa * 11, qb * 11}) {
+            e += q[o] * x * x + 2 * q[o + 1] * x * y + 2 * q[o + 2] * x * z + 2 * q[o + 3] * x
+                    + q[o + 4] * y * y + 2 * q[o + 5] * y * z + 2 * q[o + 6] * y
+                    + q[o + 7] * z * z + 2 * q[o + 8] * z + q[o + 9];
+            w += q[o + 10];
+        }
+        return w == 0.0 ? 0.0 : Math.abs(e) / w;
+    }
+
+    private float x(int v) {
+        return vertices[v * stride];
+    }
+
+    private float y(int v) {
+        return vertices[v * stride + 1];
+    }
+
+    private float z(int v) {
+        return vertices[v * stride + 2];
+    }
+}
@@ -3,29 +3,59 @@ package com.towergames.towerlib;
 import de.javagl.jgltf.model.*;
 import de.javagl.jgltf.model.image.PixelData;
 import de.javagl.jgltf.model.image.PixelDatas;
+import de.javagl.jgltf.model.impl.DefaultAccessorModel;
+import de.javagl.jgltf.model.impl.DefaultBufferModel;
+import de.javagl.jgltf.model.impl.DefaultBufferViewModel;
 import de.javagl.jgltf.model.io.GltfModelReader;
 import de.javagl.jgltf.model.v2.MaterialModelV2;
+import org.joml.FrustumIntersection;
 import org.joml.Matrix4f;
+import org.joml.Quaternionf;
 import org.joml.Vector3f;
 import org.joml.Vector4f;
+import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL15;
 import org.lwjgl.opengl.GL21;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL33;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.util.*;
 
 public class ModelManager {
+    //Joint palette formats: mat4 in a UBO (max 1024 joints), 3x4 affine rows or dual quaternions in a texture buffer ring.
+    public static final int SKINNING_UBO = 0, SKINNING_MATRIX_3X4 = 1, SKINNING_DUAL_QUATERNION = 2;
     private final TowerGame game;
     private Map<String, Model> models = new HashMap<>();
     private Map<TextureModel, GLHandler.Texture> textures = new HashMap<>();
     private GLHandler.UBO uboJointMatrices;
+    private GLHandler.VBO vboInstances;
+    private FloatBuffer instanceBuffer, visibleInstanceBuffer;
+    private final FrustumIntersection frustum = new FrustumIntersection();
+    private final Matrix4f viewProjection = new Matrix4f();
+    private static final int LOD_LEVELS = 4, MAX_MORPH_TARGETS = 16;
+    private static final float LOD_RATIO = 0.5f, LOD_MAX_ERROR = 0.05f, LOD_HYSTERESIS = 0.25f;
+    private static final float[] NO_DEQUANTIZE_OFFSET = {0.0f, 0.0f, 0.0f}, NO_DEQUANTIZE_SCALE = {1.0f, 1.0f, 1.0f};
+    private final Vector3f eye = new Vector3f(), lodCenter = new Vector3f(), lodScale = new Vector3f();
+    private final Matrix4f inverseView = new Matrix4f();
+    private boolean frustumCulling = true, lod = true, optimizeOverdraw = true, compactVertices, preSkinning;
+    private float lodThreshold = 1.0f, lodPixelScale;
+    private OcclusionCuller occlusionCuller;
+    private MeshCache meshCache;
+    private int skinningMode = SKINNING_UBO;
+    private GLHandler.TextureBuffer jointPalette;
+    private int jointPaletteCapacity = 16384, jointPaletteCursor, jointPaletteGeneration;
+    //Joint matrices currently in uboJointMatrices.
+    private float[] uboPalette;
 
     public ModelManager(TowerGame game) {
         this.game = game;
         uboJointMatrices = game.getGlHandler().createUBO();
+        vboInstances = game.getGlHandler().createVBO();
     }
 
     public Model loadModel(String path) {
@@ -33,10 +63,13 @@ public class ModelManager {
             return models.get(path);
         } else {
             game.getLogger().debug("Loading model: {}", path);
+            long start = game.getTracer().begin(Tracer.MODEL_LOAD);
             try {
                 GltfModel m = new GltfModelReader().read(TowerUtil.getResourcePath(path));
+                decodeMeshoptCompression(m);
                 Model model = new Model(m);
                 models.put(path, model);
+                game.getTracer().end(Tracer.MODEL_LOAD, start, path, model.getPrimitives().size());
                 return model;
             } catch (IOException e) {
                 throw new RuntimeException("Failed to load model: " + path, e);
@@ -44,6 +77,84 @@ public class ModelManager {
         }
     }
 
+    //EXT_meshopt_compression: compressed buffer views are decoded up front and pointed at the decoded data,
+    //so everything after this reads plain glTF buffers.
+    private void decodeMeshoptCompression(GltfModel model) {
+        Set<BufferViewModel> decoded = new HashSet<>();
+        for (BufferViewModel view : model.getBufferViewModels()) {
+            Object extension = view.getExtensions() == null ? null : view.getExtensions().get("EXT_meshopt_compression");
+            if (!(extension instanceof Map)) {
+                continue;
+            }
+            Map<?, ?> e = (Map<?, ?>) extension;
+            BufferModel buffer = model.getBufferModels().get(((Number) e.get("buffer")).intValue());
+            int byteOffset = e.get("byteOffset") == null ? 0 : ((Number) e.get("byteOffset")).intValue();
+            int byteLength = ((Number) e.get("byteLength")).intValue();
+            int byteStride = ((Number) e.get("byteStride")).intValue();
+            int count = ((Number) e.get("count")).intValue();
+            ByteBuffer source = buffer.getBufferData().duplicate();
+            source.limit(byteOffset + byteLength).position(byteOffset);
+            ByteBuffer data = ByteBuffer.allocateDirect(count * byteStride).order(ByteOrder.LITTLE_ENDIAN);
+            switch (String.valueOf(e.get("mode"))) {
+                case "ATTRIBUTES":
+                    MeshCodec.decodeVertexBuffer(data, count, byteStride, source.slice());
+                    break;
+                case "TRIANGLES":
+                    putIndices(data, MeshCodec.decodeIndexBuffer(count, source.slice()), byteStride);
+                    break;
+                case "INDICES":
+                    putIndices(data, MeshCodec.decodeIndexSequence(count, source.slice()), byteStride);
+                    break;
+                default:
+                    throw new RuntimeException("Unsupported meshopt mode: " + e.get("mode"));
+            }
+            data.clear();
+            String filter = e.get("filter") == null ? "NONE" : String.valueOf(e.get("filter"));
+            switch (filter) {
+                case "NONE":
+                    break;
+                case "OCTAHEDRAL":
+                    MeshCodec.decodeFilter(data, MeshCodec.FILTER_OCTAHEDRAL, count, byteStride);
+                    break;
+                case "QUATERNION":
+                    MeshCodec.decodeFilter(data, MeshCodec.FILTER_QUATERNION, count, byteStride);
+                    break;
+                case "EXPONENTIAL":
+                    MeshCodec.decodeFilter(data, MeshCodec.FILTER_EXPONENTIAL, count, byteStride);
+                    break;
+                default:
+                    throw new RuntimeException("Unsupported meshopt filter: " + filter);
+            }
+            DefaultBufferModel target = new DefaultBufferModel();
+            target.setBufferData(data);
+            DefaultBufferViewModel v = (DefaultBufferViewModel) view;
+            v.setBufferModel(target);
+            v.setByteOffset(0);
+            v.setByteLength(data.capacity());
+            decoded.add(view);
+        }
+        if (decoded.isEmpty()) {
+            return;
+        }
+        //Accessor data is created with the model and still points at the fallback buffer.
+        for (AccessorModel accessor : model.getAccessorModels()) {
+            if (decoded.contains(accessor.getBufferViewModel())) {
+                ((DefaultAccessorModel) accessor).setAccessorData(AccessorDatas.create(accessor));
+            }
+        }
+        game.getLogger().debug("Decoded {} meshopt compressed buffer views", decoded.size());
+    }
+
+    private static void putIndices(ByteBuffer buffer, int[] indices, int byteStride) {
+        for (int index : indices) {
+            if (byteStride == 2) {
+                buffer.putShort((short) index);
+            } else {
+                buffer.putInt(index);
+            }
+        }
+    }
+
     public GLHandler.Texture loadTexture(TextureModel model, boolean srgb, boolean mipmap, GLHandler.Texture defaultTexture) {
         if (textures.containsKey(model)) {
             return textures.get(model);
@@ -65,9 +176,527 @@ public class ModelManager {
         return loadTexture(model, srgb, mipmap, null);
     }
 
+    public boolean isFrustumCulling() {
+        return frustumCulling;
+    }
+
+    public void setFrustumCulling(boolean frustumCulling) {
+        this.frustumCulling = frustumCulling;
+    }
+
+    public boolean isOptimizeOverdraw() {
+        return optimizeOverdraw;
+    }
+
+    //Applies to models loaded afterwards.
+    public void setOptimizeOverdraw(boolean optimizeOverdraw) {
+        this.optimizeOverdraw = optimizeOverdraw;
+    }
+
+    public boolean isCompactVertices() {
+        return compactVertices;
+    }
+
+    //Applies to models loaded afterwards: 16 bit positions, half float UVs and 2_10_10_10 normals and tangents.
+    public void setCompactVertices(boolean compactVertices) {
+        this.compactVertices = compactVertices;
+    }
+
+    public boolean isLod() {
+        return lod;
+    }
+
+    public void setLod(boolean lod) {
+        this.lod = lod;
+    }
+
+    public boolean isPreSkinning() {
+        return preSkinning;
+    }
+
+    //Skinned primitives are skinned by transform feedback into a per-instance buffer when their pose changes, which every pass then draws
+    //with the static path. They draw the glTF mesh, it's the only one with joints and weights.
+    public void setPreSkinning(boolean preSkinning) {
+        this.preSkinning = preSkinning;
+    }
+
+    public int getSkinningMode() {
+        return skinningMode;
+    }
+
+    //SKINNING_DUAL_QUATERNION blends without candy wrapping but drops joint scale.
+    public void setSkinningMode(int skinningMode) {
+        if (skinningMode < SKINNING_UBO || skinningMode > SKINNING_DUAL_QUATERNION) {
+            throw new RuntimeException("Unknown skinning mode: " + skinningMode);
+        }
+        this.skinningMode = skinningMode;
+    }
+
+    //Palettes are appended to one RGBA32F buffer and addressed by offset, when it's full the storage is orphaned and
+    //writing starts over, so palettes still in use by queued draws are never overwritten. Returns the offset in texels.
+    private int uploadJointPalette(float[] texels) {
+        int count = texels.length / 4;
+        if (jointPalette == null || jointPaletteCursor + count > jointPaletteCapacity) {
+            while (count > jointPaletteCapacity) {
+                jointPaletteCapacity *= 2;
+            }
+            if (jointPalette == null) {
+                jointPalette = game.getGlHandler().createTextureBuffer(GL30.GL_RGBA32F);
+            }
+            jointPalette.data(jointPaletteCapacity * 16L, GL15.GL_STREAM_DRAW);
+            jointPaletteCursor = 0;
+            jointPaletteGeneration++;
+        }
+        int offset = jointPaletteCursor;
+        jointPalette.subData(offset * 16L, texels);
+        jointPaletteCursor += count;
+        return offset;
+    }
+
+    public float getLodThreshold() {
+        return lodThreshold;
+    }
+
+    //Max screen space error in pixels before a finer level is used.
+    public void setLodThreshold(float lodThreshold) {
+        this.lodThreshold = lodThreshold;
+    }
+
+    private void updateFrustum() {
+        GLHandler.GLState state = game.getGlHandler().getState();
+        frustum.set(viewProjection.set(state.projection).mul(state.view), false);
+        state.view.invertAffine(inverseView).getTranslation(eye);
+        lodPixelScale = state.projection.m11() * game.getWindowHandler().getHeight() * 0.5f;
+    }
+
+    public MeshCache getMeshCache() {
+        return meshCache;
+    }
+
+    //Processed primitives are read from and written to this cache, null disables it.
+    public void setMeshCache(MeshCache meshCache) {
+        this.meshCache = meshCache;
+    }
+
+    public StaticBatch createStaticBatch() {
+        return new StaticBatch();
+    }
+
+    public Scene createScene() {
+        return new Scene();
+    }
+
+    public OcclusionCuller createOcclusionCuller() {
+        return new OcclusionCuller();
+    }
+
+    public OcclusionCuller getOcclusionCuller() {
+        return occlusionCuller;
+    }
+
+    //Null disables occlusion culling.
+    public void setOcclusionCuller(OcclusionCuller occlusionCuller) {
+        this.occlusionCuller = occlusionCuller;
+    }
+
+    private FloatBuffer getInstanceBuffer(int instances) {
+        return instanceBuffer = clearInstanceBuffer(instanceBuffer, instances);
+    }
+
+    private static FloatBuffer clearInstanceBuffer(FloatBuffer buffer, int instances) {
+        if (buffer == null || buffer.capacity() < instances * 16) {
+            buffer = BufferUtils.createFloatBuffer(java.lang.Math.max(instances * 16, buffer == null ? 1024 : buffer.capacity() * 2));
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    //Static level geometry baked into shared arenas in world space, one multi-draw per arena and material.
+    public class StaticBatch {
+        private static final int ARENA_VERTICES = 1 << 20, ARENA_INDICES = 3 << 20;
+        private final List<GLHandler.GeometryArena> arenas = new ArrayList<>();
+        private final Map<GLHandler.GeometryArena, Map<MaterialModel, Model.Primitive>> materials = new HashMap<>();
+        private final Map<GLHandler.GeometryArena, Map<MaterialModel, GLHandler.GeometryArena.DrawList>> drawLists = new HashMap<>();
+
+        private StaticBatch() {
+
+        }
+
+        //Skinned and morphed primitives are skipped, they can't be baked.
+        public StaticBatch add(Model model, Matrix4f transform) {
+            Matrix4f world = new Matrix4f();
+            Vector3f v = new Vector3f();
+            for (Model.Primitive primitive : model.primitives) {
+                if (primitive.node.getSkinModel() != null || !primitive.instanceable) {
+                    continue;
+                }
+                world.set(transform).mul(new Matrix4f().set(primitive.node.computeGlobalTransform(new float[16])));
+                float[] vertices = Arrays.copyOf(primitive.mesh.vertices, primitive.mesh.vertices.length);
+                for (int i = 0; i < vertices.length; i += 5) {
+                    world.transformPosition(v.set(vertices[i], vertices[i + 1], vertices[i + 2]));
+                    vertices[i] = v.x;
+                    vertices[i + 1] = v.y;
+                    vertices[i + 2] = v.z;
+                }
+                GLHandler.GeometryArena arena = getArena(vertices.length / 5, primitive.mesh.indices.length);
+                GLHandler.GeometryArena.Allocation allocation = arena.allocate(vertices, primitive.mesh.indices);
+                materials.get(arena).putIfAbsent(primitive.material, primitive);
+                drawLists.get(arena).computeIfAbsent(primitive.material, k -> arena.createDrawList()).add(allocation);
+            }
+            return this;
+        }
+
+        private GLHandler.GeometryArena getArena(int vertices, int indices) {
+            for (GLHandler.GeometryArena arena : arenas) {
+                if (arena.canAllocate(vertices, indices)) {
+                    return arena;
+                }
+            }
+            GLHandler.GeometryArena arena = game.getGlHandler().createGeometryArena(5, java.lang.Math.max(vertices, ARENA_VERTICES), java.lang.Math.max(indices, ARENA_INDICES))
+                    .vertexAttrib(0, 3, GL11.GL_FLOAT, false, 0).vertexAttrib(3, 2, GL11.GL_FLOAT, false, 12);
+            arenas.add(arena);
+            materials.put(arena, new LinkedHashMap<>());
+            drawLists.put(arena, new LinkedHashMap<>());
+            return arena;
+        }
+
+        //The vertices are already in world space, the current model matrix is ignored.
+        public void doRender() {
+            GLHandler gl = game.getGlHandler();
+            GLHandler.GLState state = gl.getState();
+            gl.pbr.uniform("uEnableSkinning", false).uniform("uMorphCount", 0)
+                    .uniform3f("uDequantizeOffset", NO_DEQUANTIZE_OFFSET).uniform3f("uDequantizeScale", NO_DEQUANTIZE_SCALE);
+            state.pushMVP();
+            state.model.identity();
+            state.applyMVP();
+            for (GLHandler.GeometryArena arena : arenas) {
+                Map<MaterialModel, Model.Primitive> m = materials.get(arena);
+                drawLists.get(arena).forEach((material, drawList) -> {
+                    m.get(material).applyMaterial(gl.pbr);
+                    drawList.draw();
+                });
+            }
+            state.popMVP();
+        }
+
+        public int getDrawCalls() {
+            return drawLists.values().stream().mapToInt(Map::size).sum();
+        }
+    }
+
+    //Instances indexed by world space bounds, transforms are relative to the model matrix at render time.
+    public class Scene {
+        private final BVH<Instance> bvh = new BVH<>();
+        private final List<Instance> visible = new ArrayList<>();
+        private final Vector3f rayOrigin = new Vector3f(), rayDirection = new Vector3f();
+        private final Matrix4f matrix = new Matrix4f();
+
+        private Scene() {
+
+        }
+
+        public Instance add(Model model, Matrix4f transform) {
+            Instance instance = new Instance(model, transform);
+            instance.leaf = bvh.add(instance, instance.worldMin, instance.worldMax);
+            return instance;
+        }
+
+        public void remove(Instance instance) {
+            bvh.remove(instance.leaf);
+            release(instance);
+        }
+
+        public void clear() {
+            bvh.queryRange(new Vector3f(Float.NEGATIVE_INFINITY), new Vector3f(Float.POSITIVE_INFINITY), this::release);
+            bvh.clear();
+        }
+
+        private void release(Instance instance) {
+            instance.model.releaseInstance(instance);
+            if (occlusionCuller != null) {
+                occlusionCuller.release(instance);
+            }
+        }
+
+        public void rebuild() {
+            bvh.rebuild();
+        }
+
+        public void doRender(boolean renderDepth) {
+            GLHandler.GLState state = game.getGlHandler().getState();
+            query(matrix.set(state.projection).mul(state.view).mul(state.model));
+            for (Instance instance : visible) {
+                state.pushMVP();
+                state.model.mul(instance.transform);
+                instance.model.doRender(renderDepth, instance.animationState, instance);
+                state.popMVP();
+            }
+        }
+
+        //Instances whose bounds intersect the frustum of the given view projection matrix.
+        public List<Instance> query(Matrix4f viewProjection) {
+            visible.clear();
+            if (frustumCulling) {
+                bvh.queryFrustum(frustum.set(viewProjection, false), visible::add);
+            } else {
+                bvh.queryRange(new Vector3f(Float.NEGATIVE_INFINITY), new Vector3f(Float.POSITIVE_INFINITY), visible::add);
+            }
+            return visible;
+        }
+
+        public List<Instance> queryRange(Vector3f min, Vector3f max) {
+            List<Instance> list = new ArrayList<>();
+            bvh.queryRange(min, max, list::add);
+            return list;
+        }
+
+        public List<Instance> querySphere(Vector3f center, float radius) {
+            List<Instance> list = new ArrayList<>();
+            bvh.querySphere(center, radius, list::add);
+            return list;
+        }
+
+        public Instance raycast(Vector3f origin, Vector3f direction, float maxDistance) {
+            BVH<Instance>.Leaf leaf = bvh.raycast(origin, direction, maxDistance);
+            return leaf == null ? null : leaf.getItem();
+        }
+
+        //Window coordinates from the top left corner, uses the current view and projection of GLState.
+        public Instance pick(float windowX, float windowY) {
+            GLHandler.GLState state = game.getGlHandler().getState();
+            WindowHandler window = game.getWindowHandler();
+            matrix.set(state.projection).mul(state.view).mul(state.model).unprojectRay(windowX, window.getHeight() - windowY,
+                    new int[]{0, 0, window.getWidth(), window.getHeight()}, rayOrigin, rayDirection);
+            return raycast(rayOrigin, rayDirection, Float.POSITIVE_INFINITY);
+        }
+
+        public Instance pick() {
+            WindowHandler window = game.getWindowHandler();
+            if (Float.isNaN(window.getMouseX())) {
+                return null;
+            }
+            return pick(window.getMouseX(), window.getMouseY());
+        }
+
+        public int size() {
+            return bvh.size();
+        }
+
+        public int getVisibleCount() {
+            return visible.size();
+        }
+
+        public class Instance {
+            private final Model model;
+            private final Matrix4f transform = new Matrix4f();
+            private final Vector3f boundsMin = new Vector3f(), boundsMax = new Vector3f(), worldMin = new Vector3f(), worldMax = new Vector3f();
+            private Map<String, Float> animationState;
+            private BVH<Instance>.Leaf leaf;
+
+            private Instance(Model model, Matrix4f transform) {
+                this.model = model;
+                model.getBounds(boundsMin, boundsMax);
+                this.transform.set(transform).transformAab(boundsMin, boundsMax, worldMin, worldMax);
+            }
+
+            public Instance setTransform(Matrix4f transform) {
+                this.transform.set(transform).transformAab(boundsMin, boundsMax, worldMin, worldMax);
+                bvh.update(leaf, worldMin, worldMax);
+                return this;
+            }
+
+            //Call after changing the pose of a shared model, bounds are cached per instance.
+            public Instance updateBounds() {
+                model.getBounds(boundsMin, boundsMax);
+                return setTransform(transform);
+            }
+
+            public Instance setAnimationState(Map<String, Float> animationState) {
+                this.animationState = animationState;
+                return this;
+            }
+
+            public Model getModel() {
+                return model;
+            }
+
+            public Matrix4f getTransform() {
+                return transform;
+            }
+
+            public Map<String, Float> getAnimationState() {
+                return animationState;
+            }
+
+            public Vector3f getWorldMin() {
+                return worldMin;
+            }
+
+            public Vector3f getWorldMax() {
+                return worldMax;
+            }
+        }
+    }
+
+    //Occlusion queries against a depth prepass, results are read one frame late so the CPU never waits on the GPU.
+    public class OcclusionCuller {
+        private static final int EVICT_FRAMES = 120;
+        private final Map<Object, Entry[]> entries = new HashMap<>();
+        private final Stats stats = new Stats();
+        private final Matrix4f box = new Matrix4f();
+        private final Vector3f worldMin = new Vector3f(), worldMax = new Vector3f();
+        private int frame;
+
+        private OcclusionCuller() {
+
+        }
+
+        public OcclusionCuller beginFrame() {
+            frame++;
+            stats.reset();
+            Iterator<Map.Entry<Object, Entry[]>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Entry[] e = it.next().getValue();
+                if (frame - e[0].lastFrame > EVICT_FRAMES) {
+                    delete(e);
+                    it.remove();
+                }
+            }
+            return this;
+        }
+
+        //Runs the occluder draws (doRender with renderDepth = true) with color writes off, then leaves GL_LEQUAL so the main pass passes on equal depth.
+        public OcclusionCuller renderOccluders(Runnable occluders) {
+            GLHandler.GLState state = game.getGlHandler().getState();
+            state.colorMask(false).depthMask(true).depthTest(true).depthFunc(GL11.GL_LESS);
+            occluders.run();
+            state.colorMask(true).depthFunc(GL11.GL_LEQUAL);
+            return this;
+        }
+
+        public void release(Object key) {
+            Entry[] e = entries.remove(key);
+            if (e != null) {
+                delete(e);
+            }
+        }
+
+        public Stats getStats() {
+            return stats;
+        }
+
+        //Called with the primitive's model matrix applied, returns false when the primitive was skipped as occluded.
+        private boolean render(Object key, Model.Primitive primitive, int primitiveCount, int lod) {
+            GLHandler gl = game.getGlHandler();
+            Entry[] e = entries.get(key);
+            if (e == null || e.length != primitiveCount) {
+                if (e != null) {
+                    delete(e);
+                }
+                e = new Entry[primitiveCount];
+                for (int i = 0; i < primitiveCount; i++) {
+                    e[i] = new Entry();
+                }
+                entries.put(key, e);
+            }
+            e[0].lastFrame = frame;
+            Entry entry = e[primitive.index];
+            GLHandler.GLState state = gl.getState();
+            state.model.transformAab(primitive.boundsMin, primitive.boundsMax, worldMin, worldMax);
+            float margin = 0.05f * worldMax.distance(worldMin) + 0.01f;
+            if (eye.x > worldMin.x - margin && eye.y > worldMin.y - margin && eye.z > worldMin.z - margin
+                    && eye.x < worldMax.x + margin && eye.y < worldMax.y + margin && eye.z < worldMax.z + margin) {
+                //The bounds would be clipped by the near plane, always draw.
+                entry.visible = true;
+                primitive.doRender(false, lod);
+                return true;
+            }
+            if (entry.query.isPending()) {
+                if (entry.query.isResultAvailable()) {
+                    entry.visible = entry.query.getResult() != 0;
+                    stats.resultsRead++;
+                } else {
+                    //Last result is still in flight, let the GPU decide.
+                    entry.query.beginConditionalRender(GL30.GL_QUERY_NO_WAIT);
+                    primitive.doRender(false, lod);
+                    entry.query.endConditionalRender();
+                    stats.conditionalDraws++;
+                    return true;
+                }
+            }
+            stats.queries++;
+            if (entry.visible) {
+                entry.query.begin();
+                primitive.doRender(false, lod);
+                entry.query.end();
+                return true;
+            }
+            gl.pushStack();
+            state = gl.getState();
+            state.colorMask(false).depthMask(false).cullFace(false);
+            state.model(box.set(state.model).translate(primitive.boundsMin).scale(primitive.boundsMax.x - primitive.boundsMin.x,
+                    primitive.boundsMax.y - primitive.boundsMin.y, primitive.boundsMax.z - primitive.boundsMin.z));
+            gl.bounds.use();
+            state.applyMVP();
+            entry.query.begin();
+            gl.vaoBox.drawElements();
+            entry.query.end();
+            gl.popStack();
+            stats.occluded++;
+            return false;
+        }
+
+        private void delete(Entry[] e) {
+            for (Entry entry : e) {
+                entry.query.delete();
+            }
+        }
+
+        private class Entry {
+            private final GLHandler.Query query = game.getGlHandler().createQuery(GL33.GL_ANY_SAMPLES_PASSED);
+            private boolean visible = true;
+            private int lastFrame;
+        }
+
+        public class Stats {
+            private int queries, resultsRead, conditionalDraws, occluded;
+
+            private void reset() {
+                queries = resultsRead = conditionalDraws = occluded = 0;
+            }
+
+            public int getQueries() {
+                return queries;
+            }
+
+            public int getResultsRead() {
+                return resultsRead;
+            }
+
+            public int getConditionalDraws() {
+                return conditionalDraws;
+            }
+
+            public int getOccluded() {
+                return occluded;
+            }
+
+            @Override
+            public String toString() {
+                return "queries " + queries + ", results " + resultsRead + ", conditional " + conditionalDraws + ", occluded " + occluded;
+            }
+        }
+    }
+
     public class Model {
         private List<Primitive> primitives = new ArrayList<>();
         private Map<String, AnimationModel> animations = new HashMap<>();
+        private final Map<Object, int[]> lodLevels = new WeakHashMap<>();
+        //Weak like lodLevels, but the GL buffers of a collected key are never deleted, so instances should be released.
+        private final Map<Object, SkinnedInstance> skinnedInstances = new WeakHashMap<>();
+        private final Map<SkinModel, SkinGroup> skinGroups = new LinkedHashMap<>();
+        private int culledCount, occludedCount, drawnCount, preSkinnedCount;
+        private final Matrix4f instanceTransform = new Matrix4f(), nodeTransform = new Matrix4f(), cullTransform = new Matrix4f();
 
         private Model(GltfModel model) {
             model.getSceneModels().forEach(scene -> {
@@ -83,14 +712,305 @@ public class ModelManager {
             node.getMeshModels().forEach(mesh -> {
                 mesh.getMeshPrimitiveModels().forEach(primitive -> {
                     game.getLogger().debug("mesh: {}", mesh.getName());
-                    primitives.add(new Primitive(node, primitive));
+                    Primitive p = new Primitive(node, primitive);
+                    primitives.add(p);
+                    if (node.getSkinModel() != null) {
+                        p.skinGroup = skinGroups.computeIfAbsent(node.getSkinModel(), SkinGroup::new);
+                        p.skinGroup.primitives.add(p);
+                    }
                 });
             });
             node.getChildren().forEach(this::setupNode);
         }
 
         public void doRender(boolean renderDepth, Map<String, Float> animationState) {
+            doRender(renderDepth, animationState, this);
+        }
+
+        //instanceKey identifies this placement of the model for occlusion queries and LOD hysteresis, null skips occlusion culling.
+        public void doRender(boolean renderDepth, Map<String, Float> animationState, Object instanceKey) {
+            game.getProfiler().begin("model");
             GLHandler gl = game.getGlHandler();
+            applyAnimation(animationState);
+            updatePoses();
+            updateFrustum();
+            culledCount = occludedCount = drawnCount = preSkinnedCount = 0;
+            GLHandler.Program program = renderDepth ? gl.depth : gl.pbr;
+            for (Primitive primitive : primitives) {
+                if (primitive.skinGroup == null) {
+                    renderPrimitive(program, primitive, renderDepth, instanceKey);
+                }
+            }
+            //Primitives sharing a skin (body, clothes, hair) draw back to back with one palette upload.
+            for (SkinGroup group : skinGroups.values()) {
+                for (Primitive primitive : group.primitives) {
+                    renderPrimitive(program, primitive, renderDepth, instanceKey);
+                }
+            }
+            game.getProfiler().end();
+        }
+
+        public void renderInstanced(List<Matrix4f> transforms, Map<String, Float> animationState) {
+            FloatBuffer buffer = getInstanceBuffer(transforms.size());
+            for (int i = 0; i < transforms.size(); i++) {
+                transforms.get(i).get(i * 16, buffer);
+            }
+            buffer.limit(transforms.size() * 16);
+            renderInstanced(buffer, animationState);
+        }
+
+        //transforms are applied between the current model matrix and the node transforms, 16 floats per instance.
+        //With frustum culling each primitive only draws the instances its bounds are visible in, culled counts instances.
+        public void renderInstanced(FloatBuffer transforms, Map<String, Float> animationState) {
+            int instances = transforms.remaining() / 16;
+            if (instances == 0) {
+                return;
+            }
+            game.getProfiler().begin("model instanced");
+            GLHandler gl = game.getGlHandler();
+            applyAnimation(animationState);
+            updatePoses();
+            updateFrustum();
+            culledCount = drawnCount = 0;
+            //Whether vboInstances holds every instance, rather than nothing yet or the visible ones of an earlier primitive.
+            boolean uploadedAll = false;
+            GLHandler.Program program = gl.pbrInstanced;
+            for (Primitive primitive : primitives) {
+                if (!primitive.instanceable) {
+                    for (int i = 0; i < instances; i++) {
+                        gl.getState().pushMVP();
+                        gl.getState().model.mul(instanceTransform.set(transforms.position() + i * 16, transforms));
+                        renderPrimitive(gl.pbr, primitive, false, null);
+                        gl.getState().popMVP();
+                    }
+                    continue;
+                }
+                int visible = instances;
+                if (primitive.skinGroup == null) {
+                    nodeTransform.set(primitive.node.computeGlobalTransform(primitive.globalTransform));
+                    //Skinned primitives are never culled, like in doRender.
+                    if (frustumCulling) {
+                        visible = cullInstances(primitive, transforms, instances);
+                        culledCount += instances - visible;
+                        if (visible == 0) {
+                            continue;
+                        }
+                    }
+                    program.uniform("uEnableSkinning", false).uniform("uNodeTransform", nodeTransform);
+                } else {
+                    program.uniform("uEnableSkinning", true).uniform("uNodeTransform", nodeTransform.identity());
+                    applyPalette(program, primitive.skinGroup);
+                }
+                if (visible < instances) {
+                    vboInstances.vboData(visibleInstanceBuffer, GL15.GL_STREAM_DRAW);
+                    uploadedAll = false;
+                } else if (!uploadedAll) {
+                    vboInstances.vboData(transforms, GL15.GL_STREAM_DRAW);
+                    uploadedAll = true;
+                }
+                gl.getState().applyMVP();
+                primitive.doRenderInstanced(visible);
+                drawnCount++;
+            }
+            game.getProfiler().end();
+        }
+
+        //Copies the transforms of the instances the primitive's bounds intersect the frustum in to visibleInstanceBuffer,
+        //nodeTransform must hold the primitive's global transform.
+        private int cullInstances(Primitive primitive, FloatBuffer transforms, int instances) {
+            FloatBuffer buffer = visibleInstanceBuffer = clearInstanceBuffer(visibleInstanceBuffer, instances);
+            Matrix4f model = game.getGlHandler().getState().model;
+            int visible = 0;
+            for (int i = 0; i < instances; i++) {
+                instanceTransform.set(transforms.position() + i * 16, transforms);
+                if (primitive.isInFrustum(cullTransform.set(model).mul(instanceTransform).mul(nodeTransform))) {
+                    instanceTransform.get(visible++ * 16, buffer);
+                }
+            }
+            buffer.limit(visible * 16);
+            return visible;
+        }
+
+        private void renderPrimitive(GLHandler.Program program, Primitive primitive, boolean renderDepth, Object instanceKey) {
+            GLHandler gl = game.getGlHandler();
+            if (primitive.skinGroup == null) {
+                float[] f = primitive.node.computeGlobalTransform(primitive.globalTransform);
+                gl.getState().pushMVP();
+                gl.getState().model.mul(f[0], f[1], f[2], f[3], f[4], f[5], f[6], f[7], f[8], f[9], f[10], f[11], f[12], f[13], f[14], f[15]);
+                if (frustumCulling && !primitive.isInFrustum(gl.getState().model)) {
+                    culledCount++;
+                    gl.getState().popMVP();
+                    return;
+                }
+                program.uniform("uEnableSkinning", false);
+                gl.getState().applyMVP();
+                int lod = selectLod(primitive, instanceKey, gl.getState().model);
+                if (!renderDepth && occlusionCuller != null && instanceKey != null) {
+                    if (occlusionCuller.render(instanceKey, primitive, primitives.size(), lod)) {
+                        drawnCount++;
+                    } else {
+                        occludedCount++;
+                    }
+                } else {
+                    primitive.doRender(renderDepth, lod);
+                    drawnCount++;
+                }
+                gl.getState().popMVP();
+            } else if (preSkinning) {
+                GLHandler.VAO output = preSkin(primitive, instanceKey);
+                program.uniform("uEnableSkinning", false);
+                gl.getState().applyMVP();
+                primitive.doRenderSkinned(renderDepth, output);
+                drawnCount++;
+            } else {
+                //Skinned primitives are never culled, their bind pose bounds don't follow the animation.
+                program.uniform("uEnableSkinning", true);
+                applyPalette(program, primitive.skinGroup);
+                gl.getState().applyMVP();
+                primitive.doRender(renderDepth, selectLod(primitive, instanceKey, gl.getState().model));
+                drawnCount++;
+            }
+        }
+
+        //Coarsest level whose error projects under the threshold, coarsening needs some margin so the level doesn't flicker at the boundary.
+        private int selectLod(Primitive primitive, Object instanceKey, Matrix4f model) {
+            int levels = primitive.lodError.length;
+            if (!lod || levels == 1) {
+                return 0;
+            }
+            model.transformPosition(lodCenter.set(primitive.boundsMin).add(primitive.boundsMax).mul(0.5f));
+            model.getScale(lodScale);
+            float distance = game.getGlHandler().getState().projection.m23() == 0.0f ? 1.0f : java.lang.Math.max(lodCenter.distance(eye), 1e-4f);
+            float pixels = java.lang.Math.max(lodScale.x, java.lang.Math.max(lodScale.y, lodScale.z)) * lodPixelScale / distance;
+            int[] current = instanceKey == null ? null : lodLevels.computeIfAbsent(instanceKey, k -> new int[primitives.size()]);
+            int level = current == null ? 0 : current[primitive.index];
+            while (level > 0 && primitive.lodError[level] * pixels > lodThreshold) {
+                level--;
+            }
+            while (level + 1 < levels && primitive.lodError[level + 1] * pixels <= lodThreshold * (1.0f - LOD_HYSTERESIS)) {
+                level++;
+            }
+            if (current != null) {
+                current[primitive.index] = level;
+            }
+            return level;
+        }
+
+        //Skinning only runs when the joint palette or the morph weights differ from the last run for this instance,
+        //so the depth, shadow and color passes of a frame reuse one result. Each instanceKey skins into its own buffer,
+        //instances sharing a pose still skin once each.
+        private GLHandler.VAO preSkin(Primitive primitive, Object instanceKey) {
+            SkinnedInstance instance = skinnedInstances.computeIfAbsent(instanceKey == null ? this : instanceKey, k -> new SkinnedInstance());
+            float[] palette = primitive.skinGroup.pose;
+            float[] weights = primitive.getMorphWeights();
+            int i = primitive.index;
+            if (instance.outputs[i] == null) {
+                instance.outputs[i] = primitive.createSkinnedOutput();
+            } else if (Arrays.equals(palette, instance.palettes[i]) && Arrays.equals(weights, instance.weights[i])) {
+                return instance.outputs[i];
+            }
+            instance.palettes[i] = palette;
+            instance.weights[i] = weights == null ? null : weights.clone();
+            applyPalette(game.getGlHandler().skinning, primitive.skinGroup);
+            primitive.skin(instance.outputs[i]);
+            preSkinnedCount++;
+            return instance.outputs[i];
+        }
+
+        //Frees the pre-skinned buffers of an instanceKey passed to doRender, null for the model's own.
+        public void releaseInstance(Object instanceKey) {
+            SkinnedInstance instance = skinnedInstances.remove(instanceKey == null ? this : instanceKey);
+            if (instance != null) {
+                for (GLHandler.VAO output : instance.outputs) {
+                    if (output != null) {
+                        output.delete();
+                    }
+                }
+            }
+        }
+
+        private float[] computeJointMatrices(SkinModel skin) {
+            List<NodeModel> joints = skin.getJoints();
+            float[] jointMatrices = new float[joints.size() * 16];
+            for (int i = 0; i < joints.size(); i++) {
+                float[] f = joints.get(i).computeGlobalTransform(new float[16]);
+                float[] ib = skin.getInverseBindMatrix(i, new float[16]);
+                float[] r = new Matrix4f(f[0], f[1], f[2], f[3], f[4], f[5], f[6], f[7], f[8], f[9], f[10], f[11], f[12], f[13], f[14], f[15])
+                        .mul(ib[0], ib[1], ib[2], ib[3], ib[4], ib[5], ib[6], ib[7], ib[8], ib[9], ib[10], ib[11], ib[12], ib[13], ib[14], ib[15]).get(new float[16]);
+                System.arraycopy(r, 0, jointMatrices, i * 16, 16);
+            }
+            return jointMatrices;
+        }
+
+        private void updatePoses() {
+            for (SkinGroup group : skinGroups.values()) {
+                group.pose = computeJointMatrices(group.skin);
+            }
+        }
+
+        //Uploads the group's pose unless the same palette is still in place from an earlier draw or pass, then points program at it.
+        private void applyPalette(GLHandler.Program program, SkinGroup group) {
+            boolean current = group.paletteMode == skinningMode && Arrays.equals(group.pose, group.palette)
+                    && (skinningMode == SKINNING_UBO ? uboPalette == group.palette : group.paletteGeneration == jointPaletteGeneration);
+            if (!current) {
+                group.paletteOffset = uploadJointMatrices(group.pose);
+                group.palette = group.pose;
+                group.paletteMode = skinningMode;
+                group.paletteGeneration = jointPaletteGeneration;
+            }
+            program.uniform("uSkinningMode", skinningMode);
+            if (skinningMode == SKINNING_UBO) {
+                uboJointMatrices.bind(0);
+                program.uniformBlock("JointMatircesBlock", 0);
+            } else {
+                game.getGlHandler().getState().textureBuffer(GLHandler.JOINT_TEXTURE_UNIT, jointPalette);
+                program.uniform("uJointOffset", group.paletteOffset);
+            }
+        }
+
+        //Returns the texel offset of the palette, 0 for SKINNING_UBO.
+        private int uploadJointMatrices(float[] jointMatrices) {
+            if (skinningMode == SKINNING_UBO) {
+                if (jointMatrices.length > 1024 * 16) {
+                    throw new RuntimeException("Too many joints for SKINNING_UBO: " + jointMatrices.length / 16);
+                }
+                uboJointMatrices.uboData(jointMatrices, GL15.GL_DYNAMIC_DRAW);
+                uboPalette = jointMatrices;
+                return 0;
+            }
+            int joints = jointMatrices.length / 16;
+            float[] texels;
+            if (skinningMode == SKINNING_MATRIX_3X4) {
+                texels = new float[joints * 12];
+                for (int i = 0; i < joints; i++) {
+                    for (int row = 0; row < 3; row++) {
+                        for (int column = 0; column < 4; column++) {
+                            texels[i * 12 + row * 4 + column] = jointMatrices[i * 16 + column * 4 + row];
+                        }
+                    }
+                }
+            } else {
+                texels = new float[joints * 8];
+                Matrix4f m = new Matrix4f();
+                Quaternionf real = new Quaternionf();
+                for (int i = 0; i < joints; i++) {
+                    m.set(jointMatrices, i * 16).getNormalizedRotation(real);
+                    float tx = m.m30(), ty = m.m31(), tz = m.m32();
+                    //dual = 0.5 * (t, 0) * real
+                    texels[i * 8] = real.x;
+                    texels[i * 8 + 1] = real.y;
+                    texels[i * 8 + 2] = real.z;
+                    texels[i * 8 + 3] = real.w;
+                    texels[i * 8 + 4] = 0.5f * (tx * real.w + ty * real.z - tz * real.y);
+                    texels[i * 8 + 5] = 0.5f * (-tx * real.z + ty * real.w + tz * real.x);
+                    texels[i * 8 + 6] = 0.5f * (tx * real.y - ty * real.x + tz * real.w);
+                    texels[i * 8 + 7] = -0.5f * (tx * real.x + ty * real.y + tz * real.z);
+                }
+            }
+            return uploadJointPalette(texels);
+        }
+
+        private void applyAnimation(Map<String, Float> animationState) {
             Map<NodeModel, float[][]> dirty = new HashMap<>();
             if (animationState != null && !animationState.isEmpty()) {
                 animationState.forEach((name, time) -> {
@@ -120,42 +1040,48 @@ public class ModelManager {
                     });
                 });
             }
-            GLHandler.Program program = renderDepth ? null : gl.pbr;
-            SkinModel last = null;
+        }
+
+        public List<Primitive> getPrimitives() {
+            return primitives;
+        }
+
+        public int getCulledCount() {
+            return culledCount;
+        }
+
+        public int getOccludedCount() {
+            return occludedCount;
+        }
+
+        public int getDrawnCount() {
+            return drawnCount;
+        }
+
+        //Transform feedback skinning runs in the last doRender, 0 when every pre-skinned primitive was reused.
+        public int getPreSkinnedCount() {
+            return preSkinnedCount;
+        }
+
+        //Model space bounds of the current pose, skinned primitives use their bind pose.
+        public void getBounds(Vector3f min, Vector3f max) {
+            min.set(Float.POSITIVE_INFINITY);
+            max.set(Float.NEGATIVE_INFINITY);
+            Matrix4f m = new Matrix4f();
+            Vector3f pMin = new Vector3f(), pMax = new Vector3f();
             for (Primitive primitive : primitives) {
-                SkinModel skin = primitive.node.getSkinModel();
-                if (skin == null) {
-                    program.uniform("uEnableSkinning", false);
-                    float[] f = primitive.node.computeGlobalTransform(new float[16]);
-                    gl.getState().pushMVP();
-                    gl.getState().model.mul(f[0], f[1], f[2], f[3], f[4], f[5], f[6], f[7], f[8], f[9], f[10], f[11], f[12], f[13], f[14], f[15]);
-                    gl.getState().applyMVP();
-                    primitive.doRender(renderDepth);
-                    gl.getState().popMVP();
+                if (primitive.node.getSkinModel() == null) {
+                    m.set(primitive.node.computeGlobalTransform(primitive.globalTransform));
                 } else {
-                    program.uniform("uEnableSkinning", true);
-                    if (skin != last) {
-                        List<NodeModel> joints = skin.getJoints();
-                        float[] jointMatrices = new float[joints.size() * 16];
-                        for (int i = 0; i < joints.size(); i++) {
-                            float[] f = joints.get(i).computeGlobalTransform(new float[16]);
-                            float[] ib = skin.getInverseBindMatrix(i, new float[16]);
-                            float[] r = new Matrix4f(f[0], f[1], f[2], f[3], f[4], f[5], f[6], f[7], f[8], f[9], f[10], f[11], f[12], f[13], f[14], f[15])
-                                    .mul(ib[0], ib[1], ib[2], ib[3], ib[4], ib[5], ib[6], ib[7], ib[8], ib[9], ib[10], ib[11], ib[12], ib[13], ib[14], ib[15]).get(new float[16]);
-                            System.arraycopy(r, 0, jointMatrices, i * 16, 16);
-                        }
-                        uboJointMatrices.uboData(jointMatrices, GL15.GL_DYNAMIC_DRAW);
-                        uboJointMatrices.bind(0);
-                        program.uniformBlock("JointMatircesBlock", 0);
-                        gl.getState().applyMVP();
-                        primitive.doRender(renderDepth);
-                        last = skin;
-                    }
+                    m.identity();
                 }
+                m.transformAab(primitive.boundsMin, primitive.boundsMax, pMin, pMax);
+                min.min(pMin);
+                max.max(pMax);
             }
         }
 
-        private float[] interpolation(AnimationModel.Sampler sampler, float time) {
+        float[] interpolation(AnimationModel.Sampler sampler, float time) {
             ByteBuffer input = sampler.getInput().getBufferViewModel().getBufferViewData();
             ByteBuffer output = sampler.getOutput().getBufferViewModel().getBufferViewData();
             FloatBuffer fb = output.asFloatBuffer();
@@ -201,13 +1127,50 @@ public class ModelManager {
             return null;
         }
 
+        private class SkinGroup {
+            private final SkinModel skin;
+            private final List<Primitive> primitives = new ArrayList<>();
+            //pose is this frame's joint matrices, palette the last uploaded ones.
+            private float[] pose, palette;
+            private int paletteMode = -1, paletteOffset, paletteGeneration;
+
+            private SkinGroup(SkinModel skin) {
+                this.skin = skin;
+            }
+        }
+
+        private class SkinnedInstance {
+            private final GLHandler.VAO[] outputs = new GLHandler.VAO[primitives.size()];
+            private final float[][] palettes = new float[primitives.size()][], weights = new float[primitives.size()][];
+        }
+
         public class Primitive {
             private final NodeModel node;
+            private final int index;
             private final MaterialModelV2 material;
             private final GLHandler.VAO vao, vaoSubdivision;
+            private final boolean instanceable;
+            private final MeshData mesh;
+            private final int[] lodFirst, lodCount;
+            private final float[] lodError;
+            private final Vector3f boundsMin = new Vector3f(), boundsMax = new Vector3f(), worldMin = new Vector3f(), worldMax = new Vector3f();
+            private final float[] globalTransform = new float[16];
+            //Maps 16 bit normalized positions back to model space in the vertex shader, identity for float positions. Only the
+            //position is dequantized, folded into the model matrix the scale would skew the normals.
+            private float[] dequantizeOffset = NO_DEQUANTIZE_OFFSET, dequantizeScale = NO_DEQUANTIZE_SCALE;
+            private SkinGroup skinGroup;
+            //Position deltas of every morph target for the subdivided vertices, target t of vertex v at texel t * vertexCount + v.
+            private final GLHandler.TextureBuffer morphTargets;
+            private final int morphTargetCount, morphVertexCount;
+            //Deltas for the glTF vertices instead, used by pre-skinning.
+            private final GLHandler.TextureBuffer vertexMorphTargets;
+            private final int vertexCount;
+            private boolean instanceAttribs;
 
             private Primitive(NodeModel node, MeshPrimitiveModel primitive) {
                 this.node = node;
+                index = primitives.size();
+                instanceable = primitive.getTargets().isEmpty();
                 MaterialModel materialModel = primitive.getMaterialModel();
                 material = materialModel == null ? new MaterialModelV2() : (MaterialModelV2) materialModel;
                 GLHandler gl = game.getGlHandler();
@@ -218,20 +1181,36 @@ public class ModelManager {
                 if (primitive.getAttributes().get("TANGENT") == null) {
 //                    throw new RuntimeException("Failed to create primitive: No tangent");
                 }
-                int count = primitive.getAttributes().get("POSITION").getCount();
+                int count = vertexCount = primitive.getAttributes().get("POSITION").getCount();
                 int size = primitive.getAttributes().values().stream().mapToInt(AccessorModel::getElementSizeInBytes).sum() * count;
-                int morphSize = count * 36 * primitive.getTargets().size();
-                ByteBuffer buffer = ByteBuffer.allocateDirect(size + morphSize);
+                ByteBuffer buffer = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
                 primitive.getAttributes().entrySet().stream()
                         .sorted(Comparator.comparingInt(a -> getAttributeIndex(a.getKey()))).forEach(e -> {
                             AccessorModel m = e.getValue();
                             game.getLogger().debug("key: {}, type: {}, size:{}/{}", e.getKey(), m.getComponentType(), m.getElementSizeInBytes(), m.getComponentSizeInBytes());
-                            vao.vertexAttrib(getAttributeIndex(e.getKey()), m.getElementSizeInBytes() / m.getComponentSizeInBytes(), m.getComponentType(), 0, buffer.position());
+                            int index = getAttributeIndex(e.getKey());
+                            if (compactVertices && m.getComponentType() == GL11.GL_FLOAT && m.getAccessorData() instanceof AccessorFloatData && (index == 1 || index == 2 || index == 3)) {
+                                AccessorFloatData d = (AccessorFloatData) m.getAccessorData();
+                                if (index == 3) {
+                                    vao.vertexAttrib(index, 2, GL30.GL_HALF_FLOAT, false, 0, buffer.position());
+                                    for (int i = 0; i < count; i++) {
+                                        buffer.putShort(TowerUtil.floatToHalf(d.get(i, 0))).putShort(TowerUtil.floatToHalf(d.get(i, 1)));
+                                    }
+                                } else {
+                                    vao.vertexAttrib(index, 4, GL33.GL_INT_2_10_10_10_REV, true, 0, buffer.position());
+                                    for (int i = 0; i < count; i++) {
+                                        buffer.putInt(TowerUtil.packSnorm2101010Rev(d.get(i, 0), d.get(i, 1), d.get(i, 2), index == 2 ? d.get(i, 3) : 0.0f));
+                                    }
+                                }
+                                return;
+                            }
+                            vao.vertexAttrib(index, m.getElementSizeInBytes() / m.getComponentSizeInBytes(), m.getComponentType(), 0, buffer.position());
                             buffer.put(m.getBufferViewModel().getBufferViewData());
                         });
 
                 float[] positions = new float[count * 3];
                 primitive.getAttributes().get("POSITION").getBufferViewModel().getBufferViewData().asFloatBuffer().get(positions);
+                computeBounds(primitive, positions);
                 float[] texcoords = new float[count * 2];
                 primitive.getAttributes().get("TEXCOORD_0").getBufferViewModel().getBufferViewData().asFloatBuffer().get(texcoords);
                 int[] indices;
@@ -248,31 +1227,180 @@ public class ModelManager {
                 }
 
 
-                game.getLogger().debug("targets: {}", primitive.getTargets());
-                int targetSize = primitive.getTargets().size();
-                if (targetSize > 3) {
-                    throw new RuntimeException("This model have " + targetSize + " targets, but max 3 supported.");
+                //Morph position deltas ride along with the position through subdivision and the optimizers, then go to a texture buffer.
+                //The subdivided mesh has no normals, so NORMAL and TANGENT targets are not used.
+                morphTargetCount = primitive.getTargets().size();
+                game.getLogger().debug("targets: {}", morphTargetCount);
+                int positionStride = 3 + morphTargetCount * 3;
+                float[] morphPositions = new float[count * positionStride];
+                for (int i = 0; i < count; i++) {
+                    System.arraycopy(positions, i * 3, morphPositions, i * positionStride, 3);
                 }
-                for (int i = 0; i < targetSize; i++) {
-                    for (Map.Entry<String, AccessorModel> e : primitive.getTargets().get(i).entrySet()) {
-                        AccessorModel m = e.getValue();
-                        game.getLogger().debug("morph key: {}", e.getKey());
-                        vao.vertexAttrib(7 + i * 3 + getAttributeIndex(e.getKey()), m.getElementSizeInBytes() / m.getComponentSizeInBytes(), m.getComponentType(), 0, buffer.position());
-                        buffer.put(m.getBufferViewModel().getBufferViewData());
+                for (int t = 0; t < morphTargetCount; t++) {
+                    AccessorModel m = primitive.getTargets().get(t).get("POSITION");
+                    if (m == null) {
+                        continue;
+                    }
+                    if (!(m.getAccessorData() instanceof AccessorFloatData)) {
+                        throw new RuntimeException("Failed to create primitive: Morph target positions must be floats");
+                    }
+                    AccessorFloatData d = (AccessorFloatData) m.getAccessorData();
+                    for (int i = 0; i < count; i++) {
+                        for (int c = 0; c < 3; c++) {
+                            morphPositions[i * positionStride + 3 + t * 3 + c] = d.get(i, c);
+                        }
                     }
                 }
+                if (node.getSkinModel() != null && morphTargetCount > 0) {
+                    FloatBuffer deltas = BufferUtils.createFloatBuffer(morphTargetCount * count * 3);
+                    for (int t = 0; t < morphTargetCount; t++) {
+                        for (int i = 0; i < count; i++) {
+                            deltas.put(morphPositions, i * positionStride + 3 + t * 3, 3);
+                        }
+                    }
+                    deltas.flip();
+                    vertexMorphTargets = gl.createTextureBuffer(GL30.GL_RGB32F).data(deltas, GL15.GL_STATIC_DRAW);
+                } else {
+                    vertexMorphTargets = null;
+                }
                 buffer.flip();
 
-                AccessorModel indicesModel = primitive.getIndices();
-                vao.vboData(buffer).eboData(indicesModel.getAccessorData().createByteBuffer(), GL15.GL_STATIC_DRAW, indicesModel.getComponentType());
+                int[] cacheIndices = MeshOptimizer.optimizeVertexCache(indices, count);
+                vao.vboData(buffer);
+                if (primitive.getIndices().getComponentType() == GL11.GL_UNSIGNED_SHORT) {
+                    short[] s = new short[cacheIndices.length];
+                    for (int i = 0; i < s.length; i++) {
+                        s[i] = (short) cacheIndices[i];
+                    }
+                    vao.eboData(s, GL15.GL_STATIC_DRAW);
+                } else {
+                    vao.eboData(cacheIndices, GL15.GL_STATIC_DRAW);
+                }
 
-                MeshData data = catmullClark(positions, texcoords, indices);
+                //Subdivision, optimization and simplification only depend on the source data and these options.
+                String cacheKey = null;
+                MeshCache.Entry cached = null;
+                if (meshCache != null) {
+                    cacheKey = meshCache.createKey(morphPositions, texcoords, indices, LOD_LEVELS + "/" + LOD_RATIO + "/" + LOD_MAX_ERROR + "/" + optimizeOverdraw);
+                    try {
+                        cached = meshCache.load(cacheKey);
+                    } catch (RuntimeException e) {
+                        game.getLogger().warn("Ignoring broken mesh cache entry", e);
+                    }
+                }
+                MeshData data;
+                int[] lodIndices;
+                int vertexStride = positionStride + 2;
+                float[] vertices;
+                if (cached != null) {
+                    lodCount = cached.getLodCount();
+                    lodError = cached.getLodError();
+                    lodFirst = new int[lodCount.length];
+                    for (int i = 1; i < lodCount.length; i++) {
+                        lodFirst[i] = lodFirst[i - 1] + lodCount[i - 1];
+                    }
+                    lodIndices = cached.getIndices();
+                    vertices = cached.getVertices();
+                    data = mesh = new MeshData(stripMorphs(vertices, vertexStride), Arrays.copyOf(lodIndices, lodCount[0]), vertices.length / vertexStride);
+                } else {
+                    data = catmullClark(morphPositions, positionStride, texcoords, indices);
+                    float acmr = MeshOptimizer.analyzeAcmr(data.indices, data.verticesCount, MeshOptimizer.CACHE_SIZE);
+                    int[] optimizedIndices = MeshOptimizer.optimizeVertexCache(data.indices, data.verticesCount);
+                    if (optimizeOverdraw) {
+                        optimizedIndices = MeshOptimizer.optimizeOverdraw(optimizedIndices, data.vertices, vertexStride);
+                    }
+                    vertices = MeshOptimizer.optimizeVertexFetch(optimizedIndices, data.vertices, vertexStride);
+                    data = mesh = new MeshData(stripMorphs(vertices, vertexStride), optimizedIndices, vertices.length / vertexStride);
+                    game.getLogger().debug("ACMR {} -> {}", acmr, MeshOptimizer.analyzeAcmr(data.indices, data.verticesCount, MeshOptimizer.CACHE_SIZE));
+                    //LOD levels share the vertex buffer, their indices are appended after the full mesh.
+                    MeshSimplifier simplifier = new MeshSimplifier(data.vertices, 5, data.indices);
+                    float[] errors = new float[LOD_LEVELS];
+                    int[][] levels = simplifier.buildChain(data.indices, LOD_LEVELS, LOD_RATIO, LOD_MAX_ERROR, errors);
+                    lodFirst = new int[levels.length + 1];
+                    lodCount = new int[levels.length + 1];
+                    lodError = new float[levels.length + 1];
+                    lodCount[0] = data.indices.length;
+                    for (int i = 0; i < levels.length; i++) {
+                        levels[i] = MeshOptimizer.optimizeVertexCache(levels[i], data.verticesCount);
+                        lodFirst[i + 1] = lodFirst[i] + lodCount[i];
+                        lodCount[i + 1] = levels[i].length;
+                        lodError[i + 1] = errors[i] * simplifier.getExtent();
+                    }
+                    lodIndices = Arrays.copyOf(data.indices, lodFirst[levels.length] + lodCount[levels.length]);
+                    for (int i = 0; i < levels.length; i++) {
+                        System.arraycopy(levels[i], 0, lodIndices, lodFirst[i + 1], levels[i].length);
+                    }
+                    if (meshCache != null) {
+                        try {
+                            meshCache.store(cacheKey, vertices, vertexStride, lodIndices, lodCount, lodError);
+                        } catch (RuntimeException e) {
+                            game.getLogger().warn("Failed to store mesh cache entry", e);
+                        }
+                    }
+                }
+                game.getLogger().debug("lod triangles: {}", Arrays.stream(lodCount).map(i -> i / 3).toArray());
                 vaoSubdivision = gl.createVAO();
-                vaoSubdivision.vboData(data.vertices).eboData(data.indices).vertexAttrib(0, 3, 20, 0).vertexAttrib(3, 2, 20, 12);
+                if (compactVertices) {
+                    //Skinning happens before the model matrix, so skinned meshes keep float positions.
+                    boolean quantize = node.getSkinModel() == null;
+                    int stride = quantize ? 12 : 16;
+                    ByteBuffer compact = ByteBuffer.allocateDirect(data.verticesCount * stride).order(ByteOrder.nativeOrder());
+                    Vector3f min = new Vector3f(Float.POSITIVE_INFINITY), max = new Vector3f(Float.NEGATIVE_INFINITY);
+                    for (int i = 0; i < data.verticesCount; i++) {
+                        min.min(new Vector3f(data.vertices[i * 5], data.vertices[i * 5 + 1], data.vertices[i * 5 + 2]));
+                        max.max(new Vector3f(data.vertices[i * 5], data.vertices[i * 5 + 1], data.vertices[i * 5 + 2]));
+                    }
+                    Vector3f extent = new Vector3f(max).sub(min);
+                    extent.set(extent.x > 0 ? extent.x : 1.0f, extent.y > 0 ? extent.y : 1.0f, extent.z > 0 ? extent.z : 1.0f);
+                    for (int i = 0; i < data.verticesCount; i++) {
+                        float[] v = data.vertices;
+                        if (quantize) {
+                            compact.putShort((short) java.lang.Math.round((v[i * 5] - min.x) / extent.x * 65535.0f))
+                                    .putShort((short) java.lang.Math.round((v[i * 5 + 1] - min.y) / extent.y * 65535.0f))
+                                    .putShort((short) java.lang.Math.round((v[i * 5 + 2] - min.z) / extent.z * 65535.0f)).putShort((short) 0);
+                        } else {
+                            compact.putFloat(v[i * 5]).putFloat(v[i * 5 + 1]).putFloat(v[i * 5 + 2]);
+                        }
+                        compact.putShort(TowerUtil.floatToHalf(v[i * 5 + 3])).putShort(TowerUtil.floatToHalf(v[i * 5 + 4]));
+                    }
+                    compact.flip();
+                    if (quantize) {
+                        dequantizeOffset = new float[]{min.x, min.y, min.z};
+                        dequantizeScale = new float[]{extent.x, extent.y, extent.z};
+                    }
+                    vaoSubdivision.vboData(compact).eboData(lodIndices)
+                            .vertexAttrib(0, 3, quantize ? GL11.GL_UNSIGNED_SHORT : GL11.GL_FLOAT, quantize, stride, 0)
+                            .vertexAttrib(3, 2, GL30.GL_HALF_FLOAT, false, stride, quantize ? 8 : 12);
+                    game.getLogger().debug("compact vertices: {} -> {} bytes", data.verticesCount * 20, data.verticesCount * stride);
+                } else {
+                    vaoSubdivision.vboData(data.vertices).eboData(lodIndices).vertexAttrib(0, 3, 20, 0).vertexAttrib(3, 2, 20, 12);
+                }
+                morphVertexCount = data.verticesCount;
+                if (morphTargetCount > 0) {
+                    //Morphing happens before dequantize, so deltas of quantized meshes are scaled into the same unit range.
+                    float[] scale = {1.0f / dequantizeScale[0], 1.0f / dequantizeScale[1], 1.0f / dequantizeScale[2]};
+                    FloatBuffer deltas = BufferUtils.createFloatBuffer(morphTargetCount * morphVertexCount * 3);
+                    for (int t = 0; t < morphTargetCount; t++) {
+                        for (int i = 0; i < morphVertexCount; i++) {
+                            for (int c = 0; c < 3; c++) {
+                                deltas.put(vertices[i * vertexStride + 5 + t * 3 + c] * scale[c]);
+                            }
+                        }
+                    }
+                    deltas.flip();
+                    morphTargets = gl.createTextureBuffer(GL30.GL_RGB32F).data(deltas, GL15.GL_STATIC_DRAW);
+                    game.getLogger().debug("morph targets: {} x {} vertices", morphTargetCount, morphVertexCount);
+                } else {
+                    morphTargets = null;
+                }
 //                vaoSubdivision.vboData(data.vertices).eboData(data.indices).vertexAttrib(0, 3, 0, 0).vertexAttrib(3, 2, 0, data.verticesCount * 12);
             }
 
             public void doRender(boolean renderDepth) {
+                doRender(renderDepth, 0);
+            }
+
+            public void doRender(boolean renderDepth, int lod) {
                 GLHandler gl = game.getGlHandler();
                 if (1 == 2) {
                     gl.getState().texture0(loadTexture(material.getBaseColorTexture(), true, true, gl.white));
@@ -280,37 +1408,173 @@ public class ModelManager {
                     vao.drawElements();
                     return;
                 }
+                GLHandler.Program program = renderDepth ? gl.depth : gl.pbr;
+                if (!renderDepth) {
+                    applyMaterial(program);
+                }
+                applyMorphWeights(program, morphTargets, morphVertexCount);
+                program.uniform3f("uDequantizeOffset", dequantizeOffset).uniform3f("uDequantizeScale", dequantizeScale);
+//                vao.drawElements();
+                vaoSubdivision.drawElements(GL11.GL_TRIANGLES, lodFirst[lod], lodCount[lod]);
+            }
+
+            //Only the non-zero weights are uploaded, so the vertex shader loop follows the active targets rather than the total.
+            //When more than MAX_MORPH_TARGETS are active the largest ones win.
+            private void applyMorphWeights(GLHandler.Program program, GLHandler.TextureBuffer morphTargets, int morphVertexCount) {
+                float[] weights = getMorphWeights();
+                int[] targets = new int[MAX_MORPH_TARGETS];
+                float[] active = new float[MAX_MORPH_TARGETS];
+                int count = 0;
+                if (morphTargets != null && weights != null) {
+                    for (int t = 0; t < java.lang.Math.min(weights.length, morphTargetCount); t++) {
+                        if (weights[t] == 0.0f) {
+                            continue;
+                        }
+                        int slot = count;
+                        if (count == MAX_MORPH_TARGETS) {
+                            slot = 0;
+                            for (int i = 1; i < MAX_MORPH_TARGETS; i++) {
+                                if (java.lang.Math.abs(active[i]) < java.lang.Math.abs(active[slot])) {
+                                    slot = i;
+                                }
+                            }
+                            if (java.lang.Math.abs(weights[t]) <= java.lang.Math.abs(active[slot])) {
+                                continue;
+                            }
+                        } else {
+                            count++;
+                        }
+                        targets[slot] = t;
+                        active[slot] = weights[t];
+                    }
+                }
+                program.uniform("uMorphCount", count);
+                if (count > 0) {
+                    game.getGlHandler().getState().textureBuffer(GLHandler.MORPH_TEXTURE_UNIT, morphTargets);
+                    program.uniform("uMorphVertexCount", morphVertexCount)
+                            .uniform1i("uMorphIndices", targets).uniform1f("uMorphWeights", active);
+                }
+            }
+
+            private float[] getMorphWeights() {
                 float[] weights = node.getWeights();
-                if (weights == null) {
-                    weights = node.getMeshModels().get(0).getWeights();
-                    if (weights == null) {
-                        weights = new float[3];
+                return weights == null ? node.getMeshModels().get(0).getWeights() : weights;
+            }
+
+            //Interleaved position, normal, tangent and texcoord as captured from gl.skinning, sharing the glTF indices.
+            private GLHandler.VAO createSkinnedOutput() {
+                return game.getGlHandler().createVAO().vboData((long) vertexCount * 48, GL15.GL_DYNAMIC_COPY)
+                        .vertexAttrib(0, 3, 48, 0).vertexAttrib(1, 3, 48, 12).vertexAttrib(2, 4, 48, 24).vertexAttrib(3, 2, 48, 40).bindEBO(vao);
+            }
+
+            private void skin(GLHandler.VAO output) {
+                GLHandler gl = game.getGlHandler();
+                applyMorphWeights(gl.skinning, vertexMorphTargets, vertexCount);
+                gl.getState().program(gl.skinning);
+                output.captureFeedback(GL11.GL_POINTS, () -> vao.drawArrays(GL11.GL_POINTS, vertexCount));
+            }
+
+            private void doRenderSkinned(boolean renderDepth, GLHandler.VAO output) {
+                GLHandler gl = game.getGlHandler();
+                GLHandler.Program program = renderDepth ? gl.depth : gl.pbr;
+                if (!renderDepth) {
+                    applyMaterial(program);
+                }
+                program.uniform("uMorphCount", 0).uniform3f("uDequantizeOffset", NO_DEQUANTIZE_OFFSET).uniform3f("uDequantizeScale", NO_DEQUANTIZE_SCALE);
+                output.drawElements();
+            }
+
+            private float[] stripMorphs(float[] vertices, int stride) {
+                if (stride == 5) {
+                    return vertices;
+                }
+                float[] result = new float[vertices.length / stride * 5];
+                for (int i = 0; i < vertices.length / stride; i++) {
+                    System.arraycopy(vertices, i * stride, result, i * 5, 5);
+                }
+                return result;
+            }
+
+            //Morph targets are not available in pbr_instanced.vs, so only primitives without targets get here.
+            private void doRenderInstanced(int instances) {
+                GLHandler gl = game.getGlHandler();
+                if (!instanceAttribs) {
+                    for (int i = 0; i < 4; i++) {
+                        vaoSubdivision.vertexAttrib(vboInstances, 7 + i, 4, GL11.GL_FLOAT, false, 64, i * 16).vertexAttribDivisor(7 + i, 1);
                     }
+                    instanceAttribs = true;
                 }
-                weights = new float[]{weights.length > 0 ? weights[0] : 0, weights.length > 1 ? weights[1] : 0, weights.length > 2 ? weights[2] : 0};
+                applyMaterial(gl.pbrInstanced);
+                gl.pbrInstanced.uniform3f("uDequantizeOffset", dequantizeOffset).uniform3f("uDequantizeScale", dequantizeScale);
+                vaoSubdivision.drawElementsInstanced(GL11.GL_TRIANGLES, lodCount[0], instances);
+            }
 
+            //AABB from the POSITION accessor min/max (required by glTF, but computed if missing), grown by morph target extents.
+            private void computeBounds(MeshPrimitiveModel primitive, float[] positions) {
+                AccessorModel accessor = primitive.getAttributes().get("POSITION");
+                Number[] min = accessor.getMin(), max = accessor.getMax();
+                if (min != null && max != null && min.length == 3 && max.length == 3) {
+                    boundsMin.set(min[0].floatValue(), min[1].floatValue(), min[2].floatValue());
+                    boundsMax.set(max[0].floatValue(), max[1].floatValue(), max[2].floatValue());
+                } else {
+                    boundsMin.set(Float.POSITIVE_INFINITY);
+                    boundsMax.set(Float.NEGATIVE_INFINITY);
+                    for (int i = 0; i < positions.length; i += 3) {
+                        boundsMin.min(new Vector3f(positions[i], positions[i + 1], positions[i + 2]));
+                        boundsMax.max(new Vector3f(positions[i], positions[i + 1], positions[i + 2]));
+                    }
+                }
+                for (Map<String, AccessorModel> target : primitive.getTargets()) {
+                    AccessorModel m = target.get("POSITION");
+                    if (m != null && m.getMin() != null && m.getMax() != null) {
+                        boundsMin.add(java.lang.Math.min(m.getMin()[0].floatValue(), 0), java.lang.Math.min(m.getMin()[1].floatValue(), 0), java.lang.Math.min(m.getMin()[2].floatValue(), 0));
+                        boundsMax.add(java.lang.Math.max(m.getMax()[0].floatValue(), 0), java.lang.Math.max(m.getMax()[1].floatValue(), 0), java.lang.Math.max(m.getMax()[2].floatValue(), 0));
+                    }
+                }
+            }
+
+            private boolean isInFrustum(Matrix4f world) {
+                world.transformAab(boundsMin, boundsMax, worldMin, worldMax);
+                return frustum.testAab(worldMin, worldMax);
+            }
+
+            public Vector3f getBoundsMin() {
+                return boundsMin;
+            }
+
+            public Vector3f getBoundsMax() {
+                return boundsMax;
+            }
+
+            public int getLodLevels() {
+                return lodCount.length;
+            }
+
+            private void applyMaterial(GLHandler.Program program) {
+                GLHandler gl = game.getGlHandler();
                 gl.getState().texture0(loadTexture(material.getBaseColorTexture(), true, true, gl.white))
                         .texture1(loadTexture(material.getMetallicRoughnessTexture(), false, true, gl.white))
                         .texture2(loadTexture(material.getNormalTexture(), false, true, gl.defaultNormal))
                         .texture3(loadTexture(material.getOcclusionTexture(), false, true, gl.white))
                         .texture4(loadTexture(material.getEmissiveTexture(), false, true));
-                gl.pbr.uniform("uBaseColorTexture", 0).uniform("uMetallicRoughnessTexture", 1).uniform("uNormalTexture", 2)
+                program.uniform("uBaseColorTexture", 0).uniform("uMetallicRoughnessTexture", 1).uniform("uNormalTexture", 2)
                         .uniform("uOcclusionTexture", 3).uniform("uEmissiveTexture", 4)
                         .uniform4f("uBaseColorFactor", material.getBaseColorFactor()).uniform("uMetallicFactor", material.getMetallicFactor())
                         .uniform("uRoughnessFactor", material.getRoughnessFactor()).uniform("uNormalScale", material.getNormalScale())
                         .uniform("uOcclusionStrength", material.getOcclusionStrength()).uniform3f("uEmissiveFactor", material.getEmissiveFactor())
-                        .uniform3f("uMorphWeights", weights).lights(gl.createLight(TowerUtil.getDirection(-20f, 40), new Vector3f(1.0f, 1.0f, 1.0f)));
-//                vao.drawElements();
-                vaoSubdivision.drawElements();
+                        .lights(gl.createLight(TowerUtil.getDirection(-20f, 40), new Vector3f(1.0f, 1.0f, 1.0f)));
             }
 
+            //positions holds positionStride floats per vertex: the position, then any number of linear channels (morph target deltas)
+            //that are subdivided with the same weights. Output vertices are position, uv, then those channels.
             @SuppressWarnings("unchecked")
-            private MeshData catmullClark(float[] positions, float[] texcoords, int[] indices) {
+            MeshData catmullClark(float[] positions, int positionStride, float[] texcoords, int[] indices) {
+                int ps = positionStride, stride = positionStride + 2;
 //                game.getLogger().debug("positions: {}", positions);
 //                game.getLogger().debug("texcoords: {}", texcoords);
 //                game.getLogger().debug("indices: {}", indices);
-                game.getLogger().debug("{} vertexs, {} faces", positions.length / 3, indices.length / 3);
-                int originPointsCount = positions.length / 3;
+                game.getLogger().debug("{} vertexs, {} faces", positions.length / ps, indices.length / 3);
+                int originPointsCount = positions.length / ps;
                 int originFacesCount = indices.length / 3;
                 int[] pointToOriginPoint = new int[originPointsCount];
                 int[] originPointToPoint = new int[originPointsCount];
@@ -319,8 +1583,8 @@ public class ModelManager {
                     boolean flag = false;
                     for (int j = 0; j < pointsCount; j++) {
                         int index = pointToOriginPoint[j];
-                        if (TowerUtil.isEquals(positions[i * 3], positions[index * 3]) && TowerUtil.isEquals(positions[i * 3 + 1], positions[index * 3 + 1])
-                                && TowerUtil.isEquals(positions[i * 3 + 2], positions[index * 3 + 2])) {
+                        if (TowerUtil.isEquals(positions[i * ps], positions[index * ps]) && TowerUtil.isEquals(positions[i * ps + 1], positions[index * ps + 1])
+                                && TowerUtil.isEquals(positions[i * ps + 2], positions[index * ps + 2])) {
                             originPointToPoint[i] = j;
                             flag = true;
                             break;
@@ -332,18 +1596,18 @@ public class ModelManager {
                         pointsCount++;
                     }
                 }
-                float[] facePoints = new float[originFacesCount * 5];
+                float[] facePoints = new float[originFacesCount * stride];
                 int[] edges = new int[originFacesCount * 3 * 10]; // 2 points index + 2 near faces index + 2 edge points index + 4 origin point index ABAB = 10
                 int[] faceToEdges = new int[originFacesCount * 3];
                 List<Integer>[] pointToEdges = new List[pointsCount];
                 List<Integer>[] pointToFaces = new List[pointsCount];
                 int edgesCount = 0;
                 for (int i = 0; i < originFacesCount; i++) {
-                    facePoints[i * 5] = (positions[indices[i * 3] * 3] + positions[indices[i * 3 + 1] * 3] + positions[indices[i * 3 + 2] * 3]) / 3f;
-                    facePoints[i * 5 + 1] = (positions[indices[i * 3] * 3 + 1] + positions[indices[i * 3 + 1] * 3 + 1] + positions[indices[i * 3 + 2] * 3 + 1]) / 3f;
-                    facePoints[i * 5 + 2] = (positions[indices[i * 3] * 3 + 2] + positions[indices[i * 3 + 1] * 3 + 2] + positions[indices[i * 3 + 2] * 3 + 2]) / 3f;
-                    facePoints[i * 5 + 3] = (texcoords[indices[i * 3] * 2] + texcoords[indices[i * 3 + 1] * 2] + texcoords[indices[i * 3 + 2] * 2]) / 3f;
-                    facePoints[i * 5 + 4] = (texcoords[indices[i * 3] * 2 + 1] + texcoords[indices[i * 3 + 1] * 2 + 1] + texcoords[indices[i * 3 + 2] * 2 + 1]) / 3f;
+                    for (int c = 0; c < ps; c++) {
+                        facePoints[i * stride + slot(c)] = (positions[indices[i * 3] * ps + c] + positions[indices[i * 3 + 1] * ps + c] + positions[indices[i * 3 + 2] * ps + c]) / 3f;
+                    }
+                    facePoints[i * stride + 3] = (texcoords[indices[i * 3] * 2] + texcoords[indices[i * 3 + 1] * 2] + texcoords[indices[i * 3 + 2] * 2]) / 3f;
+                    facePoints[i * stride + 4] = (texcoords[indices[i * 3] * 2 + 1] + texcoords[indices[i * 3 + 1] * 2 + 1] + texcoords[indices[i * 3 + 2] * 2 + 1]) / 3f;
                     int pointA = originPointToPoint[indices[i * 3]];
                     int pointB = originPointToPoint[indices[i * 3 + 1]];
                     int pointC = originPointToPoint[indices[i * 3 + 2]];
@@ -460,43 +1724,39 @@ public class ModelManager {
                         edgesCount++;
                     }
                 }
-                float[] edgePoints = new float[edgesCount * 2 * 5];
-                float[] edgeCenter = new float[edgesCount * 3];
+                float[] edgePoints = new float[edgesCount * 2 * stride];
+                float[] edgeCenter = new float[edgesCount * ps];
                 int edgePointsCount = 0;
                 for (int i = 0; i < edgesCount; i++) {
-                    edgeCenter[i * 3] = (positions[edges[i * 10 + 6] * 3] + positions[edges[i * 10 + 7] * 3]) / 2;
-                    edgeCenter[i * 3 + 1] = (positions[edges[i * 10 + 6] * 3 + 1] + positions[edges[i * 10 + 7] * 3 + 1]) / 2;
-                    edgeCenter[i * 3 + 2] = (positions[edges[i * 10 + 6] * 3 + 2] + positions[edges[i * 10 + 7] * 3 + 2]) / 2;
+                    for (int c = 0; c < ps; c++) {
+                        edgeCenter[i * ps + c] = (positions[edges[i * 10 + 6] * ps + c] + positions[edges[i * 10 + 7] * ps + c]) / 2;
+                    }
                     float u1 = (texcoords[edges[i * 10 + 6] * 2] + texcoords[edges[i * 10 + 7] * 2]) / 2;
                     float v1 = (texcoords[edges[i * 10 + 6] * 2 + 1] + texcoords[edges[i * 10 + 7] * 2 + 1]) / 2;
                     if (edges[i * 10 + 3] == -1) {
-                        edgePoints[edgePointsCount * 5] = edgeCenter[i * 3];
-                        edgePoints[edgePointsCount * 5 + 1] = edgeCenter[i * 3 + 1];
-                        edgePoints[edgePointsCount * 5 + 2] = edgeCenter[i * 3 + 2];
-                        edgePoints[edgePointsCount * 5 + 3] = u1;
-                        edgePoints[edgePointsCount * 5 + 4] = v1;
+                        for (int c = 0; c < ps; c++) {
+                            edgePoints[edgePointsCount * stride + slot(c)] = edgeCenter[i * ps + c];
+                        }
+                        edgePoints[edgePointsCount * stride + 3] = u1;
+                        edgePoints[edgePointsCount * stride + 4] = v1;
                         edges[i * 10 + 4] = edgePointsCount;
                         edgePointsCount++;
                     } else {
-                        float x = (edgeCenter[i * 3] * 2 + facePoints[edges[i * 10 + 2] * 5] + facePoints[edges[i * 10 + 3] * 5]) / 4;
-                        float y = (edgeCenter[i * 3 + 1] * 2 + facePoints[edges[i * 10 + 2] * 5 + 1] + facePoints[edges[i * 10 + 3] * 5 + 1]) / 4;
-                        float z = (edgeCenter[i * 3 + 2] * 2 + facePoints[edges[i * 10 + 2] * 5 + 2] + facePoints[edges[i * 10 + 3] * 5 + 2]) / 4;
-                        edgePoints[edgePointsCount * 5] = x;
-                        edgePoints[edgePointsCount * 5 + 1] = y;
-                        edgePoints[edgePointsCount * 5 + 2] = z;
-                        edgePoints[edgePointsCount * 5 + 3] = u1;
-                        edgePoints[edgePointsCount * 5 + 4] = v1;
+                        for (int c = 0; c < ps; c++) {
+                            edgePoints[edgePointsCount * stride + slot(c)] = (edgeCenter[i * ps + c] * 2 + facePoints[edges[i * 10 + 2] * stride + slot(c)]
+                                    + facePoints[edges[i * 10 + 3] * stride + slot(c)]) / 4;
+                        }
+                        edgePoints[edgePointsCount * stride + 3] = u1;
+                        edgePoints[edgePointsCount * stride + 4] = v1;
                         edges[i * 10 + 4] = edgePointsCount;
                         if (edges[i * 10 + 6] != edges[i * 10 + 8] || edges[i * 10 + 7] != edges[i * 10 + 9]) {
                             float u2 = (texcoords[edges[i * 10 + 8] * 2] + texcoords[edges[i * 10 + 9] * 2]) / 2;
                             float v2 = (texcoords[edges[i * 10 + 8] * 2 + 1] + texcoords[edges[i * 10 + 9] * 2 + 1]) / 2;
                             if (!(TowerUtil.isEquals(u1, u2) && TowerUtil.isEquals(v1, v2))) {
                                 edgePointsCount++;
-                                edgePoints[edgePointsCount * 5] = x;
-                                edgePoints[edgePointsCount * 5 + 1] = y;
-                                edgePoints[edgePointsCount * 5 + 2] = z;
-                                edgePoints[edgePointsCount * 5 + 3] = u2;
-                                edgePoints[edgePointsCount * 5 + 4] = v2;
+                                System.arraycopy(edgePoints, (edgePointsCount - 1) * stride, edgePoints, edgePointsCount * stride, stride);
+                                edgePoints[edgePointsCount * stride + 3] = u2;
+                                edgePoints[edgePointsCount * stride + 4] = v2;
                                 edges[i * 10 + 5] = edgePointsCount;
                                 edgePointsCount++;
                                 continue;
@@ -506,7 +1766,7 @@ public class ModelManager {
                         edgePointsCount++;
                     }
                 }
-                float[] newPoints = new float[originPointsCount * 5];
+                float[] newPoints = new float[originPointsCount * stride];
                 for (int i = 0; i < originPointsCount; i++) {
                     int point = originPointToPoint[i];
                     int n = pointToEdges[point].size();
@@ -528,42 +1788,34 @@ public class ModelManager {
                                 }
                             }
                         }
-                        newPoints[i * 5] = (positions[i * 3] * 6 + positions[pointA * 3] + positions[pointB * 3]) / 8;
-                        newPoints[i * 5 + 1] = (positions[i * 3 + 1] * 6 + positions[pointA * 3 + 1] + positions[pointB * 3 + 1]) / 8;
-                        newPoints[i * 5 + 2] = (positions[i * 3 + 2] * 6 + positions[pointA * 3 + 2] + positions[pointB * 3 + 2]) / 8;
-                        newPoints[i * 5 + 3] = texcoords[i * 2];
-                        newPoints[i * 5 + 4] = texcoords[i * 2 + 1];
+                        for (int c = 0; c < ps; c++) {
+                            newPoints[i * stride + slot(c)] = (positions[i * ps + c] * 6 + positions[pointToOriginPoint[pointA] * ps + c] + positions[pointToOriginPoint[pointB] * ps + c]) / 8;
+                        }
+                        newPoints[i * stride + 3] = texcoords[i * 2];
+                        newPoints[i * stride + 4] = texcoords[i * 2 + 1];
                         continue;
                     }
 
-                    float qX = 0.0f, qY = 0.0f, qZ = 0.0f;
-                    for (int face : faces) {
-                        qX += facePoints[face * 5];
-                        qY += facePoints[face * 5 + 1];
-                        qZ += facePoints[face * 5 + 2];
-                    }
-                    qX /= faces.size();
-                    qY /= faces.size();
-                    qZ /= faces.size();
-                    float rX = 0.0f, rY = 0.0f, rZ = 0.0f;
-                    for (int edge : pointToEdges[point]) {
-                        rX += edgeCenter[edge * 3];
-                        rY += edgeCenter[edge * 3 + 1];
-                        rZ += edgeCenter[edge * 3 + 2];
-                    }
-                    rX /= n;
-                    rY /= n;
-                    rZ /= n;
-                    newPoints[i * 5] = (qX + 2 * rX + (n - 3) * positions[i * 3]) / n;
-                    newPoints[i * 5 + 1] = (qY + 2 * rY + (n - 3) * positions[i * 3 + 1]) / n;
-                    newPoints[i * 5 + 2] = (qZ + 2 * rZ + (n - 3) * positions[i * 3 + 2]) / n;
-                    newPoints[i * 5 + 3] = texcoords[i * 2];
-                    newPoints[i * 5 + 4] = texcoords[i * 2 + 1];
-                }
-                float[] verticesData = new float[facePoints.length + edgePointsCount * 5 + newPoints.length];
+                    for (int c = 0; c < ps; c++) {
+                        float q = 0.0f;
+                        for (int face : faces) {
+                            q += facePoints[face * stride + slot(c)];
+                        }
+                        q /= faces.size();
+                        float r = 0.0f;
+                        for (int edge : pointToEdges[point]) {
+                            r += edgeCenter[edge * ps + c];
+                        }
+                        r /= n;
+                        newPoints[i * stride + slot(c)] = (q + 2 * r + (n - 3) * positions[i * ps + c]) / n;
+                    }
+                    newPoints[i * stride + 3] = texcoords[i * 2];
+                    newPoints[i * stride + 4] = texcoords[i * 2 + 1];
+                }
+                float[] verticesData = new float[facePoints.length + edgePointsCount * stride + newPoints.length];
                 System.arraycopy(facePoints, 0, verticesData, 0, facePoints.length);
-                System.arraycopy(edgePoints, 0, verticesData, facePoints.length, edgePointsCount * 5);
-                System.arraycopy(newPoints, 0, verticesData, facePoints.length + edgePointsCount * 5, newPoints.length);
+                System.arraycopy(edgePoints, 0, verticesData, facePoints.length, edgePointsCount * stride);
+                System.arraycopy(newPoints, 0, verticesData, facePoints.length + edgePointsCount * stride, newPoints.length);
                 int[] newIndices = new int[originFacesCount * 3 * 6];
                 for (int i = 0; i < indices.length; i++) {
                     int face = i / 3;
@@ -591,8 +1843,8 @@ public class ModelManager {
                     newIndices[i * 6 + 5] = pointC;
                 }
 //                game.getLogger().debug("new indices: {}", newIndices);
-                game.getLogger().debug("{}/{}-{}/{}", facePoints.length / 5f, edgePointsCount, edgesCount, newPoints.length / 5f);
-                return new MeshData(verticesData, newIndices, verticesData.length / 5);
+                game.getLogger().debug("{}/{}-{}/{}", facePoints.length / (float) stride, edgePointsCount, edgesCount, newPoints.length / (float) stride);
+                return new MeshData(verticesData, newIndices, verticesData.length / stride);
 
 //                verticesData = new float[positions.length + texcoords.length];
 //                System.arraycopy(positions, 0, verticesData, 0, positions.length);
@@ -600,6 +1852,11 @@ public class ModelManager {
 //                return new MeshData(verticesData, indices, verticesData.length / 5);
             }
 
+            //Channel c of a catmullClark position goes to this float of the output vertex, uv sits at 3 and 4.
+            private int slot(int c) {
+                return c < 3 ? c : c + 2;
+            }
+
             private int getAttributeIndex(String attribute) {
                 switch (attribute) {
                     case "POSITION":
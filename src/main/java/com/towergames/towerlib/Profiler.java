@@ -0,0 +1,285 @@
+package com.towergames.towerlib;
+
+import org.joml.Vector4f;
+import org.lwjgl.opengl.GL33;
+
+import java.util.*;
+
+//Frame timing: nested CPU scopes, GPU time per scope and GLHandler's per frame counters, with rolling percentiles.
+//GPU time comes from GL_TIMESTAMP pairs (GL_TIME_ELAPSED queries can't nest). They are read back when available, at most
+//QUERY_FRAMES frames later, so the profiler never waits on the driver. A result that is still not ready then is dropped.
+public class Profiler {
+    public static final int HISTORY = 240, QUERY_FRAMES = 4;
+    private static final int MAX_DEPTH = 32;
+    private final TowerGame game;
+    private final Scope root;
+    private final Scope[] stack = new Scope[MAX_DEPTH];
+    private int depth, frame;
+    private boolean enabled = true, gpuTiming = true, inFrame;
+    private long frameStart;
+    //Frame to frame time, swap and vsync waits included. This is what the player sees.
+    private final float[] frameTimes = new float[HISTORY], sorted = new float[HISTORY];
+    private int frameSamples;
+    private long drawCalls, stateChanges, uploads, uploadBytes, droppedQueries;
+    private final Vector4f color = new Vector4f(1.0f);
+
+    public Profiler(TowerGame game) {
+        this.game = game;
+        root = new Scope("frame", null);
+    }
+
+    public void beginFrame() {
+        if (!enabled) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (frameStart != 0) {
+            frameTimes[frameSamples++ % HISTORY] = (now - frameStart) * 0.000001f;
+        }
+        frameStart = now;
+        frame++;
+        if (gpuTiming) {
+            root.resolve();
+        }
+        game.getGlHandler().resetFrameCounters();
+        inFrame = true;
+        depth = 0;
+        root.begin();
+        stack[depth++] = root;
+    }
+
+    public void endFrame() {
+        if (!inFrame) {
+            return;
+        }
+        if (depth != 1) {
+            throw new RuntimeException("Profiler scope not ended: " + stack[depth - 1].name);
+        }
+        root.end();
+        depth = 0;
+        inFrame = false;
+        root.finishFrame();
+        GLHandler gl = game.getGlHandler();
+        drawCalls = gl.getDrawCalls();
+        stateChanges = gl.getStateChanges();
+        uploads = gl.getUploads();
+        uploadBytes = gl.getUploadBytes();
+    }
+
+    //Scopes are keyed by name under the enclosing scope, entering one several times a frame adds up.
+    public Profiler begin(String name) {
+        if (!inFrame) {
+            return this;
+        }
+        if (depth == MAX_DEPTH) {
+            throw new RuntimeException("Profiler scope overflow, max depth: " + MAX_DEPTH);
+        }
+        Scope parent = stack[depth - 1];
+        Scope scope = parent.children.get(name);
+        if (scope == null) {
+            scope = new Scope(name, parent);
+            parent.children.put(name, scope);
+        }
+        scope.begin();
+        stack[depth++] = scope;
+        return this;
+    }
+
+    public Profiler end() {
+        if (!inFrame) {
+            return this;
+        }
+        if (depth == 1) {
+            throw new RuntimeException("Profiler end without begin");
+        }
+        stack[--depth].end();
+        return this;
+    }
+
+    //p in [0, 1], over the last HISTORY frames.
+    public float getFramePercentile(float p) {
+        return percentile(frameTimes, frameSamples, p);
+    }
+
+    //One line per statistic and one per scope, indented by depth.
+    public List<String> getSummary() {
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format("frame p50 %.2f p95 %.2f p99 %.2f ms", getFramePercentile(0.5f), getFramePercentile(0.95f), getFramePercentile(0.99f)));
+        lines.add(String.format("draws %d, state changes %d, uploads %d (%d KB)", drawCalls, stateChanges, uploads, uploadBytes / 1024));
+        root.summary(lines, "");
+        return lines;
+    }
+
+    public void drawOverlay(FontManager.Font font, float x, float y, int size) {
+        List<String> lines = getSummary();
+        font.renderText(x, y, size, 0, color, lines.toArray(new String[0]));
+    }
+
+    public void logSummary() {
+        getSummary().forEach(game.getLogger()::info);
+    }
+
+    private float percentile(float[] history, int samples, float p) {
+        int n = Math.min(samples, HISTORY);
+        if (n == 0) {
+            return 0.0f;
+        }
+        System.arraycopy(history, 0, sorted, 0, n);
+        Arrays.sort(sorted, 0, n);
+        return sorted[Math.max(0, Math.min(n - 1, (int) Math.ceil(p * n) - 1))];
+    }
+
+    public Scope getRoot() {
+        return root;
+    }
+
+    public long getDrawCalls() {
+        return drawCalls;
+    }
+
+    public long getStateChanges() {
+        return stateChanges;
+    }
+
+    public long getUploads() {
+        return uploads;
+    }
+
+    public long getUploadBytes() {
+        return uploadBytes;
+    }
+
+    //GPU results that were still not available after QUERY_FRAMES frames.
+    public long getDroppedQueries() {
+        return droppedQueries;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        inFrame = false;
+        depth = 0;
+        frameStart = 0;
+    }
+
+    public boolean isGpuTiming() {
+        return gpuTiming;
+    }
+
+    public void setGpuTiming(boolean gpuTiming) {
+        this.gpuTiming = gpuTiming;
+    }
+
+    public class Scope {
+        private final String name;
+        private final Scope parent;
+        private final Map<String, Scope> children = new LinkedHashMap<>();
+        private long cpuStart, cpuNanos;
+        private int calls, lastCalls, lastFrame;
+        private final float[] cpuTimes = new float[HISTORY], gpuTimes = new float[HISTORY];
+        private int cpuSamples, gpuSamples;
+        //One start/end pair per frame in flight. The end is rewritten by every end(), so a scope entered several times
+        //a frame measures from its first begin to its last end on the GPU.
+        private final GLHandler.Query[] gpuStart = new GLHandler.Query[QUERY_FRAMES], gpuEnd = new GLHandler.Query[QUERY_FRAMES];
+
+        private Scope(String name, Scope parent) {
+            this.name = name;
+            this.parent = parent;
+        }
+
+        private void begin() {
+            calls++;
+            if (gpuTiming && lastFrame != frame) {
+                int slot = frame % QUERY_FRAMES;
+                if (gpuStart[slot] == null) {
+                    GLHandler gl = game.getGlHandler();
+                    gpuStart[slot] = gl.createQuery(GL33.GL_TIMESTAMP);
+                    gpuEnd[slot] = gl.createQuery(GL33.GL_TIMESTAMP);
+                } else if (gpuStart[slot].isPending()) {
+                    droppedQueries++;
+                }
+                gpuStart[slot].counter();
+            }
+            lastFrame = frame;
+            cpuStart = System.nanoTime();
+        }
+
+        private void end() {
+            long nanos = System.nanoTime() - cpuStart;
+            cpuNanos += nanos;
+            //The root is already in the trace as the frame event.
+            if (parent != null) {
+                game.getTracer().scope(name, cpuStart, nanos);
+            }
+            GLHandler.Query query = gpuEnd[frame % QUERY_FRAMES];
+            if (gpuTiming && query != null) {
+                query.counter();
+            }
+        }
+
+        private void resolve() {
+            for (int i = 0; i < QUERY_FRAMES; i++) {
+                //The end is written after the start, once it is available both are.
+                if (gpuStart[i] != null && gpuStart[i].isPending() && gpuEnd[i].isResultAvailable()) {
+                    long end = gpuEnd[i].getResult();
+                    gpuTimes[gpuSamples++ % HISTORY] = (end - gpuStart[i].getResult()) * 0.000001f;
+                }
+            }
+            for (Scope child : children.values()) {
+                child.resolve();
+            }
+        }
+
+        private void finishFrame() {
+            if (lastFrame == frame) {
+                cpuTimes[cpuSamples++ % HISTORY] = cpuNanos * 0.000001f;
+                lastCalls = calls;
+            }
+            cpuNanos = 0;
+            calls = 0;
+            for (Scope child : children.values()) {
+                child.finishFrame();
+            }
+        }
+
+        private void summary(List<String> lines, String indent) {
+            lines.add(String.format("%s%s x%d: cpu p50 %.2f p99 %.2f, gpu p50 %.2f p99 %.2f ms", indent, name, lastCalls,
+                    getCpuPercentile(0.5f), getCpuPercentile(0.99f), getGpuPercentile(0.5f), getGpuPercentile(0.99f)));
+            for (Scope child : children.values()) {
+                child.summary(lines, indent + "  ");
+            }
+        }
+
+        public float getCpuPercentile(float p) {
+            return percentile(cpuTimes, cpuSamples, p);
+        }
+
+        public float getGpuPercentile(float p) {
+            return percentile(gpuTimes, gpuSamples, p);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Scope getParent() {
+            return parent;
+        }
+
+        public Collection<Scope> getChildren() {
+            return children.values();
+        }
+
+        public Scope getChild(String name) {
+            return children.get(name);
+        }
+
+        //Times entered in the last frame it was entered.
+        public int getCalls() {
+            return lastCalls;
+        }
+    }
+}
\ No newline at end of file
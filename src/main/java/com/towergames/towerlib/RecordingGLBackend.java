@@ -0,0 +1,989 @@
+package com.towergames.towerlib;
+
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL30;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.*;
+
+//Never touches the driver: counts every call and keeps the last capacity of them with their arguments, for tests,
+//benchmarks and CI runs without a context. Calls go into preallocated arrays so recording doesn't allocate: up to ARGS
+//ints per call (floats as raw bits, booleans as 0/1, arrays and buffers as their length) and one reference for names.
+//Objects get increasing ids, shaders always compile and link, queries are always available with a result of 1 so
+//occlusion tests pass, every other get returns zero.
+public class RecordingGLBackend implements GLBackend {
+    public static final int DEFAULT_CAPACITY = 16384, ARGS = 6;
+    private static final List<String> NAMES = new ArrayList<>(), KINDS = new ArrayList<>();
+    private static final Map<String, Integer> OPS = new HashMap<>();
+    private static final int ENABLE = op("enable", "i");
+    private static final int DISABLE = op("disable", "i");
+    private static final int IS_ENABLED = op("isEnabled", "i");
+    private static final int CULL_FACE = op("cullFace", "i");
+    private static final int DEPTH_FUNC = op("depthFunc", "i");
+    private static final int BLEND_FUNC = op("blendFunc", "ii");
+    private static final int COLOR_MASK = op("colorMask", "bbbb");
+    private static final int DEPTH_MASK = op("depthMask", "b");
+    private static final int SCISSOR = op("scissor", "iiii");
+    private static final int STENCIL_FUNC = op("stencilFunc", "iii");
+    private static final int STENCIL_OP = op("stencilOp", "iii");
+    private static final int STENCIL_MASK = op("stencilMask", "i");
+    private static final int POLYGON_OFFSET = op("polygonOffset", "ff");
+    private static final int CLEAR_COLOR = op("clearColor", "ffff");
+    private static final int CLEAR = op("clear", "i");
+    private static final int PIXEL_STOREI = op("pixelStorei", "ii");
+    private static final int VIEWPORT = op("viewport", "iiii");
+    private static final int GET_ERROR = op("getError", "");
+    private static final int GET_INTEGER = op("getInteger", "i");
+    private static final int GET_INTEGERV = op("getIntegerv", "ii");
+    private static final int GET_BOOLEAN = op("getBoolean", "i");
+    private static final int GET_BOOLEANV = op("getBooleanv", "ii");
+    private static final int GET_FLOAT = op("getFloat", "i");
+    private static final int GET_FLOATV = op("getFloatv", "ii");
+    private static final int GEN_BUFFERS = op("genBuffers", "");
+    private static final int DELETE_BUFFERS = op("deleteBuffers", "i");
+    private static final int BIND_BUFFER = op("bindBuffer", "ii");
+    private static final int BIND_BUFFER_BASE = op("bindBufferBase", "iii");
+    private static final int BUFFER_DATA = op("bufferData", "iii");
+    private static final int BUFFER_SUB_DATA = op("bufferSubData", "iii");
+    private static final int GEN_TEXTURES = op("genTextures", "");
+    private static final int DELETE_TEXTURES = op("deleteTextures", "i");
+    private static final int ACTIVE_TEXTURE = op("activeTexture", "i");
+    private static final int BIND_TEXTURE = op("bindTexture", "ii");
+    private static final int TEX_PARAMETERI = op("texParameteri", "iii");
+    private static final int TEX_IMAGE2D = op("texImage2D", "iiiiii");
+    private static final int TEX_SUB_IMAGE2D = op("texSubImage2D", "iiiiii");
+    private static final int TEX_IMAGE3D = op("texImage3D", "iiiiii");
+    private static final int TEX_SUB_IMAGE3D = op("texSubImage3D", "iiiiii");
+    private static final int GENERATE_MIPMAP = op("generateMipmap", "i");
+    private static final int TEX_BUFFER = op("texBuffer", "iii");
+    private static final int BIND_SAMPLER = op("bindSampler", "ii");
+    private static final int GEN_FRAMEBUFFERS = op("genFramebuffers", "");
+    private static final int DELETE_FRAMEBUFFERS = op("deleteFramebuffers", "i");
+    private static final int BIND_FRAMEBUFFER = op("bindFramebuffer", "ii");
+    private static final int FRAMEBUFFER_TEXTURE2D = op("framebufferTexture2D", "iiiii");
+    private static final int CHECK_FRAMEBUFFER_STATUS = op("checkFramebufferStatus", "i");
+    private static final int GEN_RENDERBUFFERS = op("genRenderbuffers", "");
+    private static final int DELETE_RENDERBUFFERS = op("deleteRenderbuffers", "i");
+    private static final int BIND_RENDERBUFFER = op("bindRenderbuffer", "ii");
+    private static final int RENDERBUFFER_STORAGE = op("renderbufferStorage", "iiii");
+    private static final int FRAMEBUFFER_RENDERBUFFER = op("framebufferRenderbuffer", "iiii");
+    private static final int READ_PIXELS = op("readPixels", "iiiiii");
+    private static final int CREATE_SHADER = op("createShader", "i");
+    private static final int SHADER_SOURCE = op("shaderSource", "i");
+    private static final int COMPILE_SHADER = op("compileShader", "i");
+    private static final int GET_SHADERI = op("getShaderi", "ii");
+    private static final int GET_SHADER_INFO_LOG = op("getShaderInfoLog", "i");
+    private static final int CREATE_PROGRAM = op("createProgram", "");
+    private static final int ATTACH_SHADER = op("attachShader", "ii");
+    private static final int TRANSFORM_FEEDBACK_VARYINGS = op("transformFeedbackVaryings", "ii");
+    private static final int LINK_PROGRAM = op("linkProgram", "i");
+    private static final int GET_PROGRAMI = op("getProgrami", "ii");
+    private static final int GET_PROGRAM_INFO_LOG = op("getProgramInfoLog", "i");
+    private static final int USE_PROGRAM = op("useProgram", "i");
+    private static final int GET_UNIFORM_LOCATION = op("getUniformLocation", "i");
+    private static final int GET_UNIFORM_BLOCK_INDEX = op("getUniformBlockIndex", "i");
+    private static final int UNIFORM_BLOCK_BINDING = op("uniformBlockBinding", "iii");
+    private static final int UNIFORM1I = op("uniform1i", "ii");
+    private static final int UNIFORM1F = op("uniform1f", "if");
+    private static final int UNIFORM1FV = op("uniform1fv", "ii");
+    private static final int UNIFORM2FV = op("uniform2fv", "ii");
+    private static final int UNIFORM3FV = op("uniform3fv", "ii");
+    private static final int UNIFORM4FV = op("uniform4fv", "ii");
+    private static final int UNIFORM1IV = op("uniform1iv", "ii");
+    private static final int UNIFORM2IV = op("uniform2iv", "ii");
+    private static final int UNIFORM3IV = op("uniform3iv", "ii");
+    private static final int UNIFORM4IV = op("uniform4iv", "ii");
+    private static final int UNIFORM_MATRIX2FV = op("uniformMatrix2fv", "ibi");
+    private static final int UNIFORM_MATRIX3FV = op("uniformMatrix3fv", "ibi");
+    private static final int UNIFORM_MATRIX4FV = op("uniformMatrix4fv", "ibi");
+    private static final int GEN_VERTEX_ARRAYS = op("genVertexArrays", "");
+    private static final int DELETE_VERTEX_ARRAYS = op("deleteVertexArrays", "i");
+    private static final int BIND_VERTEX_ARRAY = op("bindVertexArray", "i");
+    private static final int VERTEX_ATTRIB_POINTER = op("vertexAttribPointer", "iiibii");
+    private static final int ENABLE_VERTEX_ATTRIB_ARRAY = op("enableVertexAttribArray", "i");
+    private static final int VERTEX_ATTRIB_DIVISOR = op("vertexAttribDivisor", "ii");
+    private static final int VERTEX_ATTRIB1F = op("vertexAttrib1f", "if");
+    private static final int VERTEX_ATTRIB2F = op("vertexAttrib2f", "iff");
+    private static final int VERTEX_ATTRIB3F = op("vertexAttrib3f", "ifff");
+    private static final int VERTEX_ATTRIB4F = op("vertexAttrib4f", "iffff");
+    private static final int VERTEX_ATTRIB_I1I = op("vertexAttribI1i", "ii");
+    private static final int VERTEX_ATTRIB_I2I = op("vertexAttribI2i", "iii");
+    private static final int VERTEX_ATTRIB_I3I = op("vertexAttribI3i", "iiii");
+    private static final int VERTEX_ATTRIB_I4I = op("vertexAttribI4i", "iiiii");
+    private static final int DRAW_ARRAYS = op("drawArrays", "iii");
+    private static final int DRAW_ELEMENTS = op("drawElements", "iiii");
+    private static final int DRAW_ELEMENTS_INSTANCED = op("drawElementsInstanced", "iiiii");
+    private static final int MULTI_DRAW_ELEMENTS_BASE_VERTEX = op("multiDrawElementsBaseVertex", "iiiii");
+    private static final int BEGIN_TRANSFORM_FEEDBACK = op("beginTransformFeedback", "i");
+    private static final int END_TRANSFORM_FEEDBACK = op("endTransformFeedback", "");
+    private static final int GEN_QUERIES = op("genQueries", "");
+    private static final int DELETE_QUERIES = op("deleteQueries", "i");
+    private static final int BEGIN_QUERY = op("beginQuery", "ii");
+    private static final int END_QUERY = op("endQuery", "i");
+    private static final int QUERY_COUNTER = op("queryCounter", "ii");
+    private static final int GET_QUERY_OBJECTI = op("getQueryObjecti", "ii");
+    private static final int GET_QUERY_OBJECTUI64 = op("getQueryObjectui64", "ii");
+    private static final int BEGIN_CONDITIONAL_RENDER = op("beginConditionalRender", "ii");
+    private static final int END_CONDITIONAL_RENDER = op("endConditionalRender", "");
+    private static final int SWAP_BUFFERS = op("swapBuffers", "");
+    private final Logger logger = LoggerFactory.getLogger(RecordingGLBackend.class);
+    private final long[] counts = new long[NAMES.size()];
+    private final int capacity;
+    private final int[] ops, args;
+    private final Object[] objects;
+    private Object attached;
+    private long totalCalls, drawCalls, frames;
+    private int nextId = 1, nextLocation;
+    private boolean logging;
+
+    public RecordingGLBackend() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public RecordingGLBackend(int capacity) {
+        if (capacity <= 0) {
+            throw new RuntimeException("Illegal capacity: " + capacity);
+        }
+        this.capacity = capacity;
+        ops = new int[capacity];
+        args = new int[capacity * ARGS];
+        objects = new Object[capacity];
+    }
+
+    //kinds has one letter per recorded argument: i for ints, f for floats, b for booleans.
+    private static int op(String name, String kinds) {
+        OPS.put(name, NAMES.size());
+        NAMES.add(name);
+        KINDS.add(kinds);
+        return NAMES.size() - 1;
+    }
+
+    public long getCallCount(String name) {
+        Integer op = OPS.get(name);
+        if (op == null) {
+            throw new RuntimeException("Unknown GL call: " + name);
+        }
+        return counts[op];
+    }
+
+    //Sorted by name, calls never made are left out.
+    public Map<String, Long> getCallCounts() {
+        Map<String, Long> result = new TreeMap<>();
+        for (int op = 0; op < counts.length; op++) {
+            if (counts[op] > 0) {
+                result.put(NAMES.get(op), counts[op]);
+            }
+        }
+        return result;
+    }
+
+    public long getTotalCalls() {
+        return totalCalls;
+    }
+
+    public long getDrawCalls() {
+        return drawCalls;
+    }
+
+    //swapBuffers calls since the last reset.
+    public long getFrames() {
+        return frames;
+    }
+
+    //Calls still in the buffer, index 0 is the oldest.
+    public int getRecordedCalls() {
+        return (int) Math.min(totalCalls, capacity);
+    }
+
+    public String getCallName(int index) {
+        return NAMES.get(ops[slot(index)]);
+    }
+
+    public int getCallArg(int index, int arg) {
+        return args[slot(index) * ARGS + arg];
+    }
+
+    public float getCallFloatArg(int index, int arg) {
+        return Float.intBitsToFloat(getCallArg(index, arg));
+    }
+
+    //The name or names passed to getUniformLocation, shaderSource and the like, otherwise null.
+    public Object getCallObject(int index) {
+        return objects[slot(index)];
+    }
+
+    //Like the log, "bindTexture(3553, 4)", for the recorded calls with one of names, or all of them when none are given.
+    public List<String> getCalls(String... names) {
+        List<String> filter = Arrays.asList(names);
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < getRecordedCalls(); i++) {
+            if (filter.isEmpty() || filter.contains(getCallName(i))) {
+                result.add(describe(slot(i)));
+            }
+        }
+        return result;
+    }
+
+    private int slot(int index) {
+        if (index < 0 || index >= getRecordedCalls()) {
+            throw new RuntimeException("Call index out of range: " + index);
+        }
+        return (int) ((totalCalls - getRecordedCalls() + index) % capacity);
+    }
+
+    //Clears the counters and the buffer, ids keep increasing so objects created before stay distinct.
+    public RecordingGLBackend reset() {
+        Arrays.fill(counts, 0);
+        Arrays.fill(objects, null);
+        totalCalls = 0;
+        drawCalls = 0;
+        frames = 0;
+        return this;
+    }
+
+    public boolean isLogging() {
+        return logging;
+    }
+
+    public RecordingGLBackend setLogging(boolean logging) {
+        this.logging = logging;
+        return this;
+    }
+
+    //For the next record, so calls that pass names don't need their own overloads.
+    private void attach(Object object) {
+        attached = object;
+    }
+
+    private int begin(int op) {
+        counts[op]++;
+        int slot = (int) (totalCalls++ % capacity);
+        ops[slot] = op;
+        objects[slot] = attached;
+        attached = null;
+        return slot;
+    }
+
+    private void end(int slot) {
+        if (logging) {
+            String s = describe(slot);
+            logger.info("gl" + Character.toUpperCase(s.charAt(0)) + s.substring(1));
+        }
+    }
+
+    private String describe(int slot) {
+        int op = ops[slot];
+        String kinds = KINDS.get(op);
+        StringBuilder builder = new StringBuilder(NAMES.get(op)).append('(');
+        for (int i = 0; i < kinds.length(); i++) {
+            int arg = args[slot * ARGS + i];
+            if (i > 0) {
+                builder.append(", ");
+            }
+            if (kinds.charAt(i) == 'f') {
+                builder.append(Float.intBitsToFloat(arg));
+            } else if (kinds.charAt(i) == 'b') {
+                builder.append(arg != 0);
+            } else {
+                builder.append(arg);
+            }
+        }
+        Object object = objects[slot];
+        if (object != null) {
+            builder.append(kinds.isEmpty() ? "" : ", ").append(object instanceof Object[] ? Arrays.toString((Object[]) object) : object);
+        }
+        return builder.append(')').toString();
+    }
+
+    private void record(int op) {
+        end(begin(op));
+    }
+
+    private void record(int op, int a) {
+        int slot = begin(op);
+        args[slot * ARGS] = a;
+        end(slot);
+    }
+
+    private void record(int op, int a, int b) {
+        int slot = begin(op);
+        int at = slot * ARGS;
+        args[at] = a;
+        args[at + 1] = b;
+        end(slot);
+    }
+
+    private void record(int op, int a, int b, int c) {
+        int slot = begin(op);
+        int at = slot * ARGS;
+        args[at] = a;
+        args[at + 1] = b;
+        args[at + 2] = c;
+        end(slot);
+    }
+
+    private void record(int op, int a, int b, int c, int d) {
+        int slot = begin(op);
+        int at = slot * ARGS;
+        args[at] = a;
+        args[at + 1] = b;
+        args[at + 2] = c;
+        args[at + 3] = d;
+        end(slot);
+    }
+
+    private void record(int op, int a, int b, int c, int d, int e) {
+        int slot = begin(op);
+        int at = slot * ARGS;
+        args[at] = a;
+        args[at + 1] = b;
+        args[at + 2] = c;
+        args[at + 3] = d;
+        args[at + 4] = e;
+        end(slot);
+    }
+
+    private void record(int op, int a, int b, int c, int d, int e, int f) {
+        int slot = begin(op);
+        int at = slot * ARGS;
+        args[at] = a;
+        args[at + 1] = b;
+        args[at + 2] = c;
+        args[at + 3] = d;
+        args[at + 4] = e;
+        args[at + 5] = f;
+        end(slot);
+    }
+
+    @Override
+    public void enable(int cap) {
+        record(ENABLE, cap);
+    }
+
+    @Override
+    public void disable(int cap) {
+        record(DISABLE, cap);
+    }
+
+    @Override
+    public boolean isEnabled(int cap) {
+        record(IS_ENABLED, cap);
+        return false;
+    }
+
+    @Override
+    public void cullFace(int mode) {
+        record(CULL_FACE, mode);
+    }
+
+    @Override
+    public void depthFunc(int func) {
+        record(DEPTH_FUNC, func);
+    }
+
+    @Override
+    public void blendFunc(int srcFactor, int dstFactor) {
+        record(BLEND_FUNC, srcFactor, dstFactor);
+    }
+
+    @Override
+    public void colorMask(boolean red, boolean green, boolean blue, boolean alpha) {
+        record(COLOR_MASK, red ? 1 : 0, green ? 1 : 0, blue ? 1 : 0, alpha ? 1 : 0);
+    }
+
+    @Override
+    public void depthMask(boolean flag) {
+        record(DEPTH_MASK, flag ? 1 : 0);
+    }
+
+    @Override
+    public void scissor(int x, int y, int width, int height) {
+        record(SCISSOR, x, y, width, height);
+    }
+
+    @Override
+    public void stencilFunc(int func, int ref, int mask) {
+        record(STENCIL_FUNC, func, ref, mask);
+    }
+
+    @Override
+    public void stencilOp(int fail, int depthFail, int depthPass) {
+        record(STENCIL_OP, fail, depthFail, depthPass);
+    }
+
+    @Override
+    public void stencilMask(int mask) {
+        record(STENCIL_MASK, mask);
+    }
+
+    @Override
+    public void polygonOffset(float factor, float units) {
+        record(POLYGON_OFFSET, Float.floatToRawIntBits(factor), Float.floatToRawIntBits(units));
+    }
+
+    @Override
+    public void clearColor(float red, float green, float blue, float alpha) {
+        record(CLEAR_COLOR, Float.floatToRawIntBits(red), Float.floatToRawIntBits(green), Float.floatToRawIntBits(blue), Float.floatToRawIntBits(alpha));
+    }
+
+    @Override
+    public void clear(int mask) {
+        record(CLEAR, mask);
+    }
+
+    @Override
+    public void pixelStorei(int pname, int param) {
+        record(PIXEL_STOREI, pname, param);
+    }
+
+    @Override
+    public void viewport(int x, int y, int width, int height) {
+        record(VIEWPORT, x, y, width, height);
+    }
+
+    @Override
+    public int getError() {
+        record(GET_ERROR);
+        return GL11.GL_NO_ERROR;
+    }
+
+    @Override
+    public int getInteger(int pname) {
+        record(GET_INTEGER, pname);
+        return 0;
+    }
+
+    @Override
+    public void getIntegerv(int pname, IntBuffer params) {
+        record(GET_INTEGERV, pname, params == null ? 0 : params.remaining());
+    }
+
+    @Override
+    public boolean getBoolean(int pname) {
+        record(GET_BOOLEAN, pname);
+        return false;
+    }
+
+    @Override
+    public void getBooleanv(int pname, ByteBuffer params) {
+        record(GET_BOOLEANV, pname, params == null ? 0 : params.remaining());
+    }
+
+    @Override
+    public float getFloat(int pname) {
+        record(GET_FLOAT, pname);
+        return 0.0f;
+    }
+
+    @Override
+    public void getFloatv(int pname, FloatBuffer params) {
+        record(GET_FLOATV, pname, params == null ? 0 : params.remaining());
+    }
+
+    @Override
+    public int genBuffers() {
+        record(GEN_BUFFERS);
+        return nextId++;
+    }
+
+    @Override
+    public void deleteBuffers(int buffer) {
+        record(DELETE_BUFFERS, buffer);
+    }
+
+    @Override
+    public void bindBuffer(int target, int buffer) {
+        record(BIND_BUFFER, target, buffer);
+    }
+
+    @Override
+    public void bindBufferBase(int target, int index, int buffer) {
+        record(BIND_BUFFER_BASE, target, index, buffer);
+    }
+
+    @Override
+    public void bufferData(int target, long size, int usage) {
+        record(BUFFER_DATA, target, (int) size, usage);
+    }
+
+    @Override
+    public void bufferData(int target, ByteBuffer data, int usage) {
+        record(BUFFER_DATA, target, data == null ? 0 : data.remaining(), usage);
+    }
+
+    @Override
+    public void bufferData(int target, FloatBuffer data, int usage) {
+        record(BUFFER_DATA, target, data == null ? 0 : data.remaining(), usage);
+    }
+
+    @Override
+    public void bufferData(int target, float[] data, int usage) {
+        record(BUFFER_DATA, target, data.length, usage);
+    }
+
+    @Override
+    public void bufferData(int target, int[] data, int usage) {
+        record(BUFFER_DATA, target, data.length, usage);
+    }
+
+    @Override
+    public void bufferData(int target, short[] data, int usage) {
+        record(BUFFER_DATA, target, data.length, usage);
+    }
+
+    @Override
+    public void bufferSubData(int target, long offset, FloatBuffer data) {
+        record(BUFFER_SUB_DATA, target, (int) offset, data == null ? 0 : data.remaining());
+    }
+
+    @Override
+    public void bufferSubData(int target, long offset, float[] data) {
+        record(BUFFER_SUB_DATA, target, (int) offset, data.length);
+    }
+
+    @Override
+    public void bufferSubData(int target, long offset, int[] data) {
+        record(BUFFER_SUB_DATA, target, (int) offset, data.length);
+    }
+
+    @Override
+    public int genTextures() {
+        record(GEN_TEXTURES);
+        return nextId++;
+    }
+
+    @Override
+    public void deleteTextures(int texture) {
+        record(DELETE_TEXTURES, texture);
+    }
+
+    @Override
+    public void activeTexture(int texture) {
+        record(ACTIVE_TEXTURE, texture);
+    }
+
+    @Override
+    public void bindTexture(int target, int texture) {
+        record(BIND_TEXTURE, target, texture);
+    }
+
+    @Override
+    public void texParameteri(int target, int pname, int param) {
+        record(TEX_PARAMETERI, target, pname, param);
+    }
+
+    @Override
+    public void texImage2D(int target, int level, int internalFormat, int width, int height, int border, int format, int type, ByteBuffer pixels) {
+        record(TEX_IMAGE2D, target, level, internalFormat, width, height, border);
+    }
+
+    @Override
+    public void texSubImage2D(int target, int level, int xOffset, int yOffset, int width, int height, int format, int type, ByteBuffer pixels) {
+        record(TEX_SUB_IMAGE2D, target, level, xOffset, yOffset, width, height);
+    }
+
+    @Override
+    public void texImage3D(int target, int level, int internalFormat, int width, int height, int depth, int border, int format, int type, ByteBuffer pixels) {
+        record(TEX_IMAGE3D, target, level, internalFormat, width, height, depth);
+    }
+
+    @Override
+    public void texSubImage3D(int target, int level, int xOffset, int yOffset, int zOffset, int width, int height, int depth, int format, int type, ByteBuffer pixels) {
+        record(TEX_SUB_IMAGE3D, target, level, xOffset, yOffset, zOffset, width);
+    }
+
+    @Override
+    public void generateMipmap(int target) {
+        record(GENERATE_MIPMAP, target);
+    }
+
+    @Override
+    public void texBuffer(int target, int internalFormat, int buffer) {
+        record(TEX_BUFFER, target, internalFormat, buffer);
+    }
+
+    @Override
+    public void bindSampler(int unit, int sampler) {
+        record(BIND_SAMPLER, unit, sampler);
+    }
+
+    @Override
+    public int genFramebuffers() {
+        record(GEN_FRAMEBUFFERS);
+        return nextId++;
+    }
+
+    @Override
+    public void deleteFramebuffers(int framebuffer) {
+        record(DELETE_FRAMEBUFFERS, framebuffer);
+    }
+
+    @Override
+    public void bindFramebuffer(int target, int framebuffer) {
+        record(BIND_FRAMEBUFFER, target, framebuffer);
+    }
+
+    @Override
+    public void framebufferTexture2D(int target, int attachment, int textureTarget, int texture, int level) {
+        record(FRAMEBUFFER_TEXTURE2D, target, attachment, textureTarget, texture, level);
+    }
+
+    @Override
+    public int checkFramebufferStatus(int target) {
+        record(CHECK_FRAMEBUFFER_STATUS, target);
+        return GL30.GL_FRAMEBUFFER_COMPLETE;
+    }
+
+    @Override
+    public int genRenderbuffers() {
+        record(GEN_RENDERBUFFERS);
+        return nextId++;
+    }
+
+    @Override
+    public void deleteRenderbuffers(int renderbuffer) {
+        record(DELETE_RENDERBUFFERS, renderbuffer);
+    }
+
+    @Override
+    public void bindRenderbuffer(int target, int renderbuffer) {
+        record(BIND_RENDERBUFFER, target, renderbuffer);
+    }
+
+    @Override
+    public void renderbufferStorage(int target, int internalFormat, int width, int height) {
+        record(RENDERBUFFER_STORAGE, target, internalFormat, width, height);
+    }
+
+    @Override
+    public void framebufferRenderbuffer(int target, int attachment, int renderbufferTarget, int renderbuffer) {
+        record(FRAMEBUFFER_RENDERBUFFER, target, attachment, renderbufferTarget, renderbuffer);
+    }
+
+    @Override
+    public void readPixels(int x, int y, int width, int height, int format, int type, ByteBuffer pixels) {
+        record(READ_PIXELS, x, y, width, height, format, type);
+    }
+
+    @Override
+    public int createShader(int type) {
+        record(CREATE_SHADER, type);
+        return nextId++;
+    }
+
+    @Override
+    public void shaderSource(int shader, CharSequence source) {
+        attach(source);
+        record(SHADER_SOURCE, shader);
+    }
+
+    @Override
+    public void compileShader(int shader) {
+        record(COMPILE_SHADER, shader);
+    }
+
+    @Override
+    public int getShaderi(int shader, int pname) {
+        record(GET_SHADERI, shader, pname);
+        return GL11.GL_TRUE;
+    }
+
+    @Override
+    public String getShaderInfoLog(int shader) {
+        record(GET_SHADER_INFO_LOG, shader);
+        return "";
+    }
+
+    @Override
+    public int createProgram() {
+        record(CREATE_PROGRAM);
+        return nextId++;
+    }
+
+    @Override
+    public void attachShader(int program, int shader) {
+        record(ATTACH_SHADER, program, shader);
+    }
+
+    @Override
+    public void transformFeedbackVaryings(int program, CharSequence[] varyings, int bufferMode) {
+        attach(varyings);
+        record(TRANSFORM_FEEDBACK_VARYINGS, program, bufferMode);
+    }
+
+    @Override
+    public void linkProgram(int program) {
+        record(LINK_PROGRAM, program);
+    }
+
+    @Override
+    public int getProgrami(int program, int pname) {
+        record(GET_PROGRAMI, program, pname);
+        return GL11.GL_TRUE;
+    }
+
+    @Override
+    public String getProgramInfoLog(int program) {
+        record(GET_PROGRAM_INFO_LOG, program);
+        return "";
+    }
+
+    @Override
+    public void useProgram(int program) {
+        record(USE_PROGRAM, program);
+    }
+
+    @Override
+    public int getUniformLocation(int program, CharSequence name) {
+        attach(name);
+        record(GET_UNIFORM_LOCATION, program);
+        return nextLocation++;
+    }
+
+    @Override
+    public int getUniformBlockIndex(int program, CharSequence name) {
+        attach(name);
+        record(GET_UNIFORM_BLOCK_INDEX, program);
+        return 0;
+    }
+
+    @Override
+    public void uniformBlockBinding(int program, int blockIndex, int binding) {
+        record(UNIFORM_BLOCK_BINDING, program, blockIndex, binding);
+    }
+
+    @Override
+    public void uniform1i(int location, int value) {
+        record(UNIFORM1I, location, value);
+    }
+
+    @Override
+    public void uniform1f(int location, float value) {
+        record(UNIFORM1F, location, Float.floatToRawIntBits(value));
+    }
+
+    @Override
+    public void uniform1fv(int location, float[] values) {
+        record(UNIFORM1FV, location, values.length);
+    }
+
+    @Override
+    public void uniform2fv(int location, float[] values) {
+        record(UNIFORM2FV, location, values.length);
+    }
+
+    @Override
+    public void uniform3fv(int location, float[] values) {
+        record(UNIFORM3FV, location, values.length);
+    }
+
+    @Override
+    public void uniform4fv(int location, float[] values) {
+        record(UNIFORM4FV, location, values.length);
+    }
+
+    @Override
+    public void uniform1iv(int location, int[] values) {
+        record(UNIFORM1IV, location, values.length);
+    }
+
+    @Override
+    public void uniform2iv(int location, int[] values) {
+        record(UNIFORM2IV, location, values.length);
+    }
+
+    @Override
+    public void uniform3iv(int location, int[] values) {
+        record(UNIFORM3IV, location, values.length);
+    }
+
+    @Override
+    public void uniform4iv(int location, int[] values) {
+        record(UNIFORM4IV, location, values.length);
+    }
+
+    @Override
+    public void uniformMatrix2fv(int location, boolean transpose, float[] values) {
+        record(UNIFORM_MATRIX2FV, location, transpose ? 1 : 0, values.length);
+    }
+
+    @Override
+    public void uniformMatrix3fv(int location, boolean transpose, float[] values) {
+        record(UNIFORM_MATRIX3FV, location, transpose ? 1 : 0, values.length);
+    }
+
+    @Override
+    public void uniformMatrix4fv(int location, boolean transpose, float[] values) {
+        record(UNIFORM_MATRIX4FV, location, transpose ? 1 : 0, values.length);
+    }
+
+    @Override
+    public void uniformMatrix4fv(int location, boolean transpose, FloatBuffer values) {
+        record(UNIFORM_MATRIX4FV, location, transpose ? 1 : 0, values == null ? 0 : values.remaining());
+    }
+
+    @Override
+    public int genVertexArrays() {
+        record(GEN_VERTEX_ARRAYS);
+        return nextId++;
+    }
+
+    @Override
+    public void deleteVertexArrays(int array) {
+        record(DELETE_VERTEX_ARRAYS, array);
+    }
+
+    @Override
+    public void bindVertexArray(int array) {
+        record(BIND_VERTEX_ARRAY, array);
+    }
+
+    @Override
+    public void vertexAttribPointer(int index, int size, int type, boolean normalized, int stride, long pointer) {
+        record(VERTEX_ATTRIB_POINTER, index, size, type, normalized ? 1 : 0, stride, (int) pointer);
+    }
+
+    @Override
+    public void enableVertexAttribArray(int index) {
+        record(ENABLE_VERTEX_ATTRIB_ARRAY, index);
+    }
+
+    @Override
+    public void vertexAttribDivisor(int index, int divisor) {
+        record(VERTEX_ATTRIB_DIVISOR, index, divisor);
+    }
+
+    @Override
+    public void vertexAttrib1f(int index, float x) {
+        record(VERTEX_ATTRIB1F, index, Float.floatToRawIntBits(x));
+    }
+
+    @Override
+    public void vertexAttrib2f(int index, float x, float y) {
+        record(VERTEX_ATTRIB2F, index, Float.floatToRawIntBits(x), Float.floatToRawIntBits(y));
+    }
+
+    @Override
+    public void vertexAttrib3f(int index, float x, float y, float z) {
+        record(VERTEX_ATTRIB3F, index, Float.floatToRawIntBits(x), Float.floatToRawIntBits(y), Float.floatToRawIntBits(z));
+    }
+
+    @Override
+    public void vertexAttrib4f(int index, float x, float y, float z, float w) {
+        record(VERTEX_ATTRIB4F, index, Float.floatToRawIntBits(x), Float.floatToRawIntBits(y), Float.floatToRawIntBits(z), Float.floatToRawIntBits(w));
+    }
+
+    @Override
+    public void vertexAttribI1i(int index, int x) {
+        record(VERTEX_ATTRIB_I1I, index, x);
+    }
+
+    @Override
+    public void vertexAttribI2i(int index, int x, int y) {
+        record(VERTEX_ATTRIB_I2I, index, x, y);
+    }
+
+    @Override
+    public void vertexAttribI3i(int index, int x, int y, int z) {
+        record(VERTEX_ATTRIB_I3I, index, x, y, z);
+    }
+
+    @Override
+    public void vertexAttribI4i(int index, int x, int y, int z, int w) {
+        record(VERTEX_ATTRIB_I4I, index, x, y, z, w);
+    }
+
+    @Override
+    public void drawArrays(int mode, int first, int count) {
+        drawCalls++;
+        record(DRAW_ARRAYS, mode, first, count);
+    }
+
+    @Override
+    public void drawElements(int mode, int count, int type, long indices) {
+        drawCalls++;
+        record(DRAW_ELEMENTS, mode, count, type, (int) indices);
+    }
+
+    @Override
+    public void drawElementsInstanced(int mode, int count, int type, long indices, int instances) {
+        drawCalls++;
+        record(DRAW_ELEMENTS_INSTANCED, mode, count, type, (int) indices, instances);
+    }
+
+    @Override
+    public void multiDrawElementsBaseVertex(int mode, IntBuffer counts, int type, PointerBuffer indices, IntBuffer baseVertices) {
+        drawCalls++;
+        record(MULTI_DRAW_ELEMENTS_BASE_VERTEX, mode, counts == null ? 0 : counts.remaining(), type, indices == null ? 0 : indices.remaining(), baseVertices == null ? 0 : baseVertices.remaining());
+    }
+
+    @Override
+    public void beginTransformFeedback(int primitiveMode) {
+        record(BEGIN_TRANSFORM_FEEDBACK, primitiveMode);
+    }
+
+    @Override
+    public void endTransformFeedback() {
+        record(END_TRANSFORM_FEEDBACK);
+    }
+
+    @Override
+    public int genQueries() {
+        record(GEN_QUERIES);
+        return nextId++;
+    }
+
+    @Override
+    public void deleteQueries(int query) {
+        record(DELETE_QUERIES, query);
+    }
+
+    @Override
+    public void beginQuery(int target, int query) {
+        record(BEGIN_QUERY, target, query);
+    }
+
+    @Override
+    public void endQuery(int target) {
+        record(END_QUERY, target);
+    }
+
+    @Override
+    public void queryCounter(int query, int target) {
+        record(QUERY_COUNTER, query, target);
+    }
+
+    @Override
+    public int getQueryObjecti(int query, int pname) {
+        record(GET_QUERY_OBJECTI, query, pname);
+        return GL11.GL_TRUE;
+    }
+
+    @Override
+    public long getQueryObjectui64(int query, int pname) {
+        record(GET_QUERY_OBJECTUI64, query, pname);
+        return 1L;
+    }
+
+    @Override
+    public void beginConditionalRender(int query, int mode) {
+        record(BEGIN_CONDITIONAL_RENDER, query, mode);
+    }
+
+    @Override
+    public void endConditionalRender() {
+        record(END_CONDITIONAL_RENDER);
+    }
+
+    //There is no window, so the handle isn't recorded.
+    @Override
+    public void swapBuffers(long window) {
+        record(SWAP_BUFFERS);
+        frames++;
+    }
+}
\ No newline at end of file
@@ -5,14 +5,28 @@ import org.lwjgl.glfw.GLFW;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.locks.LockSupport;
+
 public class TowerGame {
+    //LOOP_VARIABLE calls update with the frame time before each frame. LOOP_FIXED calls it at tickRate on the render thread,
+    //LOOP_THREADED on its own thread; render from a StateBuffer to blend between the last two ticks.
+    public static final int LOOP_VARIABLE = 0, LOOP_FIXED = 1, LOOP_THREADED = 2;
+    //Ticks run back to back to catch up before the simulation drops the time it lost.
+    private static final int MAX_CATCH_UP = 5;
     private Logger logger = LoggerFactory.getLogger(TowerGame.class);
+    private final Tracer tracer = new Tracer(this);
     private WindowHandler windowHandler;
     private GLHandler glHandler;
+    private Profiler profiler;
     private FontManager fontManager;
     private ModelManager modelManager;
     private KeyBindingManager keyBindingManager;
-    private int fps;
+    private int fps, loopMode = LOOP_VARIABLE, tickRate = 60, frameCap;
+    private long frames, ticks;
+    private boolean interpolating;
+    private volatile boolean running;
+    private volatile Throwable updateError;
+    private Thread updateThread;
     private final long startTime = System.nanoTime();
     private Timer updateFPS = createTimer().setTimer(1);
 
@@ -23,13 +37,36 @@ public class TowerGame {
         loop();
     }
 
+    //Renders frames frames on a hidden window into an offscreen target of width x height instead of looping until closed.
+    //Read the last frame back with readPixels or writePNG on the returned framebuffer.
+    protected GLHandler.Framebuffer runHeadless(int width, int height, int frames) {
+        preInit();
+        windowHandler.setHeadless(width, height);
+        init();
+        postInit();
+        GLHandler.Framebuffer target = glHandler.createFramebuffer(width, height);
+        //Ticks in lockstep with frames so the output doesn't depend on timing.
+        for (int i = 0; i < frames; i++) {
+            update(1.0f / tickRate);
+            target.bind();
+            renderFrame();
+        }
+        return target;
+    }
+
     protected void preInit() {
         windowHandler = new WindowHandler(this);
     }
 
     protected void init() {
         windowHandler.createWindow();
-        glHandler = new GLHandler(this);
+        initGL(new LWJGLBackend());
+    }
+
+    //Override init and pass a RecordingGLBackend without creating the window to run everything above GL headless, see HeadlessGame.
+    protected void initGL(GLBackend backend) {
+        glHandler = new GLHandler(this, backend);
+        profiler = new Profiler(this);
         fontManager = new FontManager(this);
         modelManager = new ModelManager(this);
     }
@@ -38,6 +75,11 @@ public class TowerGame {
         keyBindingManager = new KeyBindingManager(this);
     }
 
+    //dt in seconds. On the update thread in LOOP_THREADED: publish what render needs through a StateBuffer and don't touch GL.
+    protected void update(float dt) {
+
+    }
+
     protected void doRender() {
 
     }
@@ -55,19 +97,105 @@ public class TowerGame {
     }
 
     private void loop() {
+        interpolating = loopMode != LOOP_VARIABLE;
+        if (loopMode == LOOP_THREADED) {
+            startUpdateThread();
+        }
         long lastRender = System.nanoTime();
-        while (!windowHandler.shouldClose()) {
-            long startRender = System.nanoTime();
-            if (updateFPS.isTimesUp()) {
-                fps = (int) (1000000000 / (startRender - lastRender));
-                updateFPS.setTimer(0.5f);
+        long lastUpdate = getNanosFromStart(), nextTick = lastUpdate, nextFrame = lastUpdate;
+        try {
+            while (!windowHandler.shouldClose()) {
+                long startRender = System.nanoTime();
+                if (updateFPS.isTimesUp()) {
+                    fps = (int) (1000000000 / (startRender - lastRender));
+                    updateFPS.setTimer(0.5f);
+                }
+                lastRender = startRender;
+                GLFW.glfwPollEvents();
+                if (updateError != null) {
+                    throw new RuntimeException("Update thread failed", updateError);
+                }
+                if (loopMode == LOOP_VARIABLE) {
+                    long now = getNanosFromStart();
+                    update((now - lastUpdate) * 0.000000001f);
+                    lastUpdate = now;
+                } else if (loopMode == LOOP_FIXED) {
+                    nextTick = tick(nextTick);
+                }
+                renderFrame();
+                if (frameCap > 0) {
+                    nextFrame = Math.max(nextFrame + 1000000000L / frameCap, getNanosFromStart());
+                    sleepUntil(nextFrame);
+                }
             }
-            lastRender = startRender;
-            GLFW.glfwPollEvents();
-            doRender();
+        } finally {
+            stopUpdateThread();
         }
     }
 
+    //Runs the ticks due by now and returns when the next one is due.
+    private long tick(long nextTick) {
+        long tickNanos = 1000000000L / tickRate;
+        int caughtUp = 0;
+        while (nextTick <= getNanosFromStart()) {
+            if (caughtUp++ == MAX_CATCH_UP) {
+                //Too far behind, slow the simulation down rather than spending every frame catching up.
+                return getNanosFromStart() + tickNanos;
+            }
+            long start = tracer.begin(Tracer.UPDATE);
+            update(1.0f / tickRate);
+            tracer.end(Tracer.UPDATE, start, null, ticks++);
+            nextTick += tickNanos;
+        }
+        return nextTick;
+    }
+
+    //Parks instead of spinning, so a capped loop leaves the core idle.
+    private void sleepUntil(long nanosFromStart) {
+        long wait;
+        while ((wait = nanosFromStart - getNanosFromStart()) > 0) {
+            LockSupport.parkNanos(wait);
+        }
+    }
+
+    private void startUpdateThread() {
+        running = true;
+        updateThread = new Thread(() -> {
+            long nextTick = getNanosFromStart();
+            try {
+                while (running) {
+                    nextTick = tick(nextTick);
+                    sleepUntil(nextTick);
+                }
+            } catch (Throwable e) {
+                updateError = e;
+            }
+        }, "TowerLib Update");
+        updateThread.setDaemon(true);
+        updateThread.start();
+    }
+
+    private void stopUpdateThread() {
+        if (updateThread == null) {
+            return;
+        }
+        running = false;
+        try {
+            updateThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        updateThread = null;
+    }
+
+    void renderFrame() {
+        long start = tracer.begin(Tracer.FRAME);
+        profiler.beginFrame();
+        doRender();
+        profiler.endFrame();
+        tracer.end(Tracer.FRAME, start, null, frames++);
+    }
+
     public void exit() {
         windowHandler.closeWindow();
     }
@@ -88,6 +216,46 @@ public class TowerGame {
         return new Timer();
     }
 
+    public <T> StateBuffer<T> createStateBuffer(T initial) {
+        return new StateBuffer<>(initial);
+    }
+
+    public int getLoopMode() {
+        return loopMode;
+    }
+
+    //Before run.
+    public void setLoopMode(int loopMode) {
+        if (loopMode < LOOP_VARIABLE || loopMode > LOOP_THREADED) {
+            throw new RuntimeException("Unknown loop mode: " + loopMode);
+        }
+        this.loopMode = loopMode;
+    }
+
+    public int getTickRate() {
+        return tickRate;
+    }
+
+    //Ticks per second of the fixed loops, before run.
+    public void setTickRate(int tickRate) {
+        if (tickRate <= 0) {
+            throw new RuntimeException("Illegal tick rate: " + tickRate);
+        }
+        this.tickRate = tickRate;
+    }
+
+    public int getFrameCap() {
+        return frameCap;
+    }
+
+    //Frames per second at most, 0 for no cap beyond the swap interval.
+    public void setFrameCap(int frameCap) {
+        if (frameCap < 0) {
+            throw new RuntimeException("Illegal frame cap: " + frameCap);
+        }
+        this.frameCap = frameCap;
+    }
+
     public Logger getLogger() {
         return logger;
     }
@@ -100,6 +268,10 @@ public class TowerGame {
         return glHandler;
     }
 
+    public Profiler getProfiler() {
+        return profiler;
+    }
+
     public FontManager getFontManager() {
         return fontManager;
     }
@@ -108,6 +280,10 @@ public class TowerGame {
         return modelManager;
     }
 
+    public Tracer getTracer() {
+        return tracer;
+    }
+
     public KeyBindingManager getKeyBindingManager() {
         return keyBindingManager;
     }
@@ -137,4 +313,58 @@ public class TowerGame {
             return get() <= 0;
         }
     }
+
+    //Hands states from update to render. update publishes a new state each tick and doesn't touch it afterwards; render
+    //blends getPrevious and getCurrent by getAlpha. What render sees is latched once per frame, so the three agree.
+    public class StateBuffer<T> {
+        private volatile States states;
+        private States latched;
+        private long latchedFrame = -1;
+        private float alpha;
+
+        private StateBuffer(T initial) {
+            states = new States(initial, initial, getNanosFromStart());
+        }
+
+        public void publish(T state) {
+            states = new States(states.current, state, getNanosFromStart());
+        }
+
+        private void latch() {
+            if (latchedFrame == frames) {
+                return;
+            }
+            latchedFrame = frames;
+            latched = states;
+            //Render runs a tick behind the simulation: alpha is how far into the tick after previous it is.
+            alpha = interpolating ? Math.min(1.0f, (getNanosFromStart() - latched.time) * tickRate * 0.000000001f) : 1.0f;
+        }
+
+        public T getPrevious() {
+            latch();
+            return latched.previous;
+        }
+
+        public T getCurrent() {
+            latch();
+            return latched.current;
+        }
+
+        //In [0, 1], always 1 in LOOP_VARIABLE.
+        public float getAlpha() {
+            latch();
+            return alpha;
+        }
+
+        private class States {
+            private final T previous, current;
+            private final long time;
+
+            private States(T previous, T current, long time) {
+                this.previous = previous;
+                this.current = current;
+                this.time = time;
+            }
+        }
+    }
 }
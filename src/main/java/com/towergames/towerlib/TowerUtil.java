@@ -160,4 +160,48 @@ public class TowerUtil {
         }
         return r;
     }
+
+    //IEEE 754 binary16, round to nearest even, overflow goes to infinity.
+    public static short floatToHalf(float f) {
+        int bits = Float.floatToIntBits(f);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = (bits >>> 23) & 0xFF;
+        int mantissa = bits & 0x7FFFFF;
+        if (exponent == 0xFF) {
+            return (short) (sign | 0x7C00 | (mantissa != 0 ? 0x200 : 0));
+        }
+        int e = exponent - 127 + 15;
+        if (e >= 0x1F) {
+            return (short) (sign | 0x7C00);
+        }
+        if (e <= 0) {
+            if (e < -10) {
+                return (short) sign;
+            }
+            mantissa |= 0x800000;
+            int shift = 14 - e;
+            int half = mantissa >> shift;
+            int rest = mantissa & ((1 << shift) - 1);
+            int halfway = 1 << (shift - 1);
+            if (rest > halfway || (rest == halfway && (half & 1) != 0)) {
+                half++;
+            }
+            return (short) (sign | half);
+        }
+        int half = e << 10 | mantissa >> 13;
+        int rest = mantissa & 0x1FFF;
+        if (rest > 0x1000 || (rest == 0x1000 && (half & 1) != 0)) {
+            half++;
+        }
+        return (short) (sign | half);
+    }
+
+    //GL_INT_2_10_10_10_REV: x in the low 10 bits, w in the top 2, all signed normalized.
+    public static int packSnorm2101010Rev(float x, float y, float z, float w) {
+        return (snorm(x, 511) & 0x3FF) | (snorm(y, 511) & 0x3FF) << 10 | (snorm(z, 511) & 0x3FF) << 20 | (snorm(w, 1) & 0x3) << 30;
+    }
+
+    private static int snorm(float v, int max) {
+        return Math.round(Math.max(-1.0f, Math.min(1.0f, v)) * max);
+    }
 }
@@ -0,0 +1,272 @@
+package com.towergames.towerlib;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+//Frame timeline for hitches seen outside a profiler. Events go to JFR (when the runtime has it) and to a ring buffer of the
+//last capacity events, written on demand as Chrome trace_event JSON (chrome://tracing, ui.perfetto.dev).
+//Both sinks are off by default, or on with -Dtowerlib.jfr=true / -Dtowerlib.trace=true. Off, begin/end cost one nanoTime.
+//JFR event classes can't be compiled against Java 8, so they are defined at runtime through jdk.jfr.EventFactory (JDK 11+).
+public class Tracer {
+    public static final int FRAME = 0, UPLOAD = 1, MODEL_LOAD = 2, GLYPH_MISS = 3, SHADER_COMPILE = 4, UPDATE = 5;
+    private static final String[] NAMES = {"Frame", "Upload", "Model Load", "Glyph Miss", "Shader Compile", "Update"};
+    //What the value of each event type is.
+    private static final String[] VALUES = {"Frame", "Bytes", "Primitives", "Size", "Program", "Tick"};
+    public static final int DEFAULT_CAPACITY = 65536;
+    private final TowerGame game;
+    private final long origin = System.nanoTime();
+    private boolean tracing = Boolean.getBoolean("towerlib.trace"), jfr;
+    private int capacity, next;
+    private long count;
+    private String[] names, categories, details, valueNames;
+    private long[] starts, durations, values, threads;
+    private Object[] jfrTypes;
+    private ThreadLocal<Object[]> jfrEvents;
+    private Method newEvent, begin, end, commit, set;
+
+    public Tracer(TowerGame game) {
+        this.game = game;
+        setCapacity(DEFAULT_CAPACITY);
+        if (Boolean.getBoolean("towerlib.jfr")) {
+            setJfr(true);
+        }
+    }
+
+    //Returns the start time to pass to end. Events of one type don't nest on a thread.
+    public long begin(int type) {
+        if (jfr) {
+            try {
+                Object event = newEvent.invoke(jfrTypes[type]);
+                begin.invoke(event);
+                jfrEvents.get()[type] = event;
+            } catch (ReflectiveOperationException e) {
+                jfrFailed(e);
+            }
+        }
+        return System.nanoTime();
+    }
+
+    public void end(int type, long start, String detail, long value) {
+        if (tracing) {
+            record(NAMES[type], "towerlib", start, System.nanoTime() - start, detail, VALUES[type], value);
+        }
+        if (jfr) {
+            Object[] events = jfrEvents.get();
+            Object event = events[type];
+            if (event == null) {
+                return;
+            }
+            events[type] = null;
+            try {
+                end.invoke(event);
+                set.invoke(event, 0, detail);
+                set.invoke(event, 1, value);
+                commit.invoke(event);
+            } catch (ReflectiveOperationException e) {
+                jfrFailed(e);
+            }
+        }
+    }
+
+    //Profiler scopes, Chrome trace only.
+    public void scope(String name, long start, long duration) {
+        if (tracing) {
+            record(name, "scope", start, duration, null, null, 0);
+        }
+    }
+
+    private synchronized void record(String name, String category, long start, long duration, String detail, String valueName, long value) {
+        int i = next;
+        names[i] = name;
+        categories[i] = category;
+        starts[i] = start;
+        durations[i] = duration;
+        threads[i] = Thread.currentThread().getId();
+        details[i] = detail;
+        valueNames[i] = valueName;
+        values[i] = value;
+        next = (i + 1) % capacity;
+        count++;
+    }
+
+    //Writes the buffered events, oldest first, and keeps them buffered.
+    public synchronized void writeChromeTrace(Path path) {
+        int n = (int) Math.min(count, capacity);
+        int first = count > capacity ? next : 0;
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+            for (int j = 0; j < n; j++) {
+                int i = (first + j) % capacity;
+                if (j > 0) {
+                    writer.write(",\n");
+                }
+                writer.write("{\"name\":");
+                writeString(writer, names[i]);
+                writer.write(",\"cat\":");
+                writeString(writer, categories[i]);
+                writer.write(",\"ph\":\"X\",\"pid\":1,\"tid\":" + threads[i]);
+                writer.write(",\"ts\":" + micros(starts[i] - origin) + ",\"dur\":" + micros(durations[i]));
+                if (valueNames[i] != null) {
+                    writer.write(",\"args\":{");
+                    writeString(writer, valueNames[i]);
+                    writer.write(":" + values[i]);
+                    if (details[i] != null) {
+                        writer.write(",\"detail\":");
+                        writeString(writer, details[i]);
+                    }
+                    writer.write("}");
+                }
+                writer.write("}");
+            }
+            writer.write("]}");
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write trace: " + path, e);
+        }
+        game.getLogger().info("Wrote {} trace events to {}", n, path.toAbsolutePath());
+    }
+
+    //Writes to trace-<date>-<time>.json in the working directory.
+    public Path dump() {
+        Path path = Paths.get("trace-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".json");
+        writeChromeTrace(path);
+        return path;
+    }
+
+    //A binding that dumps on press. Register it with the KeyBindingManager.
+    public KeyBindingManager.KeyBinding createDumpKeyBinding(int key, int mods) {
+        return new KeyBindingManager.KeyBinding("dumpTrace", key, mods, true) {
+            @Override
+            protected void onPress() {
+                if (tracing) {
+                    dump();
+                } else {
+                    game.getLogger().warn("Tracing is off, nothing to dump");
+                }
+            }
+        };
+    }
+
+    private static String micros(long nanos) {
+        return String.format("%d.%03d", nanos / 1000, Math.abs(nanos % 1000));
+    }
+
+    private static void writeString(Writer writer, String s) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                writer.write('\\');
+                writer.write(c);
+            } else if (c < 0x20) {
+                writer.write(String.format("\\u%04x", (int) c));
+            } else {
+                writer.write(c);
+            }
+        }
+        writer.write('"');
+    }
+
+    public boolean isTracing() {
+        return tracing;
+    }
+
+    public Tracer setTracing(boolean tracing) {
+        this.tracing = tracing;
+        return this;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    //Clears the buffer.
+    public synchronized Tracer setCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new RuntimeException("Illegal trace capacity: " + capacity);
+        }
+        this.capacity = capacity;
+        names = new String[capacity];
+        categories = new String[capacity];
+        details = new String[capacity];
+        valueNames = new String[capacity];
+        starts = new long[capacity];
+        durations = new long[capacity];
+        values = new long[capacity];
+        threads = new long[capacity];
+        next = 0;
+        count = 0;
+        return this;
+    }
+
+    public boolean isJfr() {
+        return jfr;
+    }
+
+    //Events are registered with JFR the first time this is turned on. Stays off when the runtime has no JFR.
+    public Tracer setJfr(boolean jfr) {
+        if (jfr && jfrTypes == null && !initJfr()) {
+            return this;
+        }
+        this.jfr = jfr;
+        return this;
+    }
+
+    private boolean initJfr() {
+        try {
+            Class<?> factory = Class.forName("jdk.jfr.EventFactory");
+            Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement");
+            Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor");
+            Class<?> event = Class.forName("jdk.jfr.Event");
+            Class<?> nameAnnotation = Class.forName("jdk.jfr.Name");
+            Class<?> labelAnnotation = Class.forName("jdk.jfr.Label");
+            Class<?> categoryAnnotation = Class.forName("jdk.jfr.Category");
+            Constructor<?> newAnnotation = annotationElement.getConstructor(Class.class, Object.class);
+            Constructor<?> newValue = valueDescriptor.getConstructor(Class.class, String.class, List.class);
+            Method create = factory.getMethod("create", List.class, List.class);
+            Object[] types = new Object[NAMES.length];
+            for (int type = 0; type < NAMES.length; type++) {
+                List<Object> annotations = new ArrayList<>();
+                annotations.add(newAnnotation.newInstance(nameAnnotation, "towerlib." + NAMES[type].replace(" ", "")));
+                annotations.add(newAnnotation.newInstance(labelAnnotation, NAMES[type]));
+                String[] category = {"TowerLib"};
+                annotations.add(newAnnotation.newInstance(categoryAnnotation, category));
+                List<Object> fields = new ArrayList<>();
+                fields.add(newValue.newInstance(String.class, "detail", label(newAnnotation, labelAnnotation, "Detail")));
+                fields.add(newValue.newInstance(long.class, "value", label(newAnnotation, labelAnnotation, VALUES[type])));
+                types[type] = create.invoke(null, annotations, fields);
+            }
+            newEvent = factory.getMethod("newEvent");
+            begin = event.getMethod("begin");
+            end = event.getMethod("end");
+            commit = event.getMethod("commit");
+            set = event.getMethod("set", int.class, Object.class);
+            jfrEvents = ThreadLocal.withInitial(() -> new Object[NAMES.length]);
+            jfrTypes = types;
+            return true;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            game.getLogger().warn("JFR events unavailable on this runtime: {}", e.toString());
+            return false;
+        }
+    }
+
+    private static List<Object> label(Constructor<?> newAnnotation, Class<?> labelAnnotation, String label) throws ReflectiveOperationException {
+        List<Object> annotations = new ArrayList<>();
+        annotations.add(newAnnotation.newInstance(labelAnnotation, label));
+        return annotations;
+    }
+
+    private void jfrFailed(ReflectiveOperationException e) {
+        game.getLogger().warn("Disabling JFR events: {}", e.toString());
+        jfr = false;
+    }
+}
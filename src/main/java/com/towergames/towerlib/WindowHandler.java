@@ -10,8 +10,11 @@ import org.lwjgl.opengl.GL30;
 import javax.swing.*;
 
 public class WindowHandler {
+    //OSMesa runs on GLFW's null platform, so it needs neither a display nor a GPU (Mesa llvmpipe).
+    public static final int CONTEXT_NATIVE = 0, CONTEXT_EGL = 1, CONTEXT_OSMESA = 2;
     private final TowerGame game;
-    private boolean init, fullscreen;
+    private boolean init, fullscreen, headless;
+    private int contextApi = CONTEXT_NATIVE, swapInterval = 1;
     private int windowWidthDefault = 800, windowHeightDefault = 600, windowWidth, windowHeight, fullscreenWidth, fullscreenHeight;
     private float mouseX = Float.NaN, mouseY;
     private long window;
@@ -27,6 +30,9 @@ public class WindowHandler {
         }
         game.getLogger().info("Start to creating window...");
         GLFWErrorCallback.createPrint(System.err).set();
+        if (contextApi == CONTEXT_OSMESA) {
+            GLFW.glfwInitHint(GLFW.GLFW_PLATFORM, GLFW.GLFW_PLATFORM_NULL);
+        }
         if (!GLFW.glfwInit()) {
             throw new RuntimeException("Failed to initialize GLFW");
         }
@@ -36,7 +42,15 @@ public class WindowHandler {
         GLFW.glfwWindowHint(GLFW.GLFW_OPENGL_FORWARD_COMPAT, GLFW.GLFW_TRUE);
         GLFW.glfwWindowHint(GLFW.GLFW_OPENGL_DEBUG_CONTEXT, GLFW.GLFW_TRUE);
         GLFW.glfwWindowHint(GLFW.GLFW_OPENGL_PROFILE, GLFW.GLFW_OPENGL_CORE_PROFILE);
-        if (fullscreen) {
+        if (contextApi == CONTEXT_EGL) {
+            GLFW.glfwWindowHint(GLFW.GLFW_CONTEXT_CREATION_API, GLFW.GLFW_EGL_CONTEXT_API);
+        } else if (contextApi == CONTEXT_OSMESA) {
+            GLFW.glfwWindowHint(GLFW.GLFW_CONTEXT_CREATION_API, GLFW.GLFW_OSMESA_CONTEXT_API);
+        }
+        if (headless) {
+            GLFW.glfwWindowHint(GLFW.GLFW_VISIBLE, GLFW.GLFW_FALSE);
+        }
+        if (fullscreen && !headless) {
             GLFWVidMode vidmode = GLFW.glfwGetVideoMode(GLFW.glfwGetPrimaryMonitor());
             fullscreenWidth = vidmode.width();
             fullscreenHeight = vidmode.height();
@@ -52,6 +66,7 @@ public class WindowHandler {
             throw new RuntimeException("Failed to create GLFW window");
         }
         GLFW.glfwMakeContextCurrent(window);
+        GLFW.glfwSwapInterval(swapInterval);
         GLFW.glfwSetFramebufferSizeCallback(window, (window, width, height) -> {
             game.getLogger().info("Framebuffer size callback: {}x{}", width, height);
             if (isFullscreen()) {
@@ -70,13 +85,17 @@ public class WindowHandler {
             }
             float moveX = (float) (posX - mouseX);
             float moveY = (float) (posY - mouseY);
+            mouseX = (float) posX;
+            mouseY = (float) posY;
             game.onMouseMove(moveX, moveY);
         });
         GLFW.glfwSetScrollCallback(window, (window, xOffset, yOffset) -> game.onMouseScroll((float) xOffset, (float) yOffset));
         GLFW.glfwSetKeyCallback(window, (window, key, scancode, action, mods) -> {
             game.onKeyboardInput(key, scancode, action, mods);
         });
-        GLFW.glfwShowWindow(window);
+        if (!headless) {
+            GLFW.glfwShowWindow(window);
+        }
         GL.createCapabilities();
         game.getLogger().info("---- OpenGL Context Info ----");
         game.getLogger().info("Vendor: {}" , GL11.glGetString(GL11.GL_VENDOR));
@@ -94,6 +113,41 @@ public class WindowHandler {
         GLFW.glfwSetWindowShouldClose(window, true);
     }
 
+    public boolean isHeadless() {
+        return headless;
+    }
+
+    //Before createWindow: the window is never shown and getWidth/getHeight report width x height, the size of the offscreen target.
+    public void setHeadless(int width, int height) {
+        headless = true;
+        windowWidthDefault = width;
+        windowHeightDefault = height;
+    }
+
+    public int getContextApi() {
+        return contextApi;
+    }
+
+    //Before createWindow.
+    public void setContextApi(int contextApi) {
+        if (contextApi < CONTEXT_NATIVE || contextApi > CONTEXT_OSMESA) {
+            throw new RuntimeException("Unknown context api: " + contextApi);
+        }
+        this.contextApi = contextApi;
+    }
+
+    public int getSwapInterval() {
+        return swapInterval;
+    }
+
+    //Screen refreshes to wait per swap: 0 turns vsync off, 1 (the default) syncs to the monitor. From the render thread.
+    public void setSwapInterval(int swapInterval) {
+        this.swapInterval = swapInterval;
+        if (init) {
+            GLFW.glfwSwapInterval(swapInterval);
+        }
+    }
+
     public boolean isFullscreen() {
         return fullscreen;
     }
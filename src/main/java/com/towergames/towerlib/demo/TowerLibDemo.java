@@ -7,23 +7,35 @@ import org.joml.Vector4f;
 import org.lwjgl.glfw.GLFW;
 import org.lwjgl.opengl.GL11;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class TowerLibDemo extends TowerGame {
     private static TowerLibDemo game;
+    private static boolean osmesa;
     private FontManager.Font testFont;
     private GLHandler.Texture texture;
-    private boolean scene3D;
+    private boolean scene3D, profilerOverlay;
+    //Degrees per second.
+    private static final float ROTATION_SPEED = 45.0f;
+    //Owned by the update thread, render reads them through camera.
     private float cameraPitch = -45f;
     private float cameraYaw = 45.0f;
-    private KeyBindingManager.KeyBinding keyFullscreen, keyExit, keySwitchScene, keyPitchUp, keyPitchDown, keyTurnLeft, keyTurnRight;
+    private StateBuffer<Camera> camera;
+    private KeyBindingManager.KeyBinding keyFullscreen, keyExit, keySwitchScene, keyProfiler, keyDumpTrace, keyVsync, keyPitchUp, keyPitchDown, keyTurnLeft, keyTurnRight;
 
     @Override
     protected void preInit() {
         super.preInit();
         WindowHandler window = getWindowHandler();
         window.setTitle("Tower Lib Demo");
+        if (osmesa) {
+            window.setContextApi(WindowHandler.CONTEXT_OSMESA);
+        }
+        setLoopMode(LOOP_THREADED);
+        setFrameCap(240);
     }
 
     @Override
@@ -55,10 +67,43 @@ public class TowerLibDemo extends TowerGame {
                 scene3D = !scene3D;
             }
         });
+        getKeyBindingManager().registerKeyBinding(keyProfiler = new KeyBindingManager.KeyBinding("profiler", GLFW.GLFW_KEY_P, 0, true) {
+            @Override
+            protected void onPress() {
+                profilerOverlay = !profilerOverlay;
+            }
+        });
+        getKeyBindingManager().registerKeyBinding(keyDumpTrace = getTracer().createDumpKeyBinding(GLFW.GLFW_KEY_F12, 0));
+        getKeyBindingManager().registerKeyBinding(keyVsync = new KeyBindingManager.KeyBinding("vsync", GLFW.GLFW_KEY_V, 0, true) {
+            @Override
+            protected void onPress() {
+                window.setSwapInterval(window.getSwapInterval() == 0 ? 1 : 0);
+            }
+        });
         getKeyBindingManager().registerKeyBinding(keyPitchUp = new KeyBindingManager.KeyBinding("pitchUp", GLFW.GLFW_KEY_W, 0, true));
         getKeyBindingManager().registerKeyBinding(keyPitchDown = new KeyBindingManager.KeyBinding("pitchDown", GLFW.GLFW_KEY_S, 0, true));
         getKeyBindingManager().registerKeyBinding(keyTurnLeft = new KeyBindingManager.KeyBinding("turnLeft", GLFW.GLFW_KEY_A, 0, true));
         getKeyBindingManager().registerKeyBinding(keyTurnRight = new KeyBindingManager.KeyBinding("turnRight", GLFW.GLFW_KEY_D, 0, true));
+        camera = createStateBuffer(new Camera(cameraPitch, cameraYaw));
+    }
+
+    @Override
+    protected void update(float dt) {
+        super.update(dt);
+        float rotation = ROTATION_SPEED * dt;
+        if (keyPitchUp.isPressed()) {
+            cameraPitch += rotation;
+        }
+        if (keyPitchDown.isPressed()) {
+            cameraPitch -= rotation;
+        }
+        if (keyTurnLeft.isPressed()) {
+            cameraYaw += rotation;
+        }
+        if (keyTurnRight.isPressed()) {
+            cameraYaw -= rotation;
+        }
+        camera.publish(new Camera(cameraPitch, cameraYaw));
     }
 
     @Override
@@ -74,20 +119,10 @@ public class TowerLibDemo extends TowerGame {
         gl.clearDepth();
         gl.getState().cullFace(true).depthTest(true).blend(true).blendFunc(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA);
         if (scene3D) {
-            float rotationSpeed = 0.05f;
-            if(keyPitchUp.isPressed()){
-                cameraPitch += rotationSpeed;
-            }
-            if(keyPitchDown.isPressed()){
-                cameraPitch -= rotationSpeed;
-            }
-            if(keyTurnLeft.isPressed()){
-                cameraYaw += rotationSpeed;
-            }
-            if(keyTurnRight.isPressed()){
-                cameraYaw -= rotationSpeed;
-            }
-            Vector3f cameraFront = TowerUtil.getDirection(cameraPitch, cameraYaw);
+            Camera previous = camera.getPrevious(), current = camera.getCurrent();
+            float alpha = camera.getAlpha();
+            Vector3f cameraFront = TowerUtil.getDirection(previous.pitch + (current.pitch - previous.pitch) * alpha,
+                    previous.yaw + (current.yaw - previous.yaw) * alpha);
             Vector3f cameraPos = new Vector3f(cameraFront).negate().mul(10f);
             float scale = 0.01f;
             gl.getState().model(new Matrix4f())
@@ -124,12 +159,42 @@ public class TowerLibDemo extends TowerGame {
             float width = testFont.renderText(0, 100, 48, 0, TowerUtil.color(0xFFFFFFFF), "K to switch fullscreen", "Esc to quit", "M to 3D scene");
             texture.drawRect2D(width, 0);
         }
+        if (profilerOverlay) {
+            getProfiler().drawOverlay(testFont, 400, 0, 16);
+        }
         gl.swapBuffer();
         gl.checkError();
     }
 
+    //--headless [file] renders a few frames offscreen and writes the last one as a png, --osmesa does it without a GPU.
+    //--trace keeps a frame timeline, F12 (or the end of a headless run) writes it out as a Chrome trace.
     public static void main(String[] args) {
         game = new TowerLibDemo();
-        game.run();
+        List<String> list = Arrays.asList(args);
+        if (list.contains("--trace")) {
+            game.getTracer().setTracing(true);
+        }
+        osmesa = list.contains("--osmesa");
+        int headless = list.indexOf("--headless");
+        if (headless == -1 && !osmesa) {
+            game.run();
+            return;
+        }
+        String path = headless != -1 && headless + 1 < args.length && !args[headless + 1].startsWith("--") ? args[headless + 1] : "demo.png";
+        game.runHeadless(800, 600, 3).writePNG(path);
+        game.getLogger().info("Wrote {}", path);
+        game.getProfiler().logSummary();
+        if (game.getTracer().isTracing()) {
+            game.getTracer().dump();
+        }
+    }
+
+    private static class Camera {
+        private final float pitch, yaw;
+
+        private Camera(float pitch, float yaw) {
+            this.pitch = pitch;
+            this.yaw = yaw;
+        }
     }
 }
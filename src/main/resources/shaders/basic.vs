@@ -6,10 +6,13 @@ layout (location = 1) in vec2 aTexcoord;
 out vec2 vTexcoord;
 
 uniform mat4 uModel;
-uniform mat4 uView;
-uniform mat4 uProjection;
+layout (std140) uniform CameraBlock {
+    mat4 uView;
+    mat4 uProjection;
+    mat4 uViewProjection;
+};
 
 void main() {
     vTexcoord = aTexcoord;
-    gl_Position = uProjection * uView * uModel * vec4(aPosition, 1.0);
+    gl_Position = uViewProjection * uModel * vec4(aPosition, 1.0);
 }
\ No newline at end of file
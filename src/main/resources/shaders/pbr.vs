@@ -1,6 +1,7 @@
 #version 410 core
 #define MAX_LIGHTS 4
 #define CSM_COUNT 2
+#define MAX_MORPH_TARGETS 16
 
 layout (location = 0) in vec3 aPosition;
 layout (location = 1) in vec3 aNormal;
@@ -9,56 +10,42 @@ layout (location = 3) in vec2 aTexcoord;
 layout (location = 4) in vec4 aColor;
 layout (location = 5) in ivec4 aJoints;
 layout (location = 6) in vec4 aWeights;
-layout (location = 7) in vec3 aMorphPosition;
-layout (location = 8) in vec3 aMorphNormal;
-layout (location = 9) in vec3 aMorphTangent;
-layout (location = 10) in vec3 aMorphPosition1;
-layout (location = 11) in vec3 aMorphNormal1;
-layout (location = 12) in vec3 aMorphTangent1;
-layout (location = 13) in vec3 aMorphPosition2;
-layout (location = 14) in vec3 aMorphNormal2;
-layout (location = 15) in vec3 aMorphTangent2;
 
 out vec3 vPosition;
 out vec2 vTexcoord;
 out mat3 vTBN;
 out vec4 vCSMPosInLightSpace[CSM_COUNT];
 
-uniform vec3 uMorphWeights;
-uniform JointMatircesBlock {
-    mat4 jointMatrices[1024];
-};
+uniform samplerBuffer uMorphTargets;
+uniform int uMorphCount;
+uniform int uMorphVertexCount;
+uniform int uMorphIndices[MAX_MORPH_TARGETS];
+uniform float uMorphWeights[MAX_MORPH_TARGETS];
+//Quantized positions are mapped back to model space here, after morphing, so the normals don't see the scale.
+uniform vec3 uDequantizeOffset;
+uniform vec3 uDequantizeScale;
 uniform mat4 uCSMLightSpaces[CSM_COUNT];
 
 uniform mat4 uModel;
-uniform mat4 uView;
-uniform mat4 uProjection;
+layout (std140) uniform CameraBlock {
+    mat4 uView;
+    mat4 uProjection;
+    mat4 uViewProjection;
+};
 uniform bool uEnableSkinning;
 
+#include "skinning.glsl"
+
 void main() {
     vec3 morphedPosition = aPosition;
     vec3 morphedNormal = aNormal;
     vec3 morphedTangent = aTangent.xyz;
-    if(uMorphWeights.x > 0.0) {
-        morphedPosition += uMorphWeights.x * aMorphPosition;
-        morphedNormal += uMorphWeights.x * aMorphNormal;
-        morphedTangent += uMorphWeights.x * aMorphTangent;
-    }
-    if(uMorphWeights.y > 0.0) {
-        morphedPosition += uMorphWeights.y * aMorphPosition1;
-        morphedNormal += uMorphWeights.y * aMorphNormal1;
-        morphedTangent += uMorphWeights.y * aMorphTangent1;
-    }
-    if(uMorphWeights.z > 0.0) {
-        morphedPosition += uMorphWeights.z * aMorphPosition2;
-        morphedNormal += uMorphWeights.z * aMorphNormal2;
-        morphedTangent += uMorphWeights.z * aMorphTangent2;
+    for(int i = 0; i < uMorphCount; i++) {
+        morphedPosition += uMorphWeights[i] * texelFetch(uMorphTargets, uMorphIndices[i] * uMorphVertexCount + gl_VertexID).xyz;
     }
+    morphedPosition = uDequantizeOffset + uDequantizeScale * morphedPosition;
     if (uEnableSkinning) {
-        mat4 skinMatrix = aWeights.x * jointMatrices[aJoints.x] +
-        aWeights.y * jointMatrices[aJoints.y] +
-        aWeights.z * jointMatrices[aJoints.z] +
-        aWeights.w * jointMatrices[aJoints.w];
+        mat4 skinMatrix = computeSkinMatrix(aJoints, aWeights);
 
         vec4 skinnedPosition = skinMatrix * vec4(morphedPosition, 1.0);
         vec3 skinnedNormal = mat3(skinMatrix) * morphedNormal;
@@ -66,13 +53,13 @@ void main() {
 
         vec3 N = normalize(mat3(transpose(inverse(uModel))) * skinnedNormal);
         vec3 T = normalize(mat3(uModel) * skinnedTangent);
-        vec3 B = cross(N, T) * aTangent.w;
+        vec3 B = cross(N, T) * sign(aTangent.w);
         vTBN = mat3(T, B, N);
         vPosition = vec3(uModel * skinnedPosition);
     } else {
         vec3 N = normalize(mat3(transpose(inverse(uModel))) * morphedNormal);
         vec3 T = normalize(mat3(uModel) * morphedTangent);
-        vec3 B = cross(N, T) * aTangent.w;
+        vec3 B = cross(N, T) * sign(aTangent.w);
         vTBN = mat3(T, B, N);
         vPosition = vec3(uModel * vec4(morphedPosition, 1.0));
     }
@@ -80,5 +67,5 @@ void main() {
     for(int i = 0; i < CSM_COUNT; i++){
         vCSMPosInLightSpace[i] = uCSMLightSpaces[i] * vec4(vPosition, 1.0);
     }
-    gl_Position = uProjection * uView * vec4(vPosition, 1.0);
+    gl_Position = uViewProjection * vec4(vPosition, 1.0);
 }
\ No newline at end of file
@@ -0,0 +1,64 @@
+#version 410 core
+#define MAX_LIGHTS 4
+#define CSM_COUNT 2
+
+layout (location = 0) in vec3 aPosition;
+layout (location = 1) in vec3 aNormal;
+layout (location = 2) in vec4 aTangent;
+layout (location = 3) in vec2 aTexcoord;
+layout (location = 4) in vec4 aColor;
+layout (location = 5) in ivec4 aJoints;
+layout (location = 6) in vec4 aWeights;
+layout (location = 7) in mat4 aInstanceModel;
+
+out vec3 vPosition;
+out vec2 vTexcoord;
+out mat3 vTBN;
+out vec4 vCSMPosInLightSpace[CSM_COUNT];
+
+uniform mat4 uCSMLightSpaces[CSM_COUNT];
+
+uniform mat4 uModel;
+uniform mat4 uNodeTransform;
+//Quantized positions are mapped back to model space here, so the normals don't see the scale.
+uniform vec3 uDequantizeOffset;
+uniform vec3 uDequantizeScale;
+layout (std140) uniform CameraBlock {
+    mat4 uView;
+    mat4 uProjection;
+    mat4 uViewProjection;
+};
+uniform bool uEnableSkinning;
+
+#include "skinning.glsl"
+
+void main() {
+    mat4 model = uModel * aInstanceModel * uNodeTransform;
+    vec3 morphedPosition = uDequantizeOffset + uDequantizeScale * aPosition;
+    vec3 morphedNormal = aNormal;
+    vec3 morphedTangent = aTangent.xyz;
+    if (uEnableSkinning) {
+        mat4 skinMatrix = computeSkinMatrix(aJoints, aWeights);
+
+        vec4 skinnedPosition = skinMatrix * vec4(morphedPosition, 1.0);
+        vec3 skinnedNormal = mat3(skinMatrix) * morphedNormal;
+        vec3 skinnedTangent = mat3(skinMatrix) * morphedTangent;
+
+        vec3 N = normalize(mat3(transpose(inverse(model))) * skinnedNormal);
+        vec3 T = normalize(mat3(model) * skinnedTangent);
+        vec3 B = cross(N, T) * sign(aTangent.w);
+        vTBN = mat3(T, B, N);
+        vPosition = vec3(model * skinnedPosition);
+    } else {
+        vec3 N = normalize(mat3(transpose(inverse(model))) * morphedNormal);
+        vec3 T = normalize(mat3(model) * morphedTangent);
+        vec3 B = cross(N, T) * sign(aTangent.w);
+        vTBN = mat3(T, B, N);
+        vPosition = vec3(model * vec4(morphedPosition, 1.0));
+    }
+    vTexcoord = aTexcoord;
+    for(int i = 0; i < CSM_COUNT; i++){
+        vCSMPosInLightSpace[i] = uCSMLightSpaces[i] * vec4(vPosition, 1.0);
+    }
+    gl_Position = uViewProjection * vec4(vPosition, 1.0);
+}
\ No newline at end of file
@@ -0,0 +1,43 @@
+//Joint palettes shared by every skinned vertex shader, included after its other declarations.
+uniform JointMatircesBlock {
+    mat4 jointMatrices[1024];
+};
+uniform int uSkinningMode;
+uniform samplerBuffer uJointPalette;
+uniform int uJointOffset;
+
+//uSkinningMode 0: jointMatrices, 1: 3x4 rows in uJointPalette, 2: dual quaternions (real, dual) in uJointPalette, without scale.
+mat4 paletteMatrix(int joint) {
+    int i = uJointOffset + joint * 3;
+    return transpose(mat4(texelFetch(uJointPalette, i), texelFetch(uJointPalette, i + 1), texelFetch(uJointPalette, i + 2), vec4(0.0, 0.0, 0.0, 1.0)));
+}
+
+mat4 computeSkinMatrix(ivec4 joints, vec4 weights) {
+    if (uSkinningMode == 1) {
+        return weights.x * paletteMatrix(joints.x) + weights.y * paletteMatrix(joints.y) +
+        weights.z * paletteMatrix(joints.z) + weights.w * paletteMatrix(joints.w);
+    }
+    if (uSkinningMode == 2) {
+        vec4 first = texelFetch(uJointPalette, uJointOffset + joints.x * 2);
+        vec4 real = vec4(0.0);
+        vec4 dual = vec4(0.0);
+        for (int i = 0; i < 4; i++) {
+            vec4 r = texelFetch(uJointPalette, uJointOffset + joints[i] * 2);
+            //q and -q are the same rotation, blend in the hemisphere of the first joint.
+            float w = dot(r, first) < 0.0 ? -weights[i] : weights[i];
+            real += w * r;
+            dual += w * texelFetch(uJointPalette, uJointOffset + joints[i] * 2 + 1);
+        }
+        float l = length(real);
+        real /= l;
+        dual /= l;
+        vec3 t = 2.0 * (real.w * dual.xyz - dual.w * real.xyz + cross(real.xyz, dual.xyz));
+        float x = real.x, y = real.y, z = real.z, s = real.w;
+        return mat4(1.0 - 2.0 * (y * y + z * z), 2.0 * (x * y + s * z), 2.0 * (x * z - s * y), 0.0,
+        2.0 * (x * y - s * z), 1.0 - 2.0 * (x * x + z * z), 2.0 * (y * z + s * x), 0.0,
+        2.0 * (x * z + s * y), 2.0 * (y * z - s * x), 1.0 - 2.0 * (x * x + y * y), 0.0,
+        t, 1.0);
+    }
+    return weights.x * jointMatrices[joints.x] + weights.y * jointMatrices[joints.y] +
+    weights.z * jointMatrices[joints.z] + weights.w * jointMatrices[joints.w];
+}
\ No newline at end of file
@@ -0,0 +1,39 @@
+#version 410 core
+#define MAX_MORPH_TARGETS 16
+
+layout (location = 0) in vec3 aPosition;
+layout (location = 1) in vec3 aNormal;
+layout (location = 2) in vec4 aTangent;
+layout (location = 3) in vec2 aTexcoord;
+layout (location = 5) in vec4 aJoints;
+layout (location = 6) in vec4 aWeights;
+
+out vec3 vPosition;
+out vec3 vNormal;
+out vec4 vTangent;
+out vec2 vTexcoord;
+
+uniform samplerBuffer uMorphTargets;
+uniform int uMorphCount;
+uniform int uMorphVertexCount;
+uniform int uMorphIndices[MAX_MORPH_TARGETS];
+uniform float uMorphWeights[MAX_MORPH_TARGETS];
+
+#include "skinning.glsl"
+
+//Skins a vertex into model space for transform feedback, drawn as GL_POINTS so gl_VertexID is the vertex index.
+//Joints come in as floats because the VAO uses glVertexAttribPointer, weights are renormalized so integer weights work too.
+void main() {
+    vec3 morphedPosition = aPosition;
+    for(int i = 0; i < uMorphCount; i++) {
+        morphedPosition += uMorphWeights[i] * texelFetch(uMorphTargets, uMorphIndices[i] * uMorphVertexCount + gl_VertexID).xyz;
+    }
+    float total = dot(aWeights, vec4(1.0));
+    vec4 weights = total > 0.0 ? aWeights / total : vec4(1.0, 0.0, 0.0, 0.0);
+    mat4 skinMatrix = computeSkinMatrix(ivec4(aJoints), weights);
+
+    vPosition = vec3(skinMatrix * vec4(morphedPosition, 1.0));
+    vNormal = mat3(skinMatrix) * aNormal;
+    vTangent = vec4(mat3(skinMatrix) * aTangent.xyz, aTangent.w);
+    vTexcoord = aTexcoord;
+}
\ No newline at end of file
@@ -0,0 +1,12 @@
+#version 410 core
+
+in vec3 vTexcoord;
+
+out vec4 fragColor;
+
+uniform vec4 uColor;
+uniform sampler2DArray uTexture;
+
+void main() {
+    fragColor = texture(uTexture, vTexcoord) * uColor;
+}
\ No newline at end of file
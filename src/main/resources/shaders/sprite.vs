@@ -0,0 +1,18 @@
+#version 410 core
+
+layout (location = 0) in vec4 aPosTex;
+layout (location = 1) in float aLayer;
+
+out vec3 vTexcoord;
+
+uniform mat4 uModel;
+layout (std140) uniform CameraBlock {
+    mat4 uView;
+    mat4 uProjection;
+    mat4 uViewProjection;
+};
+
+void main() {
+    vTexcoord = vec3(aPosTex.zw, aLayer);
+    gl_Position = uViewProjection * uModel * vec4(aPosTex.xy, 0.0, 1.0);
+}
\ No newline at end of file
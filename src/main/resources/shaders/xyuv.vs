@@ -5,10 +5,13 @@ layout (location = 0) in vec4 aPosTex;
 out vec2 vTexcoord;
 
 uniform mat4 uModel;
-uniform mat4 uView;
-uniform mat4 uProjection;
+layout (std140) uniform CameraBlock {
+    mat4 uView;
+    mat4 uProjection;
+    mat4 uViewProjection;
+};
 
 void main() {
     vTexcoord = aPosTex.zw;
-    gl_Position = uProjection * uView * uModel * vec4(aPosTex.xy, 0.0, 1.0);
+    gl_Position = uViewProjection * uModel * vec4(aPosTex.xy, 0.0, 1.0);
 }
\ No newline at end of file
@@ -0,0 +1,140 @@
+package com.towergames.towerlib;
+
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+//Every query is checked against testing each box on its own, for the incrementally built tree, after removals and after rebuild().
+public class BVHTest {
+    private static final int BOXES = 2000, QUERIES = 200;
+    private final Random random = new Random(42);
+    private final List<Box> boxes = new ArrayList<>();
+    private BVH<Box> bvh;
+
+    private static class Box {
+        private final Vector3f min, max;
+        private BVH<Box>.Leaf leaf;
+
+        private Box(Vector3f min, Vector3f max) {
+            this.min = min;
+            this.max = max;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        bvh = new BVH<>();
+        for (int i = 0; i < BOXES; i++) {
+            Vector3f min = randomPoint(100.0f);
+            Box box = new Box(min, new Vector3f(random.nextFloat(), random.nextFloat(), random.nextFloat()).mul(4.0f).add(min));
+            box.leaf = bvh.add(box, box.min, box.max);
+            boxes.add(box);
+        }
+    }
+
+    @Test
+    public void raycastMatchesBruteForce() {
+        checkRaycasts();
+        removeSome();
+        checkRaycasts();
+        bvh.rebuild();
+        checkRaycasts();
+    }
+
+    @Test
+    public void frustumQueryMatchesBruteForce() {
+        checkFrustums();
+        removeSome();
+        checkFrustums();
+        bvh.rebuild();
+        checkFrustums();
+    }
+
+    @Test
+    public void rebuildKeepsEveryLeaf() {
+        bvh.rebuild();
+        assertEquals(BOXES, bvh.size());
+        Set<Box> all = new HashSet<>();
+        bvh.queryRange(new Vector3f(Float.NEGATIVE_INFINITY), new Vector3f(Float.POSITIVE_INFINITY), all::add);
+        assertEquals(new HashSet<>(boxes), all);
+        //A binned SAH tree over uniform boxes stays close to log2(2000) = 11.
+        assertTrue("depth " + bvh.getDepth(), bvh.getDepth() < 30);
+    }
+
+    private void checkRaycasts() {
+        for (int i = 0; i < QUERIES; i++) {
+            Vector3f origin = randomPoint(120.0f);
+            Vector3f direction = randomPoint(1.0f).normalize();
+            float maxDistance = i % 2 == 0 ? Float.POSITIVE_INFINITY : 50.0f;
+            float expected = Float.POSITIVE_INFINITY;
+            for (Box box : boxes) {
+                expected = java.lang.Math.min(expected, distance(box, origin, direction, maxDistance));
+            }
+            BVH<Box>.Leaf hit = bvh.raycast(origin, direction, maxDistance);
+            if (expected == Float.POSITIVE_INFINITY) {
+                assertNull(hit);
+            } else {
+                //Boxes overlap, so compare distances rather than which box.
+                assertNotNull(hit);
+                assertEquals(expected, distance(hit.getItem(), origin, direction, maxDistance), 1e-4f);
+            }
+        }
+    }
+
+    private void checkFrustums() {
+        FrustumIntersection frustum = new FrustumIntersection();
+        Matrix4f matrix = new Matrix4f();
+        for (int i = 0; i < QUERIES; i++) {
+            matrix.setPerspective((float) java.lang.Math.toRadians(30.0f + random.nextFloat() * 60.0f), 1.0f + random.nextFloat(), 0.1f, 20.0f + random.nextFloat() * 100.0f)
+                    .lookAt(randomPoint(120.0f), randomPoint(100.0f), new Vector3f(0.0f, 1.0f, 0.0f));
+            frustum.set(matrix, false);
+            Set<Box> expected = new HashSet<>();
+            for (Box box : boxes) {
+                //A culled box returns the index of the plane it's outside of, not OUTSIDE.
+                int r = frustum.intersectAab(box.min, box.max);
+                if (r == FrustumIntersection.INSIDE || r == FrustumIntersection.INTERSECT) {
+                    expected.add(box);
+                }
+            }
+            List<Box> found = new ArrayList<>();
+            bvh.queryFrustum(frustum, found::add);
+            assertEquals(expected.size(), found.size());
+            assertEquals(expected, new HashSet<>(found));
+        }
+    }
+
+    private void removeSome() {
+        for (int i = 0; i < BOXES / 4; i++) {
+            bvh.remove(boxes.remove(random.nextInt(boxes.size())).leaf);
+        }
+        assertEquals(boxes.size(), bvh.size());
+    }
+
+    //Slab test on one box, infinity on a miss.
+    private static float distance(Box box, Vector3f origin, Vector3f direction, float maxDistance) {
+        float tMin = Float.NEGATIVE_INFINITY, tMax = Float.POSITIVE_INFINITY;
+        for (int c = 0; c < 3; c++) {
+            float t1 = (box.min.get(c) - origin.get(c)) / direction.get(c), t2 = (box.max.get(c) - origin.get(c)) / direction.get(c);
+            tMin = java.lang.Math.max(tMin, java.lang.Math.min(t1, t2));
+            tMax = java.lang.Math.min(tMax, java.lang.Math.max(t1, t2));
+        }
+        if (tMax < java.lang.Math.max(tMin, 0.0f) || tMin > maxDistance) {
+            return Float.POSITIVE_INFINITY;
+        }
+        return java.lang.Math.max(tMin, 0.0f);
+    }
+
+    private Vector3f randomPoint(float extent) {
+        return new Vector3f(random.nextFloat() * 2.0f - 1.0f, random.nextFloat() * 2.0f - 1.0f, random.nextFloat() * 2.0f - 1.0f).mul(extent);
+    }
+}
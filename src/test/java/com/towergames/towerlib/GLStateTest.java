@@ -0,0 +1,82 @@
+package com.towergames.towerlib;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.lwjgl.opengl.GL11;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class GLStateTest {
+    private StateTrackingGLBackend backend;
+    private GLHandler gl;
+
+    @Before
+    public void setUp() {
+        backend = new StateTrackingGLBackend();
+        gl = HeadlessGame.start(backend).getGlHandler();
+        backend.reset();
+        gl.resetRedundantCalls();
+    }
+
+    @Test
+    public void redundantCallsAreSkipped() {
+        GLHandler.GLState state = gl.getState();
+        for (int i = 0; i < 3; i++) {
+            state.blend(true).scissorTest(true).scissor(1, 2, 30, 40)
+                    .stencilTest(true).stencilFunc(GL11.GL_EQUAL, 1, 0xFF).stencilOp(GL11.GL_KEEP, GL11.GL_KEEP, GL11.GL_REPLACE).stencilMask(0x0F)
+                    .polygonOffsetFill(true).polygonOffset(1.0f, 2.0f).sampler(3, 9);
+        }
+        assertEquals(Arrays.asList("enable(3042)", "enable(3089)", "scissor(1, 2, 30, 40)", "enable(2960)", "stencilFunc(514, 1, 255)",
+                "stencilOp(7680, 7680, 7681)", "stencilMask(15)", "enable(32823)", "polygonOffset(1.0, 2.0)", "bindSampler(3, 9)"), backend.getCalls());
+        assertEquals(20, gl.getRedundantCalls());
+    }
+
+    @Test
+    public void popStackOnlyRestoresWhatChanged() {
+        GLHandler.GLState state = gl.getState();
+        state.scissor(0, 0, 100, 100).polygonOffset(1.0f, 1.0f);
+        backend.reset();
+        gl.pushStack();
+        gl.getState().blend(true).scissor(10, 10, 20, 20).polygonOffset(1.0f, 1.0f);
+        gl.popStack();
+        assertEquals(Arrays.asList("enable(3042)", "scissor(10, 10, 20, 20)", "disable(3042)", "scissor(0, 0, 100, 100)"),
+                backend.getCalls("enable", "disable", "scissor", "polygonOffset"));
+        assertEquals(0, gl.getState().validate());
+    }
+
+    @Test
+    public void validateMatchesAfterStateChanges() {
+        gl.getState().cullFace(true).cullFront(true).depthFunc(GL11.GL_LEQUAL).blendFunc(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA)
+                .colorMask(false).depthMask(false).stencilFunc(GL11.GL_NOTEQUAL, 2, 0x7F).polygonOffset(-1.0f, -4.0f).rasterizerDiscard(true)
+                .program(gl.basic).texture(2, 5).textureArray(3, 6).sampler(4, 7).unpackAlignment(1);
+        assertEquals(0, gl.getState().validate());
+    }
+
+    @Test
+    public void validateDetectsDrift() {
+        gl.getState().scissorTest(true).scissor(0, 0, 64, 64).stencilMask(0xFF).polygonOffset(1.0f, 1.0f).sampler(0, 3);
+        assertEquals(0, gl.getState().validate());
+        //Calls behind GLState's back: the cache still holds the old values.
+        backend.disable(GL11.GL_SCISSOR_TEST);
+        backend.scissor(0, 0, 32, 32);
+        backend.stencilMask(0x01);
+        backend.polygonOffset(2.0f, 1.0f);
+        backend.bindSampler(0, 4);
+        assertEquals(5, gl.getState().validate());
+    }
+
+    @Test
+    public void popStackValidatesWhenEnabled() {
+        gl.setStateValidation(true);
+        gl.pushStack();
+        gl.getState().depthTest(true);
+        backend.enable(GL11.GL_BLEND);
+        backend.reset();
+        gl.popStack();
+        assertFalse(backend.getCalls("isEnabled").isEmpty());
+        assertEquals(Collections.singletonList("disable(2929)"), backend.getCalls("disable"));
+    }
+}
@@ -0,0 +1,57 @@
+package com.towergames.towerlib;
+
+import org.joml.Matrix4f;
+import org.joml.Vector4f;
+import org.junit.Test;
+import org.lwjgl.opengl.GL11;
+
+import static org.junit.Assert.*;
+
+public class HeadlessGameTest {
+    //The demo's doRender without the font and the model, which aren't in the resources.
+    private static class Game extends HeadlessGame {
+        private GLHandler.Texture texture;
+
+        @Override
+        protected void init() {
+            super.init();
+            texture = getGlHandler().loadTexture("textures/uv.png", true, true);
+        }
+
+        @Override
+        protected void doRender() {
+            super.doRender();
+            GLHandler gl = getGlHandler();
+            gl.getState().viewport(0, 0, 640, 480);
+            gl.getState().clearColor(TowerUtil.color(0xFF7CA0A0));
+            gl.clearColor();
+            gl.clearDepth();
+            gl.getState().cullFace(true).depthTest(true).blend(true).blendFunc(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA);
+            gl.getState().model(new Matrix4f()).view(new Matrix4f().lookAt(0.0f, 0.0f, 10.0f, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f))
+                    .projection(new Matrix4f().ortho(-3.2f, 3.2f, -2.4f, 2.4f, 0.1f, 100.0f));
+            gl.getState().texture0(texture);
+            gl.basic.uniform("uColor", new Vector4f(1.0f, 1.0f, 1.0f, 1.0f)).uniform("uTexture", 0);
+            gl.getState().pushMVP();
+            gl.getState().model.scale(8f).translate(-0.5f, -0.5f, 0.0f);
+            gl.getState().applyMVP();
+            gl.vaoRect.drawElements();
+            gl.getState().popMVP();
+            gl.drawRect2D(0, 0, 100, 100, TowerUtil.color(0xFFABCDEF));
+            texture.drawRect2D(100, 0);
+            gl.swapBuffer();
+            gl.checkError();
+        }
+    }
+
+    @Test
+    public void rendersFramesWithoutAWindow() {
+        Game game = HeadlessGame.start(new Game());
+        RecordingGLBackend backend = game.getBackend();
+        backend.reset();
+        game.runFrames(3);
+        assertEquals(3, backend.getFrames());
+        assertEquals(3, backend.getCallCount("swapBuffers"));
+        //vaoRect plus the two rects, every frame.
+        assertEquals(9, backend.getDrawCalls());
+    }
+}
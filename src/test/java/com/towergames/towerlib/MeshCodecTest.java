@@ -0,0 +1,118 @@
+package com.towergames.towerlib;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MeshCodecTest {
+    //The index buffer and encoding from meshoptimizer's own codec tests.
+    private static final int[] FIXTURE_INDICES = {0, 1, 2, 2, 1, 3, 4, 6, 5, 7, 8, 9};
+    private static final int[] FIXTURE_DATA = {0xe1, 0xf0, 0x10, 0xfe, 0xff, 0xf0, 0x0c, 0xff, 0x02, 0x02, 0x02, 0x00,
+            0x76, 0x87, 0x56, 0x67, 0x78, 0xa9, 0x86, 0x65, 0x89, 0x68, 0x98, 0x01, 0x69, 0x00, 0x00};
+    private final Random random = new Random(7);
+
+    @Test
+    public void indexBufferMatchesMeshoptimizer() {
+        byte[] data = new byte[FIXTURE_DATA.length];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) FIXTURE_DATA[i];
+        }
+        assertArrayEquals(data, MeshCodec.encodeIndexBuffer(FIXTURE_INDICES));
+        assertArrayEquals(FIXTURE_INDICES, MeshCodec.decodeIndexBuffer(FIXTURE_INDICES.length, ByteBuffer.wrap(data)));
+    }
+
+    //Vertex sizes from a single float to the 256 byte maximum, counts across block boundaries and partial groups.
+    @Test
+    public void vertexBufferRoundTrip() {
+        for (int vertexSize : new int[]{4, 12, 20, 32, 256}) {
+            for (int vertexCount : new int[]{1, 15, 17, 300, 5000}) {
+                float[] vertices = new float[vertexCount * vertexSize / 4];
+                int floats = vertexSize / 4;
+                for (int i = 0; i < vertexCount; i++) {
+                    for (int c = 0; c < floats; c++) {
+                        //Smooth attributes like a real mesh, with some noise so every group width shows up.
+                        vertices[i * floats + c] = (float) java.lang.Math.sin(i * 0.01 + c) * 10.0f + (c % 3 == 0 ? random.nextFloat() : 0.0f);
+                    }
+                }
+                byte[] encoded = MeshCodec.encodeVertexBuffer(vertices, vertexSize);
+                assertArrayEquals(vertexSize + "/" + vertexCount, vertices, MeshCodec.decodeVertexBuffer(vertexCount, vertexSize, ByteBuffer.wrap(encoded)), 0.0f);
+            }
+        }
+    }
+
+    @Test
+    public void vertexBufferRoundTripRandomBytes() {
+        int vertexCount = 1000, vertexSize = 16;
+        byte[] bytes = new byte[vertexCount * vertexSize];
+        random.nextBytes(bytes);
+        byte[] encoded = MeshCodec.encodeVertexBuffer(ByteBuffer.wrap(bytes), vertexCount, vertexSize);
+        ByteBuffer decoded = ByteBuffer.allocate(bytes.length).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer source = ByteBuffer.wrap(encoded);
+        MeshCodec.decodeVertexBuffer(decoded, vertexCount, vertexSize, source);
+        assertEquals(bytes.length, decoded.position());
+        assertEquals(0, source.remaining());
+        assertArrayEquals(bytes, decoded.array());
+    }
+
+    //The encoder may rotate a triangle to reuse an edge, so triangles are compared up to rotation, keeping the winding.
+    @Test
+    public void indexBufferRoundTrip() {
+        int size = 40;
+        int[] grid = new int[(size - 1) * (size - 1) * 6];
+        int n = 0;
+        for (int y = 0; y < size - 1; y++) {
+            for (int x = 0; x < size - 1; x++) {
+                int i = y * size + x;
+                grid[n++] = i;
+                grid[n++] = i + size;
+                grid[n++] = i + 1;
+                grid[n++] = i + 1;
+                grid[n++] = i + size;
+                grid[n++] = i + size + 1;
+            }
+        }
+        int[] scattered = new int[3000];
+        for (int i = 0; i < scattered.length; i++) {
+            scattered[i] = random.nextInt(100000);
+        }
+        for (int[] indices : new int[][]{grid, scattered}) {
+            byte[] encoded = MeshCodec.encodeIndexBuffer(indices);
+            int[] decoded = MeshCodec.decodeIndexBuffer(indices.length, ByteBuffer.wrap(encoded));
+            assertEquals(indices.length, decoded.length);
+            for (int t = 0; t < indices.length; t += 3) {
+                assertTrue("triangle " + t / 3, sameTriangle(indices, decoded, t));
+            }
+        }
+    }
+
+    @Test
+    public void truncatedDataThrows() {
+        byte[] vertices = MeshCodec.encodeVertexBuffer(new float[]{1.0f, 2.0f, 3.0f, 4.0f, 5.0f, 6.0f}, 12);
+        byte[] indices = MeshCodec.encodeIndexBuffer(FIXTURE_INDICES);
+        try {
+            MeshCodec.decodeVertexBuffer(2, 12, ByteBuffer.wrap(vertices, 0, vertices.length - 1));
+            fail("truncated vertex buffer decoded");
+        } catch (RuntimeException e) {
+            assertEquals("Malformed vertex buffer", e.getMessage());
+        }
+        try {
+            MeshCodec.decodeIndexBuffer(FIXTURE_INDICES.length, ByteBuffer.wrap(indices, 0, indices.length - 1));
+            fail("truncated index buffer decoded");
+        } catch (RuntimeException e) {
+            assertEquals("Malformed index buffer", e.getMessage());
+        }
+    }
+
+    private static boolean sameTriangle(int[] a, int[] b, int t) {
+        for (int r = 0; r < 3; r++) {
+            if (a[t] == b[t + r] && a[t + 1] == b[t + (r + 1) % 3] && a[t + 2] == b[t + (r + 2) % 3]) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,84 @@
+package com.towergames.towerlib;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.lwjgl.opengl.GL11;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class RecordingGLBackendTest {
+    @Test
+    public void recordsCallsWithArguments() {
+        RecordingGLBackend backend = new RecordingGLBackend();
+        backend.enable(GL11.GL_BLEND);
+        backend.polygonOffset(1.5f, -2.0f);
+        backend.uniformMatrix4fv(7, false, new float[16]);
+        int location = backend.getUniformLocation(3, "uColor");
+        assertEquals(Arrays.asList("enable(3042)", "polygonOffset(1.5, -2.0)", "uniformMatrix4fv(7, false, 16)", "getUniformLocation(3, uColor)"),
+                backend.getCalls());
+        assertEquals(Arrays.asList("enable(3042)"), backend.getCalls("enable"));
+        assertEquals(-2.0f, backend.getCallFloatArg(1, 1), 0.0f);
+        assertEquals("uColor", backend.getCallObject(3));
+        assertEquals(location + 1, backend.getUniformLocation(3, "uTexture"));
+    }
+
+    @Test
+    public void keepsTheLastCapacityCalls() {
+        RecordingGLBackend backend = new RecordingGLBackend(4);
+        for (int i = 0; i < 6; i++) {
+            backend.bindVertexArray(i);
+        }
+        backend.drawArrays(GL11.GL_TRIANGLES, 0, 3);
+        assertEquals(4, backend.getRecordedCalls());
+        assertEquals(Arrays.asList("bindVertexArray(3)", "bindVertexArray(4)", "bindVertexArray(5)", "drawArrays(4, 0, 3)"), backend.getCalls());
+        assertEquals(6, backend.getCallCount("bindVertexArray"));
+        assertEquals(7, backend.getTotalCalls());
+        assertEquals(1, backend.getDrawCalls());
+    }
+
+    @Test
+    public void resetClearsCountsButNotIds() {
+        RecordingGLBackend backend = new RecordingGLBackend();
+        int buffer = backend.genBuffers();
+        backend.reset();
+        assertEquals(0, backend.getRecordedCalls());
+        assertEquals(0, backend.getCallCount("genBuffers"));
+        assertTrue(backend.getCallCounts().isEmpty());
+        assertNotEquals(buffer, backend.genBuffers());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void unknownCallNameFails() {
+        new RecordingGLBackend().getCallCount("glEnable");
+    }
+
+    //Benchmarks run on this backend with the gc profiler, recording must not show up in their allocation rate.
+    @Test
+    public void recordingDoesNotAllocate() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        RecordingGLBackend backend = new RecordingGLBackend(1024);
+        float[] matrix = new float[16];
+        for (int i = 0; i < 20000; i++) {
+            calls(backend, matrix, i);
+        }
+        long id = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(id);
+        for (int i = 0; i < 20000; i++) {
+            calls(backend, matrix, i);
+        }
+        assertTrue("allocated", threads.getThreadAllocatedBytes(id) - before < 1024);
+    }
+
+    private void calls(RecordingGLBackend backend, float[] matrix, int i) {
+        backend.useProgram(i);
+        backend.uniformMatrix4fv(1, false, matrix);
+        backend.uniform1f(2, i * 0.5f);
+        backend.colorMask(true, false, true, false);
+        backend.drawElementsInstanced(GL11.GL_TRIANGLES, 36, GL11.GL_UNSIGNED_INT, 0L, i);
+    }
+}
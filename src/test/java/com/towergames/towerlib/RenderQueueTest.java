@@ -0,0 +1,117 @@
+package com.towergames.towerlib;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.lwjgl.opengl.GL11;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RenderQueueTest {
+    private RecordingGLBackend backend;
+    private GLHandler gl;
+    private GLHandler.RenderQueue queue;
+    private int basic, xyuv, white, normal, rect, box;
+
+    @Before
+    public void setUp() {
+        backend = new RecordingGLBackend();
+        gl = HeadlessGame.start(backend).getGlHandler();
+        queue = gl.createRenderQueue();
+        GLHandler.GLState state = gl.getState();
+        basic = bound("useProgram", 0, () -> state.program(gl.basic));
+        xyuv = bound("useProgram", 0, () -> state.program(gl.xyuv));
+        white = bound("bindTexture", 1, () -> state.texture0(gl.white));
+        normal = bound("bindTexture", 1, () -> state.texture0(gl.defaultNormal));
+        rect = bound("bindVertexArray", 0, () -> gl.vaoRect.drawElements());
+        box = bound("bindVertexArray", 0, () -> gl.vaoBox.drawElements());
+        state.program(null).vao(0, 0).texture0(0);
+        backend.reset();
+    }
+
+    //The GL name an object was bound with, the ids themselves are private.
+    private int bound(String call, int arg, Runnable bind) {
+        backend.reset();
+        bind.run();
+        for (int i = backend.getRecordedCalls() - 1; i >= 0; i--) {
+            if (backend.getCallName(i).equals(call)) {
+                return backend.getCallArg(i, arg);
+            }
+        }
+        throw new AssertionError("no " + call);
+    }
+
+    @Test
+    public void flushGroupsDrawsByState() {
+        queue.submit(gl.basic, gl.vaoRect).texture(0, gl.white).depth(0.6f);
+        queue.submit(gl.xyuv, gl.vaoBox).texture(0, gl.defaultNormal);
+        queue.submit(gl.basic, gl.vaoBox).texture(0, gl.white);
+        queue.submit(gl.xyuv, gl.vaoRect).texture(0, gl.defaultNormal);
+        queue.submit(gl.basic, gl.vaoRect).texture(0, gl.white).depth(0.2f).range(GL11.GL_TRIANGLES, 0, 3);
+        queue.flush();
+        //basic before xyuv (submission order), then by VAO, nearest first within the same state.
+        assertEquals(Arrays.asList(
+                "useProgram(" + basic + ")", "bindTexture(3553, " + white + ")", "bindVertexArray(" + rect + ")",
+                "drawElements(4, 3, 5125, 0)", "drawElements(4, 6, 5125, 0)",
+                "bindVertexArray(" + box + ")", "drawElements(4, 36, 5125, 0)",
+                "useProgram(" + xyuv + ")", "bindTexture(3553, " + normal + ")", "bindVertexArray(" + rect + ")",
+                "drawElements(4, 6, 5125, 0)",
+                "bindVertexArray(" + box + ")", "drawElements(4, 36, 5125, 0)"),
+                backend.getCalls("useProgram", "bindTexture", "bindVertexArray", "drawElements"));
+        GLHandler.RenderQueue.Stats stats = queue.getStats();
+        assertEquals(5, stats.getItems());
+        assertEquals(5, stats.getDrawCalls());
+        assertEquals(2, stats.getProgramChanges());
+        assertEquals(2, stats.getTextureChanges());
+        assertEquals(4, stats.getVAOChanges());
+    }
+
+    @Test
+    public void adjacentRangesMerge() {
+        queue.submit(gl.basic, gl.vaoBox).range(GL11.GL_TRIANGLES, 0, 6);
+        queue.submit(gl.basic, gl.vaoBox).range(GL11.GL_TRIANGLES, 6, 6);
+        queue.submit(gl.basic, gl.vaoBox).range(GL11.GL_TRIANGLES, 18, 6);
+        queue.flush();
+        assertEquals(Arrays.asList("drawElements(4, 12, 5125, 0)", "drawElements(4, 6, 5125, 72)"), backend.getCalls("drawElements"));
+        assertEquals(1, queue.getStats().getMergedDraws());
+    }
+
+    @Test
+    public void materialSetupRunsOncePerGroup() {
+        int[] setups = new int[1];
+        Object material = new Object();
+        for (int i = 0; i < 4; i++) {
+            queue.submit(i % 2 == 0 ? gl.basic : gl.xyuv, gl.vaoRect).material(material, program -> setups[0]++);
+        }
+        queue.flush();
+        assertEquals(2, setups[0]);
+        assertEquals(2, queue.getStats().getMaterialChanges());
+    }
+
+    //Ids are per flush: many programs over many frames are fine, only too many in one flush fail.
+    @Test
+    public void idsDontAccumulateAcrossFlushes() {
+        List<GLHandler.Program> programs = new ArrayList<>();
+        for (int i = 0; i < 1024; i++) {
+            programs.add(gl.createProgram("shaders/basic.vs", "shaders/basic.fs"));
+        }
+        for (int frame = 0; frame < 4; frame++) {
+            for (int i = 0; i < 600; i++) {
+                queue.submit(programs.get((frame * 600 + i) % programs.size()), gl.vaoRect);
+            }
+            queue.flush();
+        }
+        for (GLHandler.Program program : programs) {
+            queue.submit(program, gl.vaoRect);
+        }
+        try {
+            queue.flush();
+            fail("1024 programs don't fit the 10 bit program field");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("1023 programs"));
+        }
+    }
+}
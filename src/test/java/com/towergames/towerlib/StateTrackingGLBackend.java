@@ -0,0 +1,309 @@
+package com.towergames.towerlib;
+
+import org.lwjgl.opengl.*;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+//Records like its parent and also keeps the state GLState caches, answering glGet from it the way a driver would, so
+//validate() has something real to compare against. Element array bindings are per vertex array, as in GL.
+public class StateTrackingGLBackend extends RecordingGLBackend {
+    private final Set<Integer> enabled = new HashSet<>();
+    private final Map<Integer, Integer> integers = new HashMap<>();
+    private final Map<Integer, Integer> elementBuffers = new HashMap<>();
+    private final int[][] textures = new int[3][16];
+    private final int[] samplers = new int[16];
+    private final int[] scissor = new int[4], viewport = new int[4];
+    private final float[] clearColor = new float[4];
+    private boolean colorMask = true, depthMask = true;
+    private float polygonOffsetFactor, polygonOffsetUnits;
+
+    public StateTrackingGLBackend() {
+        integers.put(GL11.GL_CULL_FACE_MODE, GL11.GL_BACK);
+        integers.put(GL11.GL_DEPTH_FUNC, GL11.GL_LESS);
+        integers.put(GL14.GL_BLEND_SRC_RGB, GL11.GL_ONE);
+        integers.put(GL14.GL_BLEND_DST_RGB, GL11.GL_ZERO);
+        integers.put(GL11.GL_STENCIL_FUNC, GL11.GL_ALWAYS);
+        integers.put(GL11.GL_STENCIL_VALUE_MASK, -1);
+        integers.put(GL11.GL_STENCIL_WRITEMASK, -1);
+        integers.put(GL11.GL_STENCIL_FAIL, GL11.GL_KEEP);
+        integers.put(GL11.GL_STENCIL_PASS_DEPTH_FAIL, GL11.GL_KEEP);
+        integers.put(GL11.GL_STENCIL_PASS_DEPTH_PASS, GL11.GL_KEEP);
+        integers.put(GL11.GL_UNPACK_ALIGNMENT, 4);
+        integers.put(GL13.GL_ACTIVE_TEXTURE, GL13.GL_TEXTURE0);
+    }
+
+    @Override
+    public void enable(int cap) {
+        super.enable(cap);
+        enabled.add(cap);
+    }
+
+    @Override
+    public void disable(int cap) {
+        super.disable(cap);
+        enabled.remove(cap);
+    }
+
+    @Override
+    public boolean isEnabled(int cap) {
+        super.isEnabled(cap);
+        return enabled.contains(cap);
+    }
+
+    @Override
+    public void cullFace(int mode) {
+        super.cullFace(mode);
+        integers.put(GL11.GL_CULL_FACE_MODE, mode);
+    }
+
+    @Override
+    public void depthFunc(int func) {
+        super.depthFunc(func);
+        integers.put(GL11.GL_DEPTH_FUNC, func);
+    }
+
+    @Override
+    public void blendFunc(int srcFactor, int dstFactor) {
+        super.blendFunc(srcFactor, dstFactor);
+        integers.put(GL14.GL_BLEND_SRC_RGB, srcFactor);
+        integers.put(GL14.GL_BLEND_DST_RGB, dstFactor);
+    }
+
+    @Override
+    public void colorMask(boolean red, boolean green, boolean blue, boolean alpha) {
+        super.colorMask(red, green, blue, alpha);
+        colorMask = red;
+    }
+
+    @Override
+    public void depthMask(boolean flag) {
+        super.depthMask(flag);
+        depthMask = flag;
+    }
+
+    @Override
+    public void scissor(int x, int y, int width, int height) {
+        super.scissor(x, y, width, height);
+        scissor[0] = x;
+        scissor[1] = y;
+        scissor[2] = width;
+        scissor[3] = height;
+    }
+
+    @Override
+    public void viewport(int x, int y, int width, int height) {
+        super.viewport(x, y, width, height);
+        viewport[0] = x;
+        viewport[1] = y;
+        viewport[2] = width;
+        viewport[3] = height;
+    }
+
+    @Override
+    public void stencilFunc(int func, int ref, int mask) {
+        super.stencilFunc(func, ref, mask);
+        integers.put(GL11.GL_STENCIL_FUNC, func);
+        integers.put(GL11.GL_STENCIL_REF, ref);
+        integers.put(GL11.GL_STENCIL_VALUE_MASK, mask);
+    }
+
+    @Override
+    public void stencilOp(int fail, int depthFail, int depthPass) {
+        super.stencilOp(fail, depthFail, depthPass);
+        integers.put(GL11.GL_STENCIL_FAIL, fail);
+        integers.put(GL11.GL_STENCIL_PASS_DEPTH_FAIL, depthFail);
+        integers.put(GL11.GL_STENCIL_PASS_DEPTH_PASS, depthPass);
+    }
+
+    @Override
+    public void stencilMask(int mask) {
+        super.stencilMask(mask);
+        integers.put(GL11.GL_STENCIL_WRITEMASK, mask);
+    }
+
+    @Override
+    public void polygonOffset(float factor, float units) {
+        super.polygonOffset(factor, units);
+        polygonOffsetFactor = factor;
+        polygonOffsetUnits = units;
+    }
+
+    @Override
+    public void clearColor(float red, float green, float blue, float alpha) {
+        super.clearColor(red, green, blue, alpha);
+        clearColor[0] = red;
+        clearColor[1] = green;
+        clearColor[2] = blue;
+        clearColor[3] = alpha;
+    }
+
+    @Override
+    public void pixelStorei(int pname, int param) {
+        super.pixelStorei(pname, param);
+        integers.put(pname, param);
+    }
+
+    @Override
+    public void useProgram(int program) {
+        super.useProgram(program);
+        integers.put(GL20.GL_CURRENT_PROGRAM, program);
+    }
+
+    @Override
+    public void bindVertexArray(int array) {
+        super.bindVertexArray(array);
+        integers.put(GL30.GL_VERTEX_ARRAY_BINDING, array);
+    }
+
+    @Override
+    public void bindBuffer(int target, int buffer) {
+        super.bindBuffer(target, buffer);
+        if (target == GL15.GL_ELEMENT_ARRAY_BUFFER) {
+            elementBuffers.put(integers.getOrDefault(GL30.GL_VERTEX_ARRAY_BINDING, 0), buffer);
+        } else {
+            integers.put(binding(target), buffer);
+        }
+    }
+
+    //Binding to an indexed target binds the generic one too.
+    @Override
+    public void bindBufferBase(int target, int index, int buffer) {
+        super.bindBufferBase(target, index, buffer);
+        integers.put(binding(target), buffer);
+    }
+
+    @Override
+    public void bindFramebuffer(int target, int framebuffer) {
+        super.bindFramebuffer(target, framebuffer);
+        integers.put(GL30.GL_FRAMEBUFFER_BINDING, framebuffer);
+    }
+
+    @Override
+    public void activeTexture(int texture) {
+        super.activeTexture(texture);
+        integers.put(GL13.GL_ACTIVE_TEXTURE, texture);
+    }
+
+    @Override
+    public void bindTexture(int target, int texture) {
+        super.bindTexture(target, texture);
+        textures[textureTarget(target)][unit()] = texture;
+    }
+
+    @Override
+    public void bindSampler(int unit, int sampler) {
+        super.bindSampler(unit, sampler);
+        samplers[unit] = sampler;
+    }
+
+    @Override
+    public int getInteger(int pname) {
+        super.getInteger(pname);
+        return integer(pname);
+    }
+
+    //The lookups don't go through the overridden gets, so answering one doesn't record others.
+    private int integer(int pname) {
+        switch (pname) {
+            case GL15.GL_ELEMENT_ARRAY_BUFFER_BINDING:
+                return elementBuffers.getOrDefault(integers.getOrDefault(GL30.GL_VERTEX_ARRAY_BINDING, 0), 0);
+            case GL11.GL_TEXTURE_BINDING_2D:
+                return textures[0][unit()];
+            case GL30.GL_TEXTURE_BINDING_2D_ARRAY:
+                return textures[1][unit()];
+            case GL31.GL_TEXTURE_BINDING_BUFFER:
+                return textures[2][unit()];
+            case GL33.GL_SAMPLER_BINDING:
+                return samplers[unit()];
+            default:
+                return integers.getOrDefault(pname, 0);
+        }
+    }
+
+    @Override
+    public void getIntegerv(int pname, IntBuffer params) {
+        super.getIntegerv(pname, params);
+        if (pname == GL11.GL_SCISSOR_BOX) {
+            params.put(0, scissor[0]).put(1, scissor[1]).put(2, scissor[2]).put(3, scissor[3]);
+        } else if (pname == GL11.GL_VIEWPORT) {
+            params.put(0, viewport[0]).put(1, viewport[1]).put(2, viewport[2]).put(3, viewport[3]);
+        } else {
+            params.put(0, integer(pname));
+        }
+    }
+
+    @Override
+    public boolean getBoolean(int pname) {
+        super.getBoolean(pname);
+        return pname == GL11.GL_DEPTH_WRITEMASK ? depthMask : integer(pname) != 0;
+    }
+
+    @Override
+    public void getBooleanv(int pname, ByteBuffer params) {
+        super.getBooleanv(pname, params);
+        byte value = (byte) ((pname == GL11.GL_COLOR_WRITEMASK ? colorMask : integer(pname) != 0) ? 1 : 0);
+        for (int i = 0; i < params.remaining(); i++) {
+            params.put(i, value);
+        }
+    }
+
+    @Override
+    public float getFloat(int pname) {
+        super.getFloat(pname);
+        return floating(pname);
+    }
+
+    private float floating(int pname) {
+        if (pname == GL11.GL_POLYGON_OFFSET_FACTOR) {
+            return polygonOffsetFactor;
+        } else if (pname == GL11.GL_POLYGON_OFFSET_UNITS) {
+            return polygonOffsetUnits;
+        }
+        return integer(pname);
+    }
+
+    @Override
+    public void getFloatv(int pname, FloatBuffer params) {
+        super.getFloatv(pname, params);
+        if (pname == GL11.GL_COLOR_CLEAR_VALUE) {
+            params.put(0, clearColor[0]).put(1, clearColor[1]).put(2, clearColor[2]).put(3, clearColor[3]);
+        } else {
+            params.put(0, floating(pname));
+        }
+    }
+
+    private int unit() {
+        return integers.get(GL13.GL_ACTIVE_TEXTURE) - GL13.GL_TEXTURE0;
+    }
+
+    private static int textureTarget(int target) {
+        switch (target) {
+            case GL11.GL_TEXTURE_2D:
+                return 0;
+            case GL30.GL_TEXTURE_2D_ARRAY:
+                return 1;
+            case GL31.GL_TEXTURE_BUFFER:
+                return 2;
+            default:
+                throw new RuntimeException("Untracked texture target: " + target);
+        }
+    }
+
+    private static int binding(int target) {
+        switch (target) {
+            case GL15.GL_ARRAY_BUFFER:
+                return GL15.GL_ARRAY_BUFFER_BINDING;
+            case GL31.GL_UNIFORM_BUFFER:
+                return GL31.GL_UNIFORM_BUFFER_BINDING;
+            default:
+                //Other targets aren't cached by GLState, keep them apart from everything it checks.
+                return -target;
+        }
+    }
+}